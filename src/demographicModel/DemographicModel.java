@@ -5,7 +5,9 @@ import java.util.List;
 
 import cern.jet.random.engine.RandomEngine;
 
+import dnaModels.MutationTable;
 import fitnessProviders.FitnessProvider;
+import fitnessProviders.InfiniteSitesFitness;
 
 import population.Population;
 import statistics.Collectible;
@@ -42,6 +44,28 @@ public abstract class DemographicModel extends XMLParseable {
 		}
 	}
 	
+	/**
+	 * Under the infinite-sites model, remove the mutations that have been lost from every population from the MutationTable
+	 * the populations share, once the table has grown enough to make this worthwhile. Nothing is removed if any population
+	 * preserves ancestral data, since the mutations of ancestors aren't renumbered. This is called after each generation.
+	 */
+	public void compactMutationTables() {
+		Population first = getPop(0);
+		if (first.size()==0 || ! (first.getFitnessModel() instanceof InfiniteSitesFitness))
+			return;
+		MutationTable table = ((InfiniteSitesFitness)first.getFitnessModel()).getGenome().getMutationTable();
+		if (! table.needsCompaction())
+			return;
+		
+		List<FitnessProvider> live = new ArrayList<FitnessProvider>();
+		for(Population pop : getPopList()) {
+			if (pop.getPreservesAncestralData())
+				return;
+			pop.collectLiveData(live);
+		}
+		InfiniteSitesFitness.compactMutations(live);
+	}
+	
 	/**
 	 * Initialize all populations with the given random engine and fitness model. This must be called
 	 * prior to reproduce()
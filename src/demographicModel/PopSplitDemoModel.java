@@ -10,6 +10,7 @@ import demographicModel.MultiPopCollectible.Strategy;
 import dnaModels.DNASequence;
 import fitnessProviders.DNAFitness;
 import gui.OutputManager;
+import mutationModels.MutationModel;
 
 import population.Locus;
 import population.Population;
@@ -34,6 +35,8 @@ public class PopSplitDemoModel extends MultiPopDemoModel {
 	public static final String XML_MIG21 = "mig21";
 	public static final String XML_SAMPLESTRATEGY = "sampling.strategy";
 	public static final String XML_SINGLEPOP = "sample.pop";
+	public static final String XML_MUTRATE1 = "pop1.mutation.rate";
+	public static final String XML_MUTRATE2 = "pop2.mutation.rate";
 
 	//double reducedMigrationFactor = 0.0; //1 indicates mismatched types don't migrate at all
 	
@@ -54,6 +57,10 @@ public class PopSplitDemoModel extends MultiPopDemoModel {
 	Poisson poiGen;
 	Uniform uniGen;
 	
+	//Per-site mutation rates of the descendant populations, or negative to keep the rate of the ancestral population
+	double popOneMutationRate = -1;
+	double popTwoMutationRate = -1;
+	
 	public PopSplitDemoModel(int p0, int p1, int p2, int t0, double m12, double m21) {
 		super(TJXMLConstants.DEMOGRAPHIC_MODEL);
 		
@@ -101,6 +108,42 @@ public class PopSplitDemoModel extends MultiPopDemoModel {
 //		return false;
 //	}
 	
+	/**
+	 * Give the two descendant populations their own per-site mutation rates after the split. Each gets a copy of the 
+	 * ancestral mutation model with the new rate (see MutationModel.getCopy). Either rate may be negative, in which case that
+	 * population keeps the ancestral model. Migrants adopt the model of the population they move to.
+	 * @param popOneRate
+	 * @param popTwoRate
+	 */
+	public void setDescendantMutationRates(double popOneRate, double popTwoRate) {
+		popOneMutationRate = popOneRate;
+		popTwoMutationRate = popTwoRate;
+		if (popOneRate >= 0)
+			addXMLAttr(XML_MUTRATE1, String.valueOf(popOneRate));
+		else
+			removeXMLAttr(XML_MUTRATE1);
+		if (popTwoRate >= 0)
+			addXMLAttr(XML_MUTRATE2, String.valueOf(popTwoRate));
+		else
+			removeXMLAttr(XML_MUTRATE2);
+	}
+	
+	/**
+	 * A copy of the mutation model of the ancestral population with the given rate, or null if the rate is negative or
+	 * the ancestral individuals have no mutation model
+	 * @param rate
+	 * @return
+	 */
+	private MutationModel descendantMutationModel(double rate) {
+		if (rate < 0)
+			return null;
+		if (! (ancPop.getFitnessModel() instanceof DNAFitness)) {
+			System.err.println("Fitness model " + ancPop.getFitnessModel().getClass().getSimpleName() + " has no mutation model, ignoring descendant mutation rate");
+			return null;
+		}
+		return ((DNAFitness)ancPop.getFitnessModel()).getMutationModel().getCopy(rng, rate);
+	}
+	
 	public void setSamplingStrategy(MultiPopCollectible.Strategy strat, int popNum) {
 		this.samplingStrategy = strat;
 		this.singlePopNum = popNum;
@@ -129,6 +172,12 @@ public class PopSplitDemoModel extends MultiPopDemoModel {
 			
 			pop1.initialize(rng, ancPop, Math.min(popOneSize, ancPop.size()));
 			pop2.initialize(rng, ancPop, Math.min(popTwoSize, ancPop.size()));
+			MutationModel popOneModel = descendantMutationModel(popOneMutationRate);
+			MutationModel popTwoModel = descendantMutationModel(popTwoMutationRate);
+			if (popOneModel != null)
+				pop1.setMutationModel(popOneModel);
+			if (popTwoModel != null)
+				pop2.setMutationModel(popTwoModel);
 			
 			pop1.newGen(popOneSize);
 			pop2.newGen(popTwoSize);
@@ -175,7 +224,16 @@ public class PopSplitDemoModel extends MultiPopDemoModel {
 
 	@Override
 	public String getDescription() {
-		return "Population split model with ancestral size: " + ancestralPopSize + "\n pop 1 size: " + popOneSize + "\n pop 2 size: " + popTwoSize + "\n Split time: " + splittingTime + "\n Migration 1->2: " + m12 + "\n Migration 2->1: " + m21 + "\n";
+		return "Population split model with ancestral size: " + ancestralPopSize + "\n pop 1 size: " + popOneSize + "\n pop 2 size: " + popTwoSize + "\n Split time: " + splittingTime + "\n Migration 1->2: " + m12 + "\n Migration 2->1: " + m21 + "\n" + mutationRateDescription();
+	}
+	
+	private String mutationRateDescription() {
+		String desc = "";
+		if (popOneMutationRate >= 0)
+			desc = desc + " Pop 1 mutation rate: " + popOneMutationRate + "\n";
+		if (popTwoMutationRate >= 0)
+			desc = desc + " Pop 2 mutation rate: " + popTwoMutationRate + "\n";
+		return desc;
 	}
 
 	
@@ -37,6 +37,17 @@ public abstract class SimpleDemographicModel extends DemographicModel {
 	}
 	
 	
+	/**
+	 * Replace the population used by this model, for instance with a CompactPopulation. This must be called before
+	 * initializePopulations. 
+	 * @param newPop
+	 */
+	public void setPopulation(Population newPop) {
+		popList.remove(pop);
+		this.pop = newPop;
+		popList.add(pop);
+	}
+	
 	/**
 	 * We just return the population itself here. 
 	 */
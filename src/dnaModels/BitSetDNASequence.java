@@ -20,7 +20,7 @@ public class BitSetDNASequence extends DNASequence {
 	BitSet bits1;
 	BitSet bits2;
 
-	BitSetPool pool = null;
+	BitSetPool pool = null;		//If not null, copies of this sequence take their storage from here
 	
 	RandomEngine rng;
 	
@@ -48,7 +48,7 @@ public class BitSetDNASequence extends DNASequence {
 			else
 				setBaseChar(i, 'T');
 		}
-		
+		fingerprint = computeFingerprint();
 	}
 	
 	/**
@@ -78,16 +78,19 @@ public class BitSetDNASequence extends DNASequence {
 		for(int i=0; i<length; i++) {
 			setBaseChar(i, seqStr.charAt(i));	
 		}
+		fingerprint = computeFingerprint();
 
 	}
 	
 	
 
 
-	private BitSetDNASequence(BitSet b1, BitSet b2, int theLength, MutationModel mm /* BitSetPool pool */) {
+	private BitSetDNASequence(BitSet b1, BitSet b2, int theLength, MutationModel mm, long fingerprint, BitSetPool pool) {
 		super(null, theLength, mm);
 		bits1 = b1;
 		bits2 = b2;
+		this.fingerprint = fingerprint;
+		this.pool = pool;
 		mutationModel = mm;
 		this.length = theLength;
 	}
@@ -114,6 +117,7 @@ public class BitSetDNASequence extends DNASequence {
 	 * @param base The base (A,C,G,or T), must be in uppercase
 	 */
 	public void setBaseChar(int which, char base) {
+		fingerprint ^= zobrist(which, getBaseChar(which)) ^ zobrist(which, base);
 		switch(base) {
 		case 'A' :  bits1.set(which, true);
 					bits2.set(which, true);
@@ -133,7 +137,8 @@ public class BitSetDNASequence extends DNASequence {
 	
 	/**
 	 * Clones this DNA sequence, but does not deep-copy anything else, such as the mutation model.
-	 * Something like 50% of the simulation run time is spent here. 
+	 * Something like 50% of the simulation run time is spent here. If this sequence has a pool the copy's storage
+	 * comes from the pool, and the copy uses the same pool.
 	 */
 	public Object clone() {
 		BitSet newB1;
@@ -153,18 +158,37 @@ public class BitSetDNASequence extends DNASequence {
 		 newB2 = (BitSet)bits2.clone();
 		}
 		
-		return new BitSetDNASequence(newB1, newB2, length, mutationModel);
+		return new BitSetDNASequence(newB1, newB2, length, mutationModel, fingerprint, pool);
 	}
 	
 	/**
-	 * Used in the experimental BitSetPool implementation, which is currently not in use
+	 * Take the storage for copies of this sequence (and copies of those copies) from the given pool, or allocate it
+	 * normally if pool is null
+	 * @param pool
+	 */
+	public void setPool(BitSetPool pool) {
+		this.pool = pool;
+	}
+	
+	public BitSetPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Return our bitsets to the pool, if there is one. The sequence can't be used afterwards
 	 */
 	public void retireBits() {
-		if (pool!=null) {
+		if (pool!=null && bits1 != null) {
 			pool.retire(bits1);
 			pool.retire(bits2);
+			bits1 = null;
+			bits2 = null;
 		}
 	}
+	
+	public void retire() {
+		retireBits();
+	}
 
 	public BitSet getBits1() {
 		return bits1;
@@ -177,6 +201,41 @@ public class BitSetDNASequence extends DNASequence {
 	public DNASequence getCopy() {
 		return (DNASequence)this.clone();
 	}
+	
+	/**
+	 * Reuses our bitsets to hold a copy of source, if source is also a BitSetDNASequence
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source == this)
+			return true;
+		if (source instanceof BitSetDNASequence && source.length() == length) {
+			BitSetDNASequence bSource = (BitSetDNASequence)source;
+			bits1.clear();
+			bits1.or(bSource.bits1);
+			bits2.clear();
+			bits2.or(bSource.bits2);
+			fingerprint = bSource.fingerprint;
+			mutationModel = source.mutationModel;
+			pool = bSource.pool;
+			return true;
+		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * Compares whole bit sets when other is also a BitSetDNASequence
+	 */
+	public boolean sameBases(DNASequence other) {
+		if (other instanceof BitSetDNASequence && other.length() == length) {
+			BitSetDNASequence bOther = (BitSetDNASequence)other;
+			return bits1.equals(bOther.bits1) && bits2.equals(bOther.bits2);
+		}
+		return super.sameBases(other);
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
 
 	public Double getDoubleValue() {
 		return null;
@@ -2,67 +2,232 @@ package dnaModels;
 
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class may be used at some point to recycle the BitSets that are used to construct DNA sequences, 
- * and thus to reduce the amount of new object allocation that occurs during reproduction. Currently
- * this has not been implemented. 
- * 
+ * Recycles the BitSets that store BitSetDNASequences, so that copying a sequence during reproduction can reuse the storage
+ * of a sequence that has been discarded instead of allocating new storage. New BitSets are allocated with room for a given
+ * number of bits (the sequence length), and since clearing a BitSet doesn't shrink it, recycled BitSets keep that size.
+ *  Each thread keeps a small cache of free BitSets, and only goes to the shared free list (which requires a lock) to refill
+ * an empty cache or to spill a full one, half a cache at a time. Thus threads mutating and copying sequences in parallel
+ * rarely contend for the pool.
+ *  A BitSet must only be retired if nothing refers to it any more, see BitSetDNASequence.retireBits. The pool doesn't
+ * track which BitSets it has handed out, so forgetting to retire something just means it's left to the garbage collector.
+ *
  * @author brendan
  *
  */
 public class BitSetPool {
 
-	ArrayList<BitSet> inUse;
-	Stack<BitSet> free;
-	 
-	int allocs = 0;
-	int frees = 0;
-	int capacity;
-	
-	public BitSetPool(int capacity) {
-		this.capacity = capacity;
-		inUse = new ArrayList<BitSet>();
-		free = new Stack<BitSet>();
-		
-		for(int i=0; i<capacity; i++) {
-			free.push(new BitSet());
+	//The XML attribute that records whether or not sequence storage is pooled
+	public static final String XML_POOLBUFFERS = "pool.buffers";
+
+	private final int bits;				//Number of bits allocated for new BitSets
+	private final int capacity;			//Maximum number of BitSets on the shared free list
+	private final int localCapacity;	//Maximum number of BitSets in each thread's cache
+
+	private final ArrayList<BitSet> free = new ArrayList<BitSet>();
+
+	private final ThreadLocal<LocalCache> caches = new ThreadLocal<LocalCache>() {
+		protected LocalCache initialValue() {
+			return new LocalCache(localCapacity);
 		}
+	};
+
+	private final AtomicLong requests = new AtomicLong();		//Total calls to getNew
+	private final AtomicLong reuses = new AtomicLong();			//Calls to getNew that returned a recycled BitSet
+	private final AtomicLong retirements = new AtomicLong();	//Total calls to retire
+	private final AtomicLong discards = new AtomicLong();		//Retired BitSets dropped because the pool was full
+	private final AtomicLong inUse = new AtomicLong();			//BitSets handed out and not yet retired
+	private final AtomicLong maxInUse = new AtomicLong();		//The largest value of inUse seen
+
+	/**
+	 * Create a new pool of BitSets large enough for the given number of bits, holding at most 4096 free BitSets in the
+	 * shared list
+	 * @param bits
+	 */
+	public BitSetPool(int bits) {
+		this(bits, 4096);
 	}
-	
-	
+
+	/**
+	 * Create a new pool of BitSets large enough for the given number of bits, holding at most capacity free BitSets in the
+	 * shared list (plus up to 64 in each thread's cache). Nothing is allocated until it's asked for.
+	 * @param bits
+	 * @param capacity
+	 */
+	public BitSetPool(int bits, int capacity) {
+		this(bits, capacity, 64);
+	}
+
+	public BitSetPool(int bits, int capacity, int localCapacity) {
+		this.bits = bits;
+		this.capacity = capacity;
+		this.localCapacity = Math.max(2, localCapacity);
+	}
+
+	/**
+	 * Obtain a BitSet from the pool, or a new one if there are none free. The contents of recycled BitSets are whatever
+	 * they were when retired, so callers should clear or overwrite them.
+	 * @return
+	 */
 	public BitSet getNew() {
-		BitSet set;
-		if (free.size()>0) {
-			set = free.pop();
-			
-		}
-		else {
-			set = new BitSet();
-			System.out.println("No free space left to give, grabbing more space from heap");
-		}
-		
-		inUse.add(set);
-		allocs++;
-		
-		while (free.size()>capacity) {
-			free.pop();
-		}
-		
-		if (allocs % 10==0) {
-			System.out.println("Allocations : " + allocs + " frees : " + frees + " in use: " + inUse.size() + " free store : " + free.size() + " total size : " + (inUse.size()+free.size()) );
-		}
+		requests.incrementAndGet();
+		long used = inUse.incrementAndGet();
+		if (used > maxInUse.get())
+			updateMax(used);
+
+		LocalCache cache = caches.get();
+		if (cache.count == 0)
+			refill(cache);
+		if (cache.count == 0)
+			return new BitSet(bits);
+
+		reuses.incrementAndGet();
+		BitSet set = cache.sets[--cache.count];
+		cache.sets[cache.count] = null;
 		return set;
 	}
-	
+
+	/**
+	 * Return a BitSet that is no longer referenced anywhere to the pool
+	 * @param retiree
+	 */
 	public void retire(BitSet retiree) {
-		boolean inThere = inUse.remove(retiree);
-		if (!inThere) {
-			System.err.println("Tried to remove a bitset that wasn't in Use pool");
+		if (retiree == null)
+			return;
+		retirements.incrementAndGet();
+		inUse.decrementAndGet();
+
+		LocalCache cache = caches.get();
+		if (cache.count == cache.sets.length)
+			spill(cache);
+		cache.sets[cache.count++] = retiree;
+	}
+
+	/**
+	 * Move up to half a cache's worth of BitSets from the shared list to the cache, which must be empty
+	 */
+	private synchronized void refill(LocalCache cache) {
+		int howmany = Math.min(free.size(), cache.sets.length / 2);
+		for(int i=0; i<howmany; i++)
+			cache.sets[cache.count++] = free.remove(free.size()-1);
+	}
+
+	/**
+	 * Move half of the BitSets in a full cache to the shared list, dropping any that don't fit
+	 */
+	private synchronized void spill(LocalCache cache) {
+		int howmany = cache.sets.length / 2;
+		for(int i=0; i<howmany; i++) {
+			BitSet set = cache.sets[--cache.count];
+			cache.sets[cache.count] = null;
+			if (free.size() < capacity)
+				free.add(set);
+			else
+				discards.incrementAndGet();
+		}
+	}
+
+	private void updateMax(long used) {
+		long max = maxInUse.get();
+		while(used > max && ! maxInUse.compareAndSet(max, used))
+			max = maxInUse.get();
+	}
+
+	/**
+	 * Forget all free BitSets on the shared list, and those in the calling thread's cache (but not the counts)
+	 */
+	public synchronized void clear() {
+		free.clear();
+		LocalCache cache = caches.get();
+		while(cache.count > 0)
+			cache.sets[--cache.count] = null;
+	}
+
+	/**
+	 * The number of bits allocated for new BitSets
+	 * @return
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The number of free BitSets on the shared list, not counting those held in threads' caches
+	 * @return
+	 */
+	public synchronized int getFreeCount() {
+		return free.size();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getReuses() {
+		return reuses.get();
+	}
+
+	/**
+	 * The number of BitSets the pool has had to allocate
+	 * @return
+	 */
+	public long getAllocations() {
+		return requests.get() - reuses.get();
+	}
+
+	public long getRetirements() {
+		return retirements.get();
+	}
+
+	public long getDiscards() {
+		return discards.get();
+	}
+
+	/**
+	 * The number of BitSets handed out that haven't been retired. This includes any that were dropped without being
+	 * retired, and so left to the garbage collector
+	 * @return
+	 */
+	public long getInUse() {
+		return inUse.get();
+	}
+
+	/**
+	 * The largest number of BitSets ever in use at once
+	 * @return
+	 */
+	public long getHighWaterMark() {
+		return maxInUse.get();
+	}
+
+	/**
+	 * The fraction of requests that were satisfied with a recycled BitSet
+	 * @return
+	 */
+	public double getReuseRate() {
+		long req = requests.get();
+		return req == 0 ? 0 : (double)reuses.get() / (double)req;
+	}
+
+	public String toString() {
+		return "BitSet pool: " + getAllocations() + " allocations, " + getReuses() + " reuses, " + getRetirements() + " retirements, " + getInUse() + " in use (max " + getHighWaterMark() + "), reuse rate : " + getReuseRate();
+	}
+
+	/**
+	 * The free BitSets held by a single thread
+	 */
+	private static class LocalCache {
+		final BitSet[] sets;
+		int count = 0;
+
+		LocalCache(int capacity) {
+			sets = new BitSet[capacity];
 		}
-		free.push(retiree);
-		
-		frees++;
 	}
 }
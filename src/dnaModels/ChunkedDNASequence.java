@@ -0,0 +1,368 @@
+package dnaModels;
+
+import java.util.Arrays;
+
+import population.Recombineable;
+import siteModels.CodonUtils;
+
+import mutationModels.MutationModel;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+
+/**
+ * A copy-on-write DNA sequence. Bases are packed two bits per base as in PackedDNASequence, but the words are split into
+ * chunks of 256 sites that copies of a sequence share. Copying a sequence just copies the references to its chunks, and a
+ * chunk is only cloned when a base in it is changed, so an offspring that picks up a few mutations costs a few chunks rather
+ * than a whole sequence.
+ *   Rather than counting references, each sequence remembers which of its chunks it owns, that is, which chunks were created
+ * by it and have never been handed to a copy. Only owned chunks are written in place. Copying a sequence gives up the
+ * ownership of all of its chunks, in the copy and in the original. This means copies may be made from several threads at
+ * once, as long as none of them are being changed at the time (which is how the population engines use them).
+ *
+ * @author brendan
+ *
+ */
+public class ChunkedDNASequence extends DNASequence {
+
+	static final int CHUNK_SHIFT = 8;						//Each chunk holds 1 << CHUNK_SHIFT sites
+	static final int CHUNK_SITES = 1 << CHUNK_SHIFT;
+	static final int CHUNK_WORDS = CHUNK_SITES / PackedDNASequence.BASES_PER_WORD;
+
+	long[][] chunks;
+	long[] owned;		//One bit per chunk, set if we can write to the chunk in place
+
+	/**
+	 * Constucts a new DNA sequence using the stationary frequencies from the given mutation model. Random numbers are
+	 * drawn exactly as in BitSetDNASequence, so the two produce the same sequence from the same generator
+	 * @param rng A random number generator
+	 * @param theLength The length of this DNA sequence
+	 * @param mm The mutation model associated with this DNA sequence.
+	 */
+	public ChunkedDNASequence(RandomEngine rng, int theLength, MutationModel mm) {
+		super(rng, theLength, mm);
+		allocate();
+
+		Uniform uniGen = new Uniform(rng);
+		for(int i=0; i<length; i++) {
+			double r = uniGen.nextDouble();
+			if (r<mm.getPiA())
+				setBaseChar(i, 'A');
+			else if (r<(mm.getPiA()+mm.getPiG()))
+				setBaseChar(i, 'G');
+			else if (r<(mm.getPiA()+mm.getPiG()+mm.getPiC()))
+				setBaseChar(i, 'C');
+			else
+				setBaseChar(i, 'T');
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	/**
+	 * This constructor makes a DNA sequence that looks sort of like an ORF, it starts with a start and contains no stop codons
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 * @param useCodonsFlag
+	 */
+	public ChunkedDNASequence(RandomEngine rng, int theLength, MutationModel mm, CodonUtils useCodonsFlag) {
+		super(rng, theLength, mm);
+		allocate();
+
+		Uniform uniGen = new Uniform(rng);
+
+		StringBuilder seqStr = new StringBuilder();
+		seqStr.append("ATG");
+		while(seqStr.length() < theLength) {
+			String codon = makeNewCodon(mm, uniGen);
+			seqStr.append(codon);
+		}
+
+		for(int i=0; i<length; i++) {
+			setBaseChar(i, seqStr.charAt(i));
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	private ChunkedDNASequence(long[][] chunks, int theLength, MutationModel mm, long fingerprint) {
+		super(null, theLength, mm);
+		this.chunks = chunks;
+		this.fingerprint = fingerprint;
+		this.owned = new long[(chunks.length + 63) >>> 6];
+	}
+
+	/**
+	 * Create owned, empty chunks for the whole sequence
+	 */
+	private void allocate() {
+		chunks = new long[(length + CHUNK_SITES - 1) >>> CHUNK_SHIFT][];
+		owned = new long[(chunks.length + 63) >>> 6];
+		for(int c=0; c<chunks.length; c++) {
+			chunks[c] = new long[CHUNK_WORDS];
+			owned[c >>> 6] |= 1L << c;
+		}
+	}
+
+	/**
+	 * Make sure we own the given chunk, cloning it if it is shared, and return it
+	 */
+	private long[] writableChunk(int c) {
+		long bit = 1L << c;
+		if ((owned[c >>> 6] & bit) == 0) {
+			chunks[c] = chunks[c].clone();
+			owned[c >>> 6] |= bit;
+		}
+		return chunks[c];
+	}
+
+	/**
+	 * The word holding the given site, which must be less than length
+	 */
+	private long word(int site) {
+		return chunks[site >>> CHUNK_SHIFT][(site >>> 5) & (CHUNK_WORDS-1)];
+	}
+
+	public char getBaseChar(int site) {
+		return PackedDNASequence.BASES[(int)(word(site) >>> ((site & 31) << 1)) & 3];
+	}
+
+	public void setBaseChar(int site, char base) {
+		long code = PackedDNASequence.codeForBase(base);
+		int shift = (site & 31) << 1;
+		int w = (site >>> 5) & (CHUNK_WORDS-1);
+		long[] chunk = chunks[site >>> CHUNK_SHIFT];
+		int oldCode = (int)(chunk[w] >>> shift) & 3;
+		if (oldCode == code)
+			return;
+		fingerprint ^= zobrist(site, oldCode) ^ zobrist(site, (int)code);
+		chunk = writableChunk(site >>> CHUNK_SHIFT);
+		chunk[w] = (chunk[w] & ~(3L << shift)) | (code << shift);
+	}
+
+	/**
+	 * A new sequence sharing all of our chunks. Neither sequence owns any of them afterwards
+	 */
+	public DNASequence getCopy() {
+		Arrays.fill(owned, 0);
+		return new ChunkedDNASequence(chunks.clone(), length, mutationModel, fingerprint);
+	}
+
+	/**
+	 * Share the chunks of source if it is also chunked
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source instanceof ChunkedDNASequence && source.length() == length) {
+			ChunkedDNASequence cSource = (ChunkedDNASequence)source;
+			Arrays.fill(cSource.owned, 0);
+			System.arraycopy(cSource.chunks, 0, chunks, 0, chunks.length);
+			Arrays.fill(owned, 0);
+			fingerprint = source.fingerprint;
+			mutationModel = source.mutationModel;
+			return true;
+		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * The number of distinct chunks this sequence owns, useful for seeing how much storage is being shared
+	 * @return
+	 */
+	public int getOwnedChunkCount() {
+		int count = 0;
+		for(long bits : owned)
+			count += Long.bitCount(bits);
+		return count;
+	}
+
+	/**
+	 * Regions are returned in the same form as those of PackedDNASequence, so the two types can exchange them without
+	 * converting to characters
+	 */
+	public Object getRegion(int min, int max) {
+		if (max <= min)
+			return new PackedDNASequence.PackedRegion(min, max, new long[0]);
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		long[] words = new long[last-first+1];
+		for(int w=first; w<=last; w++)
+			words[w-first] = chunks[w >>> 3][w & (CHUNK_WORDS-1)];
+		return new PackedDNASequence.PackedRegion(min, max, words);
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		if (region instanceof PackedDNASequence.PackedRegion) {
+			PackedDNASequence.PackedRegion packed = (PackedDNASequence.PackedRegion)region;
+			if (packed.min == min && packed.max == max) {
+				if (max <= min)
+					return;
+				int first = min >>> 5;
+				int last = (max-1) >>> 5;
+				for(int w=first; w<=last; w++) {
+					long mask = wordMask(w, first, last, min, max);
+					long[] chunk = chunks[w >>> 3];
+					long value = (chunk[w & (CHUNK_WORDS-1)] & ~mask) | (packed.words[w-first] & mask);
+					if (value != chunk[w & (CHUNK_WORDS-1)]) {
+						fingerprint ^= PackedDNASequence.fingerprintDelta(w, chunk[w & (CHUNK_WORDS-1)], value);
+						writableChunk(w >>> 3)[w & (CHUNK_WORDS-1)] = value;
+					}
+				}
+				return;
+			}
+		}
+		super.setRegion(min, max, region);
+	}
+
+	/**
+	 * The bits of word w that hold sites in min..max, where first and last are the words holding min and max-1
+	 */
+	private static long wordMask(int w, int first, int last, int min, int max) {
+		long mask = -1L;
+		if (w == first)
+			mask &= PackedDNASequence.maskFrom(min);
+		if (w == last && (max & 31) != 0)
+			mask &= PackedDNASequence.maskBefore(max);
+		return mask;
+	}
+
+	/**
+	 * When other is also chunked, chunks that lie entirely within min..max are exchanged by reference (along with their
+	 * ownership), and only the partial chunks at the ends are swapped word by word
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (! (other instanceof ChunkedDNASequence)) {
+			super.swapRegion(other, min, max);
+			return;
+		}
+		if (max <= min)
+			return;
+		ChunkedDNASequence cOther = (ChunkedDNASequence)other;
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		int w = first;
+		while(w <= last) {
+			int c = w >>> 3;
+			int chunkStart = c << CHUNK_SHIFT;
+			if (min <= chunkStart && Math.min(length, chunkStart + CHUNK_SITES) <= max) {
+				if (chunks[c] != cOther.chunks[c]) {
+					long delta = 0;
+					for(int i=0; i<CHUNK_WORDS; i++)
+						delta ^= PackedDNASequence.fingerprintDelta(c*CHUNK_WORDS + i, chunks[c][i], cOther.chunks[c][i]);
+					fingerprint ^= delta;
+					cOther.fingerprint ^= delta;
+				}
+				long[] tmp = chunks[c];
+				chunks[c] = cOther.chunks[c];
+				cOther.chunks[c] = tmp;
+				long bit = 1L << c;
+				long ours = owned[c >>> 6] & bit;
+				owned[c >>> 6] = (owned[c >>> 6] & ~bit) | (cOther.owned[c >>> 6] & bit);
+				cOther.owned[c >>> 6] = (cOther.owned[c >>> 6] & ~bit) | ours;
+				w = (c+1) * CHUNK_WORDS;
+				continue;
+			}
+
+			long mask = wordMask(w, first, last, min, max);
+			int index = w & (CHUNK_WORDS-1);
+			long diff = (chunks[c][index] ^ cOther.chunks[c][index]) & mask;
+			if (diff != 0) {
+				long delta = PackedDNASequence.fingerprintDelta(w, chunks[c][index], chunks[c][index] ^ diff);
+				fingerprint ^= delta;
+				cOther.fingerprint ^= delta;
+				writableChunk(c)[index] ^= diff;
+				cOther.writableChunk(c)[index] ^= diff;
+			}
+			w++;
+		}
+	}
+
+	/**
+	 * When other is also chunked, shared chunks are skipped entirely and the rest compared a word at a time
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		if (! (other instanceof ChunkedDNASequence))
+			return super.countDifferences(other, min, max);
+		if (max <= min)
+			return 0;
+
+		long[][] otherChunks = ((ChunkedDNASequence)other).chunks;
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		int count = 0;
+		int w = first;
+		while(w <= last) {
+			int c = w >>> 3;
+			if (chunks[c] == otherChunks[c]) {
+				w = (c+1) * CHUNK_WORDS;
+				continue;
+			}
+			long mask = wordMask(w, first, last, min, max);
+			int index = w & (CHUNK_WORDS-1);
+			count += PackedDNASequence.differingBases(chunks[c][index] & mask, otherChunks[c][index] & mask);
+			w++;
+		}
+		return count;
+	}
+
+	/**
+	 * Skips shared chunks and identical words when other is also chunked
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		if (! (other instanceof ChunkedDNASequence))
+			return super.nextDifference(other, site);
+		int end = Math.min(length, other.length());
+		if (site >= end)
+			return -1;
+
+		long[][] otherChunks = ((ChunkedDNASequence)other).chunks;
+		int w = site >>> 5;
+		long mask = PackedDNASequence.maskFrom(site);
+		while(w<<5 < end) {
+			int c = w >>> 3;
+			if (chunks[c] == otherChunks[c]) {
+				w = (c+1) * CHUNK_WORDS;
+				mask = -1L;
+				continue;
+			}
+			int index = w & (CHUNK_WORDS-1);
+			long x = (chunks[c][index] ^ otherChunks[c][index]) & mask;
+			x = (x | (x >>> 1)) & PackedDNASequence.LOW_BITS;
+			if (x != 0) {
+				int diff = (w << 5) + (Long.numberOfTrailingZeros(x) >>> 1);
+				return diff < end ? diff : -1;
+			}
+			w++;
+			mask = -1L;
+		}
+		return -1;
+	}
+
+	public boolean hasFastDifferences() {
+		return true;
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
+
+	public boolean sameBases(DNASequence other) {
+		if (other instanceof ChunkedDNASequence && other.length() == length)
+			return countDifferences(other, 0, length) == 0;
+		return super.sameBases(other);
+	}
+
+	public Double getDoubleValue() {
+		return null;
+	}
+
+	public String getStringValue() {
+		StringBuilder buf = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			buf.append( getBaseChar(i));
+		}
+		return buf.toString();
+	}
+
+	public String toString() {
+		return getStringValue();
+	}
+}
@@ -29,31 +29,24 @@ import cern.jet.random.engine.RandomEngine;
 public abstract class DNASequence implements Inheritable, Recombineable, Serializable {
 
 	protected MutationModel mutationModel;
-	protected static Uniform uniGen = null; //Keep this static so it's not cloned when we copy this sequence. 
-	protected static boolean rngInitialized = false;
 	
 	int length;
 	
+	//The XOR of zobrist(site, base) over all sites, kept up to date by subclasses for which tracksFingerprint() is true
+	protected long fingerprint = 0;
+	
 	public DNASequence(RandomEngine rng, int length, MutationModel mutationModel) {
-		if (! rngInitialized) {
-			initializeRNG(rng);
-		}
-		
 		this.length = length;
 		this.mutationModel = mutationModel;
 	}
 	
-	protected void initializeRNG(RandomEngine rng) {
-		uniGen = new Uniform(rng);
-	}
-	
 	public MutationModel getMutationModel() {
 		return mutationModel;
 	}
 	
 	
 	public boolean equals(DNASequence seq1, DNASequence seq2) {
-		if (seq1.length != seq2.length) {
+		if (seq1.length != seq2.length || seq1.getFingerprint() != seq2.getFingerprint()) {
 			return false;
 		}
 		else {
@@ -65,6 +58,76 @@ public abstract class DNASequence implements Inheritable, Recombineable, Seriali
 		}
 	}
 	
+	/**
+	 * Two sequences are equal if they have the same bases. Fingerprints are compared first, so the bases themselves are
+	 * only compared when the fingerprints match
+	 */
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (! (obj instanceof DNASequence))
+			return false;
+		DNASequence other = (DNASequence)obj;
+		return other.length == length && other.getFingerprint() == getFingerprint() && sameBases(other);
+	}
+	
+	public int hashCode() {
+		long fp = getFingerprint();
+		return (int)(fp ^ (fp >>> 32));
+	}
+	
+	/**
+	 * A 64-bit hash of the bases of this sequence. Sequences with the same bases always have the same fingerprint, and
+	 * sequences with different bases almost never do. Subclasses that track the fingerprint update it in constant time as
+	 * bases change, for others it's computed here from scratch
+	 * @return
+	 */
+	public long getFingerprint() {
+		if (tracksFingerprint())
+			return fingerprint;
+		return computeFingerprint();
+	}
+	
+	/**
+	 * True if this sequence keeps the fingerprint field up to date as it changes
+	 * @return
+	 */
+	protected boolean tracksFingerprint() {
+		return false;
+	}
+	
+	/**
+	 * Calculate the fingerprint by examining every site
+	 * @return
+	 */
+	protected long computeFingerprint() {
+		long fp = 0;
+		for(int i=0; i<length; i++)
+			fp ^= zobrist(i, getBaseChar(i));
+		return fp;
+	}
+	
+	/**
+	 * The fingerprint contribution of the given base at the given site. This is a fixed pseudo-random value for each pair,
+	 * computed by hashing rather than read from a table so that it costs no memory for long sequences
+	 * @param site
+	 * @param base
+	 * @return
+	 */
+	protected static long zobrist(int site, char base) {
+		return zobrist(site, PackedDNASequence.codeForBase(base));
+	}
+	
+	/**
+	 * As above, but with the base given by its two-bit code in PackedDNASequence
+	 */
+	static long zobrist(int site, int code) {
+		long z = ((((long)site) << 2) | code) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
 	/**
 	 * Mutate this sequence
 	 */
@@ -78,6 +141,31 @@ public abstract class DNASequence implements Inheritable, Recombineable, Seriali
 	 */
 	public abstract DNASequence getCopy();
 	
+	/**
+	 * Overwrite this sequence with the bases of source, so that this object can be reused in place of a new copy of
+	 * source. Returns false (and leaves this sequence unchanged) if the two sequences are not the same length.
+	 * Subclasses should override this with something faster. 
+	 * @param source
+	 * @return True if the bases were copied
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source.length() != length) 
+			return false;
+		for(int i=0; i<length; i++)
+			setBaseChar(i, source.getBaseChar(i));
+		mutationModel = source.mutationModel;
+		return true;
+	}
+	
+	
+	/**
+	 * Called when nothing refers to this sequence any more, so that subclasses whose storage is pooled can return it
+	 * to the pool. The sequence must not be used afterwards. The default does nothing
+	 */
+	public void retire() {
+		
+	}
+	
 	
 	/**
 	 * A char representing the base at a particular site
@@ -96,6 +184,15 @@ public abstract class DNASequence implements Inheritable, Recombineable, Seriali
 	public abstract void setBaseChar(int site, char base);
 	
 	
+	/**
+	 * The index (0-63) of the codon starting at the given site, see CodonUtils.codonIndex
+	 * @param site
+	 * @return
+	 */
+	public int getCodon(int site) {
+		return CodonUtils.codonIndex(getBaseChar(site), getBaseChar(site+1), getBaseChar(site+2));
+	}
+	
 	/**
 	 * The length of the sequence
 	 * @return
@@ -144,17 +241,88 @@ public abstract class DNASequence implements Inheritable, Recombineable, Seriali
 	
 	
 	/**
-	 * Region is assumed to be a String of characters corresponding to bases, we set the bases in this
+	 * Region is assumed to be a String (or other CharSequence) of characters corresponding to bases, we set the bases in this
 	 * sequence in the range min..max to be those provided by the string 
 	 */
 	public void setRegion(int min, int max, Object region) {
-		if (region instanceof String) {
-			String str = (String)region;
+		if (region instanceof CharSequence) {
+			CharSequence str = (CharSequence)region;
 			for(int i=min; i<max; i++)
 				setBaseChar(i, str.charAt(i-min));
 		}
 	}
 	
+	/**
+	 * Exchange the bases in the range min..max with those of other. Subclasses may do this without the intermediate
+	 * copies made here
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		Object ours = getRegion(min, max);
+		setRegion(min, max, other.getRegion(min, max));
+		other.setRegion(min, max, ours);
+	}
+	
+	/**
+	 * The number of sites in the range min..max at which this sequence and other differ. Subclasses should override this with
+	 * something faster where they can
+	 * @param other
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		int count = 0;
+		for(int i=min; i<max; i++) {
+			if (getBaseChar(i) != other.getBaseChar(i))
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * The first site at or after the given site at which this sequence and other differ, or -1 if there is none. Models
+	 * that only care about sites that differ from the master sequence can use this to skip over identical stretches,
+	 * which some subclasses can do without examining every site
+	 * @param other
+	 * @param site
+	 * @return
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		int end = Math.min(length, other.length());
+		for(int i=site; i<end; i++) {
+			if (getBaseChar(i) != other.getBaseChar(i))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * True if nextDifference against the master is already fast, because it compares many sites at a time or jumps between
+	 * stored differences, in which case there's no need to keep a MismatchIndex for this sequence
+	 * @return
+	 */
+	public boolean hasFastDifferences() {
+		return false;
+	}
+	
+	/**
+	 * The number of sites at which this sequence and other differ, over the length of the shorter of the two
+	 * @param other
+	 * @return
+	 */
+	public int countDifferences(DNASequence other) {
+		return countDifferences(other, 0, Math.min(length, other.length()));
+	}
+	
+	/**
+	 * True if other has the same length and the same base at every site as this sequence
+	 * @param other
+	 * @return
+	 */
+	public boolean sameBases(DNASequence other) {
+		return other.length() == length && countDifferences(other) == 0;
+	}
+	
 	/***** Deprecated methods ************/
 	
 	public String getStringValue() { return ""; };
@@ -0,0 +1,110 @@
+package dnaModels;
+
+import siteModels.CodonUtils;
+import mutationModels.MutationModel;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Creates new DNA sequences of the currently selected type. Models that make sequences from scratch (for instance
+ * SiteFitnesses.generateMasterSequence) should use this rather than constructing a particular kind of sequence, so that
+ * the storage used for sequences can be chosen in one place. All types draw the same random numbers, so a sequence created
+ * from a given generator has the same bases regardless of the type.
+ *
+ * @author brendan
+ *
+ */
+public class DNASequenceFactory {
+
+	//The XML attribute that stores the sequence type
+	public static final String XML_SEQUENCETYPE = "sequence.type";
+
+	public enum SequenceType {
+		BITSET("Bit sets"),
+		PACKED("Packed words"),
+		CHUNKED("Shared chunks"),
+		SPARSE("Differences from master"),
+		OFFHEAP("Off-heap arena"),
+		PERSISTENT("Persistent tree");
+
+		private final String label;
+
+		SequenceType(String label) {
+			this.label = label;
+		}
+
+		public String toString() {
+			return label;
+		}
+	}
+
+	private static SequenceType defaultType = SequenceType.BITSET;
+
+	/**
+	 * Set the type of sequence created by subsequent calls to newSequence and newCodingSequence
+	 * @param type
+	 */
+	public static void setDefaultType(SequenceType type) {
+		defaultType = type;
+	}
+
+	public static SequenceType getDefaultType() {
+		return defaultType;
+	}
+
+	/**
+	 * The type of the given sequence, or null if it is not one of the types this factory creates
+	 * @param seq
+	 * @return
+	 */
+	public static SequenceType typeOf(DNASequence seq) {
+		if (seq instanceof OffHeapDNASequence)
+			return SequenceType.OFFHEAP;
+		if (seq instanceof PersistentDNASequence)
+			return SequenceType.PERSISTENT;
+		if (seq instanceof HashDNASequence)
+			return SequenceType.SPARSE;
+		if (seq instanceof ChunkedDNASequence)
+			return SequenceType.CHUNKED;
+		if (seq instanceof PackedDNASequence)
+			return SequenceType.PACKED;
+		if (seq instanceof BitSetDNASequence)
+			return SequenceType.BITSET;
+		return null;
+	}
+
+	/**
+	 * Create a new random sequence using the stationary frequencies of the given mutation model
+	 * @param rng
+	 * @param length
+	 * @param mm
+	 * @return
+	 */
+	public static DNASequence newSequence(RandomEngine rng, int length, MutationModel mm) {
+		switch(defaultType) {
+		case PACKED : return new PackedDNASequence(rng, length, mm);
+		case CHUNKED : return new ChunkedDNASequence(rng, length, mm);
+		case SPARSE : return new HashDNASequence(rng, length, mm);
+		case OFFHEAP : return new OffHeapDNASequence(rng, length, mm);
+		case PERSISTENT : return new PersistentDNASequence(rng, length, mm);
+		default : return new BitSetDNASequence(rng, length, mm);
+		}
+	}
+
+	/**
+	 * Create a new random sequence that begins with a start codon and contains no stop codons
+	 * @param rng
+	 * @param length
+	 * @param mm
+	 * @return
+	 */
+	public static DNASequence newCodingSequence(RandomEngine rng, int length, MutationModel mm) {
+		switch(defaultType) {
+		case PACKED : return new PackedDNASequence(rng, length, mm, new CodonUtils());
+		case CHUNKED : return new ChunkedDNASequence(rng, length, mm, new CodonUtils());
+		case SPARSE : return new HashDNASequence(rng, length, mm, new CodonUtils());
+		case OFFHEAP : return new OffHeapDNASequence(rng, length, mm, new CodonUtils());
+		case PERSISTENT : return new PersistentDNASequence(rng, length, mm, new CodonUtils());
+		default : return new BitSetDNASequence(rng, length, mm, new CodonUtils());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package dnaModels;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Keeps one shared instance of each distinct DNA sequence (haplotype). When most of a population carries the same few
+ * haplotypes, individuals can refer to the shared instances rather than to copies of their own, so memory use grows with
+ * the number of distinct haplotypes rather than with the population size. Shared instances must never be modified,
+ * anything that changes a sequence should change a private copy and then intern the result (see DNAFitness).
+ *  Sequences are looked up by fingerprint, and the bases are only compared when the fingerprints match. Instead of keeping
+ * explicit reference counts, which would require the population engines to report every individual they discard, the store
+ * holds its haplotypes weakly, and a haplotype is forgotten once the garbage collector finds that no individual refers to it.
+ *  Interning is synchronized, so sequences may be interned from several threads at once.
+ *
+ * @author brendan
+ *
+ */
+public class HaplotypeStore {
+
+	//The XML attribute that records whether or not haplotypes are shared
+	public static final String XML_SHAREHAPLOTYPES = "share.haplotypes";
+
+	private final HashMap<Long, Entry> entries = new HashMap<Long, Entry>();
+	private final ReferenceQueue<DNASequence> collected = new ReferenceQueue<DNASequence>();
+
+	private long requests = 0;		//Total calls to intern
+	private long hits = 0;			//Calls to intern that returned an existing haplotype
+	private int maxHaplotypes = 0;	//The largest number of haplotypes held at once
+
+	/**
+	 * Return the shared instance with the same bases as seq, or, if there isn't one, make seq the shared instance and return it.
+	 * Either way seq must not be modified afterwards
+	 * @param seq
+	 * @return
+	 */
+	public synchronized DNASequence intern(DNASequence seq) {
+		purge();
+		requests++;
+		Long fingerprint = seq.getFingerprint();
+		Entry head = entries.get(fingerprint);
+		for(Entry entry = head; entry != null; entry = entry.next) {
+			DNASequence haplotype = entry.get();
+			if (haplotype != null && haplotype.length() == seq.length() && haplotype.sameBases(seq)) {
+				hits++;
+				return haplotype;
+			}
+		}
+
+		entries.put(fingerprint, new Entry(seq, fingerprint, head, collected));
+		maxHaplotypes = Math.max(maxHaplotypes, entries.size());
+		return seq;
+	}
+
+	/**
+	 * The number of distinct haplotypes currently held. Haplotypes no longer carried by any individual are counted until
+	 * the garbage collector reclaims them, so this overcounts the haplotypes in the current generation, which are counted
+	 * exactly by the HaplotypeCount statistic
+	 * @return
+	 */
+	public synchronized int getHaplotypeCount() {
+		purge();
+		int count = 0;
+		for(Entry head : entries.values()) {
+			for(Entry entry = head; entry != null; entry = entry.next) {
+				if (entry.get() != null)
+					count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized long getInternRequests() {
+		return requests;
+	}
+
+	public synchronized long getInternHits() {
+		return hits;
+	}
+
+	public synchronized int getMaxHaplotypeCount() {
+		return maxHaplotypes;
+	}
+
+	/**
+	 * The fraction of interned sequences that matched an existing haplotype
+	 * @return
+	 */
+	public synchronized double getHitRate() {
+		return requests == 0 ? 0 : (double)hits / (double)requests;
+	}
+
+	/**
+	 * Forget all haplotypes, the shared instances themselves are unaffected
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		while(collected.poll() != null) { }
+	}
+
+	/**
+	 * Remove the entries of haplotypes that have been garbage collected
+	 */
+	private void purge() {
+		Entry dead;
+		while((dead = (Entry)collected.poll()) != null) {
+			Entry head = entries.get(dead.fingerprint);
+			if (head == dead) {
+				if (dead.next == null)
+					entries.remove(dead.fingerprint);
+				else
+					entries.put(dead.fingerprint, dead.next);
+				continue;
+			}
+			for(Entry entry = head; entry != null; entry = entry.next) {
+				if (entry.next == dead) {
+					entry.next = dead.next;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A summary of the store, as written to the run summary. The counts include haplotypes not yet garbage collected
+	 */
+	public String toString() {
+		return "Haplotype store: " + getHaplotypeCount() + " haplotypes held (max " + getMaxHaplotypeCount() + ", including some no longer carried), " + getInternRequests() + " sequences interned, hit rate : " + getHitRate();
+	}
+
+	/**
+	 * A weakly held haplotype, along with the next haplotype with the same fingerprint
+	 */
+	private static class Entry extends WeakReference<DNASequence> {
+		final Long fingerprint;
+		Entry next;
+
+		Entry(DNASequence haplotype, Long fingerprint, Entry next, ReferenceQueue<DNASequence> queue) {
+			super(haplotype, queue);
+			this.fingerprint = fingerprint;
+			this.next = next;
+		}
+	}
+}
@@ -1,102 +1,360 @@
 package dnaModels;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-import com.sun.org.apache.xml.internal.security.signature.Reference;
+import population.Recombineable;
+import siteModels.CodonUtils;
 
 import mutationModels.MutationModel;
-import cern.jet.random.Uniform;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.EnumDNASequence.Bases;
 
+/**
+ * A sparse DNA sequence that stores only the sites at which it differs from a reference sequence. When mutation rates are
+ * low most individuals differ from the master sequence at only a handful of sites, so storage here scales with the number
+ * of mutations an individual carries rather than with the length of the sequence. The differences are kept as a sorted
+ * array of sites and a parallel array of bases, so looking up a base takes O(log k) time and copying takes O(k) time,
+ * where k is the number of differences.
+ *  All copies of a sequence share its reference, which is never modified. Sequences created by DNASequenceFactory have
+ * a packed reference holding the random bases and no differences, so the master sequence and every sequence copied from it
+ * share the same reference. Regions exchanged between such sequences are spliced as lists of differences, and
+ * nextDifference can skip directly from one difference to the next.
+ *
+ * @author brendan
+ *
+ */
 public class HashDNASequence extends DNASequence {
 
-	public enum Base {A, C, T, G};
-	
-	HashMap<Integer, Base> mutatedSites;
-	
-	DNASequence reference;
-	
-	RandomEngine rng;
-	
-	long[] bits;
-	
-	public HashDNASequence(RandomEngine rng, BitSetDNASequence reference, MutationModel mm) {
-		super(rng, reference.length(), mm);
-		this.rng = rng;
+	final DNASequence reference;
+
+	int[] sites;		//Sites that differ from the reference, in increasing order
+	char[] bases;		//The base at each of the above sites
+	int count = 0;		//The number of differences, only the first count entries of the arrays are used
+
+	/**
+	 * Create a new sequence that is identical to the given reference, which should not be modified afterwards
+	 * @param reference
+	 * @param mm
+	 */
+	public HashDNASequence(DNASequence reference, MutationModel mm) {
+		super(null, reference.length(), mm);
 		this.reference = reference;
-		bits = new long[32];
-		//mutatedSites = new HashMap<Integer, Base>();
-		
-//		Uniform uniGen = new Uniform(rng);
-//		for(int i=0; i<length; i++) {
-//			double r = uniGen.nextDouble();
-//			if (r<mm.getPiA())
-//				setBaseChar(i, 'A');
-//			else if (r<(mm.getPiA()+mm.getPiG()))
-//				setBaseChar(i, 'G');
-//			else if (r<(mm.getPiA()+mm.getPiG()+mm.getPiC()))
-//				setBaseChar(i, 'C');
-//			else
-//				setBaseChar(i, 'T');
-//		}
-	}
-	
-	private HashDNASequence(RandomEngine rng, int length, long[] otherbits, MutationModel mm, DNASequence reference) {
-		super(rng, length, mm);
+		sites = new int[4];
+		bases = new char[4];
+		fingerprint = reference.getFingerprint();
+	}
+
+	/**
+	 * Create a random sequence as in PackedDNASequence, which becomes the reference of this sequence and all of its copies
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 */
+	public HashDNASequence(RandomEngine rng, int theLength, MutationModel mm) {
+		this(new PackedDNASequence(rng, theLength, mm), mm);
+	}
+
+	/**
+	 * Create a random sequence that looks sort of like an ORF, as in PackedDNASequence
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 * @param useCodonsFlag
+	 */
+	public HashDNASequence(RandomEngine rng, int theLength, MutationModel mm, CodonUtils useCodonsFlag) {
+		this(new PackedDNASequence(rng, theLength, mm, useCodonsFlag), mm);
+	}
+
+	private HashDNASequence(DNASequence reference, int[] sites, char[] bases, int count, MutationModel mm, long fingerprint) {
+		super(null, reference.length(), mm);
+		this.fingerprint = fingerprint;
 		this.reference = reference;
-		//mutatedSites = (HashMap<Integer, Base>)muts.clone();
-		bits = (long[])otherbits.clone();
+		this.sites = sites;
+		this.bases = bases;
+		this.count = count;
+	}
+
+	public DNASequence getReference() {
+		return reference;
+	}
+
+	/**
+	 * The number of sites at which this sequence differs from its reference
+	 * @return
+	 */
+	public int getDifferenceCount() {
+		return count;
+	}
+
+	/**
+	 * Index of the first difference whose site is at least site, or count if there is none
+	 */
+	private int lowerBound(int site) {
+		int lo = 0;
+		int hi = count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sites[mid] < site)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
 	}
 
-	
-	@Override
 	public char getBaseChar(int site) {
+		int index = Arrays.binarySearch(sites, 0, count, site);
+		if (index >= 0)
+			return bases[index];
 		return reference.getBaseChar(site);
-//		Base b = mutatedSites.get(site);
-//		if (b != null) {
-//			switch (b) {
-//			case A: return 'A';
-//			case G: return 'G';
-//			case C: return 'C';
-//			case T: return 'T';
-//			}
-//		}
-//		else 
-//			return reference.getBaseChar(site);
-//		
-//		return 0;
-	}
-
-	@Override
+	}
+
+	public void setBaseChar(int site, char base) {
+		int index = Arrays.binarySearch(sites, 0, count, site);
+		char refBase = reference.getBaseChar(site);
+		fingerprint ^= zobrist(site, index >= 0 ? bases[index] : refBase) ^ zobrist(site, base);
+		if (base == refBase) {
+			if (index >= 0) {
+				System.arraycopy(sites, index+1, sites, index, count-index-1);
+				System.arraycopy(bases, index+1, bases, index, count-index-1);
+				count--;
+			}
+			return;
+		}
+
+		if (index >= 0) {
+			bases[index] = base;
+			return;
+		}
+
+		index = -(index+1);
+		ensureCapacity(count+1);
+		System.arraycopy(sites, index, sites, index+1, count-index);
+		System.arraycopy(bases, index, bases, index+1, count-index);
+		sites[index] = site;
+		bases[index] = base;
+		count++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (sites.length < capacity) {
+			int newLength = Math.max(capacity, sites.length + (sites.length >> 1) + 1);
+			sites = Arrays.copyOf(sites, newLength);
+			bases = Arrays.copyOf(bases, newLength);
+		}
+	}
+
+	/**
+	 * A copy of this sequence sharing the same reference. Only the differences are copied
+	 */
 	public DNASequence getCopy() {
-		return new HashDNASequence(rng, length, bits, mutationModel, reference);
+		return new HashDNASequence(reference, Arrays.copyOf(sites, Math.max(count, 1)), Arrays.copyOf(bases, Math.max(count, 1)), count, mutationModel, fingerprint);
 	}
 
-	private Base baseForChar(char b) {
-		switch (b) {
-		case 'A': return Base.A;
-		case 'G': return Base.G;
-		case 'C': return Base.C;
-		case 'T': return Base.T;
+	/**
+	 * Copies the differences of source if it has the same reference as this sequence
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (sharesReference(source) && source != this) {
+			HashDNASequence hSource = (HashDNASequence)source;
+			ensureCapacity(hSource.count);
+			System.arraycopy(hSource.sites, 0, sites, 0, hSource.count);
+			System.arraycopy(hSource.bases, 0, bases, 0, hSource.count);
+			count = hSource.count;
+			fingerprint = hSource.fingerprint;
+			mutationModel = source.mutationModel;
+			return true;
 		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * True if other is a sparse sequence with the same reference as this one
+	 */
+	private boolean sharesReference(Object other) {
+		return other instanceof HashDNASequence && ((HashDNASequence)other).reference == reference;
+	}
+
+	/**
+	 * The region is the list of differences falling within min..max, which another sequence sharing our reference can
+	 * splice in directly
+	 */
+	public Object getRegion(int min, int max) {
+		if (max <= min)
+			return new DiffRegion(min, max, reference, new int[0], new char[0]);
+		int lo = lowerBound(min);
+		int hi = lowerBound(max);
+		return new DiffRegion(min, max, reference, Arrays.copyOfRange(sites, lo, hi), Arrays.copyOfRange(bases, lo, hi));
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		if (region instanceof DiffRegion) {
+			DiffRegion diffs = (DiffRegion)region;
+			if (diffs.reference == reference && diffs.min == min && diffs.max == max) {
+				replaceRange(min, max, diffs.sites, diffs.bases);
+				return;
+			}
+		}
+		super.setRegion(min, max, region);
+	}
+
+	/**
+	 * Replace all differences in min..max with the given ones, which must all lie in min..max
+	 */
+	private void replaceRange(int min, int max, int[] newSites, char[] newBases) {
+		if (max <= min)
+			return;
+		int lo = lowerBound(min);
+		int hi = lowerBound(max);
+		for(int i=lo; i<hi; i++)
+			fingerprint ^= zobrist(sites[i], bases[i]) ^ zobrist(sites[i], reference.getBaseChar(sites[i]));
+		for(int i=0; i<newSites.length; i++)
+			fingerprint ^= zobrist(newSites[i], newBases[i]) ^ zobrist(newSites[i], reference.getBaseChar(newSites[i]));
+		int newCount = count - (hi-lo) + newSites.length;
+		ensureCapacity(newCount);
+		System.arraycopy(sites, hi, sites, lo + newSites.length, count-hi);
+		System.arraycopy(bases, hi, bases, lo + newSites.length, count-hi);
+		System.arraycopy(newSites, 0, sites, lo, newSites.length);
+		System.arraycopy(newBases, 0, bases, lo, newSites.length);
+		count = newCount;
+	}
+
+	/**
+	 * Exchanges lists of differences when other shares our reference
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (! sharesReference(other)) {
+			super.swapRegion(other, min, max);
+			return;
+		}
+		if (max <= min)
+			return;
+		HashDNASequence hOther = (HashDNASequence)other;
+		DiffRegion ours = (DiffRegion)getRegion(min, max);
+		DiffRegion theirs = (DiffRegion)hOther.getRegion(min, max);
+		replaceRange(min, max, theirs.sites, theirs.bases);
+		hOther.replaceRange(min, max, ours.sites, ours.bases);
+	}
+
+	/**
+	 * When other shares our reference (or is our reference) only the differences need to be examined
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		if (other == reference) {
+			int index = lowerBound(site);
+			return index < count ? sites[index] : -1;
+		}
+		if (! sharesReference(other))
+			return super.nextDifference(other, site);
+
+		HashDNASequence hOther = (HashDNASequence)other;
+		int i = lowerBound(site);
+		int j = hOther.lowerBound(site);
+		while(i < count || j < hOther.count) {
+			int ours = i < count ? sites[i] : Integer.MAX_VALUE;
+			int theirs = j < hOther.count ? hOther.sites[j] : Integer.MAX_VALUE;
+			if (ours < theirs)
+				return ours;
+			if (theirs < ours)
+				return theirs;
+			if (bases[i] != hOther.bases[j])
+				return ours;
+			i++;
+			j++;
+		}
+		return -1;
+	}
+
+	public boolean hasFastDifferences() {
+		return true;
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
+
+	/**
+	 * Counts differences by walking the two lists of differences when other shares our reference
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		if (other != reference && ! sharesReference(other))
+			return super.countDifferences(other, min, max);
+		int differences = 0;
+		for(int site = nextDifference(other, min); site >= 0 && site < max; site = nextDifference(other, site+1))
+			differences++;
+		return differences;
+	}
+
+	public boolean sameBases(DNASequence other) {
+		if (sharesReference(other)) {
+			HashDNASequence hOther = (HashDNASequence)other;
+			if (count != hOther.count)
+				return false;
+			for(int i=0; i<count; i++) {
+				if (sites[i] != hOther.sites[i] || bases[i] != hOther.bases[i])
+					return false;
+			}
+			return true;
+		}
+		return super.sameBases(other);
+	}
+
+	public Double getDoubleValue() {
 		return null;
 	}
-	
-	@Override
-	public void setBaseChar(int site, char base) {
-		
-//		char master = reference.getBaseChar(site);
-//		
-//		if (master != base) {
-//			Base newBase = baseForChar(base);
-//			mutatedSites.put(site, newBase);
-//		}
-//		else {
-//			mutatedSites.remove(site);
-//		}
-		
+
+	public String getStringValue() {
+		StringBuilder buf = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			buf.append( getBaseChar(i));
+		}
+		return buf.toString();
 	}
 
+	public String toString() {
+		return getStringValue();
+	}
+
+	/**
+	 * The differences from the reference falling in a region of a sparse sequence, as returned by getRegion
+	 */
+	static class DiffRegion implements CharSequence {
+		final int min;
+		final int max;
+		final DNASequence reference;
+		final int[] sites;
+		final char[] bases;
+
+		DiffRegion(int min, int max, DNASequence reference, int[] sites, char[] bases) {
+			this.min = min;
+			this.max = max;
+			this.reference = reference;
+			this.sites = sites;
+			this.bases = bases;
+		}
+
+		/**
+		 * Other kinds of sequence read regions as a sequence of base characters
+		 */
+		public char charAt(int index) {
+			int found = Arrays.binarySearch(sites, min + index);
+			if (found >= 0)
+				return bases[found];
+			return reference.getBaseChar(min + index);
+		}
+
+		public int length() {
+			return max - min;
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		public String toString() {
+			StringBuilder buf = new StringBuilder(max-min);
+			for(int i=0; i<max-min; i++)
+				buf.append(charAt(i));
+			return buf.toString();
+		}
+	}
 }
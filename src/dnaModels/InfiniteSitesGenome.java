@@ -0,0 +1,253 @@
+package dnaModels;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A genome under the infinite-sites model, described only by the mutations it carries. Every mutation occurs at a new site,
+ * so there is no need to keep the state of every site as a DNASequence does; the genome is just the sorted list of the ids of
+ * its mutations, whose positions and effects are kept in a MutationTable shared by all genomes. Storage and copying
+ * therefore scale with the number of mutations carried rather than with the length of the genome.
+ *   Recombination takes the mutations of one genome that lie inside a region, and the mutations of another that lie outside
+ * it, and merges the two (sorted) lists.
+ *
+ * @author brendan
+ *
+ */
+public class InfiniteSitesGenome implements Serializable {
+
+	final MutationTable table;
+	final int length;
+
+	int[] ids;			//Ids of the mutations carried, in increasing order
+	int count = 0;		//Only the first count entries of ids are used
+
+	/**
+	 * Create a new genome of the given length carrying no mutations
+	 * @param table
+	 * @param length
+	 */
+	public InfiniteSitesGenome(MutationTable table, int length) {
+		this.table = table;
+		this.length = length;
+		ids = new int[4];
+	}
+
+	private InfiniteSitesGenome(MutationTable table, int length, int[] ids, int count) {
+		this.table = table;
+		this.length = length;
+		this.ids = ids;
+		this.count = count;
+	}
+
+	public InfiniteSitesGenome getCopy() {
+		return new InfiniteSitesGenome(table, length, Arrays.copyOf(ids, Math.max(count, 1)), count);
+	}
+
+	/**
+	 * Overwrite this genome with the mutations of source, reusing our storage if there is room
+	 * @param source
+	 */
+	public void copyFrom(InfiniteSitesGenome source) {
+		if (source == this)
+			return;
+		ensureCapacity(source.count);
+		System.arraycopy(source.ids, 0, ids, 0, source.count);
+		count = source.count;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (ids.length < capacity)
+			ids = Arrays.copyOf(ids, Math.max(capacity, ids.length + (ids.length >> 1) + 1));
+	}
+
+	public MutationTable getMutationTable() {
+		return table;
+	}
+
+	/**
+	 * The number of sites in the genome
+	 * @return
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * The number of mutations carried
+	 * @return
+	 */
+	public int getMutationCount() {
+		return count;
+	}
+
+	/**
+	 * Replace the id of each mutation carried with newIds[id]. The new ids must keep the order of the old ones, as they do
+	 * when the table is compacted.
+	 * @param newIds
+	 */
+	void renumber(int[] newIds) {
+		for(int i=0; i<count; i++)
+			ids[i] = newIds[ids[i]];
+	}
+
+	/**
+	 * The id of the ith mutation carried, in increasing order of id
+	 * @param i
+	 * @return
+	 */
+	public int getMutationId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Add a newly created mutation, whose id must be greater than those of all mutations already carried
+	 * @param id
+	 */
+	public void addMutation(int id) {
+		if (count > 0 && ids[count-1] >= id)
+			throw new IllegalArgumentException("Mutation ids must be added in increasing order, tried to add " + id + " after " + ids[count-1]);
+		ensureCapacity(count+1);
+		ids[count++] = id;
+	}
+
+	/**
+	 * The sum of the effects of all mutations carried
+	 * @return
+	 */
+	public double getEffectSum() {
+		double sum = 0;
+		for(int i=0; i<count; i++)
+			sum += table.getEffect(ids[i]);
+		return sum;
+	}
+
+	/**
+	 * The ids of the mutations carried at sites min..max, in increasing order
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public int[] getRegion(int min, int max) {
+		int inside = 0;
+		for(int i=0; i<count; i++) {
+			if (inRegion(ids[i], min, max))
+				inside++;
+		}
+		int[] region = new int[inside];
+		int k = 0;
+		for(int i=0; i<count && k<inside; i++) {
+			if (inRegion(ids[i], min, max))
+				region[k++] = ids[i];
+		}
+		return region;
+	}
+
+	/**
+	 * Replace the mutations carried at sites min..max with the given ones, which must be sorted and all lie in min..max
+	 * @param min
+	 * @param max
+	 * @param region
+	 */
+	public void setRegion(int min, int max, int[] region) {
+		int regionCount = region.length;
+		int[] merged = new int[count + regionCount];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while(i < count || j < regionCount) {
+			if (i < count && inRegion(ids[i], min, max)) {
+				i++;
+			}
+			else if (j >= regionCount || (i < count && ids[i] < region[j])) {
+				merged[n++] = ids[i++];
+			}
+			else {
+				merged[n++] = region[j++];
+			}
+		}
+		ids = merged;
+		count = n;
+	}
+
+	/**
+	 * Exchange the mutations at sites min..max with those of other
+	 * @param other
+	 * @param min
+	 * @param max
+	 */
+	public void swapRegion(InfiniteSitesGenome other, int min, int max) {
+		int[] ours = getRegion(min, max);
+		int[] theirs = other.getRegion(min, max);
+		setRegion(min, max, theirs);
+		other.setRegion(min, max, ours);
+	}
+
+	private boolean inRegion(int id, int min, int max) {
+		int site = table.getSite(id);
+		return site >= min && site < max;
+	}
+
+	/**
+	 * The number of mutations carried by one genome but not the other, which is the number of sites at which they differ
+	 * @param other
+	 * @return
+	 */
+	public int countDifferences(InfiniteSitesGenome other) {
+		int shared = 0;
+		int i = 0;
+		int j = 0;
+		while(i < count && j < other.count) {
+			if (ids[i] == other.ids[j]) {
+				shared++;
+				i++;
+				j++;
+			}
+			else if (ids[i] < other.ids[j])
+				i++;
+			else
+				j++;
+		}
+		return count + other.count - 2*shared;
+	}
+
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		for(int i=0; i<count; i++) {
+			if (i > 0)
+				buf.append(",");
+			buf.append(ids[i]);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Count the number of genomes carrying each mutation carried by any of the given genomes, in a single pass over a
+	 * merged list of their mutations. Only the counts are returned, in no particular order
+	 * @param genomes
+	 * @return
+	 */
+	public static int[] countCarriers(InfiniteSitesGenome[] genomes) {
+		int total = 0;
+		for(InfiniteSitesGenome genome : genomes)
+			total += genome.count;
+		int[] all = new int[total];
+		int k = 0;
+		for(InfiniteSitesGenome genome : genomes) {
+			System.arraycopy(genome.ids, 0, all, k, genome.count);
+			k += genome.count;
+		}
+		Arrays.sort(all);
+
+		int[] counts = new int[total];
+		int distinct = 0;
+		for(int i=0; i<total; ) {
+			int j = i+1;
+			while(j < total && all[j] == all[i])
+				j++;
+			counts[distinct++] = j-i;
+			i = j;
+		}
+		return Arrays.copyOf(counts, distinct);
+	}
+}
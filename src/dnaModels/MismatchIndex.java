@@ -0,0 +1,170 @@
+package dnaModels;
+
+import java.io.Serializable;
+
+/**
+ * Records the sites at which a sequence differs from the master sequence, so that fitness can be recomputed by visiting
+ * only those sites instead of comparing every base. One bit is kept per site, and a second, much smaller bitmap marks which
+ * words of the first contain any set bits, so finding the next difference skips 4096 identical sites at a time.
+ *  The index doesn't watch the sequence, whatever changes the sequence must also update the index (see DNAFitness).
+ *
+ * @author brendan
+ *
+ */
+public class MismatchIndex implements Serializable {
+
+	final int length;
+	long[] bits;		//One bit per site, set if the site differs from the master
+	long[] summary;		//One bit per word of bits, set if the word is nonzero
+
+	/**
+	 * Create a new index of the differences between seq and master
+	 * @param seq
+	 * @param master
+	 */
+	public MismatchIndex(DNASequence seq, DNASequence master) {
+		this.length = seq.length();
+		bits = new long[(length + 63) >>> 6];
+		summary = new long[(bits.length + 63) >>> 6];
+		rebuild(seq, master, 0, length);
+	}
+
+	private MismatchIndex(MismatchIndex source) {
+		this.length = source.length;
+		bits = source.bits.clone();
+		summary = source.summary.clone();
+	}
+
+	public MismatchIndex getCopy() {
+		return new MismatchIndex(this);
+	}
+
+	/**
+	 * Overwrite this index with the contents of source, returns false if the two are not the same length
+	 * @param source
+	 * @return
+	 */
+	public boolean copyFrom(MismatchIndex source) {
+		if (source.length != length)
+			return false;
+		System.arraycopy(source.bits, 0, bits, 0, bits.length);
+		System.arraycopy(source.summary, 0, summary, 0, summary.length);
+		return true;
+	}
+
+	/**
+	 * Recompute the entries for sites min..max by comparing seq to master
+	 * @param seq
+	 * @param master
+	 * @param min
+	 * @param max
+	 */
+	public void rebuild(DNASequence seq, DNASequence master, int min, int max) {
+		if (max <= min)
+			return;
+		int first = min >>> 6;
+		int last = (max-1) >>> 6;
+		for(int w=first; w<=last; w++)
+			bits[w] &= ~rangeMask(w, first, last, min, max);
+		for(int site=seq.nextDifference(master, min); site>=0 && site<max; site=seq.nextDifference(master, site+1))
+			bits[site >>> 6] |= 1L << site;
+		updateSummary(first, last);
+	}
+
+	/**
+	 * Update the entry for a single site, which should be called whenever the site may have changed
+	 * @param site
+	 * @param seq
+	 * @param master
+	 */
+	public void update(int site, DNASequence seq, DNASequence master) {
+		int w = site >>> 6;
+		if (seq.getBaseChar(site) != master.getBaseChar(site))
+			bits[w] |= 1L << site;
+		else
+			bits[w] &= ~(1L << site);
+		updateSummary(w, w);
+	}
+
+	/**
+	 * Exchange the entries for sites min..max with those of other, which must index a sequence of the same length against
+	 * the same master. This is what happens to the sequences themselves when they recombine
+	 * @param other
+	 * @param min
+	 * @param max
+	 */
+	public void swapRange(MismatchIndex other, int min, int max) {
+		if (max <= min)
+			return;
+		int first = min >>> 6;
+		int last = (max-1) >>> 6;
+		for(int w=first; w<=last; w++) {
+			long diff = (bits[w] ^ other.bits[w]) & rangeMask(w, first, last, min, max);
+			bits[w] ^= diff;
+			other.bits[w] ^= diff;
+		}
+		updateSummary(first, last);
+		other.updateSummary(first, last);
+	}
+
+	/**
+	 * The first differing site at or after site, or -1 if there are none
+	 * @param site
+	 * @return
+	 */
+	public int nextDifference(int site) {
+		if (site >= length)
+			return -1;
+		int w = site >>> 6;
+		long x = bits[w] & (-1L << site);
+		if (x != 0)
+			return (w << 6) + Long.numberOfTrailingZeros(x);
+
+		//Find the next nonzero word using the summary
+		int next = w+1;
+		if (next >= bits.length)
+			return -1;
+		int s = next >>> 6;
+		long y = summary[s] & (-1L << next);
+		while(y == 0) {
+			s++;
+			if (s >= summary.length)
+				return -1;
+			y = summary[s];
+		}
+		w = (s << 6) + Long.numberOfTrailingZeros(y);
+		return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+	}
+
+	/**
+	 * The total number of differing sites
+	 * @return
+	 */
+	public int count() {
+		int count = 0;
+		for(long word : bits)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * The bits of word w covering sites in min..max, where first and last are the words holding min and max-1
+	 */
+	private static long rangeMask(int w, int first, int last, int min, int max) {
+		long mask = -1L;
+		if (w == first)
+			mask &= -1L << min;
+		if (w == last && (max & 63) != 0)
+			mask &= ~(-1L << max);
+		return mask;
+	}
+
+	private void updateSummary(int first, int last) {
+		for(int w=first; w<=last; w++) {
+			if (bits[w] != 0)
+				summary[w >>> 6] |= 1L << w;
+			else
+				summary[w >>> 6] &= ~(1L << w);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package dnaModels;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The positions and fitness effects of all mutations that have arisen in an infinite-sites simulation. Each mutation is
+ * identified by its index in the table (its id), and ids are handed out in increasing order, so a genome that gains
+ * mutations one at a time keeps its ids sorted simply by appending them (see InfiniteSitesGenome).
+ *   Adding mutations is synchronized, so genomes can be mutated from several threads at once. Looking mutations up is not,
+ * and must not happen while other threads are adding mutations; the population engines only look mutations up (during
+ * recombination and when collecting statistics) after all mutation for a generation is done.
+ *   Mutations that have been lost from the population stay in the table until it is compacted, which removes them and
+ * renumbers the rest (see compact). The demographic model does this between generations once the table has grown enough
+ * since it was last compacted. Ids are ints, so a table that is never compacted (for instance because ancestral data is
+ * preserved) can hold at most MAX_MUTATIONS mutations, after which add throws an IllegalStateException.
+ *
+ * @author brendan
+ *
+ */
+public class MutationTable implements Serializable {
+
+	//The largest number of mutations a table can hold at once
+	public static final int MAX_MUTATIONS = Integer.MAX_VALUE - 8;
+
+	//The table is compacted once it holds at least this many more mutations than were left after the last compaction
+	public static final int MIN_COMPACTION_GROWTH = 1 << 16;
+
+	private int[] sites = new int[1024];			//The site at which each mutation occurred
+	private double[] effects = new double[1024];	//The log-fitness effect of each mutation
+	private int count = 0;
+	private int compactionThreshold = MIN_COMPACTION_GROWTH;
+
+	/**
+	 * Add a new mutation and return its id, which is greater than that of any mutation added before it
+	 * @param site
+	 * @param effect
+	 * @return
+	 */
+	public synchronized int add(int site, double effect) {
+		if (count == sites.length) {
+			if (count >= MAX_MUTATIONS)
+				throw new IllegalStateException("The mutation table is full (" + count + " mutations). Mutations that have been lost are only removed from the table when ancestral data is not preserved.");
+			int capacity = (int)Math.min(2L*count, MAX_MUTATIONS);
+			sites = Arrays.copyOf(sites, capacity);
+			effects = Arrays.copyOf(effects, capacity);
+		}
+		sites[count] = site;
+		effects[count] = effect;
+		return count++;
+	}
+
+	public int getSite(int id) {
+		return sites[id];
+	}
+
+	public double getEffect(int id) {
+		return effects[id];
+	}
+
+	/**
+	 * The number of mutations in the table, including those that have been lost but not yet compacted away
+	 * @return
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * True if the table has grown enough since it was last compacted that compacting it is worthwhile. The threshold is twice
+	 * the number of mutations left by the last compaction (plus MIN_COMPACTION_GROWTH), so the cost of compacting stays
+	 * proportional to the number of mutations added.
+	 * @return
+	 */
+	public synchronized boolean needsCompaction() {
+		return count >= compactionThreshold;
+	}
+
+	/**
+	 * Remove every mutation not carried by any of the given genomes and renumber the remaining ones, keeping their order so
+	 * that the ids of each genome stay sorted. The ids of all the given genomes are rewritten. Every genome using this table
+	 * whose mutations may be looked up again must be in the list, since the ids held by any other genome become meaningless.
+	 * Genomes may appear in the list more than once, and genomes using other tables are ignored.
+	 * @param genomes
+	 * @return The number of mutations removed
+	 */
+	public synchronized int compact(List<InfiniteSitesGenome> genomes) {
+		BitSet carried = new BitSet(count);
+		for(InfiniteSitesGenome genome : genomes) {
+			if (genome.table != this)
+				continue;
+			for(int i=0; i<genome.count; i++)
+				carried.set(genome.ids[i]);
+		}
+
+		int[] newIds = new int[count];
+		int kept = 0;
+		for(int id=carried.nextSetBit(0); id>=0; id=carried.nextSetBit(id+1)) {
+			newIds[id] = kept;
+			sites[kept] = sites[id];
+			effects[kept] = effects[id];
+			kept++;
+		}
+
+		//Individuals may share genomes, which must only be renumbered once
+		Map<InfiniteSitesGenome, Boolean> renumbered = new IdentityHashMap<InfiniteSitesGenome, Boolean>();
+		for(InfiniteSitesGenome genome : genomes) {
+			if (genome.table == this && renumbered.put(genome, Boolean.TRUE) == null)
+				genome.renumber(newIds);
+		}
+
+		int removed = count - kept;
+		count = kept;
+		int capacity = (int)Math.min(MAX_MUTATIONS, Math.max(1024L, 2L*count));
+		if (sites.length/2 > capacity) {
+			sites = Arrays.copyOf(sites, capacity);
+			effects = Arrays.copyOf(effects, capacity);
+		}
+		compactionThreshold = (int)Math.min(MAX_MUTATIONS, 2L*count + MIN_COMPACTION_GROWTH);
+		return removed;
+	}
+}
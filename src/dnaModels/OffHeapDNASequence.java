@@ -0,0 +1,333 @@
+package dnaModels;
+
+import java.nio.LongBuffer;
+
+import population.Recombineable;
+import siteModels.CodonUtils;
+
+import mutationModels.MutationModel;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * A DNA sequence whose bases are kept outside the Java heap, in a slot of a SequenceArena. The bases are packed two bits
+ * per base just as in PackedDNASequence, so this behaves like a packed sequence (regions are exchanged as PackedRegions, and
+ * differences are found a word at a time), but the heap only holds this small object and never the bases themselves.
+ * A sequence and all of its copies share an arena.
+ *  Since the bases live outside the heap, the slot should be returned to the arena by calling retire when the sequence is no
+ * longer used. Slots of sequences that are dropped without being retired are reclaimed once the sequence is garbage
+ * collected.
+ *
+ * @author brendan
+ *
+ */
+public class OffHeapDNASequence extends DNASequence {
+
+	final SequenceArena arena;
+	int slot;
+
+	/**
+	 * Constructs a new sequence in a new arena, drawing random numbers exactly as PackedDNASequence does
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 */
+	public OffHeapDNASequence(RandomEngine rng, int theLength, MutationModel mm) {
+		this(new SequenceArena(theLength), rng, mm);
+	}
+
+	/**
+	 * Constructs a new random sequence in the given arena, using the stationary frequencies from the given mutation model
+	 * @param arena
+	 * @param rng
+	 * @param mm
+	 */
+	public OffHeapDNASequence(SequenceArena arena, RandomEngine rng, MutationModel mm) {
+		super(rng, arena.getLength(), mm);
+		this.arena = arena;
+		slot = arena.allocate(this);
+		arena.clear(slot);
+
+		Uniform uniGen = new Uniform(rng);
+		for(int i=0; i<length; i++) {
+			double r = uniGen.nextDouble();
+			if (r<mm.getPiA())
+				setBaseChar(i, 'A');
+			else if (r<(mm.getPiA()+mm.getPiG()))
+				setBaseChar(i, 'G');
+			else if (r<(mm.getPiA()+mm.getPiG()+mm.getPiC()))
+				setBaseChar(i, 'C');
+			else
+				setBaseChar(i, 'T');
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	/**
+	 * This constructor makes a DNA sequence that looks sort of like an ORF, it starts with a start and contains no stop codons
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 * @param useCodonsFlag
+	 */
+	public OffHeapDNASequence(RandomEngine rng, int theLength, MutationModel mm, CodonUtils useCodonsFlag) {
+		super(rng, theLength, mm);
+		this.arena = new SequenceArena(theLength);
+		slot = arena.allocate(this);
+		arena.clear(slot);
+
+		Uniform uniGen = new Uniform(rng);
+
+		StringBuilder seqStr = new StringBuilder();
+		seqStr.append("ATG");
+		while(seqStr.length() < theLength) {
+			String codon = makeNewCodon(mm, uniGen);
+			seqStr.append(codon);
+		}
+
+		for(int i=0; i<length; i++) {
+			setBaseChar(i, seqStr.charAt(i));
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	/**
+	 * A copy of source in a new slot of the same arena
+	 */
+	private OffHeapDNASequence(OffHeapDNASequence source) {
+		super(null, source.length, source.mutationModel);
+		arena = source.arena;
+		slot = arena.allocate(this);
+		arena.copy(source.slot, slot);
+		fingerprint = source.fingerprint;
+	}
+
+	public SequenceArena getArena() {
+		return arena;
+	}
+
+	public char getBaseChar(int site) {
+		long word = arena.block(slot).get(arena.offset(slot) + (site >>> 5));
+		return PackedDNASequence.BASES[(int)(word >>> ((site & 31) << 1)) & 3];
+	}
+
+	public void setBaseChar(int site, char base) {
+		LongBuffer block = arena.block(slot);
+		int index = arena.offset(slot) + (site >>> 5);
+		int shift = (site & 31) << 1;
+		int code = PackedDNASequence.codeForBase(base);
+		long word = block.get(index);
+		fingerprint ^= zobrist(site, (int)(word >>> shift) & 3) ^ zobrist(site, code);
+		block.put(index, (word & ~(3L << shift)) | ((long)code << shift));
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
+
+	public DNASequence getCopy() {
+		return new OffHeapDNASequence(this);
+	}
+
+	/**
+	 * Copies the words of source into our slot if source is also off-heap
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source == this)
+			return true;
+		if (source instanceof OffHeapDNASequence && source.length() == length) {
+			OffHeapDNASequence oSource = (OffHeapDNASequence)source;
+			if (oSource.arena == arena) {
+				arena.copy(oSource.slot, slot);
+			}
+			else {
+				LongBuffer src = oSource.arena.block(oSource.slot);
+				int srcOffset = oSource.arena.offset(oSource.slot);
+				LongBuffer dest = arena.block(slot);
+				int destOffset = arena.offset(slot);
+				for(int w=0; w<arena.getSlotWords(); w++)
+					dest.put(destOffset+w, src.get(srcOffset+w));
+			}
+			fingerprint = source.fingerprint;
+			mutationModel = source.mutationModel;
+			return true;
+		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * Return our slot to the arena. The sequence can't be used afterwards
+	 */
+	public void retire() {
+		if (slot >= 0) {
+			arena.free(slot);
+			slot = -1;
+		}
+	}
+
+	/**
+	 * The region is a copy of the words that hold sites min..max, in the same form as the regions of packed sequences
+	 */
+	public Object getRegion(int min, int max) {
+		if (max <= min)
+			return new PackedDNASequence.PackedRegion(min, max, new long[0]);
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		long[] words = new long[last-first+1];
+		LongBuffer block = arena.block(slot);
+		int offset = arena.offset(slot);
+		for(int w=first; w<=last; w++)
+			words[w-first] = block.get(offset+w);
+		return new PackedDNASequence.PackedRegion(min, max, words);
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		if (region instanceof PackedDNASequence.PackedRegion) {
+			PackedDNASequence.PackedRegion packed = (PackedDNASequence.PackedRegion)region;
+			if (packed.min == min && packed.max == max && max > min) {
+				LongBuffer block = arena.block(slot);
+				int offset = arena.offset(slot);
+				int first = min >>> 5;
+				int last = (max-1) >>> 5;
+				for(int w=first; w<=last; w++) {
+					long mask = rangeMask(w, first, last, min, max);
+					long before = block.get(offset+w);
+					long value = (before & ~mask) | (packed.words[w-first] & mask);
+					if (value != before) {
+						fingerprint ^= PackedDNASequence.fingerprintDelta(w, before, value);
+						block.put(offset+w, value);
+					}
+				}
+				return;
+			}
+		}
+		super.setRegion(min, max, region);
+	}
+
+	/**
+	 * Exchange the bases in sites min..max with those of other directly in the arena, if other is also off-heap
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (! (other instanceof OffHeapDNASequence) || ((OffHeapDNASequence)other).length != length) {
+			super.swapRegion(other, min, max);
+			return;
+		}
+		if (max <= min)
+			return;
+		OffHeapDNASequence oOther = (OffHeapDNASequence)other;
+		LongBuffer block = arena.block(slot);
+		int offset = arena.offset(slot);
+		LongBuffer otherBlock = oOther.arena.block(oOther.slot);
+		int otherOffset = oOther.arena.offset(oOther.slot);
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		for(int w=first; w<=last; w++) {
+			long ours = block.get(offset+w);
+			long theirs = otherBlock.get(otherOffset+w);
+			long diff = (ours ^ theirs) & rangeMask(w, first, last, min, max);
+			if (diff != 0) {
+				//Both fingerprints change by the same amount, since the same bases are exchanged
+				long delta = PackedDNASequence.fingerprintDelta(w, ours, ours ^ diff);
+				fingerprint ^= delta;
+				oOther.fingerprint ^= delta;
+				block.put(offset+w, ours ^ diff);
+				otherBlock.put(otherOffset+w, theirs ^ diff);
+			}
+		}
+	}
+
+	/**
+	 * The bits of word w covering sites in min..max, where first and last are the words holding min and max-1
+	 */
+	private static long rangeMask(int w, int first, int last, int min, int max) {
+		long mask = -1L;
+		if (w == first)
+			mask &= PackedDNASequence.maskFrom(min);
+		if (w == last && (max & 31) != 0)
+			mask &= PackedDNASequence.maskBefore(max);
+		return mask;
+	}
+
+	/**
+	 * Count differences a word at a time when other is also off-heap
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		if (! (other instanceof OffHeapDNASequence))
+			return super.countDifferences(other, min, max);
+		if (max <= min)
+			return 0;
+
+		OffHeapDNASequence oOther = (OffHeapDNASequence)other;
+		LongBuffer block = arena.block(slot);
+		int offset = arena.offset(slot);
+		LongBuffer otherBlock = oOther.arena.block(oOther.slot);
+		int otherOffset = oOther.arena.offset(oOther.slot);
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		int count = 0;
+		for(int w=first; w<=last; w++) {
+			long mask = rangeMask(w, first, last, min, max);
+			count += PackedDNASequence.differingBases(block.get(offset+w) & mask, otherBlock.get(otherOffset+w) & mask);
+		}
+		return count;
+	}
+
+	/**
+	 * Skips over identical words when other is also off-heap
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		if (! (other instanceof OffHeapDNASequence))
+			return super.nextDifference(other, site);
+		int end = Math.min(length, other.length());
+		if (site >= end)
+			return -1;
+
+		OffHeapDNASequence oOther = (OffHeapDNASequence)other;
+		LongBuffer block = arena.block(slot);
+		int offset = arena.offset(slot);
+		LongBuffer otherBlock = oOther.arena.block(oOther.slot);
+		int otherOffset = oOther.arena.offset(oOther.slot);
+		int w = site >>> 5;
+		long x = (block.get(offset+w) ^ otherBlock.get(otherOffset+w)) & PackedDNASequence.maskFrom(site);
+		while(true) {
+			x = (x | (x >>> 1)) & PackedDNASequence.LOW_BITS;
+			if (x != 0) {
+				int diff = (w << 5) + (Long.numberOfTrailingZeros(x) >>> 1);
+				return diff < end ? diff : -1;
+			}
+			w++;
+			if (w<<5 >= end)
+				return -1;
+			x = block.get(offset+w) ^ otherBlock.get(otherOffset+w);
+		}
+	}
+
+	public boolean hasFastDifferences() {
+		return true;
+	}
+
+	/**
+	 * Compare whole words when other is also off-heap
+	 */
+	public boolean sameBases(DNASequence other) {
+		if (other instanceof OffHeapDNASequence && other.length() == length)
+			return countDifferences(other, 0, length) == 0;
+		return super.sameBases(other);
+	}
+
+	public Double getDoubleValue() {
+		return null;
+	}
+
+	public String getStringValue() {
+		StringBuilder buf = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			buf.append( getBaseChar(i));
+		}
+		return buf.toString();
+	}
+
+	public String toString() {
+		return getStringValue();
+	}
+}
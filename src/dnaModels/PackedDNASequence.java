@@ -0,0 +1,380 @@
+package dnaModels;
+
+import java.util.Arrays;
+
+import population.Recombineable;
+import siteModels.CodonUtils;
+
+import mutationModels.MutationModel;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+
+/**
+ * A DNA sequence that packs 32 bases into each long, two bits per base. Single bases are read and written with a shift and
+ * a mask, and copying, recombination and comparisons between packed sequences work on whole words at a time.
+ *
+ * @author brendan
+ *
+ */
+public class PackedDNASequence extends DNASequence {
+
+	static final int BASES_PER_WORD = 32;
+	static final char[] BASES = {'A', 'C', 'G', 'T'};
+	static final long LOW_BITS = 0x5555555555555555L; //The low bit of every base
+
+	long[] words;
+
+	/**
+	 * Constucts a new DNA sequence using the stationary frequencies from the given mutation model. Random numbers are
+	 * drawn exactly as in BitSetDNASequence, so the two produce the same sequence from the same generator
+	 * @param rng A random number generator
+	 * @param theLength The length of this DNA sequence
+	 * @param mm The mutation model associated with this DNA sequence.
+	 */
+	public PackedDNASequence(RandomEngine rng, int theLength, MutationModel mm) {
+		super(rng, theLength, mm);
+		words = new long[wordCount(length)];
+
+		Uniform uniGen = new Uniform(rng);
+		for(int i=0; i<length; i++) {
+			double r = uniGen.nextDouble();
+			if (r<mm.getPiA())
+				setBaseChar(i, 'A');
+			else if (r<(mm.getPiA()+mm.getPiG()))
+				setBaseChar(i, 'G');
+			else if (r<(mm.getPiA()+mm.getPiG()+mm.getPiC()))
+				setBaseChar(i, 'C');
+			else
+				setBaseChar(i, 'T');
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	/**
+	 * This constructor makes a DNA sequence that looks sort of like an ORF, it starts with a start and contains no stop codons
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 * @param useCodonsFlag
+	 */
+	public PackedDNASequence(RandomEngine rng, int theLength, MutationModel mm, CodonUtils useCodonsFlag) {
+		super(rng, theLength, mm);
+		words = new long[wordCount(length)];
+
+		Uniform uniGen = new Uniform(rng);
+
+		StringBuilder seqStr = new StringBuilder();
+		seqStr.append("ATG");
+		while(seqStr.length() < theLength) {
+			String codon = makeNewCodon(mm, uniGen);
+			seqStr.append(codon);
+		}
+
+		for(int i=0; i<length; i++) {
+			setBaseChar(i, seqStr.charAt(i));
+		}
+		fingerprint = computeFingerprint();
+	}
+
+	private PackedDNASequence(long[] words, int theLength, MutationModel mm, long fingerprint) {
+		super(null, theLength, mm);
+		this.words = words;
+		this.fingerprint = fingerprint;
+	}
+
+	private static int wordCount(int length) {
+		return (length + BASES_PER_WORD - 1) / BASES_PER_WORD;
+	}
+
+	static int codeForBase(char base) {
+		switch(base) {
+		case 'A' : return 0;
+		case 'C' : return 1;
+		case 'G' : return 2;
+		case 'T' : return 3;
+		}
+		throw new IllegalArgumentException("Unknown base : " + base);
+	}
+
+	/**
+	 * A mask covering the bits of the bases from site to the end of its word
+	 */
+	static long maskFrom(int site) {
+		return -1L << ((site & (BASES_PER_WORD-1)) << 1);
+	}
+
+	/**
+	 * A mask covering the bits of the bases from the start of the word up to (but not including) site
+	 */
+	static long maskBefore(int site) {
+		return ~maskFrom(site);
+	}
+
+	public char getBaseChar(int site) {
+		return BASES[(int)(words[site >>> 5] >>> ((site & 31) << 1)) & 3];
+	}
+
+	/**
+	 * Codon indices use the same two-bit codes as we do, with the first base lowest, so the codon is just the six bits
+	 * starting at site, which may run over into the next word
+	 */
+	public int getCodon(int site) {
+		int shift = (site & 31) << 1;
+		int w = site >>> 5;
+		long bits = words[w] >>> shift;
+		if (shift > 58)
+			bits |= words[w+1] << (64 - shift);
+		return (int)bits & 63;
+	}
+
+	public void setBaseChar(int site, char base) {
+		int shift = (site & 31) << 1;
+		int w = site >>> 5;
+		int code = codeForBase(base);
+		fingerprint ^= zobrist(site, (int)(words[w] >>> shift) & 3) ^ zobrist(site, code);
+		words[w] = (words[w] & ~(3L << shift)) | ((long)code << shift);
+	}
+
+	/**
+	 * The change in fingerprint when word w changes from before to after
+	 */
+	static long fingerprintDelta(int w, long before, long after) {
+		long x = before ^ after;
+		x = (x | (x >>> 1)) & LOW_BITS;
+		long delta = 0;
+		while(x != 0) {
+			int bit = Long.numberOfTrailingZeros(x);
+			int site = (w << 5) + (bit >>> 1);
+			delta ^= zobrist(site, (int)(before >>> bit) & 3) ^ zobrist(site, (int)(after >>> bit) & 3);
+			x &= x-1;
+		}
+		return delta;
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
+
+	public DNASequence getCopy() {
+		return new PackedDNASequence(words.clone(), length, mutationModel, fingerprint);
+	}
+
+	/**
+	 * Copies the words of source into our own array if source is also packed
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source instanceof PackedDNASequence && source.length() == length) {
+			System.arraycopy(((PackedDNASequence)source).words, 0, words, 0, words.length);
+			fingerprint = source.fingerprint;
+			mutationModel = source.mutationModel;
+			return true;
+		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * The region is a copy of the words that hold sites min..max, which setRegion on another packed sequence can write back
+	 * without shifting since the sites are in the same place
+	 */
+	public Object getRegion(int min, int max) {
+		if (max <= min)
+			return new PackedRegion(min, max, new long[0]);
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		return new PackedRegion(min, max, Arrays.copyOfRange(words, first, last+1));
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		if (region instanceof PackedRegion) {
+			PackedRegion packed = (PackedRegion)region;
+			if (packed.min == min && packed.max == max) {
+				copyBits(packed.words, min >>> 5, min, max);
+				return;
+			}
+		}
+		super.setRegion(min, max, region);
+	}
+
+	/**
+	 * Exchange the bases in sites min..max with those of other without creating any intermediate copies, if other is
+	 * also packed
+	 * @param other
+	 * @param min
+	 * @param max
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (! (other instanceof PackedDNASequence)) {
+			super.swapRegion(other, min, max);
+			return;
+		}
+		long[] otherWords = ((PackedDNASequence)other).words;
+		if (max <= min)
+			return;
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		for(int w=first; w<=last; w++) {
+			long mask = -1L;
+			if (w == first)
+				mask &= maskFrom(min);
+			if (w == last && (max & 31) != 0)
+				mask &= maskBefore(max);
+			long diff = (words[w] ^ otherWords[w]) & mask;
+			if (diff != 0) {
+				//Both fingerprints change by the same amount, since the same bases are exchanged
+				long delta = fingerprintDelta(w, words[w], words[w] ^ diff);
+				fingerprint ^= delta;
+				((PackedDNASequence)other).fingerprint ^= delta;
+				words[w] ^= diff;
+				otherWords[w] ^= diff;
+			}
+		}
+	}
+
+	/**
+	 * Copy sites min..max from src, whose first word holds the sites of word srcOffset of a full sequence, into our words
+	 */
+	private void copyBits(long[] src, int srcOffset, int min, int max) {
+		if (max <= min)
+			return;
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		for(int w=first; w<=last; w++) {
+			long mask = -1L;
+			if (w == first)
+				mask &= maskFrom(min);
+			if (w == last && (max & 31) != 0)
+				mask &= maskBefore(max);
+			long value = (words[w] & ~mask) | (src[w-srcOffset] & mask);
+			if (value != words[w]) {
+				fingerprint ^= fingerprintDelta(w, words[w], value);
+				words[w] = value;
+			}
+		}
+	}
+
+	/**
+	 * The number of bases that differ between two words
+	 */
+	static int differingBases(long a, long b) {
+		long x = a ^ b;
+		return Long.bitCount((x | (x >>> 1)) & LOW_BITS);
+	}
+
+	/**
+	 * Count differences a word at a time when other is also packed
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		if (! (other instanceof PackedDNASequence))
+			return super.countDifferences(other, min, max);
+		if (max <= min)
+			return 0;
+
+		long[] otherWords = ((PackedDNASequence)other).words;
+		int first = min >>> 5;
+		int last = (max-1) >>> 5;
+		long firstMask = maskFrom(min);
+		long lastMask = (max & 31) == 0 ? -1L : maskBefore(max);
+		if (first == last)
+			return differingBases(words[first] & firstMask & lastMask, otherWords[first] & firstMask & lastMask);
+
+		int count = differingBases(words[first] & firstMask, otherWords[first] & firstMask);
+		for(int w=first+1; w<last; w++)
+			count += differingBases(words[w], otherWords[w]);
+		count += differingBases(words[last] & lastMask, otherWords[last] & lastMask);
+		return count;
+	}
+
+	/**
+	 * Skips over identical words when other is also packed
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		if (! (other instanceof PackedDNASequence))
+			return super.nextDifference(other, site);
+		int end = Math.min(length, other.length());
+		if (site >= end)
+			return -1;
+
+		long[] otherWords = ((PackedDNASequence)other).words;
+		long x = (words[site >>> 5] ^ otherWords[site >>> 5]) & maskFrom(site);
+		for(int w=site >>> 5; ; ) {
+			x = (x | (x >>> 1)) & LOW_BITS;
+			if (x != 0) {
+				int diff = (w << 5) + (Long.numberOfTrailingZeros(x) >>> 1);
+				return diff < end ? diff : -1;
+			}
+			w++;
+			if (w<<5 >= end)
+				return -1;
+			x = words[w] ^ otherWords[w];
+		}
+	}
+
+	public boolean hasFastDifferences() {
+		return true;
+	}
+
+	/**
+	 * Compare whole words when other is also packed. Unused bits at the end of the last word are always zero, so they
+	 * don't need to be masked
+	 */
+	public boolean sameBases(DNASequence other) {
+		if (other instanceof PackedDNASequence && other.length() == length)
+			return Arrays.equals(words, ((PackedDNASequence)other).words);
+		return super.sameBases(other);
+	}
+
+	public Double getDoubleValue() {
+		return null;
+	}
+
+	public String getStringValue() {
+		StringBuilder buf = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			buf.append( getBaseChar(i));
+		}
+		return buf.toString();
+	}
+
+	public String toString() {
+		return getStringValue();
+	}
+
+	/**
+	 * The words holding a region of a packed sequence, as returned by getRegion
+	 */
+	static class PackedRegion implements CharSequence {
+		final int min;
+		final int max;
+		final long[] words;
+
+		PackedRegion(int min, int max, long[] words) {
+			this.min = min;
+			this.max = max;
+			this.words = words;
+		}
+
+		/**
+		 * Other kinds of sequence read regions as a sequence of base characters
+		 */
+		public char charAt(int index) {
+			int site = min + index;
+			return BASES[(int)(words[(site >>> 5) - (min >>> 5)] >>> ((site & 31) << 1)) & 3];
+		}
+
+		public int length() {
+			return max - min;
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		public String toString() {
+			StringBuilder buf = new StringBuilder(max-min);
+			for(int i=0; i<max-min; i++)
+				buf.append(charAt(i));
+			return buf.toString();
+		}
+	}
+}
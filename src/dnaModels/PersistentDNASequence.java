@@ -0,0 +1,551 @@
+package dnaModels;
+
+import population.Recombineable;
+import siteModels.CodonUtils;
+
+import mutationModels.MutationModel;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+
+/**
+ * A DNA sequence stored as a persistent tree, for very long sequences. The leaves are chunks of 256 sites packed two bits per
+ * base as in PackedDNASequence, and each branch has up to 32 children, so a sequence of 10^8 sites is only five levels deep.
+ * Copies of a sequence share nodes: copying a sequence just copies the reference to its root, and changing a base copies
+ * only the nodes on the path from the root to the base's leaf. Recombination exchanges whole subtrees between sequences,
+ * so only the nodes along the boundaries of the region are copied, and comparing two sequences skips over any subtrees
+ * that they share.
+ *   Nodes are never changed once they may be shared. Each sequence has an edit token, and a node may only be changed in place
+ * by the sequence whose token it carries. Making a copy (or handing out a region) gives both sequences new tokens, so all the
+ * nodes they then share are frozen. As with ChunkedDNASequence, copies may be made from several threads at once as long as
+ * none of the sequences are being changed at the time.
+ *   Every node also keeps the XOR of the fingerprint contributions of its sites, so the fingerprint of the whole sequence is
+ * that of the root and is updated without examining exchanged subtrees.
+ *
+ * @author brendan
+ *
+ */
+public class PersistentDNASequence extends DNASequence {
+
+	static final int LEAF_SHIFT = 8;							//Each leaf holds 1 << LEAF_SHIFT sites
+	static final int LEAF_WORDS = (1 << LEAF_SHIFT) / PackedDNASequence.BASES_PER_WORD;
+	static final int BRANCH_SHIFT = 5;							//Each branch has up to 1 << BRANCH_SHIFT children
+	static final int BRANCH_WIDTH = 1 << BRANCH_SHIFT;
+
+	Node root;
+	final int height;		//The number of branch levels above the leaves, zero if the root is a leaf
+	Object edit;			//Nodes carrying this token belong to this sequence alone
+
+	/**
+	 * Constucts a new DNA sequence using the stationary frequencies from the given mutation model. Random numbers are
+	 * drawn exactly as in BitSetDNASequence, so the two produce the same sequence from the same generator
+	 * @param rng A random number generator
+	 * @param theLength The length of this DNA sequence
+	 * @param mm The mutation model associated with this DNA sequence.
+	 */
+	public PersistentDNASequence(RandomEngine rng, int theLength, MutationModel mm) {
+		super(rng, theLength, mm);
+		height = heightFor(theLength);
+		edit = new Object();
+		root = build(height, 0);
+
+		Uniform uniGen = new Uniform(rng);
+		for(int i=0; i<length; i++) {
+			double r = uniGen.nextDouble();
+			if (r<mm.getPiA())
+				setBaseChar(i, 'A');
+			else if (r<(mm.getPiA()+mm.getPiG()))
+				setBaseChar(i, 'G');
+			else if (r<(mm.getPiA()+mm.getPiG()+mm.getPiC()))
+				setBaseChar(i, 'C');
+			else
+				setBaseChar(i, 'T');
+		}
+		fingerprint = computeFingerprints(root, height, 0);
+	}
+
+	/**
+	 * This constructor makes a DNA sequence that looks sort of like an ORF, it starts with a start and contains no stop codons
+	 * @param rng
+	 * @param theLength
+	 * @param mm
+	 * @param useCodonsFlag
+	 */
+	public PersistentDNASequence(RandomEngine rng, int theLength, MutationModel mm, CodonUtils useCodonsFlag) {
+		super(rng, theLength, mm);
+		height = heightFor(theLength);
+		edit = new Object();
+		root = build(height, 0);
+
+		Uniform uniGen = new Uniform(rng);
+
+		StringBuilder seqStr = new StringBuilder();
+		seqStr.append("ATG");
+		while(seqStr.length() < theLength) {
+			String codon = makeNewCodon(mm, uniGen);
+			seqStr.append(codon);
+		}
+
+		for(int i=0; i<length; i++) {
+			setBaseChar(i, seqStr.charAt(i));
+		}
+		fingerprint = computeFingerprints(root, height, 0);
+	}
+
+	private PersistentDNASequence(Node root, int height, int theLength, MutationModel mm, long fingerprint) {
+		super(null, theLength, mm);
+		this.root = root;
+		this.height = height;
+		this.fingerprint = fingerprint;
+		edit = new Object();
+	}
+
+	/**
+	 * The number of branch levels needed for a sequence of the given length
+	 */
+	private static int heightFor(int length) {
+		int leaves = Math.max(1, (length + (1 << LEAF_SHIFT) - 1) >>> LEAF_SHIFT);
+		int height = 0;
+		long capacity = 1;
+		while(capacity < leaves) {
+			capacity <<= BRANCH_SHIFT;
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * The number of sites covered by a node at the given height
+	 */
+	private static long span(int h) {
+		return 1L << (LEAF_SHIFT + BRANCH_SHIFT*h);
+	}
+
+	/**
+	 * Create the empty subtree at height h starting at the given site, or null if the subtree lies beyond the sequence
+	 */
+	private Node build(int h, long start) {
+		if (start >= Math.max(length, 1))
+			return null;
+		if (h == 0)
+			return new Node(edit, new long[LEAF_WORDS]);
+		Node[] children = new Node[BRANCH_WIDTH];
+		for(int i=0; i<BRANCH_WIDTH; i++)
+			children[i] = build(h-1, start + i*span(h-1));
+		return new Node(edit, children);
+	}
+
+	/**
+	 * Set the fingerprint of every node in the subtree by examining every site, and return that of the subtree
+	 */
+	private long computeFingerprints(Node node, int h, long start) {
+		if (node == null)
+			return 0;
+		long fp = 0;
+		if (h == 0) {
+			int end = (int)Math.min(length, start + span(0));
+			for(int site=(int)start; site<end; site++)
+				fp ^= zobrist(site, code(node, site));
+		}
+		else {
+			for(int i=0; i<BRANCH_WIDTH; i++)
+				fp ^= computeFingerprints(node.children[i], h-1, start + i*span(h-1));
+		}
+		node.fp = fp;
+		return fp;
+	}
+
+	/**
+	 * The two-bit code of the given site, which must lie in the given leaf
+	 */
+	private static int code(Node leaf, int site) {
+		return (int)(leaf.words[(site >>> 5) & (LEAF_WORDS-1)] >>> ((site & 31) << 1)) & 3;
+	}
+
+	/**
+	 * The index of the child of a branch at height h that holds the given site
+	 */
+	private static int childIndex(int site, int h) {
+		return (site >>> (LEAF_SHIFT + BRANCH_SHIFT*(h-1))) & (BRANCH_WIDTH-1);
+	}
+
+	private Node leafFor(int site) {
+		Node node = root;
+		for(int h=height; h>0; h--)
+			node = node.children[childIndex(site, h)];
+		return node;
+	}
+
+	public char getBaseChar(int site) {
+		return PackedDNASequence.BASES[code(leafFor(site), site)];
+	}
+
+	public void setBaseChar(int site, char base) {
+		int newCode = PackedDNASequence.codeForBase(base);
+		int oldCode = code(leafFor(site), site);
+		if (newCode == oldCode)
+			return;
+		long delta = zobrist(site, oldCode) ^ zobrist(site, newCode);
+		fingerprint ^= delta;
+
+		//Copy the path down to the leaf where it isn't ours, updating fingerprints along the way
+		root = editable(root);
+		Node node = root;
+		node.fp ^= delta;
+		for(int h=height; h>0; h--) {
+			int i = childIndex(site, h);
+			node = node.children[i] = editable(node.children[i]);
+			node.fp ^= delta;
+		}
+		int shift = (site & 31) << 1;
+		int w = (site >>> 5) & (LEAF_WORDS-1);
+		node.words[w] = (node.words[w] & ~(3L << shift)) | ((long)newCode << shift);
+	}
+
+	/**
+	 * The node itself if we may change it, otherwise a copy of it that we may change
+	 */
+	private Node editable(Node node) {
+		if (node.edit == edit)
+			return node;
+		return node.copy(edit);
+	}
+
+	/**
+	 * Give up the right to change any of our current nodes in place, so that they can be shared
+	 */
+	private void freeze() {
+		edit = new Object();
+	}
+
+	protected boolean tracksFingerprint() {
+		return true;
+	}
+
+	/**
+	 * A copy that shares all of our nodes, which takes constant time
+	 */
+	public DNASequence getCopy() {
+		freeze();
+		return new PersistentDNASequence(root, height, length, mutationModel, fingerprint);
+	}
+
+	/**
+	 * Share the nodes of source if it's also persistent
+	 */
+	public boolean copyFrom(DNASequence source) {
+		if (source == this)
+			return true;
+		if (source instanceof PersistentDNASequence && source.length() == length) {
+			PersistentDNASequence pSource = (PersistentDNASequence)source;
+			pSource.freeze();
+			freeze();
+			root = pSource.root;
+			fingerprint = pSource.fingerprint;
+			mutationModel = source.mutationModel;
+			return true;
+		}
+		return super.copyFrom(source);
+	}
+
+	/**
+	 * The region is a frozen snapshot of our tree, which setRegion on another persistent sequence of the same length can
+	 * splice in subtree by subtree
+	 */
+	public Object getRegion(int min, int max) {
+		freeze();
+		return new TreeRegion(min, max, root, height, length);
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		if (region instanceof TreeRegion) {
+			TreeRegion tree = (TreeRegion)region;
+			if (tree.min == min && tree.max == max && tree.length == length) {
+				if (max > min) {
+					root = editable(root);
+					transfer(root, tree.root, null, height, 0, min, max);
+					fingerprint = root.fp;
+				}
+				return;
+			}
+		}
+		super.setRegion(min, max, region);
+	}
+
+	/**
+	 * Exchange subtrees (and, at the edges of the region, bits of leaves) with other, if it's also persistent and has the
+	 * same length
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (! (other instanceof PersistentDNASequence) || ((PersistentDNASequence)other).length != length) {
+			super.swapRegion(other, min, max);
+			return;
+		}
+		if (max <= min || other == this)
+			return;
+		PersistentDNASequence pOther = (PersistentDNASequence)other;
+		root = editable(root);
+		pOther.root = pOther.editable(pOther.root);
+		transfer(root, pOther.root, pOther, height, 0, min, max);
+		fingerprint = root.fp;
+		pOther.fingerprint = pOther.root.fp;
+		//Each tree now holds nodes carrying the other's token, so neither token can be trusted any more
+		freeze();
+		pOther.freeze();
+	}
+
+	/**
+	 * Replace sites min..max of our subtree a (which we may change) with those of the corresponding subtree b, which covers
+	 * the same sites. If owner is null b is frozen and left alone, otherwise b belongs to owner and receives our sites in
+	 * exchange. Subtrees lying entirely inside min..max are exchanged by reference, only those straddling its ends are
+	 * copied. Fingerprints of a and b are updated
+	 */
+	private void transfer(Node a, Node b, PersistentDNASequence owner, int h, long start, int min, int max) {
+		if (h == 0) {
+			int first = (int)Math.max(min, start);
+			int last = (int)Math.min(max, start + span(0));
+			int leafWord = (int)(start >>> 5);
+			for(int w=0; w<LEAF_WORDS; w++) {
+				long wordStart = start + (w << 5);
+				if (wordStart >= last || wordStart + 32 <= first)
+					continue;
+				long mask = -1L;
+				if (first > wordStart)
+					mask &= PackedDNASequence.maskFrom(first);
+				if (last < wordStart + 32)
+					mask &= PackedDNASequence.maskBefore(last);
+				long diff = (a.words[w] ^ b.words[w]) & mask;
+				if (diff != 0) {
+					long delta = PackedDNASequence.fingerprintDelta(leafWord + w, a.words[w], a.words[w] ^ diff);
+					a.words[w] ^= diff;
+					a.fp ^= delta;
+					if (owner != null) {
+						b.words[w] ^= diff;
+						b.fp ^= delta;
+					}
+				}
+			}
+			return;
+		}
+
+		long childSpan = span(h-1);
+		long fpA = 0;
+		long fpB = 0;
+		for(int i=0; i<BRANCH_WIDTH; i++) {
+			Node childA = a.children[i];
+			Node childB = b.children[i];
+			long childStart = start + i*childSpan;
+			long childEnd = Math.min(childStart + childSpan, length);
+			if (childA != null && childA != childB && childStart < max && childEnd > min) {
+				if (min <= childStart && childEnd <= max) {
+					//The whole child lies in the region
+					a.children[i] = childB;
+					if (owner != null)
+						b.children[i] = childA;
+				}
+				else {
+					childA = a.children[i] = editable(childA);
+					if (owner != null)
+						childB = b.children[i] = owner.editable(childB);
+					transfer(childA, childB, owner, h-1, childStart, min, max);
+				}
+			}
+			if (a.children[i] != null) {
+				fpA ^= a.children[i].fp;
+				fpB ^= b.children[i].fp;
+			}
+		}
+		a.fp = fpA;
+		if (owner != null)
+			b.fp = fpB;
+	}
+
+	/**
+	 * Skip over subtrees that we share with other, if it's also persistent and has the same length
+	 */
+	public int nextDifference(DNASequence other, int site) {
+		if (! (other instanceof PersistentDNASequence) || other.length() != length)
+			return super.nextDifference(other, site);
+		if (site >= length)
+			return -1;
+		return nextDifference(root, ((PersistentDNASequence)other).root, height, 0, site);
+	}
+
+	private int nextDifference(Node a, Node b, int h, long start, int site) {
+		if (a == b)
+			return -1;
+		if (h == 0) {
+			int leafWord = (int)(start >>> 5);
+			for(int w=(int)((Math.max(site, start) - start) >>> 5); w<LEAF_WORDS; w++) {
+				long x = a.words[w] ^ b.words[w];
+				if (((leafWord + w) << 5) < site)
+					x &= PackedDNASequence.maskFrom(site);
+				x = (x | (x >>> 1)) & PackedDNASequence.LOW_BITS;
+				if (x != 0) {
+					int diff = ((leafWord + w) << 5) + (Long.numberOfTrailingZeros(x) >>> 1);
+					return diff < length ? diff : -1;
+				}
+			}
+			return -1;
+		}
+
+		long childSpan = span(h-1);
+		int firstChild = site <= start ? 0 : (int)((site - start) / childSpan);
+		for(int i=firstChild; i<BRANCH_WIDTH; i++) {
+			if (a.children[i] == null)
+				return -1;
+			int diff = nextDifference(a.children[i], b.children[i], h-1, start + i*childSpan, site);
+			if (diff >= 0)
+				return diff;
+		}
+		return -1;
+	}
+
+	public boolean hasFastDifferences() {
+		return true;
+	}
+
+	/**
+	 * Count differences leaf by leaf, skipping shared subtrees, when other is also persistent and has the same length
+	 */
+	public int countDifferences(DNASequence other, int min, int max) {
+		if (! (other instanceof PersistentDNASequence) || other.length() != length)
+			return super.countDifferences(other, min, max);
+		if (max <= min)
+			return 0;
+		return countDifferences(root, ((PersistentDNASequence)other).root, height, 0, min, max);
+	}
+
+	private int countDifferences(Node a, Node b, int h, long start, int min, int max) {
+		if (a == b)
+			return 0;
+		if (h == 0) {
+			int count = 0;
+			for(int w=0; w<LEAF_WORDS; w++) {
+				long wordStart = start + (w << 5);
+				if (wordStart >= max || wordStart + 32 <= min)
+					continue;
+				long mask = -1L;
+				if (min > wordStart)
+					mask &= PackedDNASequence.maskFrom(min);
+				if (max < wordStart + 32)
+					mask &= PackedDNASequence.maskBefore(max);
+				count += PackedDNASequence.differingBases(a.words[w] & mask, b.words[w] & mask);
+			}
+			return count;
+		}
+
+		long childSpan = span(h-1);
+		int count = 0;
+		for(int i=0; i<BRANCH_WIDTH; i++) {
+			long childStart = start + i*childSpan;
+			if (a.children[i] == null || childStart >= max)
+				break;
+			if (childStart + childSpan > min)
+				count += countDifferences(a.children[i], b.children[i], h-1, childStart, min, max);
+		}
+		return count;
+	}
+
+	/**
+	 * Compare fingerprints, and then compare the trees if they match
+	 */
+	public boolean sameBases(DNASequence other) {
+		if (other instanceof PersistentDNASequence && other.length() == length) {
+			PersistentDNASequence pOther = (PersistentDNASequence)other;
+			if (pOther.root == root)
+				return true;
+			return pOther.fingerprint == fingerprint && countDifferences(other, 0, length) == 0;
+		}
+		return super.sameBases(other);
+	}
+
+	public Double getDoubleValue() {
+		return null;
+	}
+
+	public String getStringValue() {
+		StringBuilder buf = new StringBuilder(length);
+		for(int i=0; i<length; i++) {
+			buf.append( getBaseChar(i));
+		}
+		return buf.toString();
+	}
+
+	public String toString() {
+		return getStringValue();
+	}
+
+	/**
+	 * A node of the tree, either a leaf holding packed bases or a branch holding children
+	 */
+	static class Node {
+		final Object edit;		//The token of the sequence that may change this node in place
+		long fp;				//XOR of the fingerprint contributions of the sites in this subtree
+		final long[] words;		//Packed bases, for leaves
+		final Node[] children;	//Subtrees, for branches. Subtrees lying beyond the end of the sequence are null
+
+		Node(Object edit, long[] words) {
+			this.edit = edit;
+			this.words = words;
+			this.children = null;
+		}
+
+		Node(Object edit, Node[] children) {
+			this.edit = edit;
+			this.words = null;
+			this.children = children;
+		}
+
+		Node copy(Object newEdit) {
+			Node copy = words != null ? new Node(newEdit, words.clone()) : new Node(newEdit, children.clone());
+			copy.fp = fp;
+			return copy;
+		}
+	}
+
+	/**
+	 * A frozen snapshot of a persistent sequence covering sites min..max, as returned by getRegion
+	 */
+	static class TreeRegion implements CharSequence {
+		final int min;
+		final int max;
+		final Node root;
+		final int height;
+		final int length;
+
+		TreeRegion(int min, int max, Node root, int height, int length) {
+			this.min = min;
+			this.max = max;
+			this.root = root;
+			this.height = height;
+			this.length = length;
+		}
+
+		/**
+		 * Other kinds of sequence read regions as a sequence of base characters
+		 */
+		public char charAt(int index) {
+			int site = min + index;
+			Node node = root;
+			for(int h=height; h>0; h--)
+				node = node.children[childIndex(site, h)];
+			return PackedDNASequence.BASES[code(node, site)];
+		}
+
+		public int length() {
+			return max - min;
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		public String toString() {
+			StringBuilder buf = new StringBuilder(max-min);
+			for(int i=0; i<max-min; i++)
+				buf.append(charAt(i));
+			return buf.toString();
+		}
+	}
+}
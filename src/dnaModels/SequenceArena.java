@@ -0,0 +1,235 @@
+package dnaModels;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Off-heap storage for the bases of many sequences of the same length, used by OffHeapDNASequence. The arena is divided
+ * into fixed-size slots, each holding one sequence packed two bits per base exactly as in PackedDNASequence, and the
+ * slots are carved out of large direct buffers (blocks) allocated outside the Java heap. Thus the garbage collector never
+ * has to copy or scan the bases themselves, which matters when there are many individuals with long sequences. Note that
+ * the JVM limits direct memory to -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ *  Slots are returned to the arena when their sequence is retired (see DNASequence.retire), which CompactPopulation does
+ * for the whole parental generation each time it swaps generations. Sequences that are simply dropped are noticed when the
+ * garbage collector reclaims them, since the arena holds each sequence weakly, and their slots are reused too.
+ *  Allocating and freeing slots is synchronized. Reading and writing slots is not, so different threads can work on
+ * different sequences concurrently.
+ *
+ * @author brendan
+ *
+ */
+public class SequenceArena {
+
+	static final int BLOCK_WORDS = 1 << 20;	//Target number of longs in each block (8MB)
+	static final int MAX_BLOCKS = 1 << 16;
+
+	private final int length;			//Number of sites in each sequence
+	private final int slotWords;		//Number of longs in each slot
+	private final int blockShift;		//Each block holds 2^blockShift slots
+	private final int slotMask;
+
+	//Never resized, so that threads reading slots never see a partially copied array of blocks
+	private final LongBuffer[] blocks = new LongBuffer[MAX_BLOCKS];
+	private int blockCount = 0;
+
+	private int[] freeSlots = new int[64];
+	private int freeCount = 0;
+	private int nextSlot = 0;			//The first slot that has never been handed out
+
+	private SlotReference[] owners = new SlotReference[64];	//The sequence using each slot, held weakly
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	private long allocations = 0;		//Total calls to allocate
+	private long frees = 0;				//Slots returned by free
+	private long reclaimed = 0;			//Slots returned because their sequence was garbage collected
+	private int inUse = 0;
+	private int maxInUse = 0;
+
+	/**
+	 * Create a new, empty arena for sequences of the given length. Nothing is allocated until the first slot is needed
+	 * @param length
+	 */
+	public SequenceArena(int length) {
+		this.length = length;
+		slotWords = Math.max(1, (length + PackedDNASequence.BASES_PER_WORD - 1) / PackedDNASequence.BASES_PER_WORD);
+		int shift = 0;
+		while(shift < 30 && ((long)slotWords << (shift+1)) <= BLOCK_WORDS)
+			shift++;
+		blockShift = shift;
+		slotMask = (1 << shift) - 1;
+	}
+
+	/**
+	 * Obtain a free slot for the given sequence. The slot's contents are whatever was left by its previous owner
+	 * @param owner
+	 * @return
+	 */
+	synchronized int allocate(Object owner) {
+		reclaimCollected();
+		allocations++;
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		}
+		else {
+			slot = nextSlot;
+			if ((slot >>> blockShift) >= blockCount)
+				addBlock();
+			nextSlot++;
+			if (nextSlot > owners.length) {
+				SlotReference[] newOwners = new SlotReference[owners.length*2];
+				System.arraycopy(owners, 0, newOwners, 0, owners.length);
+				owners = newOwners;
+			}
+		}
+		owners[slot] = new SlotReference(owner, slot, collected);
+		inUse++;
+		maxInUse = Math.max(maxInUse, inUse);
+		return slot;
+	}
+
+	/**
+	 * Return a slot whose sequence is no longer used to the arena
+	 * @param slot
+	 */
+	synchronized void free(int slot) {
+		SlotReference ref = owners[slot];
+		if (ref == null)
+			return;
+		ref.clear();
+		owners[slot] = null;
+		frees++;
+		release(slot);
+	}
+
+	/**
+	 * Free the slots of sequences that have been garbage collected without being retired
+	 */
+	private void reclaimCollected() {
+		SlotReference dead;
+		while((dead = (SlotReference)collected.poll()) != null) {
+			if (owners[dead.slot] == dead) {
+				owners[dead.slot] = null;
+				reclaimed++;
+				release(dead.slot);
+			}
+		}
+	}
+
+	private void release(int slot) {
+		if (freeCount == freeSlots.length) {
+			int[] newFree = new int[freeSlots.length*2];
+			System.arraycopy(freeSlots, 0, newFree, 0, freeCount);
+			freeSlots = newFree;
+		}
+		freeSlots[freeCount++] = slot;
+		inUse--;
+	}
+
+	private void addBlock() {
+		if (blockCount == MAX_BLOCKS)
+			throw new IllegalStateException("Sequence arena is full, cannot allocate more than " + ((long)MAX_BLOCKS << blockShift) + " sequences");
+		ByteBuffer bytes = ByteBuffer.allocateDirect((slotWords << blockShift) * 8).order(ByteOrder.nativeOrder());
+		blocks[blockCount] = bytes.asLongBuffer();
+		blockCount++;
+	}
+
+	/**
+	 * The block holding the given slot
+	 */
+	LongBuffer block(int slot) {
+		return blocks[slot >>> blockShift];
+	}
+
+	/**
+	 * The index in its block of the first word of the given slot
+	 */
+	int offset(int slot) {
+		return (slot & slotMask) * slotWords;
+	}
+
+	/**
+	 * Copy the words of one slot to another
+	 * @param from
+	 * @param to
+	 */
+	void copy(int from, int to) {
+		LongBuffer src = block(from);
+		LongBuffer dest = block(to);
+		int srcOffset = offset(from);
+		int destOffset = offset(to);
+		for(int w=0; w<slotWords; w++)
+			dest.put(destOffset+w, src.get(srcOffset+w));
+	}
+
+	/**
+	 * Set all words of a slot to zero
+	 * @param slot
+	 */
+	void clear(int slot) {
+		LongBuffer dest = block(slot);
+		int destOffset = offset(slot);
+		for(int w=0; w<slotWords; w++)
+			dest.put(destOffset+w, 0L);
+	}
+
+	/**
+	 * The number of sites in each sequence
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	int getSlotWords() {
+		return slotWords;
+	}
+
+	public synchronized int getSlotsInUse() {
+		reclaimCollected();
+		return inUse;
+	}
+
+	public synchronized int getMaxSlotsInUse() {
+		return maxInUse;
+	}
+
+	public synchronized long getAllocations() {
+		return allocations;
+	}
+
+	public synchronized long getFrees() {
+		return frees;
+	}
+
+	public synchronized long getReclaimed() {
+		return reclaimed;
+	}
+
+	/**
+	 * The number of bytes of direct memory allocated, which is never given back while the arena exists
+	 * @return
+	 */
+	public synchronized long getReservedBytes() {
+		return (long)blockCount * ((long)slotWords << blockShift) * 8L;
+	}
+
+	public String toString() {
+		return "Sequence arena: " + getSlotsInUse() + " sequences (max " + getMaxSlotsInUse() + "), " + getAllocations() + " allocations, " + getFrees() + " frees, " + getReclaimed() + " reclaimed, " + (getReservedBytes() >> 20) + "MB reserved";
+	}
+
+	/**
+	 * A weak reference to the sequence using a slot
+	 */
+	private static class SlotReference extends WeakReference<Object> {
+		final int slot;
+
+		SlotReference(Object owner, int slot, ReferenceQueue<Object> queue) {
+			super(owner, queue);
+			this.slot = slot;
+		}
+	}
+}
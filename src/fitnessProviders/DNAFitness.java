@@ -2,13 +2,20 @@ package fitnessProviders;
 
 import population.Locus;
 import population.Recombineable;
+import mutationModels.MutationMatrixModel;
 import mutationModels.MutationModel;
+import mutationModels.MutationStream;
 import siteModels.CodonUtils;
 import siteModels.SiteFitnesses;
 import siteModels.CodonUtils.AminoAcid;
 import xml.TJXMLConstants;
 import cern.jet.random.engine.RandomEngine;
+import dnaModels.BitSetDNASequence;
+import dnaModels.BitSetPool;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
+import dnaModels.HaplotypeStore;
+import dnaModels.MismatchIndex;
 
 /**
  * This class calculates fitness based on the state of a DNA sequence. It also provides functions for mutating the 
@@ -29,6 +36,8 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 	protected RandomEngine rng;				//The random number engine used to generate random numbers 
 	protected MutationModel mutMod; 			//The mutation model of this individual
 	protected SiteFitnesses siteModel;		//The model that describes the fitness impact of mutations at different sites
+	protected MismatchIndex mismatches;		//The sites at which seq differs from master, null if seq can find these quickly on its own
+	protected HaplotypeStore haplotypes = null;	//If not null, seq is shared with other individuals and must never be modified in place
 	
 	/**
 	 * Construct a new DNA fitness model using the supplied arguments. The initial state of the DNA sequence will
@@ -47,6 +56,7 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 		this.rng = rng;
 		mutMod = mm;
 		siteModel = sMod;
+		mismatches = indexFor(seq, master);
 		
 		addXMLAttributes();
 	}
@@ -57,6 +67,10 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 		addXMLAttr(TJXMLConstants.LENGTH, String.valueOf(master.length()));
 		addXMLAttr(TJXMLConstants.MUTATIONRATE, String.valueOf(mutMod.getMu()));
 		addXMLAttr(TJXMLConstants.RECOMBINATIONRATE, String.valueOf(mutMod.getRecombinationRate()));
+		if (DNASequenceFactory.typeOf(master) != null)
+			addXMLAttr(DNASequenceFactory.XML_SEQUENCETYPE, DNASequenceFactory.typeOf(master).name());
+		addXMLAttr(HaplotypeStore.XML_SHAREHAPLOTYPES, String.valueOf(haplotypes != null));
+		addXMLAttr(BitSetPool.XML_POOLBUFFERS, String.valueOf(getBufferPool() != null));
 		addXMLChild(mutMod);
 		addXMLChild(siteModel);
 	}
@@ -72,10 +86,20 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 	 * @param sMod
 	 * @param fitness
 	 * @param mm
+	 * @param newMismatches
+	 * @param store
 	 */
-	private DNAFitness(RandomEngine rng, DNASequence newSeq, DNASequence masterSeq, SiteFitnesses sMod, double fitness, MutationModel mm) {
+	private DNAFitness(RandomEngine rng, DNASequence newSeq, DNASequence masterSeq, SiteFitnesses sMod, double fitness, MutationModel mm, MismatchIndex newMismatches, HaplotypeStore store) {
 		super(TJXMLConstants.FITNESS_MODEL);
-		seq = (DNASequence)newSeq.getCopy();
+		haplotypes = store;
+		if (haplotypes != null) {
+			seq = newSeq;	//Shared haplotypes are never modified, so there's no need to copy
+			mismatches = null;
+		}
+		else {
+			seq = newSeq.getCopy();
+			mismatches = newMismatches == null ? null : newMismatches.getCopy();
+		}
 
 		master = masterSeq;
 		this.rng = rng;
@@ -92,6 +116,29 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 		return mutMod;
 	}
 	
+	/**
+	 * Mutate using the given model from now on. Copies made afterwards use the new model, existing copies are unaffected
+	 * @param model
+	 */
+	public void setMutationModel(MutationModel model) {
+		if (model == null || model == mutMod)
+			return;
+		if (children != null) {
+			int index = children.indexOf(mutMod);
+			if (index >= 0)
+				children.set(index, model);
+		}
+		mutMod = model;
+		if (xmlAttrs != null) {
+			addXMLAttr(TJXMLConstants.MUTATIONRATE, String.valueOf(mutMod.getMu()));
+			addXMLAttr(TJXMLConstants.RECOMBINATIONRATE, String.valueOf(mutMod.getRecombinationRate()));
+		}
+	}
+	
+	public double getRecombinationRate() {
+		return mutMod.getRecombinationRate();
+	}
+	
 	public Object getSubstrate() {
 		return seq;
 	}
@@ -108,6 +155,82 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 		return siteModel;
 	}
 	
+	/**
+	 * A new index of the differences between seq and master, or null if seq doesn't need one
+	 */
+	private static MismatchIndex indexFor(DNASequence seq, DNASequence master) {
+		if (seq.hasFastDifferences())
+			return null;
+		return new MismatchIndex(seq, master);
+	}
+	
+	/**
+	 * Share identical sequences among individuals using the given store, or stop sharing them if store is null. Copies of
+	 * this model use the same store. While sharing, sequences are copied only when they mutate or recombine, and the mutated
+	 * sequence is then replaced by the store's instance if another individual already carries the same haplotype. No
+	 * MismatchIndex is kept, so sequence types with fast differences (see DNASequence.hasFastDifferences) work best here.
+	 * @param store
+	 */
+	public void setHaplotypeStore(HaplotypeStore store) {
+		if (store == haplotypes)
+			return;
+		if (store != null) {
+			seq = store.intern(haplotypes == null ? seq : seq.getCopy());
+			mismatches = null;
+		}
+		else {
+			seq = seq.getCopy();
+			mismatches = indexFor(seq, master);
+		}
+		haplotypes = store;
+		addXMLAttr(HaplotypeStore.XML_SHAREHAPLOTYPES, String.valueOf(haplotypes != null));
+	}
+	
+	public HaplotypeStore getHaplotypeStore() {
+		return haplotypes;
+	}
+	
+	/**
+	 * Take the storage for copies of our sequence from the given pool, so that the storage of discarded sequences is reused.
+	 * Copies of this model use the same pool. This only applies to BitSetDNASequences, for other types this does nothing.
+	 * @param pool
+	 */
+	public void setBufferPool(BitSetPool pool) {
+		if (! (seq instanceof BitSetDNASequence)) {
+			System.err.println("Buffer pools are only used by bit set sequences, ignoring pool for sequence type " + DNASequenceFactory.typeOf(seq));
+			return;
+		}
+		((BitSetDNASequence)seq).setPool(pool);
+		addXMLAttr(BitSetPool.XML_POOLBUFFERS, String.valueOf(pool != null));
+	}
+	
+	public BitSetPool getBufferPool() {
+		if (seq instanceof BitSetDNASequence)
+			return ((BitSetDNASequence)seq).getPool();
+		return null;
+	}
+	
+	/**
+	 * Return our sequence's storage to its pool, unless the sequence is a shared haplotype
+	 */
+	public void retire() {
+		if (haplotypes == null)
+			seq.retire();
+	}
+	
+	/**
+	 * Replace our sequence with the shared instance of changed, a private copy of it. If another individual already carries
+	 * the same haplotype the copy isn't needed any more, and is retired
+	 * @param changed
+	 * @return
+	 */
+	private DNASequence intern(DNASequence changed) {
+		DNASequence shared = haplotypes.intern(changed);
+		if (shared != changed)
+			changed.retire();
+		return shared;
+	}
+	
 	/**
 	 * Set the master DNA sequence for this fitness model, causes a complete recalculation of fitness (as it must)
 	 * @param newMaster
@@ -115,7 +238,9 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 	public void setMasterSequence(DNASequence newMaster) {
 		master = newMaster;
 		//siteModel.setMaster(master);
-		currentFitness = siteModel.recomputeFitness(seq, master);
+		//Shared haplotypes are never modified in place, so an index would never be updated as we mutate
+		mismatches = haplotypes == null ? indexFor(seq, master) : null;
+		currentFitness = siteModel.recomputeFitness(seq, master, mismatches);
 	}
 	
 	/**
@@ -124,7 +249,43 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 	 * this this thing depends
 	 */
 	public FitnessProvider getCopy() {
-		return new DNAFitness(rng, seq, master, siteModel, currentFitness, mutMod);
+		return new DNAFitness(rng, seq, master, siteModel, currentFitness, mutMod, mismatches, haplotypes);
+	}
+	
+	/**
+	 * Copy this object into retired, if it is a DNAFitness whose sequence can take a copy of ours, otherwise
+	 * create a new copy
+	 */
+	public FitnessProvider getCopy(FitnessProvider retired) {
+		if (retired != null && retired != this && retired.getClass() == getClass()) {
+			DNAFitness copy = (DNAFitness)retired;
+			//A retired provider's sequence can only be overwritten if it isn't a shared haplotype
+			boolean copied = false;
+			if (haplotypes != null) {
+				if (copy.haplotypes == null)
+					copy.seq.retire();
+				copy.seq = seq;
+				copied = true;
+			}
+			else if (copy.haplotypes == null) {
+				copied = copy.seq.copyFrom(seq);
+			}
+			
+			if (copied) {
+				copy.haplotypes = haplotypes;
+				copy.master = master;
+				copy.rng = rng;
+				copy.siteModel = siteModel;
+				copy.mutMod = mutMod;
+				copy.currentFitness = currentFitness;
+				if (mismatches == null)
+					copy.mismatches = null;
+				else if (copy.mismatches == null || ! copy.mismatches.copyFrom(mismatches))
+					copy.mismatches = mismatches.getCopy();
+				return copy;
+			}
+		}
+		return getCopy();
 	}
 	
 	/**
@@ -135,6 +296,8 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 		
 		desc.append("Fitness described by DNA of length L = " + seq.length() + "\n");
 		desc.append("Mutation model: " + mutMod.getDescription() +"\n");
+		if (mutMod instanceof MutationMatrixModel && ((MutationMatrixModel)mutMod).getSiteRates() != null)
+			desc.append("Site rates: " + ((MutationMatrixModel)mutMod).getSiteRates().getDescription() + "\n");
 		desc.append("Site model : " + siteModel.getDescription() +"\n");
 		
 		return desc.toString();
@@ -180,15 +343,78 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 	 *  uses GTR mutation. 
 	 */
 	public void mutate() {
+		MutationStream stream = mutMod.getStream();
+		if (stream != null) {
+			mutate(stream);
+			return;
+		}
+		
 		//delta is the log *change* in fitness which is calculated as we mutate individual sites. 
+		if (haplotypes != null)
+			seq = seq.getCopy();
 		double delta = mutMod.mutateUpdateFitness(seq, master, siteModel);
+		if (haplotypes != null)
+			seq = intern(seq);
+		if (mismatches != null)
+			mismatches.rebuild(seq, master, 0, seq.length());
+		updateFitness(delta);
+	}
+	
+	/**
+	 * Mutate using the given stream, this may be called concurrently for different DNAFitness objects as long as each
+	 * thread uses its own stream. 
+	 */
+	public void mutate(MutationStream stream) {
+		mutate(stream, mutMod.drawMutationCount(seq.length(), stream));
+	}
+	
+	/**
+	 * Mutations are Poisson with the mean given by the mutation model for our sequence length
+	 */
+	public double getMutationMean() {
+		return mutMod.getMutationMean(seq.length());
+	}
+	
+	/**
+	 * Apply exactly howmany mutations using the given stream
+	 */
+	public void mutate(MutationStream stream, int howmany) {
+		if (howmany == 0)
+			return;
+		
+		if (haplotypes != null) {
+			DNASequence mutated = seq.getCopy();
+			double delta = mutMod.mutateUpdateFitness(mutated, master, siteModel, stream, howmany);
+			seq = intern(mutated);
+			updateFitness(delta);
+			return;
+		}
 		
-		//In some cases we simply cannot calculate the fitness change for the information given (for instance, if there are multiple 
-		//mutations in the same codon, we do not know which one came first, and therefore cannot separate nonsynonymous from 
-		//synonymous mutations. In this case, the siteModel returns NaN for delta, which signals a full recomputation of the 
-		//fitness of the sequence. Currently, only the codon model uses this flag. 
+		double delta = mutMod.mutateUpdateFitness(seq, master, siteModel, stream, howmany);
+		if (mismatches != null) {
+			for(Integer site : stream.getMutatedSites())
+				mismatches.update(site, seq, master);
+		}
+		updateFitness(delta);
+	}
+	
+	/**
+	 * DNA sequences, mutation models and site models don't share mutable state among copies, so they can be mutated in parallel
+	 */
+	public boolean supportsParallelMutation() {
+		return true;
+	}
+	
+	/**
+	 * Update the current fitness given the log change in fitness returned by mutateUpdateFitness
+	 * @param delta
+	 */
+	private void updateFitness(double delta) {
+		//A site model that cannot calculate the fitness change from the mutated sites alone may return NaN for delta, which 
+		//signals a full recomputation of the fitness of the sequence. None of the current site models do this; the codon model
+		//used to for multiple mutations in the same codon, but now computes the change directly (see CodonFitnesses). 
 		if (Double.isNaN(delta)) { 
-			currentFitness = siteModel.recomputeFitness(seq, master);
+			currentFitness = siteModel.recomputeFitness(seq, master, mismatches);
 			//System.out.println("Recomputing!");
 		}
 		else {
@@ -224,8 +450,54 @@ public class DNAFitness extends FitnessProvider implements Recombineable {
 
 	@Override
 	public void setRegion(int min, int max, Object region) {
-		seq.setRegion(min, max, region);
-		currentFitness = siteModel.recomputeFitness(seq, master);
+		if (haplotypes != null) {
+			DNASequence recombined = seq.getCopy();
+			recombined.setRegion(min, max, region);
+			seq = intern(recombined);
+		}
+		else {
+			seq.setRegion(min, max, region);
+		}
+		if (mismatches != null)
+			mismatches.rebuild(seq, master, min, max);
+		currentFitness = siteModel.recomputeFitness(seq, master, mismatches);
+	}
+
+	/**
+	 * Swap the region directly between the two sequences if other is also a DNAFitness, so that sequence types that
+	 * can exchange regions in place do so
+	 */
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (other instanceof DNAFitness) {
+			DNAFitness otherFitness = (DNAFitness)other;
+			//Shared haplotypes are swapped in private copies, which are then interned
+			if (haplotypes != null)
+				seq = seq.getCopy();
+			if (otherFitness.haplotypes != null)
+				otherFitness.seq = otherFitness.seq.getCopy();
+			seq.swapRegion(otherFitness.seq, min, max);
+			if (haplotypes != null)
+				seq = intern(seq);
+			if (otherFitness.haplotypes != null)
+				otherFitness.seq = otherFitness.intern(otherFitness.seq);
+			//The sites that differ from the master are exchanged along with the bases if both sequences have the same master
+			if (mismatches != null && otherFitness.mismatches != null && master == otherFitness.master) {
+				mismatches.swapRange(otherFitness.mismatches, min, max);
+			}
+			else {
+				if (mismatches != null)
+					mismatches.rebuild(seq, master, min, max);
+				if (otherFitness.mismatches != null)
+					otherFitness.mismatches.rebuild(otherFitness.seq, otherFitness.master, min, max);
+			}
+			currentFitness = siteModel.recomputeFitness(seq, master, mismatches);
+			otherFitness.currentFitness = otherFitness.siteModel.recomputeFitness(otherFitness.seq, otherFitness.master, otherFitness.mismatches);
+		}
+		else {
+			Object ours = getRegion(min, max);
+			setRegion(min, max, other.getRegion(min, max));
+			other.setRegion(min, max, ours);
+		}
 	}
 
 }
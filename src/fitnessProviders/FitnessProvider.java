@@ -2,6 +2,9 @@ package fitnessProviders;
 
 import java.io.Serializable;
 
+import mutationModels.MutationStream;
+import tree.DiscreteGenTree;
+
 import cern.jet.random.engine.RandomEngine;
 
 import xml.XMLParseable;
@@ -49,6 +52,60 @@ public abstract class FitnessProvider extends XMLParseable implements Serializab
 	 */
 	public abstract void mutate();
 	
+	/**
+	 * Mutate using the random number generators and buffers in the given stream, rather than those shared by all copies of
+	 * this model. The default just calls mutate(), which is only safe if supportsParallelMutation() returns false.
+	 * @param stream
+	 */
+	public void mutate(MutationStream stream) {
+		mutate();
+	}
+	
+	/**
+	 * The expected number of mutations this provider acquires in one generation, if that number is Poisson distributed,
+	 * otherwise a negative value (the default). Population engines use this to draw the mutations of a whole generation at
+	 * once (see population.MutationBatch) and then call mutate(MutationStream, int) only for providers that received any.
+	 * @return
+	 */
+	public double getMutationMean() {
+		return -1;
+	}
+	
+	/**
+	 * Apply exactly howmany mutations, drawing random numbers from the given stream. This is only called for providers whose
+	 * getMutationMean is non-negative, and may be called concurrently for distinct copies if supportsParallelMutation is true
+	 * @param stream
+	 * @param howmany
+	 */
+	public void mutate(MutationStream stream, int howmany) {
+		throw new UnsupportedOperationException("Fitness model " + getClass().getSimpleName() + " can't apply a given number of mutations");
+	}
+	
+	/**
+	 * Whether or not distinct copies of this fitness provider can be created (via getCopy) and mutated (via mutate(MutationStream)) from 
+	 * multiple threads at once. Models that share random number generators or other mutable state among copies must return false. 
+	 * @return
+	 */
+	public boolean supportsParallelMutation() {
+		return false;
+	}
+	
+	/**
+	 * The per-individual, per-generation rate at which Recombineable providers recombine. The default is zero
+	 * @return
+	 */
+	public double getRecombinationRate() {
+		return 0;
+	}
+	
+	/**
+	 * Called on the data of the tips of a newly sampled genealogy, before the genealogy is handed to statistics or
+	 * output writers. Most models can ignore this, since the tips already carry copies of the data of the sampled
+	 * individuals. Models that don't carry their substrate through the simulation use this to fill it in.
+	 * @param tree
+	 */
+	public void completeSampleTree(DiscreteGenTree tree) { }
+	
 	
 	/**
 	 * Provides a user-readable description of the model
@@ -63,6 +120,24 @@ public abstract class FitnessProvider extends XMLParseable implements Serializab
 	 */
 	public abstract FitnessProvider getCopy();
 	
+	/**
+	 * Obtain a copy of this fitness provider, reusing the storage of the given retired provider (one that is no longer
+	 * referenced by any individual) if possible. The default ignores retired and just calls getCopy()
+	 * @param retired A provider that may be overwritten, or null
+	 * @return A copy of this provider, which may be retired itself
+	 */
+	public FitnessProvider getCopy(FitnessProvider retired) {
+		return getCopy();
+	}
+	
+	/**
+	 * Called when no individual refers to this provider any more and it won't be reused, so that pooled storage (such
+	 * as that of BitSetDNASequences) can be returned. The provider must not be used afterwards. The default does nothing
+	 */
+	public void retire() {
+		
+	}
+	
 	/**
 	 * Returns the object whose state is evaluated to provide the fitness value (for instance, a DNASequence, a Double for the QGen models
 	 * or a Boolean for the TwoAllele model). This isn't really used too often and may be removed, or given a no-op default soon. 
@@ -0,0 +1,271 @@
+package fitnessProviders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import mutationModels.MutationModel;
+import population.Locus;
+import population.Recombineable;
+import siteModels.SiteFitnesses;
+import tree.DiscreteGenTree;
+import xml.TJXMLConstants;
+import cern.jet.random.engine.RandomEngine;
+import dnaModels.DNASequence;
+
+/**
+ * A stand-in for a DNAFitness model whose sites are all neutral. Since mutations never change fitness, there's no need to
+ * carry a DNA sequence through every generation and mutate it, so individuals carry only this (sequence-less) object and
+ * the simulation tracks just the genealogy. Recombination breakpoints are still picked and recorded as usual.
+ *
+ * When a genealogy is sampled, completeSampleTree places mutations on its branches using the mutation model of the DNAFitness
+ * this replaces, starting from the master sequence at the root, and gives each tip a provider holding its sequence. Statistics and
+ * output writers that examine the tips of sampled trees (for instance, the FASTA writer in OutputManager) see sequences
+ * just as they would with the full model. Statistics that examine the DNA of members of the population directly can't be used.
+ *
+ * @author brendan
+ *
+ */
+public class GenealogyFitness extends FitnessProvider implements Recombineable {
+
+	protected DNAFitness template;		//The neutral model we stand in for, provides the master sequence, mutation and site models
+	protected DNASequence seq = null;	//Only the tips of sampled genealogies have a sequence
+
+	public GenealogyFitness(DNAFitness template) {
+		this(template, null);
+	}
+
+	/**
+	 * As with the DNAFitness copy constructor, we skip all XML-related work here
+	 * @param template
+	 * @param seq
+	 */
+	private GenealogyFitness(DNAFitness template, DNASequence seq) {
+		super(TJXMLConstants.FITNESS_MODEL);
+		this.template = template;
+		this.seq = seq;
+	}
+
+	/**
+	 * Whether or not the given model can be replaced by a GenealogyFitness without changing the simulation, which is true
+	 * for DNAFitness models in which every site is neutral
+	 * @param model
+	 * @return
+	 */
+	public static boolean canReplace(FitnessProvider model) {
+		return model instanceof DNAFitness && ((DNAFitness)model).getSiteModel().isNeutral();
+	}
+
+	/**
+	 * Settings are written as those of the model we stand in for
+	 */
+	public void addXMLAttributes() {
+		template.addXMLAttributes();
+	}
+
+	public void writeXMLBlock(XMLStreamWriter writer, String prefix) throws XMLStreamException {
+		template.writeXMLBlock(writer, prefix);
+	}
+
+	public DNAFitness getTemplate() {
+		return template;
+	}
+
+	public DNASequence getMaster() {
+		return template.getMaster();
+	}
+
+	public MutationModel getMutationModel() {
+		return template.getMutationModel();
+	}
+
+	public SiteFitnesses getSiteModel() {
+		return template.getSiteModel();
+	}
+
+	public void setRandomEngine(RandomEngine rng) {
+		template.setRandomEngine(rng);
+	}
+
+	public double getFitness() {
+		return 1.0;
+	}
+
+	/**
+	 * Nothing to do, mutations are only placed on sampled genealogies
+	 */
+	public void mutate() {
+	}
+
+	public boolean supportsParallelMutation() {
+		return true;
+	}
+
+	public double getRecombinationRate() {
+		return template.getRecombinationRate();
+	}
+
+	public String getDescription() {
+		return "Genealogy only, mutations are placed on sampled genealogies\n" + template.getDescription();
+	}
+
+	public FitnessProvider getCopy() {
+		return new GenealogyFitness(template, seq);
+	}
+
+	/**
+	 * The sequence of this individual, which is null unless this is the tip of a sampled genealogy
+	 */
+	public Object getSubstrate() {
+		return seq;
+	}
+
+	public String getStringValue() {
+		return seq == null ? null : seq.getStringValue();
+	}
+
+	public Double getDoubleValue() {
+		return 1.0;
+	}
+
+	public int length() {
+		return getMaster().length();
+	}
+
+	/**
+	 * There's no data to exchange, the regions are reconstructed from the breakpoints in completeSampleTree
+	 */
+	public Object getRegion(int min, int max) {
+		return null;
+	}
+
+	public void setRegion(int min, int max, Object region) {
+	}
+
+	public void swapRegion(Recombineable other, int min, int max) {
+	}
+
+	/**
+	 * Drop mutations onto the branches of the tree and give each tip a GenealogyFitness holding its sequence. The tree is
+	 * visited one generation at a time from the root. Each node inherits the sequence of its parent, except that recombinant
+	 * nodes take the region between their breakpoints from the parent of their recombination partner, and then mutations are
+	 * added for the one generation since the parent. Along unbroken chains of single-offspring nodes the sequence is
+	 * passed down without copying and the generations are added up, so that all mutations on the chain are placed in one step.
+	 * Recombination partners that have no offspring and aren't tips (the usual case) exist only to identify the other
+	 * parent, and aren't given sequences.
+	 */
+	public void completeSampleTree(DiscreteGenTree tree) {
+		Locus root = tree.getRoot();
+		if (root == null)
+			return;
+
+		MutationModel mutMod = getMutationModel();
+		Set<Locus> tips = Collections.newSetFromMap(new IdentityHashMap<Locus, Boolean>());
+		tips.addAll(tree.getTips());
+
+		Map<Locus, Lineage> lineages = new IdentityHashMap<Locus, Lineage>();
+		lineages.put(root, new Lineage(getMaster().getCopy(), 0));
+		List<Locus> level = new ArrayList<Locus>();
+		List<Locus> nextLevel = new ArrayList<Locus>();
+		level.add(root);
+		int missingDonors = 0;
+
+		while(level.size()>0) {
+			//Sequences read by more than one offspring, or by a recombinant, must have all their mutations in place
+			for(Locus node : level) {
+				Lineage lineage = lineages.get(node);
+				if (tips.contains(node)) {
+					lineage.resolve(mutMod);
+					node.setFitnessProvider(new GenealogyFitness(template, lineage.seq));
+				}
+				else if (! isPassThrough(node, tips)) {
+					lineage.resolve(mutMod);
+				}
+			}
+
+			nextLevel.clear();
+			for(Locus node : level) {
+				Lineage lineage = lineages.get(node);
+				boolean passThrough = isPassThrough(node, tips);
+				for(Locus kid : node.getOffspring()) {
+					if (isPartnerOnly(kid, tips))
+						continue;
+
+					nextLevel.add(kid);
+					if (passThrough) {
+						lineage.pending++;
+						lineages.put(kid, lineage);
+						continue;
+					}
+
+					Lineage kidLineage = new Lineage(lineage.seq.getCopy(), 1);
+					if (kid.hasRecombination()) {
+						Lineage donor = lineages.get(kid.getRecombinationPartner().getParent());
+						if (donor != null && donor.pending == 0) {
+							int min = kid.getBreakPointMin();
+							int max = kid.getBreakPointMax();
+							kidLineage.seq.setRegion(min, max, donor.seq.getRegion(min, max));
+						}
+						else {
+							missingDonors++;
+						}
+					}
+					lineages.put(kid, kidLineage);
+				}
+			}
+
+			for(Locus node : level)
+				lineages.remove(node);
+
+			List<Locus> tmp = level;
+			level = nextLevel;
+			nextLevel = tmp;
+		}
+
+		if (missingDonors > 0)
+			System.err.println("Could not find the other parent of " + missingDonors + " recombinant nodes in the sampled genealogy, their recombinant regions were inherited from their primary parent");
+	}
+
+	/**
+	 * True if the node's sequence can be handed down to its only offspring without being copied
+	 */
+	private static boolean isPassThrough(Locus node, Set<Locus> tips) {
+		if (node.numOffspring() != 1 || tips.contains(node))
+			return false;
+		Locus kid = node.getOffspring(0);
+		return (! kid.hasRecombination()) && (! isPartnerOnly(kid, tips));
+	}
+
+	/**
+	 * True for the recombination partners that exist only to identify the other parent of a recombinant
+	 */
+	private static boolean isPartnerOnly(Locus node, Set<Locus> tips) {
+		return node.numOffspring()==0 && node.hasRecombination() && (! tips.contains(node));
+	}
+
+	/**
+	 * A sequence along with the number of generations of mutations that have yet to be applied to it
+	 */
+	private static class Lineage {
+		DNASequence seq;
+		int pending;
+
+		Lineage(DNASequence seq, int pending) {
+			this.seq = seq;
+			this.pending = pending;
+		}
+
+		void resolve(MutationModel mutMod) {
+			if (pending > 0) {
+				mutMod.mutate(seq, pending);
+				pending = 0;
+			}
+		}
+	}
+}
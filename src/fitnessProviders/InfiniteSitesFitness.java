@@ -0,0 +1,232 @@
+package fitnessProviders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import population.Recombineable;
+import mutationModels.MutationStream;
+import xml.TJXMLConstants;
+import cern.jet.random.engine.RandomEngine;
+import dnaModels.InfiniteSitesGenome;
+import dnaModels.MutationTable;
+
+/**
+ * A fitness model under the infinite-sites approximation, in which every new mutation occurs at a site that has never mutated
+ * before. Rather than a DNA sequence, each individual carries an InfiniteSitesGenome, the sorted list of the ids of the mutations
+ * it carries. Mutating appends new ids, copying an individual copies only its ids, and recombination merges the lists of the
+ * two parents at the breakpoint, so the cost of all of these depends on the number of segregating mutations and not on the
+ * length of the genome. Fitness is the product over all carried mutations of 1-s, that is, the log fitness is the sum of the
+ * effects of the carried mutations.
+ *   Since there's no ancestral sequence, statistics that need the bases themselves (rather than the number of differences)
+ * can't be computed from these genomes.
+ *
+ * @author brendan
+ *
+ */
+public class InfiniteSitesFitness extends FitnessProvider implements Recombineable {
+
+	//The XML attribute that identifies this model, the associated xml block will read <Fitness.model type="infinite.sites.fitness">....
+	public static final String XML_ATTR = "infinite.sites.fitness";
+
+	protected InfiniteSitesGenome genome;
+	protected double mu;					//Per-site, per-generation mutation rate
+	protected double recRate;				//Per-individual, per-generation recombination rate
+	protected double s;						//Selection coefficient of each new mutation
+	protected double logFitness = 0;		//Sum of the effects of all mutations in genome
+	protected RandomEngine rng;
+	protected MutationStream stream;		//Used by mutate(), shared by all copies
+
+	/**
+	 * Create a new model with a genome of the given length that carries no mutations
+	 * @param rng
+	 * @param length
+	 * @param mu
+	 * @param recRate
+	 * @param s
+	 */
+	public InfiniteSitesFitness(RandomEngine rng, int length, double mu, double recRate, double s) {
+		super(TJXMLConstants.FITNESS_MODEL);
+		if (s >= 1.0)
+			throw new IllegalArgumentException("Selection coefficient must be less than one, got " + s);
+		genome = new InfiniteSitesGenome(new MutationTable(), length);
+		this.mu = mu;
+		this.recRate = recRate;
+		this.s = s;
+		setRandomEngine(rng);
+
+		addXMLAttributes();
+	}
+
+	/**
+	 * Used by getCopy only, this does not add XML attributes
+	 */
+	private InfiniteSitesFitness(InfiniteSitesFitness source) {
+		super(TJXMLConstants.FITNESS_MODEL);
+		genome = source.genome.getCopy();
+		mu = source.mu;
+		recRate = source.recRate;
+		s = source.s;
+		logFitness = source.logFitness;
+		rng = source.rng;
+		stream = source.stream;
+	}
+
+	public void addXMLAttributes() {
+		addXMLAttr(TJXMLConstants.TYPE, XML_ATTR);
+		addXMLAttr(TJXMLConstants.LENGTH, String.valueOf(genome.length()));
+		addXMLAttr(TJXMLConstants.MUTATIONRATE, String.valueOf(mu));
+		addXMLAttr(TJXMLConstants.RECOMBINATIONRATE, String.valueOf(recRate));
+		addXMLAttr(TJXMLConstants.SELECTION, String.valueOf(s));
+	}
+
+	public void setRandomEngine(RandomEngine rng) {
+		this.rng = rng;
+		stream = new MutationStream(rng);
+	}
+
+	public double getFitness() {
+		return Math.exp(logFitness);
+	}
+
+	public double getMu() {
+		return mu;
+	}
+
+	public double getRecombinationRate() {
+		return recRate;
+	}
+
+	public double getSelection() {
+		return s;
+	}
+
+	public void mutate() {
+		mutate(stream);
+	}
+
+	/**
+	 * Add a Poisson number of new mutations, each at a uniformly chosen site. New mutations are registered in the shared
+	 * MutationTable, which is synchronized, so this may be called concurrently for different copies
+	 */
+	public void mutate(MutationStream stream) {
+		double mean = getMutationMean();
+		if (mean <= 0)
+			return;
+		stream.getPoisson().setMean(mean);
+		mutate(stream, stream.getPoisson().nextInt());
+	}
+
+	public double getMutationMean() {
+		return mu*(double)genome.length();
+	}
+
+	/**
+	 * Add exactly howmany new mutations
+	 */
+	public void mutate(MutationStream stream, int howmany) {
+		if (howmany == 0)
+			return;
+
+		double effect = Math.log(1.0-s);
+		MutationTable table = genome.getMutationTable();
+		for(int i=0; i<howmany; i++) {
+			int site = stream.getUniform().nextIntFromTo(0, genome.length()-1);
+			genome.addMutation(table.add(site, effect));
+			logFitness += effect;
+		}
+	}
+
+	public boolean supportsParallelMutation() {
+		return true;
+	}
+
+	public String getDescription() {
+		return "Infinite-sites fitness with L = " + genome.length() + ", mu = " + mu + ", recombination rate = " + recRate + " and s = " + s + " for each new mutation";
+	}
+
+	public FitnessProvider getCopy() {
+		return new InfiniteSitesFitness(this);
+	}
+
+	/**
+	 * Copy our mutations into the genome of retired, if it's also an InfiniteSitesFitness
+	 */
+	public FitnessProvider getCopy(FitnessProvider retired) {
+		if (retired != null && retired != this && retired.getClass() == getClass()) {
+			InfiniteSitesFitness copy = (InfiniteSitesFitness)retired;
+			if (copy.genome.getMutationTable() == genome.getMutationTable()) {
+				copy.genome.copyFrom(genome);
+				copy.mu = mu;
+				copy.recRate = recRate;
+				copy.s = s;
+				copy.logFitness = logFitness;
+				copy.rng = rng;
+				copy.stream = stream;
+				return copy;
+			}
+		}
+		return getCopy();
+	}
+
+	public Object getSubstrate() {
+		return genome;
+	}
+
+	public InfiniteSitesGenome getGenome() {
+		return genome;
+	}
+
+	/**
+	 * Remove the mutations carried by none of the given individuals from the MutationTable they share. The list must hold
+	 * every individual whose mutations may be looked up again (see MutationTable.compact); providers of other types are
+	 * ignored.
+	 * @param providers
+	 * @return The number of mutations removed
+	 */
+	public static int compactMutations(List<FitnessProvider> providers) {
+		List<InfiniteSitesGenome> genomes = new ArrayList<InfiniteSitesGenome>(providers.size());
+		for(FitnessProvider provider : providers) {
+			if (provider instanceof InfiniteSitesFitness)
+				genomes.add(((InfiniteSitesFitness)provider).genome);
+		}
+		if (genomes.isEmpty())
+			return 0;
+		return genomes.get(0).getMutationTable().compact(genomes);
+	}
+
+	public String getStringValue() {
+		return genome.toString();
+	}
+
+	public Double getDoubleValue() {
+		return getFitness();
+	}
+
+	public int length() {
+		return genome.length();
+	}
+
+	public Object getRegion(int min, int max) {
+		return genome.getRegion(min, max);
+	}
+
+	public void setRegion(int min, int max, Object region) {
+		genome.setRegion(min, max, (int[])region);
+		logFitness = genome.getEffectSum();
+	}
+
+	public void swapRegion(Recombineable other, int min, int max) {
+		if (other instanceof InfiniteSitesFitness) {
+			InfiniteSitesFitness otherFitness = (InfiniteSitesFitness)other;
+			genome.swapRegion(otherFitness.genome, min, max);
+			logFitness = genome.getEffectSum();
+			otherFitness.logFitness = otherFitness.genome.getEffectSum();
+		}
+		else {
+			Object ours = getRegion(min, max);
+			setRegion(min, max, other.getRegion(min, max));
+			other.setRegion(min, max, ours);
+		}
+	}
+
+}
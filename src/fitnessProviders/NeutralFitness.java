@@ -57,6 +57,10 @@ public class NeutralFitness extends FitnessProvider {
 	public void mutate() {
 	}
 	
+	public boolean supportsParallelMutation() {
+		return true;
+	}
+	
 	public void setFitness(double w) {
 
 	}
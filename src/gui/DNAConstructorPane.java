@@ -1,5 +1,6 @@
 package gui;
 
+import fitnessProviders.DNAFitness;
 import gui.mutationConfigurators.F84Configurator;
 import gui.mutationConfigurators.JukesCantorConfigurator;
 import gui.mutationConfigurators.K2PConfigurator;
@@ -16,6 +17,7 @@ import java.util.Hashtable;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -25,13 +27,19 @@ import javax.swing.SpinnerNumberModel;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
+import mutationModels.MutationMatrixModel;
 import mutationModels.MutationModel;
 import mutationModels.MutationModelConfigurator;
+import mutationModels.SiteRates;
 import xml.TJXMLConstants;
 import xml.TJXMLException;
 import xml.XMLConfigurable;
 import xml.XMLParseable;
 import cern.jet.random.engine.RandomEngine;
+import dnaModels.BitSetPool;
+import dnaModels.DNASequenceFactory;
+import dnaModels.HaplotypeStore;
+import dnaModels.DNASequenceFactory.SequenceType;
 
 /**
  * A panel that contains various options for creation of DNA (including the DNA length and the mutation model). This
@@ -51,6 +59,16 @@ public class DNAConstructorPane extends javax.swing.JPanel implements XMLConfigu
 	
 	JTextField recRateField;
 	
+	JComboBox sequenceTypeBox;
+	JCheckBox shareHaplotypesBox;
+	JCheckBox poolBuffersBox;
+	
+	JComboBox siteRatesBox;
+	JTextField siteRatesField;
+	static final String EQUAL_RATES = "Equal";
+	static final String GAMMA_RATES = "Gamma shape";
+	static final String PATTERN_RATES = "Repeating pattern";
+	
 	ArrayList<MutationModelConfigurator> mutationModels;
 	String currentMuMod;
 	
@@ -101,6 +119,37 @@ public class DNAConstructorPane extends javax.swing.JPanel implements XMLConfigu
 		recRatePanel.setToolTipText("Per sequence, per generation rate of recombination");
 		add(recRatePanel);
 		
+		JPanel storagePanel = new JPanel();
+		storagePanel.setOpaque(false);
+		storagePanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		storagePanel.add(new JLabel("Sequence storage:"));
+		sequenceTypeBox = new JComboBox(SequenceType.values());
+		sequenceTypeBox.setSelectedItem(DNASequenceFactory.getDefaultType());
+		sequenceTypeBox.setToolTipText("How sequences are stored. Packed words copy, recombine and compare sequences many sites at a time");
+		storagePanel.add(sequenceTypeBox);
+		shareHaplotypesBox = new JCheckBox("Share identical haplotypes");
+		shareHaplotypesBox.setOpaque(false);
+		shareHaplotypesBox.setToolTipText("Individuals carrying the same sequence share a single copy of it. Saves memory when there are far fewer distinct haplotypes than individuals");
+		storagePanel.add(shareHaplotypesBox);
+		poolBuffersBox = new JCheckBox("Pool storage");
+		poolBuffersBox.setOpaque(false);
+		poolBuffersBox.setToolTipText("Reuse the storage of discarded sequences for new copies, rather than allocating it anew. Only used with bit set sequences");
+		storagePanel.add(poolBuffersBox);
+		add(storagePanel);
+		
+		JPanel siteRatesPanel = new JPanel();
+		siteRatesPanel.setOpaque(false);
+		siteRatesPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		siteRatesPanel.add(new JLabel("Site rates:"));
+		siteRatesBox = new JComboBox(new String[]{EQUAL_RATES, GAMMA_RATES, PATTERN_RATES});
+		siteRatesBox.setToolTipText("Whether all sites mutate at the same rate, at gamma-distributed rates, or at rates following a repeated list such as 1,1,4");
+		siteRatesPanel.add(siteRatesBox);
+		siteRatesField = new JTextField("0.5");
+		siteRatesField.setPreferredSize(new Dimension(80, 24));
+		siteRatesField.setMinimumSize(new Dimension(80, 1));
+		siteRatesPanel.add(siteRatesField);
+		add(siteRatesPanel);
+		
 		add(Box.createVerticalStrut(5));
 		
 	
@@ -224,7 +273,36 @@ public class DNAConstructorPane extends javax.swing.JPanel implements XMLConfigu
 			System.err.println("Could not parse mutation rate value from : " + mutationRateField.getText());
 		}
 		
-		return conf.getMutationModel(rng, mu);
+		MutationModel mutModel = conf.getMutationModel(rng, mu);
+		SiteRates siteRates = getSiteRates(rng);
+		if (siteRates != null) {
+			if (mutModel instanceof MutationMatrixModel)
+				((MutationMatrixModel)mutModel).setSiteRates(siteRates);
+			else
+				System.err.println("Mutation model " + mutModel.getDescription() + " does not support site rates, all sites will mutate at the same rate");
+		}
+		return mutModel;
+	}
+	
+	/**
+	 * Create the site rates described by the site rate options, or null if all sites should have the same rate
+	 * @param rng
+	 * @return
+	 */
+	private SiteRates getSiteRates(RandomEngine rng) {
+		String choice = (String)siteRatesBox.getSelectedItem();
+		if (choice == null || choice.equals(EQUAL_RATES))
+			return null;
+		try {
+			if (choice.equals(GAMMA_RATES))
+				return SiteRates.gamma(rng, getDNALength(), Double.parseDouble(siteRatesField.getText()));
+			else
+				return SiteRates.fromPattern(getDNALength(), siteRatesField.getText());
+		}
+		catch (IllegalArgumentException ex) {
+			System.err.println("Could not create site rates from : " + siteRatesField.getText() + " (" + ex.getMessage() + "), all sites will mutate at the same rate");
+			return null;
+		}
 	}
 
 	private MutationModelConfigurator getConfByID(String id) {
@@ -266,8 +344,63 @@ public class DNAConstructorPane extends javax.swing.JPanel implements XMLConfigu
 			if (!found)
 				throw new TJXMLException("DNA constructor", "Could not parse mutation model, got " + mumod);
 		}
+		
+		String gammaShape = attrs.get(SiteRates.XML_GAMMASHAPE);
+		String ratePattern = attrs.get(SiteRates.XML_RATEPATTERN);
+		if (gammaShape != null) {
+			siteRatesBox.setSelectedItem(GAMMA_RATES);
+			siteRatesField.setText(gammaShape);
+		}
+		else if (ratePattern != null) {
+			siteRatesBox.setSelectedItem(PATTERN_RATES);
+			siteRatesField.setText(ratePattern);
+		}
+		else {
+			siteRatesBox.setSelectedItem(EQUAL_RATES);
+		}
 	}
 
+	/**
+	 * Make sequences created by DNASequenceFactory from now on the selected type. This should be called before the master
+	 * sequence of a new DNA fitness model is made
+	 */
+	public void applySequenceType() {
+		DNASequenceFactory.setDefaultType(getSequenceType());
+	}
+	
+	/**
+	 * Give a newly made DNA fitness model a haplotype store and buffer pool, if these are selected
+	 * @param fitness
+	 */
+	public void configureFitness(DNAFitness fitness) {
+		if (getShareHaplotypes())
+			fitness.setHaplotypeStore(new HaplotypeStore());
+		if (getPoolBuffers())
+			fitness.setBufferPool(new BitSetPool(getDNALength()));
+	}
+	
+	/**
+	 * Read the sequence type, haplotype sharing and buffer pooling settings from the attributes of a DNA fitness model block,
+	 * which the reader should be positioned at
+	 * @param reader
+	 */
+	public void configureSequenceSettings(XMLStreamReader reader) {
+		String seqType = XMLParseable.Utils.getAttributeForKey(reader, DNASequenceFactory.XML_SEQUENCETYPE);
+		String shareHaps = XMLParseable.Utils.getAttributeForKey(reader, HaplotypeStore.XML_SHAREHAPLOTYPES);
+		String poolBuffers = XMLParseable.Utils.getAttributeForKey(reader, BitSetPool.XML_POOLBUFFERS);
+		
+		try {
+			if (seqType != null)
+				setSequenceType(SequenceType.valueOf(seqType));
+		}
+		catch (IllegalArgumentException iae) {
+			System.err.println("Could not set sequence type, unknown type : " + seqType);
+		}
+		
+		setShareHaplotypes(Boolean.parseBoolean(shareHaps));
+		setPoolBuffers(Boolean.parseBoolean(poolBuffers));
+	}
+	
 	public void setMutationRate(Double mu) {
 		mutationRateField.setText(String.valueOf(mu));
 	}
@@ -276,6 +409,30 @@ public class DNAConstructorPane extends javax.swing.JPanel implements XMLConfigu
 		recRateField.setText(String.valueOf(r));
 	}
 	
+	public SequenceType getSequenceType() {
+		return (SequenceType)sequenceTypeBox.getSelectedItem();
+	}
+	
+	public void setSequenceType(SequenceType type) {
+		sequenceTypeBox.setSelectedItem(type);
+	}
+	
+	public boolean getShareHaplotypes() {
+		return shareHaplotypesBox.isSelected();
+	}
+	
+	public void setShareHaplotypes(boolean share) {
+		shareHaplotypesBox.setSelected(share);
+	}
+	
+	public boolean getPoolBuffers() {
+		return poolBuffersBox.isSelected();
+	}
+	
+	public void setPoolBuffers(boolean pool) {
+		poolBuffersBox.setSelected(pool);
+	}
+	
 	public String getXMLTypeAttr() {
 		return XML_ATTR;
 	}
@@ -38,6 +38,7 @@ import statistics.dna.DStar;
 import statistics.dna.Divergence;
 import statistics.dna.FStar;
 import statistics.dna.FrequencySpectrum;
+import statistics.dna.HaplotypeCount;
 import statistics.dna.HaplotypeDiversity;
 import statistics.dna.MutNumDistro;
 import statistics.dna.MutationRate;
@@ -201,6 +202,7 @@ public class DataCollectorsPanel extends JPanel implements XMLConfigurable {
 		addSingleDataCollectorItem((Statistic)sReg.getInstance(FStar.identifier), lightColor);
 		addSingleDataCollectorItem((Statistic)sReg.getInstance(BreakpointDensity.identifier), darkColor);		
 		addSingleDataCollectorItem((Statistic)sReg.getInstance(FrequencySpectrum.identifier), lightColor);
+		addSingleDataCollectorItem((Statistic)sReg.getInstance(HaplotypeCount.identifier), darkColor);
 		
 		
 		addSeparator("Utilities");
@@ -3,6 +3,7 @@ package gui;
 import fitnessProviders.FitnessProvider;
 import gui.fitnessConfigurators.DNAFitnessConfigurator;
 import gui.fitnessConfigurators.FitnessModelConfigurator;
+import gui.fitnessConfigurators.InfiniteSitesConfigurator;
 import gui.fitnessConfigurators.NeutralFitnessConfigurator;
 import gui.fitnessConfigurators.QGenConfigurator;
 import gui.fitnessConfigurators.TwoAlleleConfigurator;
@@ -132,6 +133,7 @@ public class FitnessModelPanel extends javax.swing.JPanel {
     	fitnessConfigurators.add(new DNAFitnessConfigurator());
     	fitnessConfigurators.add(new TwoAlleleConfigurator());
     	fitnessConfigurators.add(new QGenConfigurator());
+    	fitnessConfigurators.add(new InfiniteSitesConfigurator());
     	
     	fitnessModelIds = new String[fitnessConfigurators.size()];
     	int i = 0;
@@ -37,6 +37,8 @@ import treesimj.TreesimJApp;
 import treesimj.TreesimJView;
 import demographicModel.DemographicModel;
 import dnaModels.DNASequence;
+import dnaModels.HaplotypeStore;
+import fitnessProviders.DNAFitness;
 import fitnessProviders.FitnessProvider;
 
 
@@ -422,6 +424,22 @@ public class OutputManager implements Serializable {
 		return writeFasta;
 	}
 	
+	/**
+	 * The haplotype store shared by the individuals of the demographic model, or null if they don't share haplotypes
+	 */
+	private HaplotypeStore findHaplotypeStore() {
+		if (demoModel == null)
+			return null;
+		for(Population pop : demoModel.getPopList()) {
+			if (pop.size() > 0 && pop.getInd(0).getFitnessData() instanceof DNAFitness) {
+				HaplotypeStore store = ((DNAFitness)pop.getInd(0).getFitnessData()).getHaplotypeStore();
+				if (store != null)
+					return store;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Write the final summary of each statistic to the summary stream
 	 */
@@ -455,6 +473,10 @@ public class OutputManager implements Serializable {
 			summaryHeader.append("Final generation reached : " + demoModel.getCurrentGenNumber() + "\n\n");
 		}
 		
+		HaplotypeStore haplotypes = findHaplotypeStore();
+		if (haplotypes != null)
+			summaryHeader.append(haplotypes.toString() + "\n\n");
+		
 		
 		if (summaryHeader!=null) {
 			summaryStream.println(summaryHeader.toString());
@@ -12,6 +12,7 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -23,6 +24,7 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
+import population.Population.ReproductionMode;
 import treesimj.TreesimJView;
 import xml.TJXMLConstants;
 import xml.XMLParseable;
@@ -167,6 +169,26 @@ public class RunSettingsPanel extends JPanel {
 	public int getRandomSeed() {
 		return Integer.parseInt(randomSeedField.getText());
 	}
+	
+	public boolean getUseCompactPopulation() {
+		return compactPopulationBox.isSelected();
+	}
+	
+	public boolean getRecordTreeSequence() {
+		return treeSequenceBox.isSelected();
+	}
+	
+	public boolean getGenealogyOnly() {
+		return genealogyOnlyBox.isSelected();
+	}
+	
+	public ReproductionMode getReproductionMode() {
+		return (ReproductionMode)reproductionModeBox.getSelectedItem();
+	}
+	
+	public int getThreadCount() {
+		return (Integer)threadSpinner.getValue();
+	}
 
 	
 	/**
@@ -192,7 +214,12 @@ public class RunSettingsPanel extends JPanel {
 													getBaseDirName(),
 													getDataSampleFreq(),
 													getRandomSeed(),
-													getRepeats());
+													getRepeats(),
+													getUseCompactPopulation(),
+													getRecordTreeSequence(),
+													getGenealogyOnly(),
+													getReproductionMode(),
+													getThreadCount());
 		XMLSettingsWriter writer = new XMLSettingsWriter(ops);
 		writer.writeXMLBlock(xmlWriter);
 	}
@@ -312,6 +339,36 @@ public class RunSettingsPanel extends JPanel {
 				System.err.println("Error reading settings from XML : " + nfe);
 			}
 			
+			String compactStr = attrMap.get(XMLSettingsWriter.XML_COMPACTPOP);
+			if (compactStr != null) 
+				compactPopulationBox.setSelected(Boolean.parseBoolean(compactStr));
+			
+			String treeSeqStr = attrMap.get(XMLSettingsWriter.XML_TREESEQUENCE);
+			if (treeSeqStr != null) 
+				treeSequenceBox.setSelected(Boolean.parseBoolean(treeSeqStr));
+			
+			String genealogyStr = attrMap.get(XMLSettingsWriter.XML_GENEALOGYONLY);
+			if (genealogyStr != null) 
+				genealogyOnlyBox.setSelected(Boolean.parseBoolean(genealogyStr));
+			
+			try {
+				String modeStr = attrMap.get(XMLSettingsWriter.XML_REPRODUCTIONMODE);
+				if (modeStr != null)
+					reproductionModeBox.setSelectedItem(ReproductionMode.valueOf(modeStr));
+			}
+			catch (IllegalArgumentException iae) {
+				System.err.println("Error reading settings from XML : " + iae);
+			}
+			
+			try {
+				String threadStr = attrMap.get(XMLSettingsWriter.XML_THREADS);
+				if (threadStr != null)
+					threadSpinner.setValue(Integer.parseInt(threadStr));
+			}
+			catch (NumberFormatException nfe) {
+				System.err.println("Error reading settings from XML : " + nfe);
+			}
+			
 			try {
 				String rStr = attrMap.get(XMLSettingsWriter.XML_RANDOMSEED);
 				if (rStr != null) {
@@ -420,6 +477,31 @@ public class RunSettingsPanel extends JPanel {
         repeatPanel.add(new JLabel("Number of repeats :"));
         repeatPanel.add(repeatSpinner);
         this.add(repeatPanel);
+        
+        JPanel enginePanel = new JPanel();
+        enginePanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+        enginePanel.setOpaque(false);
+        compactPopulationBox = new JCheckBox("Compact population engine");
+        compactPopulationBox.setToolTipText("Store the population in arrays instead of individual objects. Faster and uses less memory for large populations, but only works with single population models");
+        enginePanel.add(compactPopulationBox);
+        treeSequenceBox = new JCheckBox("Record tree sequence");
+        treeSequenceBox.setToolTipText("With the compact engine, record ancestry as node and edge tables that are periodically simplified. Uses much less memory for long runs and high recombination rates");
+        enginePanel.add(treeSequenceBox);
+        genealogyOnlyBox = new JCheckBox("Neutral genealogy only");
+        genealogyOnlyBox.setToolTipText("When all sites are neutral, simulate only the genealogy and place mutations on sampled trees. Statistics that examine the DNA of the whole population can't be used");
+        enginePanel.add(genealogyOnlyBox);
+        enginePanel.add(new JLabel("Parent selection :"));
+        reproductionModeBox = new JComboBox(ReproductionMode.values());
+        reproductionModeBox.setToolTipText("How parents are chosen each generation. Rejection sampling slows down when fitnesses are very unequal, alias sampling does not");
+        enginePanel.add(reproductionModeBox);
+        enginePanel.add(new JLabel("Threads :"));
+        threadSpinner = new JSpinner();
+        threadSpinner.setModel(new javax.swing.SpinnerNumberModel(Integer.valueOf(1), Integer.valueOf(1), null, Integer.valueOf(1)));
+        threadSpinner.setPreferredSize(new Dimension(60, 24));
+        threadSpinner.setMaximumSize(new Dimension(80, 34));
+        threadSpinner.setToolTipText("Number of threads used to create and mutate offspring. Results are reproducible for a given seed and number of threads");
+        enginePanel.add(threadSpinner);
+        this.add(enginePanel);
         this.add(Box.createVerticalStrut(25));
 
       
@@ -603,6 +685,11 @@ public class RunSettingsPanel extends JPanel {
 		public static final String XML_DATAFREQ = "data.sample.freq";
 		public static final String XML_RANDOMSEED = "random.seed";
 		public static final String XML_REPEATS = "repeats";
+		public static final String XML_COMPACTPOP = "compact.population";
+		public static final String XML_TREESEQUENCE = "tree.sequence";
+		public static final String XML_GENEALOGYONLY = "genealogy.only";
+		public static final String XML_REPRODUCTIONMODE = "reproduction.mode";
+		public static final String XML_THREADS = "threads";
 		
 		public XMLSettingsWriter(RunSettingsOptions ops) {
 			super(TJXMLConstants.SETTINGS);
@@ -625,6 +712,11 @@ public class RunSettingsPanel extends JPanel {
 			addXMLAttr(XML_DATAFREQ, String.valueOf(ops.dataSampleFreq));
 			addXMLAttr(XML_RANDOMSEED, String.valueOf(ops.randomSeed));
 			addXMLAttr(XML_REPEATS, String.valueOf(ops.repeats));
+			addXMLAttr(XML_COMPACTPOP, String.valueOf(ops.compactPopulation));
+			addXMLAttr(XML_TREESEQUENCE, String.valueOf(ops.treeSequence));
+			addXMLAttr(XML_GENEALOGYONLY, String.valueOf(ops.genealogyOnly));
+			addXMLAttr(XML_REPRODUCTIONMODE, String.valueOf(ops.reproductionMode));
+			addXMLAttr(XML_THREADS, String.valueOf(ops.threads));
 		}
 
 
@@ -665,6 +757,11 @@ public class RunSettingsPanel extends JPanel {
 		public int dataSampleFreq;
 		public int randomSeed;
 		public int repeats;
+		public boolean compactPopulation;
+		public boolean treeSequence;
+		public boolean genealogyOnly;
+		public ReproductionMode reproductionMode;
+		public int threads;
 		
 		public RunSettingsOptions(int runLength,
 								  int burnin,
@@ -683,7 +780,12 @@ public class RunSettingsPanel extends JPanel {
 								  String baseDirName,
 								  int dataSampleFreq,
 								  int randomSeed,
-								  int repeats) {
+								  int repeats,
+								  boolean compactPopulation,
+								  boolean treeSequence,
+								  boolean genealogyOnly,
+								  ReproductionMode reproductionMode,
+								  int threads) {
 			this.runLength = runLength;
 			this.burnin = burnin;
 			this.writeToStdout = writeStdout;
@@ -701,6 +803,11 @@ public class RunSettingsPanel extends JPanel {
 			this.dataSampleFreq = dataSampleFreq;
 			this.randomSeed = randomSeed;
 			this.repeats = repeats;
+			this.compactPopulation = compactPopulation;
+			this.treeSequence = treeSequence;
+			this.genealogyOnly = genealogyOnly;
+			this.reproductionMode = reproductionMode;
+			this.threads = threads;
 		}
 		
 	}
@@ -722,6 +829,11 @@ public class RunSettingsPanel extends JPanel {
 	JButton newSeedButton;
 	
 	JSpinner repeatSpinner;
+	JCheckBox compactPopulationBox;
+	JCheckBox treeSequenceBox;
+	JCheckBox genealogyOnlyBox;
+	JComboBox reproductionModeBox;
+	JSpinner threadSpinner;
 	
 	JCheckBox saveTreesBox;
 	JTextField treesField;
@@ -37,6 +37,8 @@ public class PopSplitConfigurator implements DemographicConfigurator {
 	JSpinner splitTimeSpinner;
 	JTextField m21Field;
 	JTextField m12Field;
+	JTextField mu1Field;
+	JTextField mu2Field;
 	
 	JComboBox strategyBox;
 	JSpinner singlePopNum;
@@ -104,6 +106,20 @@ public class PopSplitConfigurator implements DemographicConfigurator {
 		p5.add(m21Field);
 		mainPanel.add(p5);
 		
+		mu1Field = new JTextField();
+		mu1Field.setPreferredSize(new Dimension(100, 30));
+		JPanel p8 = makePanel("Pop 1 mutation rate:");
+		p8.setToolTipText("The per-site, per generation mutation rate of pop 1 after the split. Leave blank to keep the ancestral rate");
+		p8.add(mu1Field);
+		mainPanel.add(p8);
+		
+		mu2Field = new JTextField();
+		mu2Field.setPreferredSize(new Dimension(100, 30));
+		JPanel p9 = makePanel("Pop 2 mutation rate:");
+		p9.setToolTipText("The per-site, per generation mutation rate of pop 2 after the split. Leave blank to keep the ancestral rate");
+		p9.add(mu2Field);
+		mainPanel.add(p9);
+		
 		JPanel p6 = makePanel("Sampling strategy:");
 		p6.setToolTipText("Choose a stratgy for sampling individuals from populations");
 		strategyBox = new JComboBox(strats);
@@ -176,6 +192,12 @@ public class PopSplitConfigurator implements DemographicConfigurator {
 		m12Field.setText(m12Str);
 		m21Field.setText(m21Str);
 		
+		//Descendant mutation rates are optional, and absent if the descendants keep the ancestral rate
+		String mu1Str = attrMap.get(PopSplitDemoModel.XML_MUTRATE1);
+		String mu2Str = attrMap.get(PopSplitDemoModel.XML_MUTRATE2);
+		mu1Field.setText(mu1Str == null ? "" : mu1Str);
+		mu2Field.setText(mu2Str == null ? "" : mu2Str);
+		
 		
 		String sampleStrat = attrMap.get(IslandDemoModel.XML_SAMPLESTRATEGY);
 		try {
@@ -227,9 +249,27 @@ public class PopSplitConfigurator implements DemographicConfigurator {
 		PopSplitDemoModel model = new PopSplitDemoModel(ancSize, p1Size, p2Size, splitTime, m12, m21);
 		Strategy strat = getCurrentStrategy();
 		model.setSamplingStrategy(strat, 0);
+		model.setDescendantMutationRates(parseMutationRate(mu1Field, 1), parseMutationRate(mu2Field, 2));
 		return model;
 	}
 	
+	/**
+	 * Read a descendant mutation rate from the given field, returning -1 (keep the ancestral rate) if the field is blank
+	 * or can't be read
+	 */
+	private double parseMutationRate(JTextField field, int popNum) {
+		String text = field.getText().trim();
+		if (text.length()==0)
+			return -1;
+		try {
+			return Double.parseDouble(text);
+		}
+		catch (NumberFormatException nfe) {
+			ErrorWindow.showErrorWindow(new Exception("Could not read a number from the pop " + popNum + " mutation rate field"));
+			return -1;
+		}
+	}
+	
 	
 	private Strategy getCurrentStrategy() {
 		if (strategyBox.getSelectedIndex()==0)
@@ -21,8 +21,8 @@ import xml.TJXMLConstants;
 import xml.TJXMLException;
 import xml.XMLParseable;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
 
 public class ConstSiteConfigurator implements FitnessModelConfigurator {
 
@@ -62,8 +62,10 @@ public class ConstSiteConfigurator implements FitnessModelConfigurator {
 		try {
 			s = Double.parseDouble(sField.getText());
 			MutationModel mutModel = dnaMaker.getMutationModel(rng);
-			DNASequence master = new BitSetDNASequence(rng, dnaMaker.getDNALength(), mutModel);
-			FitnessProvider fitness = new DNAFitness(rng, master, new ConstSiteFitness(dnaMaker.getDNALength(), s), mutModel);
+			dnaMaker.applySequenceType();
+			DNASequence master = DNASequenceFactory.newSequence(rng, dnaMaker.getDNALength(), mutModel);
+			DNAFitness fitness = new DNAFitness(rng, master, new ConstSiteFitness(dnaMaker.getDNALength(), s), mutModel);
+			dnaMaker.configureFitness(fitness);
 			return fitness;
 		} 
 		catch (NumberFormatException nfe) {
@@ -82,6 +84,7 @@ public class ConstSiteConfigurator implements FitnessModelConfigurator {
 
 	public void configureSettings(XMLStreamReader reader) throws TJXMLException {
 		Hashtable<String, String> attrs = XMLParseable.Utils.makeAttributeMap(reader);
+		dnaMaker.configureSequenceSettings(reader);
 		try {
 			dnaMaker.configureSettings(reader);
 		} catch (XMLStreamException e) {
@@ -32,7 +32,6 @@ import xml.TJXMLConstants;
 import xml.TJXMLException;
 import xml.XMLParseable;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
 
 /**
@@ -138,9 +137,12 @@ public class DNAFitnessConfigurator implements FitnessModelConfigurator {
 		double recRate = dnaMaker.getRecombinationRate();
 		mutModel.setRecombinationRate(recRate);
 		
+		dnaMaker.applySequenceType();
 		DNASequence master = siteModel.generateMasterSequence(rng, dnaMaker.getDNALength(), mutModel); //new BitSetDNASequence(rng, dnaMaker.getDNALength(), mutModel);
 
-		return new DNAFitness(rng, master, siteModel, mutModel);
+		DNAFitness fitness = new DNAFitness(rng, master, siteModel, mutModel);
+		dnaMaker.configureFitness(fitness);
+		return fitness;
 	}
 
 	public String getIdentifier() {
@@ -189,6 +191,8 @@ public class DNAFitnessConfigurator implements FitnessModelConfigurator {
 					System.err.println("Could not set recombination rate, couldn't parse a double from " + recRate);
 				}
 				
+				dnaMaker.configureSequenceSettings(reader);
+				
 				advanceToNextStart(reader);
 
 				while(true) {
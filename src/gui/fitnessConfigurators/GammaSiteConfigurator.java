@@ -17,8 +17,8 @@ import javax.xml.stream.XMLStreamReader;
 import mutationModels.MutationModel;
 import siteModels.GammaFitnesses;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
 
 public class GammaSiteConfigurator implements FitnessModelConfigurator {
 
@@ -65,9 +65,11 @@ public class GammaSiteConfigurator implements FitnessModelConfigurator {
 			mean = Double.parseDouble(meanField.getText());
 			std = Double.parseDouble(stdField.getText());
 			MutationModel mutModel = dnaMaker.getMutationModel(rng);
-			DNASequence master = new BitSetDNASequence(rng, dnaMaker.getDNALength(), mutModel);
+			dnaMaker.applySequenceType();
+			DNASequence master = DNASequenceFactory.newSequence(rng, dnaMaker.getDNALength(), mutModel);
 			System.out.println("Making gamma site model with mean : " + mean + " and stdev : " + std);
-			FitnessProvider fitness = new DNAFitness(rng, master, new GammaFitnesses(rng, mean, std), mutModel);
+			DNAFitness fitness = new DNAFitness(rng, master, new GammaFitnesses(rng, mean, std), mutModel);
+			dnaMaker.configureFitness(fitness);
 			return fitness;
 		} 
 		catch (NumberFormatException nfe) {
@@ -86,8 +88,7 @@ public class GammaSiteConfigurator implements FitnessModelConfigurator {
 	}
 
 	public void configureSettings(XMLStreamReader reader) {
-		// TODO Auto-generated method stub
-		
+		dnaMaker.configureSequenceSettings(reader);
 	}
 
 	public String getDescription() {
@@ -0,0 +1,125 @@
+package gui.fitnessConfigurators;
+
+import fitnessProviders.FitnessProvider;
+import fitnessProviders.InfiniteSitesFitness;
+
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.util.Hashtable;
+
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import xml.TJXMLConstants;
+import xml.TJXMLException;
+import xml.XMLParseable;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * The fitness configurator for the infinite-sites fitness model, in which individuals carry only the list of mutations
+ * they have acquired, and each new mutation multiplies fitness by 1-s.
+ * @author brendan
+ *
+ */
+public class InfiniteSitesConfigurator implements FitnessModelConfigurator {
+
+	JPanel mainPanel;
+	JTextField lengthField;
+	JTextField muField;
+	JTextField recField;
+	JTextField sField;
+	
+	public InfiniteSitesConfigurator() {
+		mainPanel = new JPanel();
+		mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
+		
+		lengthField = new JTextField();
+		muField = new JTextField();
+		recField = new JTextField();
+		sField = new JTextField();
+		mainPanel.add(Box.createVerticalStrut(10));
+		mainPanel.add( addLabelledField("Genome length          :", lengthField, "100000"));
+		mainPanel.add(Box.createVerticalStrut(10));
+		mainPanel.add( addLabelledField("Mutation rate per site :", muField, "1e-7"));
+		mainPanel.add(Box.createVerticalStrut(10));
+		mainPanel.add( addLabelledField("Recombination rate     :", recField, "0.0"));
+		mainPanel.add(Box.createVerticalStrut(10));
+		mainPanel.add( addLabelledField("Selection coefficient  :", sField, "0.0"));
+		mainPanel.add(Box.createGlue());
+		mainPanel.setOpaque(false);
+	}
+	
+	private JPanel addLabelledField(String label, JTextField field, String initStr) {
+		JPanel panel = new JPanel();
+		panel.setOpaque(false);
+		panel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		panel.add(new JLabel(label));
+		field.setText(initStr);
+		field.setPreferredSize(new Dimension(100, 30));
+		field.setMinimumSize(new Dimension(75, 1));
+		field.setHorizontalAlignment(JTextField.RIGHT);
+		panel.add(field);
+		
+		return panel;
+	}
+	
+	public JComponent getComponent() {
+		return mainPanel;
+	}
+
+	public FitnessProvider getFitnessModel(RandomEngine rng) {
+		try {
+			int length = Integer.parseInt(lengthField.getText());
+			double mu = Double.parseDouble(muField.getText());
+			double recRate = Double.parseDouble(recField.getText());
+			double s = Double.parseDouble(sField.getText());
+			return new InfiniteSitesFitness(rng, length, mu, recRate, s);
+		}
+		catch (NumberFormatException nfe) {
+			System.err.println("Could not parse appropriate values for infinite-sites fitness");
+			return null;
+		}
+	}
+
+	public String getIdentifier() {
+		return "Infinite sites";
+	}
+
+	public void configureSettings(XMLStreamReader reader)
+			throws TJXMLException, XMLStreamException {
+		if (reader.isStartElement() && reader.getLocalName()==TJXMLConstants.FITNESS_MODEL) {
+			String type = XMLParseable.Utils.getAttributeForKey(reader, TJXMLConstants.TYPE);
+			if (type.equals(InfiniteSitesFitness.XML_ATTR)) {
+				Hashtable<String, String> attrMap = XMLParseable.Utils.makeAttributeMap(reader);
+				String lengthStr = attrMap.get(TJXMLConstants.LENGTH);
+				String muStr = attrMap.get(TJXMLConstants.MUTATIONRATE);
+				String recStr = attrMap.get(TJXMLConstants.RECOMBINATIONRATE);
+				String sStr = attrMap.get(TJXMLConstants.SELECTION);
+				
+				if (lengthStr != null)
+					lengthField.setText(lengthStr);
+				if (muStr != null)
+					muField.setText(muStr);
+				if (recStr != null)
+					recField.setText(recStr);
+				if (sStr != null)
+					sField.setText(sStr);
+			}
+		}
+	}
+
+	public String getXMLTypeAttr() {
+		return InfiniteSitesFitness.XML_ATTR;
+	}
+
+	public String getDescription() {
+		return "An infinite-sites model of fitness. Every new mutation occurs at a site that has not mutated before, and individuals carry only the list of mutations they have acquired, so long genomes are cheap to simulate. Each mutation multiplies fitness by 1-s, where s is the selection coefficient below (zero for neutral mutations).";
+	}
+
+}
@@ -21,6 +21,8 @@ public class F84Mutation extends MutationMatrixModel {
 	
 	String descriptionStr;
 	
+	double alpha;
+	double beta;
 	double piA;
 	double piC;
 	double piG;
@@ -56,6 +58,8 @@ public class F84Mutation extends MutationMatrixModel {
 		double piR = piA+piG;
 		double piY = piC+piT;
 		
+		this.alpha = alpha;
+		this.beta = beta;
 		this.piA = piA;
 		this.piG = piG;
 		this.piC = piC;
@@ -90,6 +94,10 @@ public class F84Mutation extends MutationMatrixModel {
 	}
 
 	
+	public MutationModel getCopy(RandomEngine rng, double mu) {
+		return copySettingsTo(new F84Mutation(rng, mu, alpha, beta, piA, piG, piC, piT));
+	}
+	
 	public String getDescription() {
 		return descriptionStr;
 	}
@@ -41,6 +41,10 @@ public class JukesCantorMutation extends MutationMatrixModel {
 	}
 
 	
+	public MutationModel getCopy(RandomEngine rng, double mu) {
+		return copySettingsTo(new JukesCantorMutation(rng, mu));
+	}
+	
 	public String getDescription() {
 		return "Single parameter JC mutation with mu = " + mu;
 	}
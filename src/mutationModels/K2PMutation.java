@@ -19,6 +19,7 @@ public class K2PMutation extends MutationMatrixModel {
 	
 	public K2PMutation(RandomEngine rng, double mutationProb, double ttRatio) {
 		super(rng, mutationProb);
+		this.ttRatio = ttRatio;
 	
 		double transitionProb = ttRatio / (2.0+ttRatio);
 		double transversionProb = 1.0 / (2.0+ttRatio); 
@@ -48,6 +49,10 @@ public class K2PMutation extends MutationMatrixModel {
 		addXMLAttr(XML_TTRATIO, String.valueOf(ttRatio));
 	}
 
+	public MutationModel getCopy(RandomEngine rng, double mu) {
+		return copySettingsTo(new K2PMutation(rng, mu, ttRatio));
+	}
+
 	public String getDescription() {
 		return "Kimura two parameter mutation with mu=" + mu + " and ts/tv ratio of " + ttRatio;
 	}
@@ -0,0 +1,111 @@
+package mutationModels;
+
+import java.io.Serializable;
+
+import population.AliasSampler;
+import cern.jet.random.Uniform;
+
+/**
+ * Everything a MutationMatrixModel precomputes from its matrix in order to pick sites and new bases quickly: the row totals,
+ * the probability with which a site holding each base is accepted when picking sites, and an alias table for each base
+ * to draw the base it mutates to. A kernel never changes once built, so a single kernel can be used by any number of threads
+ * and populations at once; all mutable state (random number generators and buffers) lives in MutationStreams.
+ *
+ * @author brendan
+ *
+ */
+public class MutationKernel implements Serializable {
+
+	private final double[][] matrix;			//A private copy of the matrix this kernel was built from
+	private final double[] rowTotals;			//The sum of each row of the matrix
+	private final double rowTotalMax;
+	private final double[] acceptance;			//For each base, rowTotal/rowTotalMax
+	private final boolean equalRowTotals;		//If true, every site is equally likely to mutate and no sites are rejected
+	private final AliasSampler[] substitutionTables;	//For each base, a table to draw the base it mutates to
+
+	/**
+	 * Build a kernel from the given square matrix of probabilities of mutating from the row base to the column base
+	 * @param source
+	 */
+	public MutationKernel(double[][] source) {
+		int size = source.length;
+		matrix = new double[size][];
+		rowTotals = new double[size];
+		substitutionTables = new AliasSampler[size];
+		double max = 0;
+		for(int row=0; row<size; row++) {
+			matrix[row] = source[row].clone();
+			double sum = 0;
+			for(int col=0; col<matrix[row].length; col++) {
+				sum += matrix[row][col];
+			}
+			rowTotals[row] = sum;
+			if (max < sum)
+				max = sum;
+			if (sum > 0) {
+				substitutionTables[row] = new AliasSampler();
+				substitutionTables[row].build(matrix[row], matrix[row].length);
+			}
+		}
+
+		if (max < 0.001) {
+			System.out.println("Max row total is too low, something is wrong...");
+		}
+
+		acceptance = new double[size];
+		boolean equal = true;
+		for(int row=0; row<size; row++) {
+			acceptance[row] = max > 0 ? rowTotals[row]/max : 1.0;
+			if (rowTotals[row] != max)
+				equal = false;
+		}
+		equalRowTotals = equal;
+		rowTotalMax = max;
+	}
+
+	public double getProb(int from, int to) {
+		return matrix[from][to];
+	}
+
+	public double getRowTotal(int base) {
+		return rowTotals[base];
+	}
+
+	public double getRowTotalMax() {
+		return rowTotalMax;
+	}
+
+	public int size() {
+		return matrix.length;
+	}
+
+	/**
+	 * The probability that a candidate site holding the given base is accepted when picking a site to mutate
+	 * @param base
+	 * @return
+	 */
+	public double getAcceptance(int base) {
+		return acceptance[base];
+	}
+
+	/**
+	 * True if all bases mutate at the same total rate, so no candidate sites are ever rejected
+	 * @return
+	 */
+	public boolean hasEqualRowTotals() {
+		return equalRowTotals;
+	}
+
+	/**
+	 * Draw the base that the given base mutates to, using a single uniform draw, or return -1 if the base never mutates
+	 * @param base
+	 * @param uniRNG
+	 * @return
+	 */
+	public int substitute(int base, Uniform uniRNG) {
+		AliasSampler table = substitutionTables[base];
+		if (table == null)
+			return -1;
+		return table.sample(uniRNG);
+	}
+}
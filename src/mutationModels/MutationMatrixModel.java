@@ -1,11 +1,9 @@
 package mutationModels;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import siteModels.SiteFitnesses;
 import xml.TJXMLConstants;
-import cern.jet.random.Poisson;
 import cern.jet.random.Uniform;
 import cern.jet.random.engine.RandomEngine;
 import dnaModels.DNASequence;
@@ -20,41 +18,44 @@ import dnaModels.DNASequence;
  */
 public abstract class MutationMatrixModel extends MutationModel {
 	
-	static double[][] matrix;	//A matrix of probabilities of mutation from a given base to another, conditional 
+	protected double[][] matrix;	//A matrix of probabilities of mutation from a given base to another, conditional 
 								//on a mutation occurring... this does NOT include the mutation rate
 
 	
 	
-	protected static int matrixSize = 4;
+	protected static final int matrixSize = 4;
 	protected static final int A = 0;
 	protected static final int C = 1;
 	protected static final int T = 2;
 	protected static final int G = 3;
 	
-	static double[] rowTotals;	//The sum of each row of the matrix. Represents the probability that a base mutates to any other base
-	static double rowTotalMax = 1.0;  	//The maximum row total, helpful for picking a base to mutate
-	static boolean rowTotalsCalculated = false;
+	//Built from the matrix when first needed, and shared by every thread using this model
+	private volatile MutationKernel kernel = null;
 	
-	protected static Uniform uniRNG;
-	protected static Poisson poissonRNG;
-	protected static double mu = -1;	//The probability that any individual base mutates in a given generation
+	//Index of each base character, and -1 for anything else
+	private static final int[] BASE_INDEX = new int[128];
+	private static final char[] INDEX_BASE = new char[]{'A', 'C', 'T', 'G'};
+	static {
+		for(int i=0; i<BASE_INDEX.length; i++)
+			BASE_INDEX[i] = -1;
+		BASE_INDEX['A'] = A;
+		BASE_INDEX['C'] = C;
+		BASE_INDEX['T'] = T;
+		BASE_INDEX['G'] = G;
+	}
+	
+	protected MutationStream stream;	//Random number generators and buffers used when no other stream is supplied, this must only be used by one thread at a time
+	protected double mu = -1;	//The probability that any individual base mutates in a given generation
 	
 	protected double recRate = 0.0;
 	
-	//A couple of buffers that are used to store information about which sites have been mutated, this info
-	//is then passed to the sitemodel to calculate fitness quickly
-	List<Integer> mutatedSites = new ArrayList<Integer>(3); 
-	List<Character> originalStates = new ArrayList<Character>(3);
+	protected SiteRates siteRates = null;	//Relative rates of each site, or null if all sites mutate at the same rate
 	
 	public MutationMatrixModel(RandomEngine rng, double mu) {
 		super(TJXMLConstants.MUTATION_MODEL);
-		MutationMatrixModel.mu = mu;
+		this.mu = mu;
 		matrix = new double[matrixSize][matrixSize];
-		uniRNG = new Uniform(rng);
-		poissonRNG = new Poisson(1.0, rng);
-		rowTotals = new double[matrixSize];
-		rowTotalsCalculated = false;
-
+		stream = new MutationStream(rng);
 	}
 	
 	/**
@@ -70,44 +71,39 @@ public abstract class MutationMatrixModel extends MutationModel {
 	 * @param rng
 	 */
 	public void setRandomEngine(RandomEngine rng) {
-		uniRNG = new Uniform(rng);
-		poissonRNG = new Poisson(1.0, rng);
+		stream = new MutationStream(rng);
 	}
+
 	
 	protected int indexForBase(char base) {
-		if (base=='A')	return A;
-		if (base=='C')	return C;
-		if (base=='T')	return T;
-		if (base=='G')	return G;	
-		return -1;
+		return base < BASE_INDEX.length ? BASE_INDEX[base] : -1;
 	}
 	
 	protected char baseForIndex(int index) {
-		if (index==A) return 'A';
-		if (index==C) return 'C';
-		if (index==T) return 'T';
-		if (index==G) return 'G';
+		if (index >= 0 && index < INDEX_BASE.length)
+			return INDEX_BASE[index];
 		return 'X';
 	}
 	
-	protected void calculateRowTotals() {
-		double max = 0;
-		for(int row=0; row<matrixSize; row++) {
-			double sum = 0;
-			for(int col=0; col<matrixSize; col++) {
-				sum += matrix[row][col];
-			}
-			rowTotals[row] = sum;
-			if (max < sum)
-				max = sum;
-		}
-		
-		if (max < 0.001) {
-			System.out.println("Max row total is too low, something is wrong...");
+	/**
+	 * The kernel precomputed from the matrix, which is built the first time it's needed. Subclasses that change the matrix
+	 * after that must call matrixChanged
+	 * @return
+	 */
+	public MutationKernel getKernel() {
+		MutationKernel current = kernel;
+		if (current == null) {
+			current = new MutationKernel(matrix);
+			kernel = current;
 		}
-		
-		rowTotalMax = max;
-		rowTotalsCalculated = true;
+		return current;
+	}
+	
+	/**
+	 * Discard the kernel, so that it's rebuilt from the matrix when next needed
+	 */
+	protected void matrixChanged() {
+		kernel = null;
 	}
 	
 	protected double getProb(char from, char to) {
@@ -122,53 +118,98 @@ public abstract class MutationMatrixModel extends MutationModel {
 		return mu;
 	}
 	
+	/**
+	 * Let each site mutate at its own rate, given by siteRates (or at the same rate if siteRates is null). The rates must
+	 * cover every site of the sequences mutated by this model
+	 * @param siteRates
+	 */
+	public void setSiteRates(SiteRates siteRates) {
+		this.siteRates = siteRates;
+		if (siteRates != null && ! Double.isNaN(siteRates.getGammaShape()))
+			addXMLAttr(SiteRates.XML_GAMMASHAPE, String.valueOf(siteRates.getGammaShape()));
+		else
+			removeXMLAttr(SiteRates.XML_GAMMASHAPE);
+		if (siteRates != null && siteRates.getPattern() != null)
+			addXMLAttr(SiteRates.XML_RATEPATTERN, siteRates.getPattern());
+		else
+			removeXMLAttr(SiteRates.XML_RATEPATTERN);
+	}
+	
+	public SiteRates getSiteRates() {
+		return siteRates;
+	}
+	
+	/**
+	 * Give copy the recombination rate and site rates of this model, subclasses call this from getCopy
+	 * @param copy
+	 * @return copy
+	 */
+	protected <T extends MutationMatrixModel> T copySettingsTo(T copy) {
+		copy.setRecombinationRate(recRate);
+		copy.setSiteRates(siteRates);
+		return copy;
+	}
+	
+	/**
+	 * The expected number of mutations in a sequence of the given length, which is mu times the summed rate of all sites
+	 */
+	public double getMutationMean(int length) {
+		if (siteRates == null)
+			return mu*(double)length;
+		checkSiteRates(length);
+		return mu*siteRates.getTotal();
+	}
+	
+	private void checkSiteRates(int length) {
+		if (siteRates.size() != length)
+			throw new IllegalStateException("Site rates cover " + siteRates.size() + " sites, but the sequence has " + length + " sites");
+	}
+	
 	public double getRecombinationRate() {
 		return recRate;
 	}
 	
 	public void mutate(DNASequence seq) {
-		if (!rowTotalsCalculated) {
-			calculateRowTotals();
-		}
-		
-		int L = seq.length();
-		
-		double mean = mu*(double)L;
+		mutate(seq, 1);
+	}
+	
+	/**
+	 * Mutations occur independently in each generation at each site, so the number that accumulate over several 
+	 * generations is Poisson with mean mu*L*generations. Sites and new bases are then picked just as in mutate(seq)
+	 */
+	public void mutate(DNASequence seq, int generations) {
+		if (generations <= 0)
+			return;
+		double mean = getMutationMean(seq.length())*(double)generations;
+		if (mean <= 0)
+			return;
 		
-		poissonRNG.setMean(mean);
-		int howmany = poissonRNG.nextInt();
+		stream.poissonRNG.setMean(mean);
+		int howmany = stream.poissonRNG.nextInt();
 		
+		MutationKernel kern = getKernel();
 		for(int i=0; i<howmany; i++) {
-			int site = pickSiteToMutate(seq);
-			char newBase = mutateBase(seq.getBaseChar(site));
+			int site = pickSiteToMutate(kern, seq, stream.uniRNG);
+			char newBase = mutateBase(kern, seq.getBaseChar(site), stream.uniRNG);
 			seq.setBaseChar(site, newBase);
-		}//for howmany 
-
+		}
 	}
 	
 	/**
-	 * Picks a new base to mutate from the old one, using the probabilities stored in the appropriate
-	 * row of the matrix
+	 * Picks a new base to mutate from the old one, with probabilities proportional to the appropriate row of the matrix. 
+	 * This takes a single draw from the alias table for the row
 	 * @param initialBase (in char form)
+	 * @param uniRNG The uniform generator to use
 	 * @return new base (in char form)
 	 */
-	private char mutateBase(char initialBase) {
-		double r = uniRNG.nextDouble();
-		
-		double rowTotal = rowTotals[indexForBase(initialBase)];
-		
-		double[] prob = getProbRow(initialBase); //A list of mutation probabilities from 'site' to index
-		double sum = 0;
-		for(int j=0; j<matrixSize; j++) {
-			sum += prob[j] / rowTotal; 	//Since we are mutating this base for sure, the row total must sum to 1.0, so we divide by the (precalculated) row total
-			if (r<sum) 
-				return baseForIndex(j);
+	private char mutateBase(MutationKernel kern, char initialBase, Uniform uniRNG) {
+		int row = indexForBase(initialBase);
+		int newBase = row < 0 ? -1 : kern.substitute(row, uniRNG);
+		if (newBase < 0) {
+			System.err.println("Somehow a new base was not selected in MutationMatrixModel... base is : " + initialBase);
+			return initialBase;
 		}
-		System.err.println("Somehow a new base was not selected in MutationMatrixModel... sum is : " + sum + " row is "  + prob);
-//		for(int i=0; i<prob.length; i++)
-//			System.out.print(prob[i] + "\t");
-//		System.out.println();
-		return initialBase;
+		return baseForIndex(newBase);
 	}
 	
 	/**
@@ -179,41 +220,56 @@ public abstract class MutationMatrixModel extends MutationModel {
 	 * If not, we pick a new site. This is the same scheme used to sample Individuals in the 
 	 * Population according to their fitness, and should result in bases being sampled in proportion
 	 * to their mutation probability (the sum of the probabilities of mutating to each other base). 
+	 *  If all bases have the same row total (as in the Jukes-Cantor and K2P models) every site is accepted, so the second
+	 * step is skipped. If sites have their own rates, the first step picks sites in proportion to their rates rather than
+	 * uniformly, in time proportional to log L (see SiteRates).
 	 *  
 	 * @param seq
+	 * @param uniRNG The uniform generator to use
 	 * @return
 	 */
 	//
-	protected int pickSiteToMutate(DNASequence seq) {
-		int site = uniRNG.nextIntFromTo(0, seq.length()-1);
-		double r = uniRNG.nextDouble();
+	protected int pickSiteToMutate(DNASequence seq, Uniform uniRNG) {
+		return pickSiteToMutate(getKernel(), seq, uniRNG);
+	}
+	
+	private int pickSiteToMutate(MutationKernel kern, DNASequence seq, Uniform uniRNG) {
+		int site = pickCandidateSite(seq, uniRNG);
+		if (kern.hasEqualRowTotals())
+			return site;
 		
 		int count = 0; //Sanity check
 		
 		//Try another base if the uniform r.v. is greater than the rowTotal
-		while (r > rowTotals[indexForBase(seq.getBaseChar(site))]/rowTotalMax ) {
-			site = uniRNG.nextIntFromTo(0, seq.length()-1);
-			r = uniRNG.nextDouble();
+		while (! (uniRNG.nextDouble() < acceptanceFor(kern, seq.getBaseChar(site)))) {
+			site = pickCandidateSite(seq, uniRNG);
 			count++;
-			if (count > 100) {
-				System.out.println("Yikes ! Count is > 100, somethings wrong...");
-
-				for(int i=0; i<rowTotals.length; i++) {
-					System.out.println(baseForIndex(i) + " : " + rowTotals[i]);
+			if (count == 100) {
+				System.err.println("Yikes ! Count is > 100, somethings wrong...");
+				for(int i=0; i<kern.size(); i++) {
+					System.err.println(baseForIndex(i) + " : " + kern.getRowTotal(i));
 				}
-				if (rowTotalsCalculated) {
-					System.out.println("Supposedly row totals have been calculated");
-				}
-				else {
-					System.out.println("Row totals were not calculated, how did we get here?");
-				}
-				
 			}
 		}
 			
 		return site; 
 	}
 	
+	/**
+	 * A site picked uniformly, or in proportion to its rate if sites have their own rates
+	 */
+	private int pickCandidateSite(DNASequence seq, Uniform uniRNG) {
+		if (siteRates == null)
+			return uniRNG.nextIntFromTo(0, seq.length()-1);
+		checkSiteRates(seq.length());
+		return siteRates.sample(uniRNG);
+	}
+	
+	private double acceptanceFor(MutationKernel kern, char base) {
+		int index = indexForBase(base);
+		return index < 0 ? 0 : kern.getAcceptance(index);
+	}
+	
 	/**
 	 * This function both mutates a given DNA sequence according to the probabilities given in the mutationMatrix, and also
 	 * tabulates the log of the total amount of change to fitness for this sequence (these calculations actually take place in the
@@ -224,24 +280,50 @@ public abstract class MutationMatrixModel extends MutationModel {
 	 */
 	public double mutateUpdateFitness(DNASequence seq, DNASequence master,
 			SiteFitnesses siteModel) {
+		return mutateUpdateFitness(seq, master, siteModel, stream);
+	}
+	
+	public MutationStream getStream() {
+		return stream;
+	}
+	
+	/**
+	 * As above, but draws random numbers from, and stores the list of mutated sites in, the given stream. Distinct streams
+	 * may be used concurrently from multiple threads. 
+	 */
+	public double mutateUpdateFitness(DNASequence seq, DNASequence master,
+			SiteFitnesses siteModel, MutationStream stream) {
+		return mutateUpdateFitness(seq, master, siteModel, stream, drawMutationCount(seq.length(), stream));
+	}
+	
+	/**
+	 * The number of mutations in a sequence of the given length in one generation, which is Poisson with mean mu*length
+	 */
+	public int drawMutationCount(int length, MutationStream stream) {
+		double mean = getMutationMean(length);
+		if (mean <= 0)
+			return 0;
+		stream.poissonRNG.setMean(mean);
+		return stream.poissonRNG.nextInt();
+	}
+	
+	/**
+	 * Apply howmany mutations to seq, as mutateUpdateFitness does after drawing the number of mutations
+	 */
+	public double mutateUpdateFitness(DNASequence seq, DNASequence master,
+			SiteFitnesses siteModel, MutationStream stream, int howmany) {
 		
-		if (!rowTotalsCalculated) {
-			calculateRowTotals();
-		}
-		
-		int L = seq.length();
-		double mean = mu*(double)L;
-		poissonRNG.setMean(mean);
+		MutationKernel kern = getKernel();
+		List<Integer> mutatedSites = stream.mutatedSites;
+		List<Character> originalStates = stream.originalStates;
+		Uniform uniRNG = stream.uniRNG;
 		double delta = 0;
-		int howmany = poissonRNG.nextInt();
 		
-		if (howmany > 0) {
-			mutatedSites.clear();
-			originalStates.clear();
-		}
+		mutatedSites.clear();
+		originalStates.clear();
 		
 		for(int i=0; i<howmany; i++) {
-			int site = pickSiteToMutate(seq);
+			int site = pickSiteToMutate(kern, seq, uniRNG);
 			char originalState = seq.getBaseChar(site);
 			
 			//Some site models break if multiple mutations occur at the same site on the same generation
@@ -251,7 +333,7 @@ public abstract class MutationMatrixModel extends MutationModel {
 				originalStates.add(originalState);
 			}
 			
-			char newBase = mutateBase(originalState);
+			char newBase = mutateBase(kern, originalState, uniRNG);
 			
 			seq.setBaseChar(site, newBase);
 		}
@@ -16,14 +16,68 @@ public abstract class MutationModel extends XMLParseable implements Serializable
 	
 	public abstract void setRandomEngine(RandomEngine rng);
 	
+	/**
+	 * Create a new model of the same type and with the same parameters as this one, except that the per-site mutation
+	 * rate is mu. This is used to give the descendant populations of a split their own rates (see PopSplitDemoModel)
+	 * @param rng
+	 * @param mu
+	 * @return
+	 */
+	public abstract MutationModel getCopy(RandomEngine rng, double mu);
+	
 	public abstract void setRecombinationRate(double recRate);
 	
 	public abstract void mutate(DNASequence seq);
 	
+	/**
+	 * Apply all of the mutations that accumulate in seq over the given number of generations. The default just calls
+	 * mutate(seq) once per generation, subclasses may do this in a single step
+	 * @param seq
+	 * @param generations
+	 */
+	public void mutate(DNASequence seq, int generations) {
+		for(int i=0; i<generations; i++)
+			mutate(seq);
+	}
+	
 	public abstract double mutateUpdateFitness(DNASequence seq, DNASequence master, SiteFitnesses siteModel);
 	
+	public abstract double mutateUpdateFitness(DNASequence seq, DNASequence master, SiteFitnesses siteModel, MutationStream stream);
+	
+	/**
+	 * The number of mutations to apply to a sequence of the given length this generation, drawn from the given stream. 
+	 * mutateUpdateFitness(seq, master, siteModel, stream) is equivalent to drawing this number and then calling the version 
+	 * below, which lets callers skip work when no mutations occur
+	 * @param length
+	 * @param stream
+	 * @return
+	 */
+	public abstract int drawMutationCount(int length, MutationStream stream);
+	
+	/**
+	 * Apply exactly howmany mutations to seq, returning the log change in fitness as mutateUpdateFitness does 
+	 */
+	public abstract double mutateUpdateFitness(DNASequence seq, DNASequence master, SiteFitnesses siteModel, MutationStream stream, int howmany);
+	
+	/**
+	 * The stream used by mutateUpdateFitness when no other stream is given, or null if there isn't one
+	 * @return
+	 */
+	public MutationStream getStream() {
+		return null;
+	}
+	
 	public abstract double getMu();
 	
+	/**
+	 * The expected number of mutations in a sequence of the given length in one generation. The default is mu*length
+	 * @param length
+	 * @return
+	 */
+	public double getMutationMean(int length) {
+		return getMu()*(double)length;
+	}
+	
 	public abstract double getRecombinationRate();
 	
 	public abstract String getDescription();
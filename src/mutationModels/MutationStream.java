@@ -0,0 +1,46 @@
+package mutationModels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cern.jet.random.Poisson;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * The mutable state needed to mutate a sequence: uniform and poisson generators drawing from a single random engine, and
+ * the buffers used to record which sites were mutated. MutationModels themselves only hold the (read-only) rates, so any number of
+ * sequences can be mutated concurrently as long as each thread uses its own stream.
+ * @author brendan
+ *
+ */
+public class MutationStream {
+
+	Uniform uniRNG;
+	Poisson poissonRNG;
+
+	//Sites mutated in the most recent call to mutateUpdateFitness, and the state of each site before it was mutated
+	List<Integer> mutatedSites = new ArrayList<Integer>(3);
+	List<Character> originalStates = new ArrayList<Character>(3);
+
+	public MutationStream(RandomEngine rng) {
+		uniRNG = new Uniform(rng);
+		poissonRNG = new Poisson(1.0, rng);
+	}
+
+	public Uniform getUniform() {
+		return uniRNG;
+	}
+
+	public Poisson getPoisson() {
+		return poissonRNG;
+	}
+
+	/**
+	 * The sites mutated in the most recent call to mutateUpdateFitness using this stream
+	 * @return
+	 */
+	public List<Integer> getMutatedSites() {
+		return mutatedSites;
+	}
+}
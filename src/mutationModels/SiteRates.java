@@ -0,0 +1,209 @@
+package mutationModels;
+
+import java.io.Serializable;
+
+import cern.jet.random.Gamma;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Relative mutation rates for each site of a sequence, so that some sites mutate faster than others. Rates are scaled
+ * to have a mean of one, so the overall mutation rate of the model is unchanged. They are kept in a Fenwick (binary
+ * indexed) tree of cumulative rates, which lets us pick a site with probability proportional to its rate, or change the
+ * rate of a site, in time proportional to log L.
+ *  Rates may be drawn from a gamma distribution with mean one and a given shape (smaller shapes give more variation
+ * among sites), or supplied as a list of values which is repeated along the sequence, for instance "1,1,4" for a
+ * sequence whose third codon positions mutate four times faster than the others.
+ *
+ * @author brendan
+ *
+ */
+public class SiteRates implements Serializable {
+
+	//XML attributes of mutation models using site rates
+	public static final String XML_GAMMASHAPE = "site.rate.shape";
+	public static final String XML_RATEPATTERN = "site.rate.pattern";
+
+	private final double[] rates;
+	private final double[] tree;	//Fenwick tree, tree[i] is the sum of the rates of sites i-(i&-i)..i-1
+	private final int topBit;		//The largest power of two no greater than the number of sites
+	private double total = 0;
+
+	private double gammaShape = Double.NaN;	//The shape used to draw the rates, or NaN if they weren't drawn
+	private String pattern = null;			//The list the rates were made from, or null
+
+	/**
+	 * Create site rates from the given values, which are scaled to have mean one
+	 * @param values
+	 */
+	public SiteRates(double[] values) {
+		if (values.length == 0)
+			throw new IllegalArgumentException("Site rates must have at least one site");
+		double sum = 0;
+		for(int i=0; i<values.length; i++) {
+			if (values[i] < 0 || Double.isNaN(values[i]))
+				throw new IllegalArgumentException("Site rates must be non-negative, got " + values[i] + " at site " + i);
+			sum += values[i];
+		}
+		if (sum <= 0)
+			throw new IllegalArgumentException("At least one site must have a positive rate");
+
+		rates = new double[values.length];
+		double scale = (double)values.length / sum;
+		for(int i=0; i<values.length; i++)
+			rates[i] = values[i]*scale;
+
+		tree = new double[rates.length+1];
+		for(int i=1; i<=rates.length; i++) {
+			tree[i] += rates[i-1];
+			int parent = i + (i & -i);
+			if (parent <= rates.length)
+				tree[parent] += tree[i];
+		}
+		total = rates.length;
+		topBit = Integer.highestOneBit(rates.length);
+	}
+
+	/**
+	 * Rates for length sites drawn from a gamma distribution with the given shape and mean one
+	 * @param rng
+	 * @param length
+	 * @param shape
+	 * @return
+	 */
+	public static SiteRates gamma(RandomEngine rng, int length, double shape) {
+		if (shape <= 0)
+			throw new IllegalArgumentException("Gamma shape must be positive, got " + shape);
+		Gamma gammaGen = new Gamma(shape, shape, rng);
+		double[] values = new double[length];
+		for(int i=0; i<length; i++)
+			values[i] = gammaGen.nextDouble();
+		SiteRates siteRates = new SiteRates(values);
+		siteRates.gammaShape = shape;
+		return siteRates;
+	}
+
+	/**
+	 * Rates for length sites taken from the given comma or whitespace separated list of values, which is repeated as
+	 * many times as necessary
+	 * @param length
+	 * @param pattern
+	 * @return
+	 * @throws NumberFormatException If the list can't be parsed
+	 */
+	public static SiteRates fromPattern(int length, String pattern) {
+		String[] tokens = pattern.trim().split("[,\\s]+");
+		double[] values = new double[tokens.length];
+		for(int i=0; i<tokens.length; i++)
+			values[i] = Double.parseDouble(tokens[i]);
+		double[] siteValues = new double[length];
+		for(int i=0; i<length; i++)
+			siteValues[i] = values[i % values.length];
+		SiteRates siteRates = new SiteRates(siteValues);
+		siteRates.pattern = pattern.trim();
+		return siteRates;
+	}
+
+	/**
+	 * The number of sites
+	 * @return
+	 */
+	public int size() {
+		return rates.length;
+	}
+
+	public double getRate(int site) {
+		return rates[site];
+	}
+
+	/**
+	 * The sum of the rates of all sites, which is the number of sites unless rates have been changed with setRate
+	 * @return
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Change the rate of a single site. Rates are not rescaled afterwards
+	 * @param site
+	 * @param rate
+	 */
+	public void setRate(int site, double rate) {
+		double delta = rate - rates[site];
+		rates[site] = rate;
+		for(int i=site+1; i<tree.length; i += (i & -i))
+			tree[i] += delta;
+		total += delta;
+	}
+
+	/**
+	 * The sum of the rates of sites 0..site-1
+	 * @param site
+	 * @return
+	 */
+	public double getCumulativeRate(int site) {
+		double sum = 0;
+		for(int i=site; i>0; i -= (i & -i))
+			sum += tree[i];
+		return sum;
+	}
+
+	/**
+	 * The site at which the cumulative rate first exceeds x, found by descending the tree
+	 * @param x
+	 * @return
+	 */
+	public int find(double x) {
+		int pos = 0;
+		for(int bit=topBit; bit>0; bit >>= 1) {
+			int next = pos + bit;
+			if (next < tree.length && tree[next] <= x) {
+				pos = next;
+				x -= tree[next];
+			}
+		}
+		//Guard against rounding error at the very end of the sequence, and never return a site with zero rate
+		if (pos >= rates.length)
+			pos = rates.length-1;
+		while(rates[pos] == 0 && pos > 0)
+			pos--;
+		return pos;
+	}
+
+	/**
+	 * Pick a site with probability proportional to its rate. Two uniform draws are combined, since a single draw only
+	 * has 32 bits of resolution, which isn't enough to tell apart the slowest sites of a long sequence
+	 * @param uniRNG
+	 * @return
+	 */
+	public int sample(Uniform uniRNG) {
+		double u = uniRNG.nextDouble();
+		u += uniRNG.nextDouble() / 4294967296.0;
+		return find(u*total);
+	}
+
+	/**
+	 * The shape of the gamma distribution the rates were drawn from, or NaN if they were not drawn from a gamma distribution
+	 * @return
+	 */
+	public double getGammaShape() {
+		return gammaShape;
+	}
+
+	/**
+	 * The list the rates were made from, or null if they were not made from a list
+	 * @return
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	public String getDescription() {
+		if (! Double.isNaN(gammaShape))
+			return "gamma distributed site rates with shape " + gammaShape;
+		if (pattern != null)
+			return "site rates repeating " + pattern;
+		return "variable site rates";
+	}
+}
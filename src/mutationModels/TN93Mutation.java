@@ -23,6 +23,9 @@ public class TN93Mutation extends MutationMatrixModel {
 	
 	String descriptionStr;
 	
+	double alphaR;
+	double alphaY;
+	double beta;
 	double piA;
 	double piC;
 	double piG;
@@ -60,6 +63,9 @@ public class TN93Mutation extends MutationMatrixModel {
 		double piR = piA+piG;
 		double piY = piC+piT;
 		
+		this.alphaR = alphaR;
+		this.alphaY = alphaY;
+		this.beta = beta;
 		this.piA = piA;
 		this.piG = piG;
 		this.piC = piC;
@@ -99,6 +105,10 @@ public class TN93Mutation extends MutationMatrixModel {
 		descriptionStr = "Tamura-Nei 1993 Mutation with mu=" + mu + " alpha R: " + alphaR + " alpha Y : " + alphaY + " beta: " + beta + " pi-A: " + piA + " pi-G: " + piG + " pi-T: " + piT + " pi-C: " + piC;
 	}
 	
+	public MutationModel getCopy(RandomEngine rng, double mu) {
+		return copySettingsTo(new TN93Mutation(rng, mu, alphaR, alphaY, beta, piA, piG, piC, piT));
+	}
+	
 	public String getDescription() {
 		return descriptionStr;
 	}
@@ -0,0 +1,104 @@
+package population;
+
+import java.io.Serializable;
+
+import cern.jet.random.Uniform;
+
+/**
+ * Draws integers in [0, n) with probability proportional to a list of weights, in constant time per draw, using
+ * Walker's alias method (as described by Vose). Building the table takes time proportional to n. The internal arrays are
+ * kept between calls to build, so a single sampler can be rebuilt every generation without allocating.
+ * @author brendan
+ *
+ */
+public class AliasSampler implements Serializable {
+
+	double[] prob = new double[0];	//Probability of keeping column i rather than taking its alias
+	int[] alias = new int[0];
+	int[] small = new int[0];		//Work stacks used during construction
+	int[] large = new int[0];
+	int size = 0;
+
+	/**
+	 * Construct the table for the first count weights in the given array. Weights must be non-negative and
+	 * at least one must be positive.
+	 * @param weights
+	 * @param count
+	 */
+	public void build(double[] weights, int count) {
+		if (prob.length < count) {
+			prob = new double[count];
+			alias = new int[count];
+			small = new int[count];
+			large = new int[count];
+		}
+		size = count;
+
+		double sum = 0;
+		for(int i=0; i<count; i++)
+			sum += weights[i];
+
+		if (sum <= 0) {
+			throw new IllegalArgumentException("Cannot build an alias table for weights that sum to " + sum);
+		}
+
+		int smallTop = 0;
+		int largeTop = 0;
+		double scale = count / sum;
+		for(int i=0; i<count; i++) {
+			prob[i] = weights[i]*scale;
+			if (prob[i] < 1.0)
+				small[smallTop++] = i;
+			else
+				large[largeTop++] = i;
+		}
+
+		while(smallTop > 0 && largeTop > 0) {
+			int s = small[--smallTop];
+			int l = large[--largeTop];
+			alias[s] = l;
+			prob[l] = (prob[l] + prob[s]) - 1.0;
+			if (prob[l] < 1.0)
+				small[smallTop++] = l;
+			else
+				large[largeTop++] = l;
+		}
+
+		//Anything left over is within rounding error of 1
+		while(largeTop > 0) {
+			int l = large[--largeTop];
+			prob[l] = 1.0;
+			alias[l] = l;
+		}
+		while(smallTop > 0) {
+			int s = small[--smallTop];
+			prob[s] = 1.0;
+			alias[s] = s;
+		}
+	}
+
+	/**
+	 * Draw a single index using one uniform random number
+	 * @param uniGen
+	 * @return
+	 */
+	public int sample(Uniform uniGen) {
+		double u = uniGen.nextDouble()*size;
+		int column = (int)u;
+		if (column >= size) //Guard against u == size due to rounding
+			column = size-1;
+
+		if (u - column < prob[column])
+			return column;
+		else
+			return alias[column];
+	}
+
+	/**
+	 * The number of weights used to construct the table
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,206 @@
+package population;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the most recent common ancestor of a population as individuals are born and die, so that the root
+ * of the population can be moved forward every generation without walking the whole ancestry (as Population.findFC does).
+ *
+ * Every locus carries a count of the 'lineages' passing through it: one for each ancestral locus of the following generation
+ * that names it as a parent or as the parent of its recombination partner, plus one while the locus is a member of the
+ * current generation. A locus is ancestral while this count is positive, and the tracker counts how many ancestral
+ * loci there are in each generation. When a locus stops being ancestral it releases the lineages it holds on its own parents, in
+ * the same manner as Population.releaseLocus. Since there are never more ancestral loci in a generation than in any more
+ * recent one, the most recent generation with a single ancestral locus is the generation of the MRCA.
+ *
+ * Generations are numbered by the tracker itself, and only those between the root and the current generation are stored.
+ *
+ * @author brendan
+ *
+ */
+public class AncestryTracker implements Serializable {
+
+	int[] ancestralCounts = new int[64];	//Number of ancestral loci in each generation, indexed by generation & (length-1)
+	int generation = 0;						//The generation of the current population
+	int rootGeneration = 0;
+	int mrcaGeneration = 0;					//Most recent generation known to have just one ancestral locus
+
+	private transient List<Locus> stack = new ArrayList<Locus>();
+	private transient List<Locus> level = new ArrayList<Locus>();
+	private transient List<Locus> nextLevel = new ArrayList<Locus>();
+
+	/**
+	 * Begin tracking the given current generation, all of whose members are offspring of root
+	 * @param root
+	 * @param current
+	 */
+	public void initialize(Locus root, List<Locus> current) {
+		generation = 1;
+		rootGeneration = 0;
+		mrcaGeneration = 0;
+		ancestralCounts = new int[64];
+
+		root.birthGen = 0;
+		root.lineageCount = 0;
+		ancestralCounts[0] = 1;
+		for(Locus ind : current) {
+			addBirth(ind);
+			addLineage(ind.getParent());
+		}
+	}
+
+	/**
+	 * Called at the start of each generation, before any offspring are created
+	 */
+	public void startGeneration() {
+		generation++;
+		ensureCapacity();
+		ancestralCounts[index(generation)] = 0;
+	}
+
+	/**
+	 * A new member of the current generation, which must be created after a call to startGeneration. The lineage
+	 * it holds on its parent is added by the caller (see Population.createOffspring)
+	 * @param kid
+	 */
+	public void addBirth(Locus kid) {
+		kid.birthGen = generation;
+		kid.lineageCount = 1;
+		ancestralCounts[index(generation)]++;
+	}
+
+	/**
+	 * Add a lineage through the given locus, which must already be ancestral. This is called once for the parent of each
+	 * new offspring, and once for the parent of each recombination partner
+	 * @param loc
+	 */
+	public void addLineage(Locus loc) {
+		if (loc != null)
+			loc.lineageCount++;
+	}
+
+	/**
+	 * Remove a single lineage from loc (for instance the one it holds as a member of the current generation, when the
+	 * generation is replaced), and then from its parents in turn if loc is no longer ancestral. This must happen before
+	 * any references are cleared by Population.releaseLocus.
+	 * @param loc
+	 */
+	public void removeLineage(Locus loc) {
+		if (loc == null)
+			return;
+
+		stack.clear();
+		stack.add(loc);
+		while(stack.size()>0) {
+			Locus ref = stack.remove(stack.size()-1);
+			ref.lineageCount--;
+			if (ref.lineageCount > 0)
+				continue;
+
+			if (ref.birthGen >= rootGeneration) {
+				int remaining = --ancestralCounts[index(ref.birthGen)];
+				if (remaining == 1 && ref.birthGen > mrcaGeneration)
+					mrcaGeneration = ref.birthGen;
+			}
+
+			if (ref.getParent() != null)
+				stack.add(ref.getParent());
+			Locus partner = ref.getRecombinationPartner();
+			if (partner != null && partner.getParent() != null)
+				stack.add(partner.getParent());
+		}
+	}
+
+	/**
+	 * Find the MRCA of the current generation by walking down from the current root through ancestral loci. Since
+	 * the levels passed over are never visited again, this takes constant time per locus, amortized over the run.
+	 * @param root The current root, which must be ancestral to the whole current generation
+	 * @return The new root, which may be the same as root
+	 */
+	public Locus findRoot(Locus root) {
+		setRoot(root);
+		if (mrcaGeneration <= rootGeneration)
+			return root;
+
+		level.clear();
+		level.add(root);
+		for(int gen=rootGeneration; gen<mrcaGeneration; gen++) {
+			nextLevel.clear();
+			for(Locus loc : level) {
+				for(Locus kid : loc.getOffspring()) {
+					if (kid.lineageCount > 0)
+						nextLevel.add(kid);
+				}
+			}
+			List<Locus> tmp = level;
+			level = nextLevel;
+			nextLevel = tmp;
+		}
+
+		if (level.size() != 1) {
+			throw new IllegalStateException("Found " + level.size() + " ancestral loci in generation " + mrcaGeneration + ", but expected one");
+		}
+
+		Locus newRoot = level.get(0);
+		level.clear();
+		nextLevel.clear();
+		setRoot(newRoot);
+		return newRoot;
+	}
+
+	/**
+	 * Tell the tracker that the root has moved (for instance, by Population.shortenRoot), so counts for generations
+	 * older than it can be forgotten
+	 * @param root
+	 */
+	public void setRoot(Locus root) {
+		if (root.birthGen > rootGeneration)
+			rootGeneration = root.birthGen;
+	}
+
+	/**
+	 * The number of ancestral loci in the given generation, counting from the generation in which tracking started
+	 * @param gen
+	 * @return
+	 */
+	public int getAncestralCount(int gen) {
+		if (gen < rootGeneration || gen > generation)
+			return 0;
+		return ancestralCounts[index(gen)];
+	}
+
+	/**
+	 * Number of generations between the root and the current generation
+	 * @return
+	 */
+	public int getRootDepth() {
+		return generation - rootGeneration;
+	}
+
+	private int index(int gen) {
+		return gen & (ancestralCounts.length-1);
+	}
+
+	/**
+	 * Make sure all generations from the root to the current one fit in the count array
+	 */
+	private void ensureCapacity() {
+		if (generation - rootGeneration < ancestralCounts.length)
+			return;
+
+		int[] newCounts = new int[ancestralCounts.length*2];
+		for(int gen=rootGeneration; gen<generation; gen++) {
+			newCounts[gen & (newCounts.length-1)] = ancestralCounts[index(gen)];
+		}
+		ancestralCounts = newCounts;
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		stack = new ArrayList<Locus>();
+		level = new ArrayList<Locus>();
+		nextLevel = new ArrayList<Locus>();
+	}
+}
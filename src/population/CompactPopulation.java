@@ -0,0 +1,913 @@
+package population;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cern.jet.random.Poisson;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+import dnaModels.DNASequence;
+import errorHandling.ErrorWindow;
+import fitnessProviders.DNAFitness;
+import fitnessProviders.FitnessProvider;
+import fitnessProviders.QGenFitness;
+import mutationModels.MutationModel;
+import mutationModels.MutationStream;
+import tree.DiscreteGenTree;
+
+/**
+ * A single population that stores its current generation as a set of parallel primitive arrays (ancestry node, relative fitness,
+ * fitness data and origin population) and its ancestry in a LineageArena, instead of creating a new Locus object (with its
+ * own offspring list, id and references) for every individual in every generation. For large populations this removes most of
+ * the garbage created by newGen.
+ *   Locus objects are only created when some consumer asks for them, via getList, getInd, getSample or getSampleTree. Loci returned
+ * by getList, getInd and getSample are views of the current generation: they share fitness data with the population but have no parent or
+ * offspring references. These views are rebuilt after each call to newGen. getSampleTree builds a complete genealogy from the arena,
+ * in the same form as Population.getSampleTree.
+ *   Alternatively, ancestry can be recorded as a tree sequence (see TreeSequenceRecorder and setRecordTreeSequence), which 
+ * appends every birth to node and edge tables and periodically simplifies them down to the ancestry of the current generation.
+ *   This engine only supports single-population demographic models, since migration requires moving Loci between populations.
+ *
+ * @author brendan
+ *
+ */
+public class CompactPopulation extends Population {
+
+	int n = 0;						//Size of the current generation
+	int[] nodes;					//Arena node of each individual in the current generation
+	double[] relFitness;			//Fitness relative to the mean of the current generation
+	FitnessProvider[] data;			//Fitness data for each individual
+	int[] originPops;				//Origin population for each individual (or -1)
+	boolean[] recombined;			//True if the individual has recombined this generation
+
+	//Buffers for the next generation, swapped with the arrays above at the end of newGen
+	int[] nextNodes;
+	double[] nextRelFitness;
+	FitnessProvider[] nextData;
+	int[] nextOriginPops;
+	boolean[] pendingCopy;			//True for offspring whose data is still to be copied from their parent (when running in parallel) 
+	int[] offspringCount;			//Number of offspring of each individual in the current generation, computed during newGen
+
+	LineageArena arena = null;
+	int rootNode = LineageArena.NONE;
+
+	//When recording a tree sequence, ancestry is stored in the recorder instead of the arena
+	boolean recordTreeSequence = false;
+	TreeSequenceRecorder recorder = null;
+	int simplifyInterval = 0;		//Generations between simplifications, or zero to simplify whenever the tables have doubled in size
+	int lastSimplifyGen = 0;
+	int simplifiedNodeCount = 0;
+
+	//Locus views of the current generation, created lazily
+	private int materializedGen = -1;
+
+	public CompactPopulation() {
+		super();
+	}
+
+	/**
+	 * Create the initial generation of N individuals, all of which are the offspring of a single root.
+	 */
+	public Locus initialize(RandomEngine rnger, int N, FitnessProvider type) {
+		this.rng = rnger;
+		uniGenerator = new Uniform(rng);
+		binomialGenerator = null;
+		poissonGenerator = new Poisson(1.0, rng); //The mean gets set later
+		pop = null;
+		materializedGen = -1;
+
+		allocate(N);
+		arena = null;
+		recorder = null;
+		if (storeAncestry && recordTreeSequence) {
+			int length = type instanceof Recombineable ? ((Recombineable)type).length() : 1;
+			recorder = new TreeSequenceRecorder(length, 4*N);
+			recorder.setStoreData(preserve);
+			rootNode = recorder.addRoot();
+			recorder.setData(rootNode, type);
+			recorder.startGeneration();
+			lastSimplifyGen = currentGen;
+			simplifiedNodeCount = N+1;
+		}
+		else if (storeAncestry) {
+			arena = new LineageArena(4*N);
+			arena.setStoreData(preserve);
+			rootNode = arena.addNode(LineageArena.NONE);
+			arena.setData(rootNode, type);
+			arena.startGeneration();
+		}
+
+		for(int i=0; i<N; i++) {
+			nodes[i] = addNode(rootNode);
+			data[i] = type.getCopy();
+			originPops[i] = -1;
+			relFitness[i] = 1.0;
+			data[i].mutate();
+		}
+		n = N;
+
+		//The root is not itself a member of the current generation
+		if (arena != null)
+			arena.releaseReference(rootNode);
+		if (recorder != null)
+			recorder.finishGeneration();
+
+		return materializeNode(rootNode, type);
+	}
+
+	/**
+	 * Not supported, since the individuals in a compact population are not Locus objects
+	 */
+	public void initialize(RandomEngine rnger, Population source, int N ) {
+		throw new UnsupportedOperationException("Compact populations cannot be founded from other populations");
+	}
+
+	public void setPreserveData(boolean preserve) {
+		this.preserve = preserve;
+		if (arena != null)
+			arena.setStoreData(preserve);
+		if (recorder != null)
+			recorder.setStoreData(preserve);
+	}
+
+	/**
+	 * Record ancestry as a tree sequence that is periodically simplified, instead of in a LineageArena. This must be 
+	 * set before the population is initialized. 
+	 * @param record
+	 */
+	public void setRecordTreeSequence(boolean record) {
+		this.recordTreeSequence = record;
+	}
+
+	public boolean getRecordTreeSequence() {
+		return recordTreeSequence;
+	}
+
+	/**
+	 * Set the number of generations between simplifications of the tree sequence. If zero (the default), the tables are
+	 * simplified whenever they have grown to twice their size after the last simplification, which keeps the cost of 
+	 * simplifying proportional to the number of births.
+	 * @param interval
+	 */
+	public void setSimplifyInterval(int interval) {
+		this.simplifyInterval = interval;
+	}
+
+	/**
+	 * The tree sequence recorder, or null if ancestry isn't being recorded as a tree sequence
+	 * @return
+	 */
+	public TreeSequenceRecorder getTreeSequence() {
+		return recorder;
+	}
+
+	public FitnessProvider getFitnessModel() {
+		return data[0];
+	}
+
+	public void changeMasterSequence(DNASequence newMaster) {
+		try {
+			for(int i=0; i<n; i++) {
+				DNAFitness dnaFitness = (DNAFitness) data[i];
+				dnaFitness.setMasterSequence(newMaster);
+			}
+		}
+		catch (ClassCastException cce) {
+			ErrorWindow.showErrorWindow(new IllegalStateException("Cannot set the master sequence for individuals with no DNA fitness model"));
+		}
+	}
+
+	/**
+	 * Returns a Locus representing the most recent common ancestor of the population, as of the last time the root was moved.
+	 * The returned Locus is not connected to any other individuals.
+	 */
+	public Locus getRoot() {
+		if (rootNode == LineageArena.NONE)
+			return null;
+		return materializeNode(rootNode, data[0]);
+	}
+
+	public ArrayList<Locus> getList() {
+		materializeCurrentGeneration();
+		return pop;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Compact populations keep no preserved individuals, so only the data of the current generation may still be read
+	 */
+	public void collectLiveData(List<FitnessProvider> list) {
+		for(int i=0; i<n; i++)
+			list.add(data[i]);
+	}
+
+	/**
+	 * Individuals in a compact population are always the same distance from the root
+	 */
+	public boolean isSane() {
+		return true;
+	}
+
+	/**
+	 * There are no parent / offspring links to check, these are maintained by the LineageArena
+	 */
+	public boolean checkSanity() {
+		return true;
+	}
+
+	/**
+	 * Returns the common ancestor of the individuals in the current generation that have the same ids as those in the sample
+	 */
+	public Locus findFC(List<Locus> sample) {
+		materializeCurrentGeneration();
+		Map<Long, Integer> indexByID = new HashMap<Long, Integer>(2*n);
+		for(int i=0; i<n; i++)
+			indexByID.put(pop.get(i).getID(), i);
+		
+		int[] sampleNodes = new int[sample.size()];
+		int count = 0;
+		for(Locus ind : sample) {
+			Integer index = indexByID.get(ind.getID());
+			if (index != null) {
+				sampleNodes[count] = nodes[index];
+				count++;
+			}
+		}
+		int fc = recorder != null ? recorder.findCommonAncestor(sampleNodes, count) : arena.findCommonAncestor(sampleNodes, count);
+		if (fc == LineageArena.NONE)
+			return null;
+		return materializeNode(fc, data[0]);
+	}
+
+	public ArrayList<Locus> findPopulationIndsForSample(List<Locus> sample) {
+		materializeCurrentGeneration();
+		return super.findPopulationIndsForSample(sample);
+	}
+
+	public ArrayList<Locus> getSample(int sampleSize) {
+		materializeCurrentGeneration();
+		int[] which = sampleIndices(sampleSize);
+		ArrayList<Locus> sample = new ArrayList<Locus>(which.length);
+		for(int i=0; i<which.length; i++)
+			sample.add(pop.get(which[i]));
+		return sample;
+	}
+
+	public Locus getInd(int which) {
+		if (which > n)
+			return null;
+		materializeCurrentGeneration();
+		return pop.get(which);
+	}
+
+	/**
+	 * Randomly selects sampleSize individuals from the current generation and builds their genealogy from the lineage
+	 * arena. Tips get copies of the individuals' data. When ancestral data is preserved, internal nodes get copies of the
+	 * ancestral data, otherwise they share the data of one of their descendants.
+	 */
+	public DiscreteGenTree getSampleTree(int sampleSize) {
+		if (! storeAncestry)
+			return null;
+
+		if (recorder != null)
+			return getRecordedSampleTree(sampleSize);
+
+		int[] which = sampleIndices(sampleSize);
+		ArrayList<Locus> tips = new ArrayList<Locus>(which.length);
+		Map<Integer, Locus> level = new LinkedHashMap<Integer, Locus>();
+		for(int i=0; i<which.length; i++) {
+			int node = nodes[which[i]];
+			Locus tip = new Locus(null);
+			tip.setFitnessProvider( data[which[i]].getCopy() );
+			tip.setID( arena.getLabel(node) );
+			tip.setPop("sample");
+			if (originPops[which[i]] > -1)
+				tip.setOriginPopulation(originPops[which[i]]);
+			tips.add(tip);
+			level.put(node, tip);
+		}
+
+		int iteration = 0;
+		while(level.size()>1 && iteration < 5000000) {
+			iteration++;
+			Map<Integer, Locus> parents = new LinkedHashMap<Integer, Locus>();
+			boolean progressed = false;
+			for(Integer node : level.keySet()) {
+				Locus kid = level.get(node);
+				int parentNode = arena.getParent(node);
+				if (parentNode == LineageArena.NONE) {
+					//The root of the arena, it stays put until all other lineages have reached it
+					parents.put(node, kid);
+					continue;
+				}
+				progressed = true;
+
+				Locus sampleParent = findOrMaterialize(parents, parentNode, kid);
+				sampleParent.addOffspring(kid);
+				kid.setParent(sampleParent);
+
+				int recParentNode = arena.getRecombinationParent(node);
+				if (recParentNode != LineageArena.NONE) {
+					int min = arena.getBreakPointMin(node);
+					int max = arena.getBreakPointMax(node);
+					Locus samplePartner = new Locus(null);
+					samplePartner.setFitnessProvider(kid.getFitnessData());
+					samplePartner.setID( -kid.getID() );
+					kid.setRecombinationPartner(min, max, samplePartner);
+					samplePartner.setRecombinationPartner(min, max, kid);
+
+					Locus samplePartnerParent = findOrMaterialize(parents, recParentNode, kid);
+					samplePartnerParent.addOffspring(samplePartner);
+					samplePartner.setParent(samplePartnerParent);
+				}
+			}
+
+			if (! progressed)
+				break;
+			level = parents;
+		}
+
+		if (level.size() != 1) {
+			System.err.println("Uh-oh, could not find a common ancestor for this sample of individuals");
+			return null;
+		}
+
+		return completeSampleTree(new DiscreteGenTree(level.values().iterator().next(), tips));
+	}
+
+	/**
+	 * Build the genealogy of a random sample from the tree sequence. Tips get copies of the individuals' data.
+	 */
+	private DiscreteGenTree getRecordedSampleTree(int sampleSize) {
+		int[] which = sampleIndices(sampleSize);
+		int[] sampleNodes = new int[which.length];
+		ArrayList<Locus> tips = new ArrayList<Locus>(which.length);
+		for(int i=0; i<which.length; i++) {
+			sampleNodes[i] = nodes[which[i]];
+			Locus tip = new Locus(null);
+			tip.setFitnessProvider( data[which[i]].getCopy() );
+			tip.setID( recorder.getLabel(sampleNodes[i]) );
+			tip.setPop("sample");
+			if (originPops[which[i]] > -1)
+				tip.setOriginPopulation(originPops[which[i]]);
+			tips.add(tip);
+		}
+		if (tips.size()==0)
+			return null;
+		return completeSampleTree(recorder.getSampleTree(sampleNodes, tips));
+	}
+
+	/**
+	 * Creates a new generation with the same size as the previous generation
+	 */
+	public void newGen() {
+		newGen(n);
+	}
+
+	/**
+	 * Creates a new generation with population size given by newSize
+	 */
+	public void newGen(int newSize) {
+		currentGen++;
+
+		if (arena != null) {
+			if (arena.needsCompaction(newSize))
+				compactArena();
+			arena.startGeneration();
+		}
+		if (recorder != null) {
+			if (needsSimplification())
+				simplifyTreeSequence();
+			recorder.startGeneration();
+		}
+
+		ensureNextCapacity(newSize);
+		Arrays.fill(offspringCount, 0, n, 0);
+
+		boolean multiPop = getTotalPopCount()>1;
+		boolean multinomial = reproductionMode == ReproductionMode.MULTINOMIAL;
+		final boolean parallel = threadCount > 1 && data[0].supportsParallelMutation();
+		if (parallel && workers == null)
+			workers = new ReproductionWorkers(threadCount, rng);
+		if (multinomial) {
+			//Draw all offspring counts at once and build offspring in parent order, releasing each parent from the
+			//current generation as soon as its offspring exist
+			if (offspringCounts.length < n)
+				offspringCounts = new int[n];
+			drawOffspringCounts(relFitness, n, newSize, offspringCounts);
+			int k = 0;
+			for(int i=0; i<n; i++) {
+				for(int j=0; j<offspringCounts[i]; j++) {
+					createOffspring(k, i, multiPop, parallel);
+					k++;
+				}
+				releaseParent(i);
+			}
+		}
+		else {
+			//Choose parents in the same way as Population, either from an alias table or by picking a random individual
+			//and accepting it with probability proportional to its relative fitness
+			if (reproductionMode == ReproductionMode.ALIAS) {
+				aliasSampler.build(relFitness, n);
+				if (parallel) {
+					chooseParentsInParallel(newSize, true);
+				}
+				else {
+					for(int k=0; k<newSize; k++) 
+						parentIndex[k] = aliasSampler.sample(uniGenerator);
+				}
+			}
+			else if (parallel) {
+				chooseParentsInParallel(newSize, false);
+			}
+			else {
+				for(int k=0; k<newSize; k++) {
+					int who = uniGenerator.nextIntFromTo(0, n-1);
+					while (uniGenerator.nextDouble() >= 0.5*relFitness[who]) {
+						who = uniGenerator.nextIntFromTo(0, n-1);
+					}
+					parentIndex[k] = who;
+				}
+			}
+
+			for(int k=0; k<newSize; k++) {
+				createOffspring(k, parentIndex[k], multiPop, parallel);
+			}
+		}
+
+		double newMeanW = 0;
+		if (parallel) {
+			newMeanW = copyAndMutateInParallel(newSize);
+		}
+		else {
+			boolean batched = drawMutationBatch(newSize);
+			boolean ownStream = nextData[0].supportsParallelMutation();
+			MutationStream stream = mutationBatch.getStream();
+			for(int k=0; k<newSize; k++) {
+				if (batched) {
+					if (mutationBatch.getCount(k) > 0)
+						nextData[k].mutate(stream, mutationBatch.getCount(k));
+				}
+				else if (ownStream)
+					nextData[k].mutate(stream);
+				else
+					nextData[k].mutate();
+				newMeanW += nextData[k].getFitness();
+			}
+		}
+		newMeanW /= (double)newSize;
+
+		boolean qgen = nextData[0] instanceof QGenFitness;
+		for(int k=0; k<newSize; k++) {
+			if (qgen) {
+				nextData[k].setFitness( nextData[k].getFitness()/newMeanW );
+				nextRelFitness[k] = nextData[k].getFitness();
+			}
+			else {
+				nextRelFitness[k] = nextData[k].getFitness()/newMeanW;
+			}
+		}
+
+		//The parental generation leaves the current generation, which releases every parent that
+		//left no descendants (and any ancestors that were only kept alive by those parents)
+		if (! multinomial) {
+			for(int i=0; i<n; i++) {
+				releaseParent(i);
+			}
+		}
+
+		swapGenerations(newSize);
+		
+		//Releasing the parents may have left a single live ancestor in some generation below the root
+		if (arena != null)
+			rootNode = arena.findRoot(rootNode);
+
+		if (calls % 1000 == 0 && data[0] instanceof DNAFitness) {
+			for(int i=0; i<n; i++) {
+				DNASequence master = ((DNAFitness) data[i]).getMaster();
+				((DNAFitness)data[i]).verifyFitness(master);
+			}
+		}
+
+		recombine();
+		if (recorder != null)
+			recorder.finishGeneration();
+		calls++;
+	}
+
+	/**
+	 * Create individual k of the next generation as an offspring of individual who of the current generation. If deferCopy is
+	 * true the offspring's data is not copied yet, and copyAndMutateInParallel must be called to do it.
+	 */
+	private void createOffspring(int k, int who, boolean multiPop, boolean deferCopy) {
+		offspringCount[who]++;
+		nextNodes[k] = addNode(nodes[who]);
+
+		//The first offspring of a parent takes over its data, the rest get copies, unless we're preserving
+		//ancestral data, in which case the parent keeps its own
+		boolean needsCopy = preserve || offspringCount[who]>1;
+		if (deferCopy) {
+			nextData[k] = data[who];
+			pendingCopy[k] = needsCopy;
+		}
+		else if (needsCopy) 
+			nextData[k] = data[who].getCopy();
+		else
+			nextData[k] = data[who];
+
+		nextOriginPops[k] = multiPop ? myPopNumber : originPops[who];
+	}
+
+	/**
+	 * Choose the parent of each new individual using the worker threads, each chunk drawing from its own random stream
+	 */
+	private void chooseParentsInParallel(int newSize, final boolean alias) {
+		workers.forEachChunk(newSize, new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				Uniform uni = workers.getUniform(chunk);
+				for(int k=start; k<end; k++) {
+					if (alias) {
+						parentIndex[k] = aliasSampler.sample(uni);
+					}
+					else {
+						int who = uni.nextIntFromTo(0, n-1);
+						while (uni.nextDouble() >= 0.5*relFitness[who]) {
+							who = uni.nextIntFromTo(0, n-1);
+						}
+						parentIndex[k] = who;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Draw the number of mutations of each of the first newSize new individuals at once, if possible (see MutationBatch)
+	 * @param newSize
+	 * @return True if the counts are available from mutationBatch
+	 */
+	private boolean drawMutationBatch(int newSize) {
+		if (mutationBatch == null)
+			mutationBatch = new MutationBatch(rng);
+		mutationBatch.begin(newSize);
+		for(int k=0; k<newSize; k++)
+			mutationBatch.setMean(k, nextData[k].getMutationMean());
+		return mutationBatch.draw();
+	}
+
+	/**
+	 * Make all pending copies, and then mutate all new individuals, using the worker threads. 
+	 * @return The sum of the fitnesses of the new individuals
+	 */
+	private double copyAndMutateInParallel(int newSize) {
+		workers.forEachChunk(newSize, new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				for(int k=start; k<end; k++) {
+					if (pendingCopy[k]) {
+						nextData[k] = nextData[k].getCopy();
+						pendingCopy[k] = false;
+					}
+				}
+			}
+		});
+
+		final boolean batched = drawMutationBatch(newSize);
+		final double[] sums = workers.getChunkSums();
+		workers.forEachChunk(newSize, new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				MutationStream stream = workers.getStream(chunk);
+				double sum = 0;
+				for(int k=start; k<end; k++) {
+					if (! batched)
+						nextData[k].mutate(stream);
+					else if (mutationBatch.getCount(k) > 0)
+						nextData[k].mutate(stream, mutationBatch.getCount(k));
+					sum += nextData[k].getFitness();
+				}
+				sums[chunk] = sum;
+			}
+		});
+
+		double total = 0;
+		for(int i=0; i<workers.getThreadCount(); i++)
+			total += sums[i];
+		return total;
+	}
+
+	/**
+	 * Remove individual i of the current generation from the current generation in the arena. This must happen after
+	 * all of its offspring have been created.
+	 */
+	private void releaseParent(int i) {
+		if (recorder != null && preserve)
+			recorder.setData(nodes[i], data[i]);
+		if (arena == null)
+			return;
+		if (preserve)
+			arena.setData(nodes[i], data[i]);
+		arena.releaseReference(nodes[i]);
+	}
+
+	/**
+	 * Add a node for a new individual with the given parent node to whichever ancestry store is in use
+	 */
+	private int addNode(int parentNode) {
+		if (arena != null)
+			return arena.addNode(parentNode);
+		if (recorder != null)
+			return recorder.addNode(parentNode);
+		return LineageArena.NONE;
+	}
+
+	/**
+	 * True if it's time to simplify the tree sequence
+	 */
+	private boolean needsSimplification() {
+		if (simplifyInterval > 0)
+			return currentGen - lastSimplifyGen >= simplifyInterval;
+		return recorder.getNodeCount() >= 2*simplifiedNodeCount;
+	}
+
+	/**
+	 * Simplify the tree sequence down to the ancestry of the current generation, and move the root down to its MRCA
+	 */
+	private void simplifyTreeSequence() {
+		recorder.simplify(nodes, n);
+		rootNode = recorder.getRoot();
+		lastSimplifyGen = currentGen;
+		simplifiedNodeCount = Math.max(recorder.getNodeCount(), n);
+	}
+
+	/**
+	 * Remove dead nodes from the arena, and translate the node indices we hold to their new values
+	 */
+	private void compactArena() {
+		arena.compact();
+		for(int i=0; i<n; i++)
+			nodes[i] = arena.getNewIndex(nodes[i]);
+		rootNode = arena.getNewIndex(rootNode);
+	}
+
+	/**
+	 * Move the root of the lineage arena down to the common ancestor of the current generation, releasing everything above it. 
+	 * Since newGen moves the root down each generation this is usually not needed.
+	 */
+	public void shortenRoot() {
+		if (recorder != null) {
+			simplifyTreeSequence();
+			return;
+		}
+		if (arena == null)
+			return;
+		int fc = arena.findCommonAncestor(nodes, n);
+		if (fc != LineageArena.NONE) {
+			arena.makeRoot(fc);
+			rootNode = fc;
+		}
+	}
+
+	/**
+	 * Pick pairs of individuals and recombine them, as in Population.recombine
+	 */
+	protected void recombine() {
+		if (n < 2 || ! (data[0] instanceof Recombineable)) {
+			return;
+		}
+		double rate = data[0].getRecombinationRate();
+		poissonGenerator.setMean(rate / 2.0 * n); //Since each recombination event involves two individuals, rate/2 is the pairwise rate
+
+		int recombiningPairs = poissonGenerator.nextInt();
+		if (recombiningPairs == 0)
+			return;
+
+		Arrays.fill(recombined, 0, n, false);
+		int count = 0;
+		for(int i=0; i<recombiningPairs; i++) {
+			int one = uniGenerator.nextIntFromTo(0, n-1);
+			while( recombined[one] && count < 1000) {
+				one = uniGenerator.nextIntFromTo(0, n-1);
+				count++;
+			}
+
+			if (count==1000)
+				return;
+			count = 0;
+			int two = uniGenerator.nextIntFromTo(0, n-1);
+			while( (recombined[two] || two==one) && count < 1000) {
+				two = uniGenerator.nextIntFromTo(0, n-1);
+				count++;
+			}
+
+			if (count==1000)
+				return;
+
+			int[] range = Locus.exchangeRegions((Recombineable)data[one], (Recombineable)data[two], uniGenerator);
+			recombined[one] = true;
+			recombined[two] = true;
+			if (recorder != null) {
+				int parentOne = recorder.getParent(nodes[one]);
+				int parentTwo = recorder.getParent(nodes[two]);
+				recorder.setRecombination(nodes[one], parentTwo, range[0], range[1]);
+				recorder.setRecombination(nodes[two], parentOne, range[0], range[1]);
+			}
+			else if (storeAncestry) {
+				int parentOne = arena.getParent(nodes[one]);
+				int parentTwo = arena.getParent(nodes[two]);
+				arena.setRecombination(nodes[one], parentTwo, range[0], range[1]);
+				arena.setRecombination(nodes[two], parentOne, range[0], range[1]);
+			}
+		}
+	}
+
+	/**
+	 * Compact populations do not keep preserved individuals, so there's nothing to do here
+	 */
+	public void releasePreservedInds() {
+
+	}
+
+	/**
+	 * Apply the model to the fitness data of the current generation directly
+	 */
+	public void setMutationModel(MutationModel model) {
+		mutationModel = model;
+		for(int i=0; i<n; i++) {
+			applyMutationModel(data[i]);
+		}
+	}
+
+	public List<Locus> removeIndividuals(int num) {
+		throw new UnsupportedOperationException("Compact populations do not support migration");
+	}
+
+	public void addIndividuals(List<Locus> migrants) {
+		throw new UnsupportedOperationException("Compact populations do not support migration");
+	}
+
+	/**
+	 * The number of ancestral (and current) nodes currently stored
+	 * @return
+	 */
+	public int getStoredNodeCount() {
+		if (recorder != null)
+			return recorder.getNodeCount();
+		if (arena == null)
+			return 0;
+		return arena.getLiveNodeCount();
+	}
+
+	/**
+	 * Pick sampleSize distinct individuals from the current generation (or all of them, if sampleSize >= n)
+	 */
+	private int[] sampleIndices(int sampleSize) {
+		int size = Math.min(n, sampleSize);
+		int[] which = new int[size];
+		BitSet picked = new BitSet(n);
+		int count = 0;
+		while(count < size) {
+			int i = uniGenerator.nextIntFromTo(0, n-1);
+			if (! picked.get(i)) {
+				picked.set(i);
+				which[count] = i;
+				count++;
+			}
+		}
+		return which;
+	}
+
+	/**
+	 * Find the Locus for the given arena node in the map, or create it and add it to the map if it's not there
+	 */
+	private Locus findOrMaterialize(Map<Integer, Locus> parents, int node, Locus descendant) {
+		Locus sampleParent = parents.get(node);
+		if (sampleParent == null) {
+			sampleParent = materializeNode(node, descendant.getFitnessData());
+			parents.put(node, sampleParent);
+		}
+		return sampleParent;
+	}
+
+	/**
+	 * Create a Locus representing the given arena node. If ancestral data is preserved a copy of the node's data is used,
+	 * otherwise the Locus shares defaultData
+	 */
+	private Locus materializeNode(int node, FitnessProvider defaultData) {
+		Locus loc = new Locus(null);
+		if (node == LineageArena.NONE) {
+			loc.setFitnessProvider(defaultData);
+			return loc;
+		}
+		FitnessProvider nodeData = recorder != null ? recorder.getData(node) : arena.getData(node);
+		if (nodeData != null)
+			loc.setFitnessProvider(nodeData.getCopy());
+		else
+			loc.setFitnessProvider(defaultData);
+		loc.setID( nodeLabel(node) );
+		return loc;
+	}
+
+	/**
+	 * Build the list of Locus views of the current generation, if it hasn't been built since the last call to newGen. The views
+	 * have no parents, statistics that follow parents (other than tree statistics) aren't run on this engine
+	 */
+	private void materializeCurrentGeneration() {
+		if (pop != null && materializedGen == currentGen)
+			return;
+
+		pop = new ArrayList<Locus>(n);
+		for(int i=0; i<n; i++) {
+			Locus ind = new Locus(null);
+			ind.setFitnessProvider(data[i]);
+			ind.setRelFitness(relFitness[i]);
+			if (storeAncestry)
+				ind.setID( nodeLabel(nodes[i]) );
+			else
+				ind.setID( ((long)currentGen<<32) | i );
+			if (originPops[i] > -1)
+				ind.setOriginPopulation(originPops[i]);
+			pop.add(ind);
+		}
+		materializedGen = currentGen;
+	}
+
+	private long nodeLabel(int node) {
+		return recorder != null ? recorder.getLabel(node) : arena.getLabel(node);
+	}
+
+	private void swapGenerations(int newSize) {
+		int[] tmpNodes = nodes;
+		nodes = nextNodes;
+		nextNodes = tmpNodes;
+
+		double[] tmpRel = relFitness;
+		relFitness = nextRelFitness;
+		nextRelFitness = tmpRel;
+
+		//Individuals with no offspring gave their data to nobody, so unless it's preserved for ancestors their storage can
+		//be reused
+		if (! preserve) {
+			for(int i=0; i<n; i++) {
+				if (offspringCount[i]==0)
+					data[i].retire();
+			}
+		}
+
+		FitnessProvider[] tmpData = data;
+		data = nextData;
+		nextData = tmpData;
+		Arrays.fill(nextData, null); //So old data can be garbage collected
+
+		int[] tmpOrigins = originPops;
+		originPops = nextOriginPops;
+		nextOriginPops = tmpOrigins;
+
+		n = newSize;
+		pop = null;
+	}
+
+	private void allocate(int size) {
+		int cap = Math.max(size, 1);
+		nodes = new int[cap];
+		relFitness = new double[cap];
+		data = new FitnessProvider[cap];
+		originPops = new int[cap];
+		recombined = new boolean[cap];
+		offspringCount = new int[cap];
+		nextNodes = new int[cap];
+		nextRelFitness = new double[cap];
+		nextData = new FitnessProvider[cap];
+		nextOriginPops = new int[cap];
+		pendingCopy = new boolean[cap];
+		parentIndex = new int[cap];
+	}
+
+	/**
+	 * Make sure the next-generation buffers can hold size individuals, and that the current generation buffers will be
+	 * able to as well once they're swapped
+	 */
+	private void ensureNextCapacity(int size) {
+		if (nextNodes.length >= size && nodes.length >= size)
+			return;
+		int cap = Math.max(size, nodes.length);
+		nodes = Arrays.copyOf(nodes, cap);
+		relFitness = Arrays.copyOf(relFitness, cap);
+		data = Arrays.copyOf(data, cap);
+		originPops = Arrays.copyOf(originPops, cap);
+		recombined = new boolean[cap];
+		offspringCount = Arrays.copyOf(offspringCount, cap);
+		nextNodes = new int[cap];
+		nextRelFitness = new double[cap];
+		nextData = new FitnessProvider[cap];
+		nextOriginPops = new int[cap];
+		pendingCopy = new boolean[cap];
+		parentIndex = new int[cap];
+	}
+}
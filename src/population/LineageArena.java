@@ -0,0 +1,476 @@
+package population;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import fitnessProviders.FitnessProvider;
+
+/**
+ * A table-based store of the ancestry of a population, used by CompactPopulation in place of a graph of Locus objects.
+ * Every individual that has ever lived (and is still an ancestor of someone alive) is a 'node', identified by an int
+ * index into a handful of parallel primitive arrays describing its parent, the parent of its recombination partner (if it has one),
+ * the recombinant region, its birth generation and a unique label. A node takes about 32 bytes, and looking one up by index is
+ * a single array access.
+ *   Nodes are reference counted: each node is referenced once by every node that names it as a parent or recombination parent,
+ * and once more while it is a member of the current generation. When the count drops to zero the node is dead and its own 
+ * parents are released in turn, so that lineages that die out are pruned in time proportional to their length without allocating
+ * anything.
+ *   Nodes are allocated in blocks, one per generation: all nodes born in a generation occupy a contiguous range of indices, 
+ * and the arena keeps the number of live nodes in each generation. Dead nodes are not reused individually. Instead, 
+ * the owner periodically calls compact(), which slides all live nodes down over the dead ones (keeping generations 
+ * contiguous and in order), so generations that have died out completely are freed as a block. Since compaction changes 
+ * node indices, the owner must translate any indices it holds with getNewIndex().
+ *   The per-generation counts also give the most recent common ancestor of the current generation: it's the only live 
+ * node in the most recent generation that has just one, see findRoot().
+ *
+ * @author brendan
+ *
+ */
+public class LineageArena implements Serializable {
+
+	public static final int NONE = -1;
+
+	int[] parent;			//Index of parent node, or NONE for the root
+	int[] recParent;		//Index of the parent of the recombination partner, or NONE if no recombination
+	int[] bpMin;			//Recombinant region, inclusive of min...
+	int[] bpMax;			//..and exclusive of max
+	int[] refs;				//Reference count
+	int[] birthGen;			//Generation in which the node was created
+	long[] label;			//Unique label, used as the id of materialized Loci
+	FitnessProvider[] data; //Only used when ancestral data is preserved
+
+	int used = 0; 			//Number of slots handed out since the last compaction. New nodes always go at the end
+	int liveNodes = 0;
+	long nextLabel = 1;
+
+	//The generation table. Generation firstGen+i starts at index genStart[i], and has genLive[i] live nodes 
+	int generation = 0;
+	int firstGen = 0;
+	int[] genStart = new int[64];
+	int[] genLive = new int[64];
+	int mrcaGen = 0;		//Most recent generation known to contain only a single live node
+
+	int[] newIndex;			//Translation of old indices to new ones, filled in by compact()
+
+	//Buffers reused by releaseReference and findCommonAncestor, so neither allocates in the common case
+	int[] releaseStack;
+	int[] mark;
+	int stamp = 0;
+	int[] levelA;
+	int[] levelB;
+
+	public LineageArena(int initialCapacity) {
+		int cap = Math.max(16, initialCapacity);
+		parent = new int[cap];
+		recParent = new int[cap];
+		bpMin = new int[cap];
+		bpMax = new int[cap];
+		refs = new int[cap];
+		birthGen = new int[cap];
+		label = new long[cap];
+		mark = new int[cap];
+		releaseStack = new int[64];
+		levelA = new int[64];
+		levelB = new int[64];
+	}
+
+	/**
+	 * Begin a new generation. All nodes created after this call (until the next one) are placed in the same block
+	 */
+	public void startGeneration() {
+		generation++;
+		int slot = generation - firstGen;
+		if (slot == genStart.length) {
+			genStart = Arrays.copyOf(genStart, slot*2);
+			genLive = Arrays.copyOf(genLive, slot*2);
+		}
+		genStart[slot] = used;
+		genLive[slot] = 0;
+	}
+
+	/**
+	 * Create a new node in the current generation with the given parent (which may be NONE). The new node starts with 
+	 * one reference, which represents its membership in the current generation.
+	 * @param parentNode
+	 * @return The index of the new node
+	 */
+	public int addNode(int parentNode) {
+		if (used == parent.length)
+			grow();
+		int node = used;
+		used++;
+
+		parent[node] = parentNode;
+		recParent[node] = NONE;
+		bpMin[node] = 0;
+		bpMax[node] = 0;
+		refs[node] = 1;
+		birthGen[node] = generation;
+		genLive[generation - firstGen]++;
+		label[node] = nextLabel;
+		nextLabel++;
+		mark[node] = 0;
+		if (data != null)
+			data[node] = null;
+		if (parentNode != NONE)
+			refs[parentNode]++;
+		liveNodes++;
+		return node;
+	}
+
+	/**
+	 * Record that node has exchanged the region [min, max) with a partner whose parent is partnerParent
+	 */
+	public void setRecombination(int node, int partnerParent, int min, int max) {
+		if (recParent[node] != NONE) {
+			throw new IllegalArgumentException("Node " + node + " already has a recombination breakpoint");
+		}
+		recParent[node] = partnerParent;
+		refs[partnerParent]++;
+		bpMin[node] = min;
+		bpMax[node] = max;
+	}
+
+	public void addReference(int node) {
+		refs[node]++;
+	}
+
+	/**
+	 * Decrement the reference count of the node, freeing it and releasing its parents if the count falls to zero
+	 * @param node
+	 */
+	public void releaseReference(int node) {
+		int top = 0;
+		releaseStack[top++] = node;
+		while(top > 0) {
+			int n = releaseStack[--top];
+			refs[n]--;
+			if (refs[n] > 0)
+				continue;
+
+			if (refs[n] < 0) {
+				throw new IllegalStateException("Reference count for lineage node " + n + " fell below zero");
+			}
+
+			if (top+2 > releaseStack.length)
+				releaseStack = Arrays.copyOf(releaseStack, releaseStack.length*2);
+			if (parent[n] != NONE)
+				releaseStack[top++] = parent[n];
+			if (recParent[n] != NONE)
+				releaseStack[top++] = recParent[n];
+			freeNode(n);
+		}
+	}
+
+	/**
+	 * Detach the given node from all of its ancestors, which are released. Used to move the root of the arena down to
+	 * the common ancestor of the current generation.
+	 * @param node
+	 */
+	public void makeRoot(int node) {
+		int p = parent[node];
+		int rp = recParent[node];
+		parent[node] = NONE;
+		recParent[node] = NONE;
+		bpMin[node] = 0;
+		bpMax[node] = 0;
+		if (p != NONE)
+			releaseReference(p);
+		if (rp != NONE)
+			releaseReference(rp);
+	}
+
+	/**
+	 * If a more recent common ancestor of the current generation than root has appeared (that is, some generation
+	 * more recent than root's now has a single live node), make it the root, releasing everything above it. This takes
+	 * time proportional to the size of the new root's generation, and each generation becomes the root at most once.
+	 * @param root The current root
+	 * @return The new root, or root if it hasn't changed
+	 */
+	public int findRoot(int root) {
+		if (root == NONE || mrcaGen <= birthGen[root])
+			return root;
+
+		int slot = mrcaGen - firstGen;
+		int end = (mrcaGen == generation) ? used : genStart[slot+1];
+		for(int i=genStart[slot]; i<end; i++) {
+			if (refs[i] > 0) {
+				makeRoot(i);
+				return i;
+			}
+		}
+		throw new IllegalStateException("Generation " + mrcaGen + " should contain a live node, but has none");
+	}
+
+	/**
+	 * Returns true if a call to compact() would be worthwhile before adding the given number of nodes: either most of the
+	 * nodes handed out since the last compaction are dead, or the new nodes won't fit and compacting would free at least a
+	 * third of the arena. Either way the cost of compacting is at most a few operations per node freed.
+	 * @param upcoming
+	 * @return
+	 */
+	public boolean needsCompaction(int upcoming) {
+		int dead = used - liveNodes;
+		if (dead < 1024)
+			return false;
+		return dead > liveNodes || (used + upcoming > parent.length && 3*dead > used);
+	}
+
+	/**
+	 * Move all live nodes down over dead ones, preserving their order (and hence the grouping of nodes into generations), 
+	 * and drop generations with no live nodes. This takes time proportional to the number of nodes handed out since
+	 * the last compaction. Afterward, getNewIndex() translates node indices from before the compaction into current ones. 
+	 */
+	public void compact() {
+		if (newIndex == null || newIndex.length < used)
+			newIndex = new int[parent.length];
+
+		int next = 0;
+		int genCount = generation - firstGen + 1;
+		int newFirstGen = -1;
+		for(int g=0; g<genCount; g++) {
+			int start = genStart[g];
+			int end = (g == genCount-1) ? used : genStart[g+1];
+			if (newFirstGen == -1) {
+				if (genLive[g] == 0 && g < genCount-1) {
+					//Everything before the oldest live generation is dropped from the table
+					for(int i=start; i<end; i++)
+						newIndex[i] = NONE;
+					continue;
+				}
+				newFirstGen = firstGen + g;
+			}
+			
+			int live = genLive[g];
+			int slot = firstGen + g - newFirstGen;
+			genStart[slot] = next;
+			genLive[slot] = live;
+			for(int i=start; i<end; i++) {
+				if (refs[i] == 0) {
+					newIndex[i] = NONE;
+					continue;
+				}
+				newIndex[i] = next;
+				parent[next] = parent[i] == NONE ? NONE : newIndex[parent[i]];
+				recParent[next] = recParent[i] == NONE ? NONE : newIndex[recParent[i]];
+				bpMin[next] = bpMin[i];
+				bpMax[next] = bpMax[i];
+				refs[next] = refs[i];
+				birthGen[next] = birthGen[i];
+				label[next] = label[i];
+				mark[next] = 0;
+				if (data != null)
+					data[next] = data[i];
+				next++;
+			}
+		}
+
+		if (data != null)
+			Arrays.fill(data, next, used, null);
+		firstGen = newFirstGen;
+		used = next;
+	}
+
+	/**
+	 * Translate a node index from before the most recent call to compact() into the current index of the same node. Returns
+	 * NONE if the node was dead and has been removed.
+	 * @param oldIndex
+	 * @return
+	 */
+	public int getNewIndex(int oldIndex) {
+		if (oldIndex == NONE)
+			return NONE;
+		return newIndex[oldIndex];
+	}
+
+	/**
+	 * Find the most recent node that is an ancestor (at every site) of the first count nodes in the given array,
+	 * by walking backward one generation at a time in the same manner as Population.findFC.
+	 * @param nodes
+	 * @param count
+	 * @return The index of the common ancestor, or NONE if the nodes do not share an ancestor in the arena
+	 */
+	public int findCommonAncestor(int[] nodes, int count) {
+		if (count == 0)
+			return NONE;
+
+		int size = 0;
+		int[] level = ensureCapacity(levelA, count);
+		levelA = level;
+		nextStamp();
+		for(int i=0; i<count; i++) {
+			int n = nodes[i];
+			if (mark[n] != stamp) {
+				mark[n] = stamp;
+				level[size++] = n;
+			}
+		}
+
+		while(size > 1) {
+			int[] next = ensureCapacity(levelB, 2*size);
+			levelB = next;
+			int nextSize = 0;
+			boolean progressed = false;
+			nextStamp();
+			for(int i=0; i<size; i++) {
+				int n = level[i];
+				int p = parent[n];
+				if (p == NONE) {
+					//n is the root, it stays in the list until everything else has caught up to it
+					if (mark[n] != stamp) {
+						mark[n] = stamp;
+						next[nextSize++] = n;
+					}
+					continue;
+				}
+				progressed = true;
+				if (mark[p] != stamp) {
+					mark[p] = stamp;
+					next[nextSize++] = p;
+				}
+				int rp = recParent[n];
+				if (rp != NONE && mark[rp] != stamp) {
+					mark[rp] = stamp;
+					next[nextSize++] = rp;
+				}
+			}
+
+			if (!progressed)
+				return NONE;
+
+			levelB = level;
+			levelA = next;
+			level = next;
+			size = nextSize;
+		}
+
+		return level[0];
+	}
+
+	/**
+	 * Turn on / off storage of the fitness data of ancestral nodes
+	 * @param preserve
+	 */
+	public void setStoreData(boolean preserve) {
+		if (preserve && data == null)
+			data = new FitnessProvider[parent.length];
+		if (!preserve)
+			data = null;
+	}
+
+	public void setData(int node, FitnessProvider fitnessData) {
+		if (data != null)
+			data[node] = fitnessData;
+	}
+
+	public FitnessProvider getData(int node) {
+		if (data == null)
+			return null;
+		return data[node];
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	public int getRecombinationParent(int node) {
+		return recParent[node];
+	}
+
+	public boolean hasRecombination(int node) {
+		return recParent[node] != NONE;
+	}
+
+	public int getBreakPointMin(int node) {
+		return bpMin[node];
+	}
+
+	public int getBreakPointMax(int node) {
+		return bpMax[node];
+	}
+
+	public long getLabel(int node) {
+		return label[node];
+	}
+
+	public int getBirthGeneration(int node) {
+		return birthGen[node];
+	}
+
+	/**
+	 * The generation of nodes currently being created
+	 * @return
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Number of live nodes born in the given generation, or zero if it's older than anything stored
+	 * @param gen
+	 * @return
+	 */
+	public int getLiveCount(int gen) {
+		if (gen < firstGen || gen > generation)
+			return 0;
+		return genLive[gen - firstGen];
+	}
+
+	/**
+	 * The number of node slots in use, including dead nodes that have not yet been removed by compact()
+	 * @return
+	 */
+	public int getUsedCount() {
+		return used;
+	}
+
+	/**
+	 * The number of nodes currently in use
+	 * @return
+	 */
+	public int getLiveNodeCount() {
+		return liveNodes;
+	}
+
+	private void freeNode(int n) {
+		parent[n] = NONE;
+		recParent[n] = NONE;
+		if (data != null)
+			data[n] = null;
+		liveNodes--;
+		int gen = birthGen[n];
+		if (gen >= firstGen) {
+			int remaining = --genLive[gen - firstGen];
+			if (remaining == 1 && gen > mrcaGen)
+				mrcaGen = gen;
+		}
+	}
+
+	private void nextStamp() {
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(mark, 0);
+			stamp = 1;
+		}
+	}
+
+	private static int[] ensureCapacity(int[] arr, int size) {
+		if (arr.length >= size)
+			return arr;
+		return new int[Math.max(size, arr.length*2)];
+	}
+
+	private void grow() {
+		int cap = parent.length*2;
+		parent = Arrays.copyOf(parent, cap);
+		recParent = Arrays.copyOf(recParent, cap);
+		bpMin = Arrays.copyOf(bpMin, cap);
+		bpMax = Arrays.copyOf(bpMax, cap);
+		refs = Arrays.copyOf(refs, cap);
+		birthGen = Arrays.copyOf(birthGen, cap);
+		label = Arrays.copyOf(label, cap);
+		mark = Arrays.copyOf(mark, cap);
+		if (data != null)
+			data = Arrays.copyOf(data, cap);
+	}
+}
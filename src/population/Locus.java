@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import cern.jet.random.Uniform;
 import cern.jet.random.engine.RandomEngine;
 import dnaModels.DNASequence;
 import fitnessProviders.FitnessProvider;
@@ -41,6 +42,14 @@ public class Locus implements Serializable, Comparable {
 	protected int breakPointMin = 0; //These variables specify the boundaries of the recombinant region, such that this part of the chromosome is assumed
 	protected int breakPointMax = 0; //to have actually come from the locus 'recomPartner'	
 	
+	//Used by AncestryTracker: the generation in which this locus was born, and the number of lineages of the current
+	//generation that pass through it
+	protected int birthGen = -1;
+	protected int lineageCount = 0;
+	
+	protected int indexInParent = -1;	//Position of this locus in its parent's offspring list, so it can be removed in constant time
+	protected long releaseStamp = 0;	//Used by Population.releaseLocus to mark loci already on its stack
+	
 
 	public Locus(RandomEngine rng) {
 		offspring = new ArrayList<Locus>(5);
@@ -53,6 +62,35 @@ public class Locus implements Serializable, Comparable {
 			id = 0;
 	}
 	
+	/**
+	 * Return this locus to the state of a newly constructed one, keeping the offspring list so it need not be 
+	 * reallocated. Used by LocusPool. 
+	 * @param rng
+	 */
+	void reset(RandomEngine rng) {
+		offspring.clear();
+		parent = null;
+		recombinationPartner = null;
+		fitnessData = null;
+		breakPointMin = 0;
+		breakPointMax = 0;
+		relativeFitness = 1.0;
+		label = null;
+		depth = -1;
+		originPop = -1;
+		pop = "Main population";
+		preserve = false;
+		birthGen = -1;
+		lineageCount = 0;
+		indexInParent = -1;
+		releaseStamp = 0;
+		this.rng = rng;
+		if (rng != null)
+			id = rng.nextLong();
+		else
+			id = 0;
+	}
+	
 	public void setOriginPopulation(int num) {
 		originPop = num;
 	}
@@ -173,9 +211,30 @@ public class Locus implements Serializable, Comparable {
 	}
 	
 	
-	//Removes this individual from the offspring list, if it's in there
+	/**
+	 * Removes this individual from the offspring list, if it's in there. This is done by moving the last offspring into
+	 * kid's place, so it takes constant time but doesn't preserve the order of the remaining offspring. 
+	 * @param kid
+	 * @return True if kid was an offspring of this locus
+	 */
 	public boolean removeOffspring(Locus kid) {
-		return offspring.remove(kid);
+		int index = kid.indexInParent;
+		if (index < 0 || index >= offspring.size() || offspring.get(index) != kid) {
+			//Kid has been added to some other locus's offspring list since it was added to ours (this happens with 
+			//some of the tree samplers), so we have to look for it
+			index = offspring.indexOf(kid);
+			if (index < 0)
+				return false;
+		}
+		
+		int last = offspring.size()-1;
+		Locus moved = offspring.remove(last);
+		if (index < last) {
+			offspring.set(index, moved);
+			moved.indexInParent = index;
+		}
+		kid.indexInParent = -1;
+		return true;
 	}
 	
 	/**
@@ -234,6 +293,7 @@ public class Locus implements Serializable, Comparable {
 	}
 	
 	public void addOffspring(Locus kid) {
+		kid.indexInParent = offspring.size();
 		offspring.add(kid);
 	}
 	
@@ -296,6 +356,16 @@ public class Locus implements Serializable, Comparable {
 		fitnessData = ind.getFitnessData().getCopy();
 	}
 	
+	/**
+	 * Copies data from source individual ind, reusing the storage of the given retired provider if possible 
+	 * @param ind
+	 * @param retired A fitness provider no longer referenced by any locus, may be null
+	 */
+	public void copyDataFrom(Locus ind, FitnessProvider retired) {
+		originPop = ind.originPop;
+		fitnessData = ind.getFitnessData().getCopy(retired);
+	}
+	
 	public FitnessProvider getFitnessData() {
 		return fitnessData;
 	}
@@ -398,51 +468,71 @@ public class Locus implements Serializable, Comparable {
 	 * @param two
 	 */
 	public static void recombine(Locus one, Locus two) {
+		recombine(one, two, null);
+	}
+	
+	/**
+	 * Recombine the two loci, using the given generator to pick the breakpoint so that results are reproducible
+	 * from the run seed. If uniGen is null Math.random() is used instead.
+	 * @param one
+	 * @param two
+	 * @param uniGen
+	 */
+	public static void recombine(Locus one, Locus two, Uniform uniGen) {
 		if (one.hasRecombination() || two.hasRecombination()) {
 			throw new IllegalArgumentException("one of the recombining inds already has a breakpoint");
 		}
 		
+		int[] range = exchangeRegions(one.getRecombineableData(), two.getRecombineableData(), uniGen);
+		one.setRecombinationPartner(range[0], range[1], two);
+		two.setRecombinationPartner(range[0], range[1], one);
+	}
+	
+	/**
+	 * Picks a breakpoint and swaps the data on one side of it between the two recombineables. This is the data-moving half
+	 * of recombine(), and is also used by population engines that don't represent individuals as Locus objects. 
+	 * @param rOne
+	 * @param rTwo
+	 * @return A two element array containing the min (inclusive) and max (exclusive) sites of the exchanged region
+	 */
+	public static int[] exchangeRegions(Recombineable rOne, Recombineable rTwo) {
+		return exchangeRegions(rOne, rTwo, null);
+	}
+	
+	/**
+	 * As above, but draws the breakpoint and side from the given generator (or from Math.random() if uniGen is null) 
+	 * @param rOne
+	 * @param rTwo
+	 * @param uniGen
+	 * @return A two element array containing the min (inclusive) and max (exclusive) sites of the exchanged region
+	 */
+	public static int[] exchangeRegions(Recombineable rOne, Recombineable rTwo, Uniform uniGen) {
 		//We try to find a site that is not at zero or the end.. not sure what would happen then
-		double min = Math.min(one.getRecombineableData().length(), two.getRecombineableData().length())-1;
-		int site = (int)Math.floor( min*Math.random() )+1;
+		double min = Math.min(rOne.length(), rTwo.length())-1;
+		int site = (int)Math.floor( min*nextRandom(uniGen) )+1;
 		while (site==0) {
-			site = (int)Math.floor( min*Math.random() )+1;
+			site = (int)Math.floor( min*nextRandom(uniGen) )+1;
 		}
 		
-		if (site==0 || site==one.getRecombineableData().length()) {
+		if (site==0 || site==rOne.length()) {
 			System.out.println("Hmm, we managed to pick a recombination site at the edge..");
 		}
 		
-		boolean upper = Math.random() > 0.5; //loci will swap segments above breakpoint
+		boolean upper = nextRandom(uniGen) > 0.5; //loci will swap segments above breakpoint
 		
-		if (upper) {
-			//System.out.println("Recombining upper portions of " + one.getID() + " and " + two.getID() + " at site " + site);
-			//System.out.println("Parent of one is: " + one.getUpperParent() + "\n parent of two is: " + two.getUpperParent());		
-			one.setRecombinationPartner(site, one.getRecombineableData().length(), two);
-			two.setRecombinationPartner(site, one.getRecombineableData().length(), one);
-			
-			Recombineable rOne = one.getRecombineableData();
-			Recombineable rTwo = two.getRecombineableData();
-			
-			Object rOneData = rOne.getRegion(site, one.getRecombineableData().length());
-			Object rTwoData = rTwo.getRegion(site, one.getRecombineableData().length());
-			rOne.setRegion(site, one.getRecombineableData().length(), rTwoData);
-			rTwo.setRegion(site, one.getRecombineableData().length(), rOneData);
-		}
-		else {
-			//System.out.println("Recombining lower portions of " + one.getID() + " and " + two.getID() + " at site " + site);
-			//System.out.println("Parent of one is: " + one.getUpperParent() + "\n parent of two is: " + two.getUpperParent());
-			one.setRecombinationPartner(0, site, two);
-			two.setRecombinationPartner(0, site, one);
-			
-			Recombineable rOne = one.getRecombineableData();
-			Recombineable rTwo = two.getRecombineableData();
-			
-			Object rOneData = rOne.getRegion(0, site);
-			Object rTwoData = rTwo.getRegion(0, site);
-			rOne.setRegion(0, site, rTwoData);
-			rTwo.setRegion(0, site, rOneData);
-		}
+		int regionMin = upper ? site : 0;
+		int regionMax = upper ? rOne.length() : site;
+		
+		rOne.swapRegion(rTwo, regionMin, regionMax);
+		
+		return new int[]{regionMin, regionMax};
+	}
+
+	private static double nextRandom(Uniform uniGen) {
+		if (uniGen == null)
+			return Math.random();
+		else
+			return uniGen.nextDouble();
 	}
 
 	/**
@@ -0,0 +1,175 @@
+package population;
+
+import java.util.ArrayList;
+
+import cern.jet.random.engine.RandomEngine;
+import fitnessProviders.FitnessProvider;
+
+/**
+ * A free-list of Loci (and the fitness providers they owned) that have been released from a Population, so that new
+ * offspring can reuse them rather than allocating new objects, offspring lists, and DNA storage every generation. The
+ * pool keeps track of how many requests it has been able to satisfy so that its effectiveness can be monitored.
+ *
+ * Loci and providers must only be returned to the pool if nothing else refers to them; see Population.clearLocus for
+ * the rules used there.
+ * @author brendan
+ *
+ */
+public class LocusPool {
+
+	private ArrayList<Locus> loci = new ArrayList<Locus>();
+	private ArrayList<FitnessProvider> providers = new ArrayList<FitnessProvider>();
+
+	private int capacity = 1024; //Maximum number of loci (and, separately, providers) retained
+
+	private long locusRequests = 0;
+	private long locusHits = 0;
+	private long providerRequests = 0;
+	private long providerHits = 0;
+
+	/**
+	 * Set the maximum number of loci and providers retained by the pool. Anything recycled beyond this is left to the
+	 * garbage collector. If the pool currently holds more than this the excess is dropped.
+	 * @param capacity
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while(loci.size() > capacity)
+			loci.remove(loci.size()-1);
+		while(providers.size() > capacity)
+			providers.remove(providers.size()-1).retire();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Obtain a Locus with no parent, offspring, data, or recombination partner, and a new id drawn from rng. This
+	 * draws from the rng exactly as the Locus constructor does, so using the pool doesn't change simulation results.
+	 * @param rng
+	 * @return
+	 */
+	public Locus getLocus(RandomEngine rng) {
+		locusRequests++;
+		if (loci.size()==0)
+			return new Locus(rng);
+
+		locusHits++;
+		Locus loc = loci.remove(loci.size()-1);
+		loc.reset(rng);
+		return loc;
+	}
+
+	/**
+	 * Return a locus to the pool. All references to and from the locus should already have been cleared.
+	 * @param loc
+	 */
+	public void recycleLocus(Locus loc) {
+		if (loci.size() < capacity)
+			loci.add(loc);
+	}
+
+	/**
+	 * Return a fitness provider that is no longer referenced by any locus, so that its storage can be reused by
+	 * FitnessProvider.getCopy(FitnessProvider). If the pool is full the provider is retired instead
+	 * @param provider
+	 * @return True if the provider was kept
+	 */
+	public boolean recycleProvider(FitnessProvider provider) {
+		if (provider == null)
+			return false;
+		if (providers.size() < capacity) {
+			providers.add(provider);
+			return true;
+		}
+		provider.retire();
+		return false;
+	}
+
+	/**
+	 * Remove and return a retired fitness provider, or null if there are none
+	 * @return
+	 */
+	public FitnessProvider takeProvider() {
+		providerRequests++;
+		if (providers.size()==0)
+			return null;
+
+		providerHits++;
+		return providers.remove(providers.size()-1);
+	}
+
+	/**
+	 * Obtain a locus from the pool with a copy of the data of the given source, using a retired provider for the
+	 * copy if there is one. This is the pooled equivalent of source.getDataCopy()
+	 * @param source
+	 * @return
+	 */
+	public Locus getDataCopy(Locus source) {
+		Locus loc = getLocus(source.rng);
+		copyData(loc, source);
+		return loc;
+	}
+
+	/**
+	 * Give target a copy of the data in source, reusing a retired provider if possible
+	 * @param target
+	 * @param source
+	 */
+	public void copyData(Locus target, Locus source) {
+		target.copyDataFrom(source, takeProvider());
+	}
+
+	/**
+	 * Forget all retained objects (but not the hit counts)
+	 */
+	public void clear() {
+		loci.clear();
+		providers.clear();
+	}
+
+	public int getRetainedLoci() {
+		return loci.size();
+	}
+
+	public int getRetainedProviders() {
+		return providers.size();
+	}
+
+	public long getLocusRequests() {
+		return locusRequests;
+	}
+
+	public long getLocusHits() {
+		return locusHits;
+	}
+
+	public long getProviderRequests() {
+		return providerRequests;
+	}
+
+	public long getProviderHits() {
+		return providerHits;
+	}
+
+	/**
+	 * The fraction of requests for new loci that were satisfied from the pool
+	 * @return
+	 */
+	public double getLocusHitRate() {
+		return locusRequests == 0 ? 0 : (double)locusHits / (double)locusRequests;
+	}
+
+	/**
+	 * The fraction of data copies that reused the storage of a retired fitness provider
+	 * @return
+	 */
+	public double getProviderHitRate() {
+		return providerRequests == 0 ? 0 : (double)providerHits / (double)providerRequests;
+	}
+
+	public String toString() {
+		return "Locus pool: " + loci.size() + " loci and " + providers.size() + " providers retained, locus hit rate : " + getLocusHitRate() + " provider hit rate : " + getProviderHitRate();
+	}
+}
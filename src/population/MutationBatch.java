@@ -0,0 +1,126 @@
+package population;
+
+import mutationModels.MutationStream;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * Places the mutations of a whole generation at once. Rather than drawing a Poisson number of mutations for every new
+ * individual, which almost always comes out zero when mutation is rare, we draw the total number of mutations in the
+ * generation from a single Poisson distribution whose mean is the sum of the individual means, and assign each mutation
+ * to an individual with probability proportional to its mean. This gives exactly the same distribution of mutation counts,
+ * but the work is proportional to the number of mutations rather than the number of individuals. Individuals are then only
+ * visited if they received a mutation, via FitnessProvider.mutate(MutationStream, int).
+ *   Usage is begin(n), setMean(i, ...) for each individual, then draw(), after which getCount(i) is the number of mutations
+ * individual i should apply. The arrays are kept between generations.
+ * @author brendan
+ *
+ */
+public class MutationBatch {
+
+	//Batching only pays when most individuals receive no mutations, above this mean number of mutations per individual
+	//we mutate individuals one at a time
+	public static final double MAX_MEAN = 1.0;
+
+	final MutationStream stream;	//Used to draw the counts, and to apply mutations when not running in parallel
+	double[] cumulative = new double[0];	//Running sum of the means of individuals 0..i
+	int[] counts = new int[0];
+	int size = 0;
+	double firstMean = 0;
+	boolean equalMeans = true;		//True if all individuals have the same mean, in which case we pick them uniformly
+	boolean supported = true;		//False if any individual can't be mutated in a batch
+
+	public MutationBatch(RandomEngine rng) {
+		stream = new MutationStream(rng);
+	}
+
+	/**
+	 * Start a new batch for n individuals
+	 * @param n
+	 */
+	public void begin(int n) {
+		if (counts.length < n) {
+			counts = new int[n];
+			cumulative = new double[n];
+		}
+		size = n;
+		equalMeans = true;
+		supported = true;
+	}
+
+	/**
+	 * Set the expected number of mutations of individual i, as returned by FitnessProvider.getMutationMean. Must be called
+	 * in order of i
+	 * @param i
+	 * @param mean
+	 */
+	public void setMean(int i, double mean) {
+		if (mean < 0)
+			supported = false;
+		if (i == 0)
+			firstMean = mean;
+		else if (mean != firstMean)
+			equalMeans = false;
+		cumulative[i] = (i==0 ? 0 : cumulative[i-1]) + mean;
+	}
+
+	/**
+	 * Draw the number of mutations of every individual
+	 * @return False if these individuals can't be, or aren't worth, mutating in a batch, in which case the counts are not
+	 * drawn and each individual should be mutated individually
+	 */
+	public boolean draw() {
+		if (!supported || size == 0)
+			return false;
+		double total = cumulative[size-1];
+		if (total > MAX_MEAN*size)
+			return false;
+
+		for(int i=0; i<size; i++)
+			counts[i] = 0;
+		if (total <= 0)
+			return true;
+
+		stream.getPoisson().setMean(total);
+		int howmany = stream.getPoisson().nextInt();
+		for(int m=0; m<howmany; m++) {
+			if (equalMeans)
+				counts[ stream.getUniform().nextIntFromTo(0, size-1) ]++;
+			else
+				counts[ find(stream.getUniform().nextDouble()*total) ]++;
+		}
+		return true;
+	}
+
+	/**
+	 * The first individual whose cumulative mean exceeds x
+	 */
+	private int find(double x) {
+		int lo = 0;
+		int hi = size-1;
+		while(lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (cumulative[mid] > x)
+				hi = mid;
+			else
+				lo = mid+1;
+		}
+		return lo;
+	}
+
+	/**
+	 * The number of mutations individual i received in the last call to draw
+	 * @param i
+	 * @return
+	 */
+	public int getCount(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * The stream used to draw counts, which may also be used to apply them when mutating on a single thread
+	 * @return
+	 */
+	public MutationStream getStream() {
+		return stream;
+	}
+}
@@ -3,10 +3,11 @@ package population;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeSet;
 
 import siteModels.CodonUtils;
@@ -15,6 +16,7 @@ import statistics.Collectible;
 import tree.DiscreteGenTree;
 import treesimj.TreesimJView;
 
+import cern.jet.random.Binomial;
 import cern.jet.random.Poisson;
 import cern.jet.random.Uniform;
 import cern.jet.random.engine.RandomEngine;
@@ -24,6 +26,8 @@ import fitnessProviders.DNAFitness;
 import fitnessProviders.FitnessProvider;
 import fitnessProviders.NeutralFitness;
 import fitnessProviders.QGenFitness;
+import mutationModels.MutationModel;
+import mutationModels.MutationStream;
 
 
 /**
@@ -49,10 +53,10 @@ public class Population implements Serializable, Collectible {
 	
 	int myPopNumber;
 	
-	//A couple of buffers used to quickly look up which parents are already in the stack, utilized by
-	//releaseIndividual, which is a big performance bottleneck
-	private Stack<Locus> relInds = new Stack<Locus>();
-	private Set<Long> relIndSet = new HashSet<Long>(); 
+	//The stack of loci to be released, used by releaseLocus. Loci already on the stack are marked with the current
+	//stamp, which is shared by all populations since they may share ancestors
+	private ArrayList<Locus> relInds = new ArrayList<Locus>();
+	private static long releaseStamp = 0;
 
 	
 	//Automatically walk the root up the population tree as much as possible each generation. If we only have
@@ -63,6 +67,43 @@ public class Population implements Serializable, Collectible {
 	
 	boolean storeAncestry;
 	
+	/**
+	 * The ways in which parents can be chosen for each new generation. REJECTION picks a random individual and accepts it
+	 * with probability 0.5*relative fitness, repeating until an individual is accepted. ALIAS builds a Walker alias table over the
+	 * relative fitnesses once per generation, and then draws each parent in constant time no matter how skewed the fitnesses are. 
+	 * The two are equivalent as long as no relative fitness exceeds 2 (above that, rejection sampling caps the acceptance 
+	 * probability at one). MULTINOMIAL draws the number of offspring of every parent at once, from a multinomial distribution
+	 * over the relative fitnesses, and then creates offspring in parent order. 
+	 */
+	public enum ReproductionMode {REJECTION, ALIAS, MULTINOMIAL};
+	
+	ReproductionMode reproductionMode = ReproductionMode.REJECTION;
+	AliasSampler aliasSampler = new AliasSampler();
+	double[] fitnessBuffer = new double[0]; //Relative fitnesses of the current gen, used to build the alias table
+	Binomial binomialGenerator = null;		//Used to draw offspring numbers in MULTINOMIAL mode
+	int[] offspringCounts = new int[0];
+	
+	//Number of threads used to create and mutate offspring, and the workers that do it (created when first needed)
+	int threadCount = 1;
+	ReproductionWorkers workers = null;
+	
+	//Draws the mutations of each new generation at once, for fitness models that support it (created when first needed). Its
+	//stream is also this population's own sampler state when mutating on a single thread
+	transient MutationBatch mutationBatch = null;
+	
+	//If not null, every individual in this population uses this mutation model, including migrants that arrive later
+	MutationModel mutationModel = null;
+	int[] parentIndex = new int[0];
+	private List<Locus> deferredRelease = new ArrayList<Locus>();
+	
+	//Released loci and their fitness data, reused for new offspring
+	LocusPool locusPool = new LocusPool();
+	FitnessProvider[] retiredBuffer = new FitnessProvider[0];
+	
+	//Tracks the MRCA of the population each generation. This is only used for single populations that store ancestry, 
+	//otherwise it's null and we periodically search for the MRCA using findFC
+	AncestryTracker ancestryTracker = null;
+	
 	/**
 	 * Create a population but do not initialize it (that is, do not create the individuals yet)
 	 * @param rnger
@@ -103,6 +144,7 @@ public class Population implements Serializable, Collectible {
 	public Locus initialize(RandomEngine rnger, int N, FitnessProvider type) {
 		this.rng = rnger;
 		uniGenerator = new Uniform(rng);
+		binomialGenerator = null;
 		poissonGenerator = new Poisson(1.0, rng); //The mean gets set later
 		pop = new ArrayList<Locus>();
 		
@@ -118,6 +160,14 @@ public class Population implements Serializable, Collectible {
 			ind.mutate();
 			pop.add( ind );
 		}
+		
+		if (storeAncestry) {
+			ancestryTracker = new AncestryTracker();
+			ancestryTracker.initialize(root, pop);
+		}
+		else {
+			ancestryTracker = null;
+		}
 
 		return root;
 	}
@@ -131,6 +181,7 @@ public class Population implements Serializable, Collectible {
 	public void initialize(RandomEngine rnger, Population source, int N ) {
 		this.rng = rnger;
 		uniGenerator = new Uniform(rng);
+		binomialGenerator = null;
 		poissonGenerator = new Poisson(1.0, rng); //The mean gets set later
 		List<Locus> founders = source.getSample(N);
 		pop = new ArrayList<Locus>(founders.size());
@@ -170,6 +221,38 @@ public class Population implements Serializable, Collectible {
 		this.preserve = preserve;
 	}
 	
+	/**
+	 * Set the method by which parents are chosen for each new generation
+	 * @param mode
+	 */
+	public void setReproductionMode(ReproductionMode mode) {
+		this.reproductionMode = mode;
+	}
+	
+	public ReproductionMode getReproductionMode() {
+		return reproductionMode;
+	}
+	
+	/**
+	 * Set the number of threads used to create and mutate offspring. With more than one thread each thread draws from its
+	 * own random stream, seeded from this population's random engine, so results depend on the number of threads but are
+	 * reproducible for a given seed and thread count. Fitness models that don't support parallel mutation always use one thread.  
+	 * @param threads
+	 */
+	public void setThreadCount(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be at least one");
+		if (workers != null && workers.getThreadCount() != threads) {
+			workers.shutdown();
+			workers = null;
+		}
+		this.threadCount = threads;
+	}
+	
+	public int getThreadCount() {
+		return threadCount;
+	}
+	
 	/**
 	 * The fitnessProvider currently in use (since we don't support multiple fitness models being used in the same population, we can
 	 * just take the fitness model from a random individual, say 0).
@@ -281,6 +364,22 @@ public class Population implements Serializable, Collectible {
 		return root;
 	}
 	
+	/**
+	 * The tracker used to find the root each generation, or null if the root is found by periodic calls to findFC
+	 * @return
+	 */
+	public AncestryTracker getAncestryTracker() {
+		return ancestryTracker;
+	}
+	
+	/**
+	 * The pool from which new loci are drawn, mostly useful for checking how often loci are reused
+	 * @return
+	 */
+	public LocusPool getLocusPool() {
+		return locusPool;
+	}
+	
 
 	
 	/**
@@ -299,6 +398,8 @@ public class Population implements Serializable, Collectible {
 	public void setRandomEngine(RandomEngine rng) {
 		this.rng = rng;
 		uniGenerator = new Uniform(rng);
+		binomialGenerator = null;
+		mutationBatch = null;
 	}
 
 	/**
@@ -317,6 +418,21 @@ public class Population implements Serializable, Collectible {
 		return pop.size();
 	}
 	
+	/**
+	 * Add the fitness data of every individual whose data may still be read to the list, that is, the individuals in the
+	 * current generation and any preserved individuals. 
+	 * @param list
+	 */
+	public void collectLiveData(List<FitnessProvider> list) {
+		for(Locus ind : pop) {
+			list.add(ind.getFitnessData());
+		}
+		for(Locus ind : preservedIndividuals) {
+			if (ind.getFitnessData() != null)
+				list.add(ind.getFitnessData());
+		}
+	}
+	
 	/**
 	 * Returns true if all individuals in the pop have the same distance to the root
 	 * @return
@@ -374,10 +490,14 @@ public class Population implements Serializable, Collectible {
 	 * @return List of individuals from current population whose ID's match the sample individual id's
 	 */
 	public ArrayList<Locus> findPopulationIndsForSample(List<Locus> sample) {
-		ArrayList<Locus> popInds = new ArrayList<Locus>();
+		ArrayList<Locus> popInds = new ArrayList<Locus>(sample.size());
+		
+		Map<Long, Locus> popByID = new HashMap<Long, Locus>(2*pop.size());
+		for(Locus ind : pop)
+			popByID.put(ind.getID(), ind);
 		
 		for(Locus ind : sample) {
-			Locus popInd = findIndByID(pop, ind.getID());
+			Locus popInd = popByID.get(ind.getID());
 			popInds.add(popInd);
 		}
 		
@@ -434,9 +554,26 @@ public class Population implements Serializable, Collectible {
 	 * @param sampleKids
 	 */
 	public static void createSampleParents(List<Locus> actualKids, List<Locus> sampleKids) {
+		createSampleParents(actualKids, sampleKids, null);
+	}
+	
+	/**
+	 * As above, but new sample loci are taken from the given pool if it is not null
+	 * @param actualKids
+	 * @param sampleKids
+	 * @param locusPool
+	 */
+	public static void createSampleParents(List<Locus> actualKids, List<Locus> sampleKids, LocusPool locusPool) {
 		ArrayList<Locus> parents = new ArrayList<Locus>(); 			//The actual parents of the kids (in the persistent pop)
 		ArrayList<Locus> sampleParents = new ArrayList<Locus>();    //The sampled (copied) parents
 		
+		//The same lists, keyed by id so we don't have to search them
+		Map<Long, Locus> parentsByID = new HashMap<Long, Locus>();
+		Map<Long, Locus> sampleParentsByID = new HashMap<Long, Locus>();
+		Map<Long, Locus> sampleKidsByID = new HashMap<Long, Locus>(2*sampleKids.size());
+		for(Locus sampleKid : sampleKids)
+			sampleKidsByID.put(sampleKid.getID(), sampleKid);
+		
 		if (actualKids.size() != sampleKids.size()) {
 			throw new RuntimeException("ActualKids and sampleKids are not the same size.");
 		}
@@ -445,18 +582,20 @@ public class Population implements Serializable, Collectible {
 		//relationship among the sampleKids 
 		for(Locus actualKid : actualKids) {
 			Locus actualParent = actualKid.getParent();
-			Locus sampleKid = findIndByID(sampleKids, actualKid.getID());
-			Locus sampleParent = findIndByID(sampleParents, actualParent.getID());
+			Locus sampleKid = sampleKidsByID.get(actualKid.getID());
+			Locus sampleParent = sampleParentsByID.get(actualParent.getID());
 			
-			if (! parents.contains(actualParent)) {
+			if (! parentsByID.containsKey(actualParent.getID())) {
 				//If parents already contains actualParent, then sampleParents should contain an ind with that ID as well...
 				if ( sampleParent != null) {
 					throw new RuntimeException("createSampleParents is not working, sampleParents and actualParents do not match");
 				}
-				sampleParent = actualParent.getDataCopy();
+				sampleParent = getDataCopy(actualParent, locusPool);
 				sampleParent.setID( actualParent.getID());
 				sampleParents.add(sampleParent);
+				sampleParentsByID.put(sampleParent.getID(), sampleParent);
 				parents.add(actualParent);
+				parentsByID.put(actualParent.getID(), actualParent);
 			}
 			
 			sampleParent.addOffspring(sampleKid);
@@ -468,13 +607,13 @@ public class Population implements Serializable, Collectible {
 			//to their respective parent lists. 
 			if (actualKid.hasRecombination()) {
 				Locus actualPartner = actualKid.getRecombinationPartner();
-				Locus samplePartner = actualPartner.getDataCopy();
+				Locus samplePartner = getDataCopy(actualPartner, locusPool);
 				samplePartner.setID( actualPartner.getID());
 				sampleKid.setRecombinationPartner(actualKid.getBreakPointMin(), actualKid.getBreakPointMax(), samplePartner);
 				samplePartner.setRecombinationPartner(actualPartner.getBreakPointMin(), actualPartner.getBreakPointMax(), sampleKid);
 				
-				Locus actualPartnerParent = findIndByID(parents, actualPartner.getParent().getID());
-				Locus samplePartnerParent = findIndByID(sampleParents, actualPartner.getParent().getID());
+				Locus actualPartnerParent = parentsByID.get(actualPartner.getParent().getID());
+				Locus samplePartnerParent = sampleParentsByID.get(actualPartner.getParent().getID());
 				
 				//Error checking
 				if ((actualPartnerParent == null && samplePartnerParent != null) || (actualPartnerParent != null && samplePartnerParent == null)) {
@@ -485,10 +624,12 @@ public class Population implements Serializable, Collectible {
 				//and add both the actual partner parent and sample partner parent to the list of parents
 				if ( actualPartnerParent==null) {
 					actualPartnerParent = actualPartner.getParent();
-					samplePartnerParent = actualPartnerParent.getDataCopy();
+					samplePartnerParent = getDataCopy(actualPartnerParent, locusPool);
 					samplePartnerParent.setID( actualPartnerParent.getID());
 					sampleParents.add(samplePartnerParent);
+					sampleParentsByID.put(samplePartnerParent.getID(), samplePartnerParent);
 					parents.add(actualPartnerParent);
+					parentsByID.put(actualPartnerParent.getID(), actualPartnerParent);
 				}
 				
 				//Always connect the sample partner to its parent
@@ -503,6 +644,13 @@ public class Population implements Serializable, Collectible {
 		sampleKids.addAll(sampleParents);
 	}
 	
+	private static Locus getDataCopy(Locus source, LocusPool locusPool) {
+		if (locusPool == null)
+			return source.getDataCopy();
+		else
+			return locusPool.getDataCopy(source);
+	}
+	
 	/**
 	 * Construct the genealogy of the given sample of individuals. All individuals in actualKids are cloned to produce the genealogy 
 	 * so they are not actually members of the newly created tree (although they will have the same ID & data as those individuals 
@@ -539,7 +687,7 @@ public class Population implements Serializable, Collectible {
 //				System.out.print(sampKid.getID() + "\t");
 //			System.out.println();
 			
-			createSampleParents(actualKids, sampleKids);
+			createSampleParents(actualKids, sampleKids, locusPool);
 			
 			if (actualKids.size() != sampleKids.size() ) {
 				throw new RuntimeException("Yikes! actual kids and samplekids do not have same size in sample tree creation!");
@@ -566,10 +714,22 @@ public class Population implements Serializable, Collectible {
 		}
 		
 		//System.out.println("Found sample MRCA on iteration " + iteration);
-		return new DiscreteGenTree(sampleKids.get(0), sample);
+		return completeSampleTree(new DiscreteGenTree(sampleKids.get(0), sample));
 	}
 	
 	
+	/**
+	 * Give the fitness model of the tips a chance to fill in data that isn't carried through the simulation (see 
+	 * FitnessProvider.completeSampleTree), this should be called on every newly sampled genealogy
+	 * @param tree
+	 * @return The tree
+	 */
+	protected DiscreteGenTree completeSampleTree(DiscreteGenTree tree) {
+		if (tree != null && tree.getTips().size()>0)
+			tree.getTips().get(0).getFitnessData().completeSampleTree(tree);
+		return tree;
+	}
+	
 	/**
 	 * Randomly selects sampleSize individuals from the current generation of the population, clones them all (via a call to getDataCopy), and
 	 * then reconstructs the genealogy of the individuals and returns the root. 
@@ -582,7 +742,7 @@ public class Population implements Serializable, Collectible {
 		ArrayList<Locus> sampleKids = new ArrayList<Locus>();
 
 		for(Locus kid : actualKids) {
-			Locus sampleKid = kid.getDataCopy();
+			Locus sampleKid = locusPool.getDataCopy(kid);
 			sampleKid.setPop("sample");
 			sampleKid.setID( kid.getID() );
 			sampleKids.add( sampleKid );
@@ -623,48 +783,123 @@ public class Population implements Serializable, Collectible {
 			throw new IllegalStateException("List is null, for pop #" + myPopNumber);
 		}
 		
-		//Locating the MRCA of everyone is slow, so we don't want to do it too often. But doing
+		//Loci moved to or from other populations aren't seen by the ancestry tracker, so it can't be used if there
+		//are multiple populations
+		if (totalPopCount>1)
+			ancestryTracker = null;
+		
+		//Without the tracker, locating the MRCA of everyone is slow, so we don't want to do it too often. But doing
 		//it very infrequently really increases the memory requirements, so there's a bit of a tradeoff
-		//Right now we just do it every 20 generations and hope thats ok
-		if (storeAncestry && currentGen % 100 ==0) {
+		//Right now we just do it every 100 generations and hope thats ok
+		if (storeAncestry && ancestryTracker == null && currentGen % 100 ==0) {
 			root = findFC(pop);
 			root.setParent(null);
 		}
 		shortenRoot();
+		if (ancestryTracker != null) {
+			ancestryTracker.setRoot(root);
+			ancestryTracker.startGeneration();
+		}
+		locusPool.setCapacity(Math.max(1024, 2*newSize));
 		
-		while(newPop.size() < newSize) {
-			int who = uniGenerator.nextIntFromTo(0, pop.size()-1);
-			Locus parent = pop.get( who );
-			
-			if (uniGenerator.nextDouble() < 0.5*parent.getRelFitness() ) {		
-				Locus kid = new Locus(rng);
-			
-				kid.setParent( parent ) ;
-				parent.addOffspring(kid);
-
-				//If we preserve ancestral data, then always copy all data from parent to offspring
-				if (preserve) {
-					kid.copyDataFrom( parent );
+		boolean alias = reproductionMode == ReproductionMode.ALIAS;
+		boolean multinomial = reproductionMode == ReproductionMode.MULTINOMIAL;
+		
+		//We create and mutate offspring in parallel only if the fitness model says it's safe
+		boolean parallel = threadCount > 1 && pop.get(0).getFitnessData().supportsParallelMutation();
+		if (parallel && workers == null) 
+			workers = new ReproductionWorkers(threadCount, rng);
+		
+		if (alias || multinomial || parallel) {
+			if (fitnessBuffer.length < pop.size())
+				fitnessBuffer = new double[pop.size()];
+			for(int i=0; i<pop.size(); i++)
+				fitnessBuffer[i] = pop.get(i).getRelFitness();
+		}
+		
+		boolean parentsReleased = false;
+		if (multinomial) {
+			//Draw every parent's offspring count at once, then build children in parent order. Parents with no
+			//offspring are released as we go, except for those with a recombination partner, since the partner's 
+			//offspring may not have been created yet
+			if (offspringCounts.length < pop.size())
+				offspringCounts = new int[pop.size()];
+			drawOffspringCounts(fitnessBuffer, pop.size(), newSize, offspringCounts);
+			deferredRelease.clear();
+			for(int i=0; i<pop.size(); i++) {
+				Locus parent = pop.get(i);
+				for(int j=0; j<offspringCounts[i]; j++) {
+					newPop.add( createOffspring(parent, !parallel) );
 				}
-				else { //If not preserving data, just pass a reference from parent to offspring
-					if (parent.numOffspring()==1)
-						kid.inheritFrom(parent);
-					else
-						kid.copyDataFrom(parent);	
+				
+				if (ancestryTracker != null)
+					ancestryTracker.removeLineage(parent);
+				
+				if (storeAncestry) {
+					if (parent.isPreserve()) {
+						preservedIndividuals.add(parent);
+					}
+					else {
+						if (offspringCounts[i]==0) {
+							if (parent.hasRecombination())
+								deferredRelease.add(parent);
+							else
+								releaseLocus(parent);
+						}
+					}
 				}
+			}
+			
+			for(Locus ind : deferredRelease) {
+				releaseLocus(ind);
+			}
+			deferredRelease.clear();
+			parentsReleased = storeAncestry;
+		}
+		else if (parallel) {
+			//Parents are chosen in parallel, but offspring are linked to them in order
+			if (alias) 
+				aliasSampler.build(fitnessBuffer, pop.size());
+			chooseParentsInParallel(newSize, alias);
+			for(int k=0; k<newSize; k++) {
+				newPop.add( createOffspring(pop.get(parentIndex[k]), false) );
+			}
+		}
+		else {
+			if (alias) 
+				aliasSampler.build(fitnessBuffer, pop.size());
 
-				if (totalPopCount>1) {
-					kid.setOriginPopulation(myPopNumber);
+			while(newPop.size() < newSize) {
+				int who = alias ? aliasSampler.sample(uniGenerator) : uniGenerator.nextIntFromTo(0, pop.size()-1);
+				Locus parent = pop.get( who );
+
+				if (alias || uniGenerator.nextDouble() < 0.5*parent.getRelFitness() ) {		
+					newPop.add( createOffspring(parent, true) );
 				}
-				
-				newPop.add(kid);
 			}
 		}
 		
 		double newMeanW = 0;
-		for(Locus ind : newPop) {
-			ind.mutate();
-			newMeanW += ind.getFitness();
+		if (parallel) {
+			newMeanW = copyAndMutateInParallel(newPop);
+		}
+		else {
+			//Models that can mutate in parallel draw from this population's stream, rather than one shared with other populations
+			boolean batched = drawMutationBatch(newPop);
+			boolean ownStream = newPop.get(0).getFitnessData().supportsParallelMutation();
+			MutationStream stream = mutationBatch.getStream();
+			for(int i=0; i<newPop.size(); i++) {
+				Locus ind = newPop.get(i);
+				if (batched) {
+					if (mutationBatch.getCount(i) > 0)
+						ind.getFitnessData().mutate(stream, mutationBatch.getCount(i));
+				}
+				else if (ownStream)
+					ind.getFitnessData().mutate(stream);
+				else
+					ind.mutate();
+				newMeanW += ind.getFitness();
+			}
 		}
 		newMeanW /= (double)newPop.size();
 		
@@ -684,20 +919,27 @@ public class Population implements Serializable, Collectible {
 
 		
 		//Remove references from those individuals in the parental population that had
-		//zero offspring. This allows the garbage collector to collect these items
-		//At some point it may be more efficient to return these to a pool...
+		//zero offspring, and return them to the locus pool
 		int newlyPreserved = 0;
 		
 		//Old locus removal scheme here...
 		if (storeAncestry) {
-			for(Locus ind : pop) {
-				if (ind.isPreserve()) {
-					preservedIndividuals.add(ind);
-					newlyPreserved++;
+			if (! parentsReleased) {
+				//Lineages must all be removed before any references are cleared
+				if (ancestryTracker != null) {
+					for(Locus ind : pop) 
+						ancestryTracker.removeLineage(ind);
 				}
-				else {
-					if (ind.numOffspring()==0 && !ind.isPreserve())
-						releaseLocus(ind);
+				
+				for(Locus ind : pop) {
+					if (ind.isPreserve()) {
+						preservedIndividuals.add(ind);
+						newlyPreserved++;
+					}
+					else {
+						if (ind.numOffspring()==0 && !ind.isPreserve())
+							releaseLocus(ind);
+					}
 				}
 			}
 		}
@@ -716,9 +958,17 @@ public class Population implements Serializable, Collectible {
 //			System.out.println("Preserving " + newlyPreserved + " new individuals; total is now " + preservedIndividuals.size() );
 		
 		 pop = newPop;
+		 
+		 if (ancestryTracker != null) {
+			 Locus newRoot = ancestryTracker.findRoot(root);
+			 if (newRoot != root) {
+				 root = newRoot;
+				 root.setParent(null);
+			 }
+		 }
 
 		 
-		 if (calls % 1000 == 0) {
+		 if (calls % 1000 == 0 && pop.size()>0 && pop.get(0).getFitnessData() instanceof DNAFitness) {
 			 for(Locus ind : pop) {
 				 DNASequence master = ((DNAFitness) ind.getFitnessData()).getMaster();
 				 ((DNAFitness)ind.getFitnessData()).verifyFitness(master);
@@ -729,6 +979,182 @@ public class Population implements Serializable, Collectible {
 		 calls++;
 	}
 	
+	/**
+	 * Create a new individual whose parent is the given parent. The first offspring of a parent takes over its data 
+	 * (unless we're preserving ancestral data), all others get a copy. If copyData is false the kid just gets a reference
+	 * to the parent's data, and copyAndMutateInParallel must be called to make the copies. 
+	 * @param parent
+	 * @param copyData
+	 * @return The new offspring
+	 */
+	private Locus createOffspring(Locus parent, boolean copyData) {
+		Locus kid = locusPool.getLocus(rng);
+		
+		kid.setParent( parent ) ;
+		parent.addOffspring(kid);
+		if (ancestryTracker != null) {
+			ancestryTracker.addBirth(kid);
+			ancestryTracker.addLineage(parent);
+		}
+
+		if (! copyData) {
+			kid.inheritFrom(parent);
+		}
+		else if (preserve) { //If we preserve ancestral data, then always copy all data from parent to offspring
+			locusPool.copyData(kid, parent);
+		}
+		else { //If not preserving data, just pass a reference from parent to offspring
+			if (parent.numOffspring()==1)
+				kid.inheritFrom(parent);
+			else
+				locusPool.copyData(kid, parent);	
+		}
+
+		if (totalPopCount>1) {
+			kid.setOriginPopulation(myPopNumber);
+		}
+		return kid;
+	}
+	
+	/**
+	 * Choose the parent of each of the newSize offspring, storing the index of each in parentIndex. Each chunk of offspring 
+	 * draws from its own random stream. 
+	 * @param newSize
+	 * @param alias If true parents are drawn from the alias table, which must already be built
+	 */
+	private void chooseParentsInParallel(int newSize, final boolean alias) {
+		if (parentIndex.length < newSize)
+			parentIndex = new int[newSize];
+		final int popSize = pop.size();
+		workers.forEachChunk(newSize, new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				Uniform uni = workers.getUniform(chunk);
+				for(int k=start; k<end; k++) {
+					if (alias) {
+						parentIndex[k] = aliasSampler.sample(uni);
+					}
+					else {
+						int who = uni.nextIntFromTo(0, popSize-1);
+						while (uni.nextDouble() >= 0.5*fitnessBuffer[who]) {
+							who = uni.nextIntFromTo(0, popSize-1);
+						}
+						parentIndex[k] = who;
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Draw the number of mutations each of the given individuals acquires this generation all at once, if their fitness
+	 * models support it and mutation is rare enough for this to pay (see MutationBatch). 
+	 * @param kids
+	 * @return True if the counts were drawn and are available from mutationBatch, false if individuals should be mutated one at a time
+	 */
+	private boolean drawMutationBatch(List<Locus> kids) {
+		if (mutationBatch == null)
+			mutationBatch = new MutationBatch(rng);
+		mutationBatch.begin(kids.size());
+		for(int i=0; i<kids.size(); i++)
+			mutationBatch.setMean(i, kids.get(i).getFitnessData().getMutationMean());
+		return mutationBatch.draw();
+	}
+	
+	/**
+	 * Give every kid that needs one its own copy of its parent's data, then mutate all kids, using the worker threads. Copies are all
+	 * made before any mutation starts, since the first offspring of each parent shares the parent's data. 
+	 * @param kids
+	 * @return The sum of the fitnesses of all kids
+	 */
+	private double copyAndMutateInParallel(final List<Locus> kids) {
+		final boolean multiPop = totalPopCount>1;
+		
+		//The pool isn't thread safe, so retired providers are handed out before the copying starts
+		if (retiredBuffer.length < kids.size())
+			retiredBuffer = new FitnessProvider[kids.size()];
+		for(int i=0; i<kids.size(); i++) {
+			Locus kid = kids.get(i);
+			if (preserve || kid.getParent().getOffspring(0) != kid)
+				retiredBuffer[i] = locusPool.takeProvider();
+		}
+		
+		workers.forEachChunk(kids.size(), new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				for(int i=start; i<end; i++) {
+					Locus kid = kids.get(i);
+					Locus parent = kid.getParent();
+					if (preserve || parent.getOffspring(0) != kid) {
+						kid.copyDataFrom(parent, retiredBuffer[i]);
+						retiredBuffer[i] = null;
+						if (multiPop) 
+							kid.setOriginPopulation(myPopNumber);
+					}
+				}
+			}
+		});
+		
+		//Mutation counts are drawn on this thread, so they don't depend on the number of threads
+		final boolean batched = drawMutationBatch(kids);
+		final double[] sums = workers.getChunkSums();
+		workers.forEachChunk(kids.size(), new ReproductionWorkers.ChunkTask() {
+			public void run(int chunk, int start, int end) {
+				MutationStream stream = workers.getStream(chunk);
+				double sum = 0;
+				for(int i=start; i<end; i++) {
+					FitnessProvider data = kids.get(i).getFitnessData();
+					if (! batched)
+						data.mutate(stream);
+					else if (mutationBatch.getCount(i) > 0)
+						data.mutate(stream, mutationBatch.getCount(i));
+					sum += data.getFitness();
+				}
+				sums[chunk] = sum;
+			}
+		});
+		
+		//Always add in chunk order, so the sum doesn't depend on which threads finished first
+		double total = 0;
+		for(int i=0; i<workers.getThreadCount(); i++)
+			total += sums[i];
+		return total;
+	}
+	
+	/**
+	 * Draw the number of offspring of each of the first count individuals from a multinomial distribution with total 
+	 * offspring number total and probabilities proportional to weights, using a sequence of binomial draws. 
+	 * @param weights Relative fitnesses of the parents
+	 * @param count Number of parents
+	 * @param total Total number of offspring
+	 * @param counts Filled with the number of offspring of each parent
+	 */
+	protected void drawOffspringCounts(double[] weights, int count, int total, int[] counts) {
+		if (binomialGenerator == null)
+			binomialGenerator = new Binomial(1, 0.5, rng);
+		
+		double remainingMass = 0;
+		for(int i=0; i<count; i++)
+			remainingMass += weights[i];
+		
+		int remaining = total;
+		for(int i=0; i<count; i++) {
+			if (remaining == 0) {
+				counts[i] = 0;
+				continue;
+			}
+			
+			double p = weights[i] / remainingMass;
+			if (p >= 1.0 || i == count-1) 
+				counts[i] = remaining;
+			else if (p <= 0) 
+				counts[i] = 0;
+			else 
+				counts[i] = binomialGenerator.nextInt(remaining, p);
+			
+			remaining -= counts[i];
+			remainingMass -= weights[i];
+		}
+	}
+	
 	/**
 	 * Move the root toward the tips while root has only a single offspring and no recombinations 
 	 */
@@ -749,11 +1175,10 @@ public class Population implements Serializable, Collectible {
 	protected void recombine() {
 		int count = 0;
 		FitnessProvider fitnessModel = pop.get(0).getFitnessData();
-		if (! (fitnessModel instanceof DNAFitness)) {
+		if (! (fitnessModel instanceof Recombineable)) {
 			return;
 		}
-		DNAFitness dnaFitness = (DNAFitness)fitnessModel;
-		double rate = dnaFitness.getMutationModel().getRecombinationRate();
+		double rate = fitnessModel.getRecombinationRate();
 		poissonGenerator.setMean(rate / 2.0 * pop.size()); //Since each recombination event involves two individuals, rate/2 is the pairwise rate
 		
 		int recombiningPairs = poissonGenerator.nextInt();
@@ -778,7 +1203,11 @@ public class Population implements Serializable, Collectible {
 				return;
 			
 			//System.out.println("Recombining " + ((Individual) one).getReadableID() + " and "+  ((Individual) two).getReadableID() );
-			Locus.recombine(one, two); //Actually a static method, but since it's from an interfarce it can't actually be static
+			Locus.recombine(one, two, uniGenerator); //Actually a static method, but since it's from an interfarce it can't actually be static
+			if (ancestryTracker != null) {
+				ancestryTracker.addLineage(two.getParent());
+				ancestryTracker.addLineage(one.getParent());
+			}
 		}
 	}
 	
@@ -794,9 +1223,19 @@ public class Population implements Serializable, Collectible {
 				System.out.println("Hmm...we're clearing an ind. that has recomb. and a partner with > 0 offspring");
 			}
 		}
+		
+		//The first offspring of a parent shares its parent's data, so loc only owns its data if it's different from 
+		//its parent's. Everything else that could share it is a descendant of loc, and hence already cleared. 
+		FitnessProvider data = loc.getFitnessData();
+		boolean ownsData = data != null && data != loc.getParent().getFitnessData();
+		
 		loc.getParent().removeOffspring(loc);
 		loc.setParent(null);
 		loc.clearReferences();
+		
+		if (ownsData)
+			locusPool.recycleProvider(data);
+		locusPool.recycleLocus(loc);
 	}
 	
 	/**
@@ -826,13 +1265,13 @@ public class Population implements Serializable, Collectible {
 		int tot = 0;
 		Locus locRef;
 		
+		releaseStamp++;
 		relInds.clear();
-		relIndSet.clear();
 		relInds.add(loc);
-		relIndSet.add(loc.getID());
+		loc.releaseStamp = releaseStamp;
 		
 		while(relInds.size()>0) {
-			locRef = relInds.pop();
+			locRef = relInds.remove(relInds.size()-1);
 
 			if (locRef.numOffspring()!=0) {
 				System.err.println("Hmm, locRef ind has nonzero offspring count");
@@ -848,17 +1287,17 @@ public class Population implements Serializable, Collectible {
 					Locus parent = locRef.getParent();
 					
 					clearLocus(locRef);
-					if (parent.numOffspring()==0 && (!relIndSet.contains(parent.getID()))) {
+					if (parent.numOffspring()==0 && parent.releaseStamp != releaseStamp) {
 						relInds.add(parent);
-						relIndSet.add(parent.getID());
+						parent.releaseStamp = releaseStamp;
 					}
 					
 					//We only add if the partner's recombination partner isn't null.. this is because if we already
 					//released the partner its recomb. ref will be set to null, otherwise we'll end up adding it
 					//to the stack again
-					if (!relIndSet.contains(partner.getID()) && partner.getRecombinationPartner()!=null) {
+					if (partner.releaseStamp != releaseStamp && partner.getRecombinationPartner()!=null) {
 						relInds.add(partner);
-						relIndSet.add(partner.getID());
+						partner.releaseStamp = releaseStamp;
 					}
 				}
 			}
@@ -869,9 +1308,8 @@ public class Population implements Serializable, Collectible {
 				Locus parent = locRef.getParent();
 				
 				clearLocus(locRef);
-				if (parent.numOffspring()==0 /* && (!relIndSet.contains(parent)) */ ) {
+				if (parent.numOffspring()==0) {
 					relInds.add(parent);
-					/* relIndSet.add(parent.getID()); */ 
 				}
 			}
 		}
@@ -930,6 +1368,7 @@ public class Population implements Serializable, Collectible {
 		if (num > pop.size()) {
 			throw new IllegalArgumentException("Cannot sample " + num + " individuals from a population of size : " + pop.size());
 		}
+		ancestryTracker = null; //Migrants aren't tracked, so fall back to findFC
 		
 		while(sample.size()<num) {
 			int which = uniGenerator.nextIntFromTo(0, pop.size()-1);
@@ -948,10 +1387,41 @@ public class Population implements Serializable, Collectible {
 	 * @param migrants
 	 */
 	public void addIndividuals(List<Locus> migrants) {
+		ancestryTracker = null;
 		for(Locus ind : migrants) {
+			if (mutationModel != null)
+				applyMutationModel(ind.getFitnessData());
 			pop.add(ind);
 		}
 	}
+	
+	/**
+	 * Have every individual in this population, and every migrant that joins it later, use the given mutation model, so that
+	 * different populations (for instance the demes of a PopSplitDemoModel) can mutate differently. Offspring inherit the
+	 * model of their parent. This only applies to fitness models with a mutation model, currently just DNAFitness. 
+	 * @param model
+	 */
+	public void setMutationModel(MutationModel model) {
+		mutationModel = model;
+		for(Locus ind : pop) {
+			applyMutationModel(ind.getFitnessData());
+		}
+	}
+	
+	public MutationModel getMutationModel() {
+		return mutationModel;
+	}
+	
+	/**
+	 * Set the mutation model of the given fitness data to this population's model, if it has one
+	 * @param data
+	 */
+	protected void applyMutationModel(FitnessProvider data) {
+		if (data instanceof DNAFitness)
+			((DNAFitness)data).setMutationModel(mutationModel);
+		else
+			System.err.println("Fitness model " + data.getClass().getSimpleName() + " has no mutation model, ignoring population mutation model");
+	}
 
 	/**
 	 * Set the total population count back to zero
@@ -309,6 +309,7 @@ public class PopulationRunner {
 				//Produce another generation with size given by the demographic model
 				try {
 					demoModel.reproduceAll();
+					demoModel.compactMutationTables();
 				}
 				catch (Exception ex) {
 					TJRunTimeException rtex = new TJRunTimeException(demoModel, ex); 
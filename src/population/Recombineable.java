@@ -13,4 +13,6 @@ public interface Recombineable {
 	
 	public void setRegion(int min, int max, Object region); //Set the section between min and max to be the given region
 	
+	public void swapRegion(Recombineable other, int min, int max); //Exchange the section between min and max with that of other
+	
 }
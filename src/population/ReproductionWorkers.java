@@ -0,0 +1,115 @@
+package population;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import mutationModels.MutationStream;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+
+/**
+ * A pool of threads used by Populations to create and mutate offspring in parallel. Work over a range of individuals is always split
+ * into the same number of contiguous chunks (one per thread), and each chunk has its own random number engine, seeded once from the
+ * population's engine when the workers are created. Since chunk boundaries depend only on the number of individuals and the number of
+ * threads, a given run seed and thread count always produce the same sequence of random numbers in each chunk, regardless of
+ * how the threads are actually scheduled.
+ * @author brendan
+ *
+ */
+public class ReproductionWorkers {
+
+	/**
+	 * Work to be done on individuals [start, end) using the random numbers of the given chunk
+	 */
+	public interface ChunkTask {
+		public void run(int chunk, int start, int end);
+	}
+
+	final int threads;
+	final ForkJoinPool pool;
+	final RandomEngine[] engines;
+	final Uniform[] uniforms;
+	final MutationStream[] streams;
+	final double[] chunkSums;
+
+	/**
+	 * Create a new set of workers with the given number of threads, using the seed source to seed the random engine
+	 * of each chunk
+	 * @param threads
+	 * @param seedSource
+	 */
+	public ReproductionWorkers(int threads, RandomEngine seedSource) {
+		this.threads = threads;
+		pool = new ForkJoinPool(threads);
+		engines = new RandomEngine[threads];
+		uniforms = new Uniform[threads];
+		streams = new MutationStream[threads];
+		chunkSums = new double[threads];
+		for(int i=0; i<threads; i++) {
+			engines[i] = new MersenneTwister(seedSource.nextInt());
+			uniforms[i] = new Uniform(engines[i]);
+			streams[i] = new MutationStream(engines[i]);
+		}
+	}
+
+	public int getThreadCount() {
+		return threads;
+	}
+
+	/**
+	 * The uniform generator for the given chunk
+	 */
+	public Uniform getUniform(int chunk) {
+		return uniforms[chunk];
+	}
+
+	/**
+	 * The mutation stream for the given chunk
+	 */
+	public MutationStream getStream(int chunk) {
+		return streams[chunk];
+	}
+
+	/**
+	 * A per-chunk buffer that tasks can use to accumulate sums, which should then be added together in chunk
+	 * order so the result doesn't depend on scheduling
+	 */
+	public double[] getChunkSums() {
+		return chunkSums;
+	}
+
+	/**
+	 * Run the task on every chunk of the range [0, total), and return when all chunks are done
+	 * @param total
+	 * @param task
+	 */
+	public void forEachChunk(final int total, final ChunkTask task) {
+		final List<RecursiveAction> actions = new ArrayList<RecursiveAction>(threads);
+		for(int i=0; i<threads; i++) {
+			final int chunk = i;
+			final int start = (int)((long)total*i/threads);
+			final int end = (int)((long)total*(i+1)/threads);
+			actions.add(new RecursiveAction() {
+				protected void compute() {
+					task.run(chunk, start, end);
+				}
+			});
+		}
+
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(actions);
+			}
+		});
+	}
+
+	/**
+	 * Stop all worker threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
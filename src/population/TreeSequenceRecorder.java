@@ -0,0 +1,876 @@
+package population;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fitnessProviders.FitnessProvider;
+import tree.DiscreteGenTree;
+
+/**
+ * An alternative to the LineageArena that records ancestry as a 'tree sequence': a table of nodes (one for every individual born,
+ * with its birth generation and a unique label) and a table of edges, each of which says that the sites [left, right) of
+ * a child node were inherited from a parent node. An individual that doesn't recombine gets a single edge covering
+ * the whole locus, a recombinant gets one edge for the region it inherited from its recombination partner's parent and one
+ * or two for the rest. Recording a birth is just appending a few ints to the tables; nothing is reference counted or released.
+ *   Instead, simplify() periodically rewrites the tables so that they contain only the ancestry of the current generation:
+ * only nodes that are a common ancestor of two or more current individuals at some site (or are themselves in the current
+ * generation) survive, and chains of edges through unary ancestors are joined into a single edge. This keeps the size of the
+ * tables proportional to the genealogy of the current generation, no matter how long the run, and the work done by
+ * simplify is proportional to the size of the tables, so it's cheap if done every few generations. The algorithm is that of
+ * Kelleher et al. (2018) 'Efficient pedigree recording for fast population genetics simulation'.
+ *   Node indices are always ordered by birth generation, and are changed by simplify, so the owner must use the
+ * translated sample indices that simplify returns. The root (a node ancestral to every sample at every site) is always
+ * kept, and is moved down to the MRCA of the current generation whenever there is one.
+ *
+ * @author brendan
+ *
+ */
+public class TreeSequenceRecorder implements Serializable {
+
+	public static final int NONE = -1;
+
+	//The node table
+	int nodeCount = 0;
+	int[] time;					//Generation in which the node was born
+	long[] label;				//Unique label, used as the id of materialized Loci
+	FitnessProvider[] data;		//Only used when ancestral data is preserved
+	boolean storeData = false;
+	long nextLabel = 1;
+
+	//The edge table
+	int edgeCount = 0;
+	int[] edgeLeft;				//Inclusive...
+	int[] edgeRight;			//..and exclusive
+	int[] edgeParent;
+	int[] edgeChild;
+
+	//Births in the current generation, whose edges are written by finishGeneration() once recombination is done
+	int firstPending = 0;
+	int pendingCount = 0;
+	int[] pendingParent;
+	int[] pendingRecParent;
+	int[] pendingMin;
+	int[] pendingMax;
+
+	int sequenceLength;
+	int generation = 0;
+	int root = NONE;
+
+	//Buffers used by simplify
+	private transient int[] lastEdge;		//Most recently added edge for each child node
+	private transient int[] sourceNode;		//Node of the input tables for each output node
+	private transient int[] edgeStart;		//Range of the edges added for each output node
+	private transient int[] edgeEnd;
+	private transient TreeSequenceRecorder spare;	//Tables to write the output of the next simplification to
+	private transient int[] parentStart;	//Edges indexed by parent
+	private transient int[] byParent;
+
+	//Segments of the locus [left, right) leading to an output node, and the heap used to merge them
+	private transient int segCount;
+	private transient int[] segLeft;
+	private transient int[] segRight;
+	private transient int[] segNode;
+	private transient int[] segNext;
+	private transient int[] head;			//First and last segment of each input node
+	private transient int[] tail;
+	private transient int[] heap;
+	private transient int[] heapKey;
+	private transient int heapSize;
+	private transient int[] overlapping;
+	private transient int overlapCount;
+
+	/**
+	 * Create a new recorder for loci with the given number of sites (breakpoints are positions between 0 and sequenceLength)
+	 * @param sequenceLength
+	 * @param initialCapacity
+	 */
+	public TreeSequenceRecorder(int sequenceLength, int initialCapacity) {
+		this.sequenceLength = Math.max(1, sequenceLength);
+		int cap = Math.max(16, initialCapacity);
+		time = new int[cap];
+		label = new long[cap];
+		data = null;
+		edgeLeft = new int[cap];
+		edgeRight = new int[cap];
+		edgeParent = new int[cap];
+		edgeChild = new int[cap];
+		pendingParent = new int[cap];
+		pendingRecParent = new int[cap];
+		pendingMin = new int[cap];
+		pendingMax = new int[cap];
+	}
+
+	/**
+	 * Add the root node, which has no parent and is an ancestor of everything recorded after it
+	 * @return
+	 */
+	public int addRoot() {
+		root = appendNode(generation, nextLabel++);
+		return root;
+	}
+
+	/**
+	 * Called at the start of each generation, before any births. Any births of the previous generation that haven't
+	 * been written are written now.
+	 */
+	public void startGeneration() {
+		finishGeneration();
+		generation++;
+		firstPending = nodeCount;
+	}
+
+	/**
+	 * Record the birth of a new node in the current generation with the given parent. The edges of the new node aren't
+	 * written until finishGeneration() is called, so that recombinations can be added first.
+	 * @param parentNode
+	 * @return
+	 */
+	public int addNode(int parentNode) {
+		int node = appendNode(generation, nextLabel++);
+		if (pendingCount == pendingParent.length) {
+			int cap = 2*pendingCount;
+			pendingParent = Arrays.copyOf(pendingParent, cap);
+			pendingRecParent = Arrays.copyOf(pendingRecParent, cap);
+			pendingMin = Arrays.copyOf(pendingMin, cap);
+			pendingMax = Arrays.copyOf(pendingMax, cap);
+		}
+		pendingParent[pendingCount] = parentNode;
+		pendingRecParent[pendingCount] = NONE;
+		pendingCount++;
+		return node;
+	}
+
+	/**
+	 * Record that the sites [min, max) of a node born in the current generation came from recParent instead of its parent
+	 * @param node
+	 * @param recParent
+	 * @param min
+	 * @param max
+	 */
+	public void setRecombination(int node, int recParent, int min, int max) {
+		int i = pendingIndex(node);
+		pendingRecParent[i] = recParent;
+		pendingMin[i] = min;
+		pendingMax[i] = max;
+	}
+
+	/**
+	 * The parent of a node born in the current generation
+	 * @param node
+	 * @return
+	 */
+	public int getParent(int node) {
+		return pendingParent[pendingIndex(node)];
+	}
+
+	/**
+	 * Write the edges for all births in the current generation
+	 */
+	public void finishGeneration() {
+		for(int i=0; i<pendingCount; i++) {
+			int node = firstPending + i;
+			int parent = pendingParent[i];
+			int recParent = pendingRecParent[i];
+			if (recParent == NONE) {
+				appendEdge(0, sequenceLength, parent, node);
+			}
+			else {
+				int min = pendingMin[i];
+				int max = pendingMax[i];
+				if (min > 0)
+					appendEdge(0, min, parent, node);
+				appendEdge(min, max, recParent, node);
+				if (max < sequenceLength)
+					appendEdge(max, sequenceLength, parent, node);
+			}
+		}
+		firstPending = nodeCount;
+		pendingCount = 0;
+	}
+
+	/**
+	 * Remove from the tables everything that isn't part of the ancestry of the given nodes, which must all be members of the
+	 * current generation. The node indices in samples are replaced by their new values.
+	 * @param samples
+	 * @param count
+	 */
+	public void simplify(int[] samples, int count) {
+		finishGeneration();
+		int[] outIds = new int[count];
+		TreeSequenceRecorder out = simplified(samples, count, outIds);
+
+		//Take the new tables, and keep the old ones for the next simplification
+		int[] tmpTime = time;
+		long[] tmpLabel = label;
+		FitnessProvider[] tmpData = data;
+		int[] tmpLeft = edgeLeft;
+		int[] tmpRight = edgeRight;
+		int[] tmpParent = edgeParent;
+		int[] tmpChild = edgeChild;
+		nodeCount = out.nodeCount;
+		time = out.time;
+		label = out.label;
+		data = out.data;
+		edgeCount = out.edgeCount;
+		edgeLeft = out.edgeLeft;
+		edgeRight = out.edgeRight;
+		edgeParent = out.edgeParent;
+		edgeChild = out.edgeChild;
+		root = out.root;
+		firstPending = nodeCount;
+		out.time = tmpTime;
+		out.label = tmpLabel;
+		out.data = tmpData;
+		out.edgeLeft = tmpLeft;
+		out.edgeRight = tmpRight;
+		out.edgeParent = tmpParent;
+		out.edgeChild = tmpChild;
+		if (out.data != null)
+			Arrays.fill(out.data, null);
+		spare = out;
+		System.arraycopy(outIds, 0, samples, 0, count);
+	}
+
+	/**
+	 * Find the most recent common ancestor of the given nodes, which must all be members of the current generation.
+	 * If the nodes have recombined and have no single common ancestor across all sites, this returns the root.
+	 * @param samples
+	 * @param count
+	 * @return The index of the ancestor, or NONE if count is zero
+	 */
+	public int findCommonAncestor(int[] samples, int count) {
+		if (count == 0)
+			return NONE;
+		finishGeneration();
+		TreeSequenceRecorder out = simplified(samples, count, new int[count]);
+		int ancestor = out.sourceNode[out.root];
+		spare = out;
+		return ancestor;
+	}
+
+	/**
+	 * Build the genealogy of the given nodes, which must all be members of the current generation, as a DiscreteGenTree.
+	 * Since every level of a DiscreteGenTree is one generation, unary Loci are created to fill in the generations between
+	 * each node and its parent. Those Loci have id zero and share the data of their descendant. Ancestral nodes get a copy of
+	 * their data if ancestral data is stored, otherwise they also share the data of a descendant.
+	 *   When a node inherits different regions from different parents, the parent it inherits the most sites from is its
+	 * parent in the tree. Each contiguous stretch of sites inherited from another parent is exchanged with a recombination
+	 * partner whose parent is that parent. Since a Locus has only one recombination partner, these are attached to the node
+	 * and then to successive unary ancestors of it, if there are enough of them.
+	 * @param samples
+	 * @param tips Loci for the samples, in the same order. These become the tips of the tree.
+	 * @return
+	 */
+	public DiscreteGenTree getSampleTree(int[] samples, List<Locus> tips) {
+		finishGeneration();
+		int count = tips.size();
+		int[] outIds = new int[count];
+		TreeSequenceRecorder out = simplified(samples, count, outIds);
+
+		Locus[] loci = new Locus[out.nodeCount];
+		for(int i=0; i<count; i++)
+			loci[outIds[i]] = tips.get(i);
+
+		//Index the edges by child
+		int[] childStart = new int[out.nodeCount+1];
+		for(int e=0; e<out.edgeCount; e++)
+			childStart[out.edgeChild[e]+1]++;
+		for(int i=0; i<out.nodeCount; i++)
+			childStart[i+1] += childStart[i];
+		int[] byChild = new int[out.edgeCount];
+		int[] fill = Arrays.copyOf(childStart, out.nodeCount);
+		for(int e=0; e<out.edgeCount; e++)
+			byChild[fill[out.edgeChild[e]]++] = e;
+
+		List<Integer> parents = new ArrayList<Integer>();
+		List<Integer> spans = new ArrayList<Integer>();
+		List<Integer> stretches = new ArrayList<Integer>();		//Edges to parents other than the first, ordered by position
+		List<Integer> stretchStarts = new ArrayList<Integer>();	//Index in stretches of the first edge of each stretch
+		int dropped = 0;
+		for(int node=out.nodeCount-1; node>=0; node--) {
+			Locus kid = loci[node];
+			if (kid == null || childStart[node]==childStart[node+1])
+				continue;
+
+			//The distinct parents of this node, ordered by the number of sites inherited from them
+			parents.clear();
+			spans.clear();
+			for(int i=childStart[node]; i<childStart[node+1]; i++) {
+				int e = byChild[i];
+				int p = out.edgeParent[e];
+				int index = parents.indexOf(p);
+				if (index < 0) {
+					parents.add(p);
+					spans.add(0);
+					index = parents.size()-1;
+				}
+				spans.set(index, spans.get(index) + out.edgeRight[e] - out.edgeLeft[e]);
+			}
+			for(int i=1; i<parents.size(); i++) {
+				for(int j=i; j>0 && spans.get(j) > spans.get(j-1); j--) {
+					Collections.swap(parents, j, j-1);
+					Collections.swap(spans, j, j-1);
+				}
+			}
+
+			List<Locus> chain = out.linkToParent(kid, out.time[node], parents.get(0), loci);
+
+			//Every stretch of sites inherited from a parent other than the first becomes one recombination, so that the
+			//regions exchanged never overlap and it doesn't matter in which order they're applied. Stretches from the youngest
+			//parents are attached first, since the recombinant must be younger than the parent 
+			stretches.clear();
+			for(int i=childStart[node]; i<childStart[node+1]; i++) {
+				int e = byChild[i];
+				if (out.edgeParent[e] != parents.get(0))
+					stretches.add(e);
+			}
+			for(int i=1; i<stretches.size(); i++) {
+				for(int j=i; j>0 && out.edgeLeft[stretches.get(j)] < out.edgeLeft[stretches.get(j-1)]; j--)
+					Collections.swap(stretches, j, j-1);
+			}
+			stretchStarts.clear();
+			for(int i=0; i<stretches.size(); i++) {
+				if (i==0 || out.edgeParent[stretches.get(i)] != out.edgeParent[stretches.get(i-1)] || out.edgeLeft[stretches.get(i)] != out.edgeRight[stretches.get(i-1)])
+					stretchStarts.add(i);
+			}
+			for(int i=1; i<stretchStarts.size(); i++) {
+				for(int j=i; j>0 && out.time[out.edgeParent[stretches.get(stretchStarts.get(j))]] > out.time[out.edgeParent[stretches.get(stretchStarts.get(j-1))]]; j--)
+					Collections.swap(stretchStarts, j, j-1);
+			}
+
+			int recombinations = 0;
+			for(int start : stretchStarts) {
+				int p = out.edgeParent[stretches.get(start)];
+				int min = out.edgeLeft[stretches.get(start)];
+				int end = start;
+				while(end+1 < stretches.size() && out.edgeParent[stretches.get(end+1)]==p && out.edgeLeft[stretches.get(end+1)]==out.edgeRight[stretches.get(end)])
+					end++;
+				int max = out.edgeRight[stretches.get(end)];
+
+				int nodeTime = out.time[node] - recombinations;
+				if (recombinations >= chain.size() || nodeTime <= out.time[p]) {
+					dropped++;
+					continue;
+				}
+				Locus recombinant = chain.get(recombinations);
+				recombinations++;
+				Locus partner = new Locus(null);
+				partner.setFitnessProvider(recombinant.getFitnessData());
+				partner.setID( -recombinant.getID() );
+				recombinant.setRecombinationPartner(min, max, partner);
+				partner.setRecombinationPartner(min, max, recombinant);
+				out.linkToParent(partner, nodeTime, p, loci);
+			}
+		}
+
+		spare = out;
+		if (dropped > 0)
+			System.err.println("Could not attach all parents of recombinant nodes to the sample tree, " + dropped + " recombinant regions were left out");
+		return new DiscreteGenTree(loci[out.root], tips);
+	}
+
+	/**
+	 * Connect the Locus for a node born at the given time to the Locus for parentNode (which is created if need be), with one
+	 * unary Locus for every generation between them
+	 * @return The Loci from kid up to, but not including, the parent
+	 */
+	private List<Locus> linkToParent(Locus kid, int kidTime, int parentNode, Locus[] loci) {
+		List<Locus> chain = new ArrayList<Locus>();
+		chain.add(kid);
+		Locus below = kid;
+		for(int t=kidTime-1; t>time[parentNode]; t--) {
+			Locus pad = new Locus(null);
+			pad.setFitnessProvider(below.getFitnessData());
+			pad.addOffspring(below);
+			below.setParent(pad);
+			chain.add(pad);
+			below = pad;
+		}
+
+		Locus parent = loci[parentNode];
+		if (parent == null) {
+			parent = new Locus(null);
+			FitnessProvider nodeData = data == null ? null : data[parentNode];
+			if (nodeData != null)
+				parent.setFitnessProvider(nodeData.getCopy());
+			else
+				parent.setFitnessProvider(below.getFitnessData());
+			parent.setID(label[parentNode]);
+			loci[parentNode] = parent;
+		}
+		parent.addOffspring(below);
+		below.setParent(parent);
+		return chain;
+	}
+
+	/**
+	 * Build new tables containing only the ancestry of the given samples. outIds is filled with the new indices of the samples.
+	 * This walks through the parents from youngest to oldest, and for each keeps track of the segments of the locus over which
+	 * it is ancestral to the samples, and which output node those segments lead to. A parent becomes an output node only
+	 * where segments from two or more children overlap, otherwise it just passes its child's segments up.
+	 *   Segments are stored in parallel int arrays rather than as objects, since a simplification may create millions of them.
+	 */
+	private TreeSequenceRecorder simplified(int[] samples, int count, int[] outIds) {
+		//The output goes into the tables left over from the last simplification, if there are any
+		TreeSequenceRecorder out = spare;
+		spare = null;
+		if (out == null) {
+			out = new TreeSequenceRecorder(sequenceLength, Math.max(2*count, 16));
+			out.lastEdge = new int[out.time.length];
+			out.sourceNode = new int[out.time.length];
+			out.edgeStart = new int[out.time.length];
+			out.edgeEnd = new int[out.time.length];
+		}
+		out.nodeCount = 0;
+		out.edgeCount = 0;
+		out.pendingCount = 0;
+		out.root = NONE;
+		out.storeData = storeData;
+		if (! storeData)
+			out.data = null;
+		out.generation = generation;
+		out.nextLabel = nextLabel;
+
+		//Index the edges by parent
+		if (parentStart == null || parentStart.length < nodeCount+1)
+			parentStart = new int[nodeCount+1];
+		if (byParent == null || byParent.length < edgeCount)
+			byParent = new int[edgeCount];
+		Arrays.fill(parentStart, 0, nodeCount+1, 0);
+		for(int e=0; e<edgeCount; e++)
+			parentStart[edgeParent[e]+1]++;
+		for(int i=0; i<nodeCount; i++)
+			parentStart[i+1] += parentStart[i];
+		for(int e=0; e<edgeCount; e++) {
+			int p = edgeParent[e];
+			byParent[parentStart[p]++] = e;
+		}
+		//Undo the shift of parentStart made by filling byParent
+		for(int i=nodeCount; i>0; i--)
+			parentStart[i] = parentStart[i-1];
+		parentStart[0] = 0;
+
+		//The segments each input node is ancestral over, as linked lists in the segment arrays
+		if (head == null || head.length < nodeCount) {
+			head = new int[nodeCount];
+			tail = new int[nodeCount];
+		}
+		Arrays.fill(head, 0, nodeCount, NONE);
+		Arrays.fill(tail, 0, nodeCount, NONE);
+		if (segLeft == null) {
+			int cap = Math.max(16, 2*nodeCount);
+			segLeft = new int[cap];
+			segRight = new int[cap];
+			segNode = new int[cap];
+			segNext = new int[cap];
+			heap = new int[16];
+			heapKey = new int[16];
+		}
+		segCount = 0;
+
+		for(int i=0; i<count; i++) {
+			int u = samples[i];
+			if (head[u] != NONE)
+				throw new IllegalArgumentException("Node " + u + " appears more than once in the sample");
+			outIds[i] = out.copyNode(this, u);
+			head[u] = newSegment(0, sequenceLength, outIds[i]);
+			tail[u] = head[u];
+		}
+
+		int outRoot = NONE;
+
+		//Node indices are ordered by birth generation, so this visits children before parents
+		for(int u=nodeCount-1; u>=0; u--) {
+			if (parentStart[u]==parentStart[u+1])
+				continue;
+
+			boolean keep = u == root;
+			if (!keep && parentStart[u+1]-parentStart[u]==1) {
+				//A parent with a single child can't be a coalescence, so it just passes on the part of its child's
+				//ancestry within the edge. This is by far the most common case.
+				int e = byParent[parentStart[u]];
+				int child = edgeChild[e];
+				if (edgeLeft[e]==0 && edgeRight[e]==sequenceLength) {
+					head[u] = head[child];
+					tail[u] = tail[child];
+				}
+				else {
+					for(int x=head[child]; x != NONE; x=segNext[x]) {
+						if (segRight[x] > edgeLeft[e] && edgeRight[e] > segLeft[x])
+							appendSegment(u, Math.max(segLeft[x], edgeLeft[e]), Math.min(segRight[x], edgeRight[e]), segNode[x]);
+					}
+				}
+				continue;
+			}
+
+			//When no recombination has happened below u, all of its children inherit the whole locus from it and
+			//u is a coalescence everywhere, so there's no need to merge segments
+			boolean whole = true;
+			for(int i=parentStart[u]; i<parentStart[u+1] && whole; i++) {
+				int e = byParent[i];
+				int x = head[edgeChild[e]];
+				whole = edgeLeft[e]==0 && edgeRight[e]==sequenceLength && x != NONE && segNext[x] == NONE && segLeft[x]==0 && segRight[x]==sequenceLength;
+			}
+			if (whole) {
+				int v = out.copyNode(this, u);
+				out.edgeStart[v] = out.edgeCount;
+				for(int i=parentStart[u]; i<parentStart[u+1]; i++)
+					out.addEdge(0, sequenceLength, v, segNode[head[edgeChild[byParent[i]]]]);
+				out.edgeEnd[v] = out.edgeCount;
+				appendSegment(u, 0, sequenceLength, v);
+				if (keep)
+					outRoot = v;
+				continue;
+			}
+
+			heapSize = 0;
+			for(int i=parentStart[u]; i<parentStart[u+1]; i++) {
+				int e = byParent[i];
+				int left = edgeLeft[e];
+				int right = edgeRight[e];
+				for(int x=head[edgeChild[e]]; x != NONE; x=segNext[x]) {
+					if (segRight[x] > left && right > segLeft[x])
+						heapPush(newSegment(Math.max(segLeft[x], left), Math.min(segRight[x], right), segNode[x]));
+				}
+			}
+
+			int v = NONE;
+			int edgeStartV = out.edgeCount;
+			while(heapSize>0) {
+				int left = heapKey[0];
+				int right = sequenceLength;
+				overlapCount = 0;
+				while(heapSize>0 && heapKey[0] == left) {
+					int x = heapPop();
+					addOverlapping(x);
+					right = Math.min(right, segRight[x]);
+				}
+				if (heapSize>0)
+					right = Math.min(right, heapKey[0]);
+
+				int alphaNode;
+				if (overlapCount==1 && !keep) {
+					//Not a coalescence, so this segment passes through u unchanged
+					int x = overlapping[0];
+					alphaNode = segNode[x];
+					if (segRight[x] > right) {
+						segLeft[x] = right;
+						heapPush(x);
+					}
+				}
+				else {
+					if (v == NONE)
+						v = out.copyNode(this, u);
+					alphaNode = v;
+					for(int i=0; i<overlapCount; i++) {
+						int x = overlapping[i];
+						out.addEdge(left, right, v, segNode[x]);
+						if (segRight[x] > right) {
+							segLeft[x] = right;
+							heapPush(x);
+						}
+					}
+				}
+
+				int t = tail[u];
+				if (t != NONE && segNode[t] == alphaNode && segRight[t] == left)
+					segRight[t] = right;
+				else
+					appendSegment(u, left, right, alphaNode);
+			}
+
+			if (v != NONE) {
+				out.edgeStart[v] = edgeStartV;
+				out.edgeEnd[v] = out.edgeCount;
+			}
+			if (keep)
+				outRoot = v;
+		}
+
+		//If the root now has a single child everywhere, that child is the new root
+		boolean removed = false;
+		while(outRoot != NONE && out.edgeStart[outRoot] < out.edgeEnd[outRoot]) {
+			int child = out.edgeChild[out.edgeStart[outRoot]];
+			boolean unary = true;
+			for(int e=out.edgeStart[outRoot]; e<out.edgeEnd[outRoot]; e++) {
+				if (out.edgeChild[e] != child)
+					unary = false;
+			}
+			if (! unary)
+				break;
+
+			for(int e=out.edgeStart[outRoot]; e<out.edgeEnd[outRoot]; e++)
+				out.edgeParent[e] = NONE;
+			removed = true;
+			outRoot = child;
+		}
+		if (removed)
+			out.removeDeadEdges();
+		out.root = outRoot;
+		out.reverseNodes(outIds, count);
+		out.firstPending = out.nodeCount;
+		return out;
+	}
+
+	/**
+	 * Create a new segment, with no successor
+	 */
+	private int newSegment(int left, int right, int node) {
+		if (segCount == segLeft.length) {
+			int cap = 2*segCount;
+			segLeft = Arrays.copyOf(segLeft, cap);
+			segRight = Arrays.copyOf(segRight, cap);
+			segNode = Arrays.copyOf(segNode, cap);
+			segNext = Arrays.copyOf(segNext, cap);
+		}
+		segLeft[segCount] = left;
+		segRight[segCount] = right;
+		segNode[segCount] = node;
+		segNext[segCount] = NONE;
+		segCount++;
+		return segCount-1;
+	}
+
+	/**
+	 * Add a new segment to the end of the ancestry of input node u
+	 */
+	private void appendSegment(int u, int left, int right, int node) {
+		int x = newSegment(left, right, node);
+		if (tail[u] == NONE)
+			head[u] = x;
+		else
+			segNext[tail[u]] = x;
+		tail[u] = x;
+	}
+
+	private void addOverlapping(int x) {
+		if (overlapping == null || overlapCount == overlapping.length)
+			overlapping = overlapping == null ? new int[16] : Arrays.copyOf(overlapping, 2*overlapCount);
+		overlapping[overlapCount++] = x;
+	}
+
+	/**
+	 * Add segment x to the heap of segments ordered by their left end. The left ends are kept in the heap as well, so
+	 * the heap can be reordered without looking up segments.
+	 */
+	private void heapPush(int x) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, 2*heapSize);
+			heapKey = Arrays.copyOf(heapKey, 2*heapSize);
+		}
+		int key = segLeft[x];
+		int i = heapSize++;
+		while(i > 0) {
+			int parent = (i-1)/2;
+			if (heapKey[parent] <= key)
+				break;
+			heap[i] = heap[parent];
+			heapKey[i] = heapKey[parent];
+			i = parent;
+		}
+		heap[i] = x;
+		heapKey[i] = key;
+	}
+
+	/**
+	 * Remove and return the segment with the leftmost left end
+	 */
+	private int heapPop() {
+		int top = heap[0];
+		heapSize--;
+		int x = heap[heapSize];
+		int key = heapKey[heapSize];
+		int i = 0;
+		while(2*i+1 < heapSize) {
+			int child = 2*i+1;
+			if (child+1 < heapSize && heapKey[child+1] < heapKey[child])
+				child++;
+			if (key <= heapKey[child])
+				break;
+			heap[i] = heap[child];
+			heapKey[i] = heapKey[child];
+			i = child;
+		}
+		if (heapSize > 0) {
+			heap[i] = x;
+			heapKey[i] = key;
+		}
+		return top;
+	}
+
+	/**
+	 * Nodes are added to the output of simplify from youngest to oldest, so reverse them to restore the ordering by
+	 * birth generation
+	 */
+	private void reverseNodes(int[] outIds, int count) {
+		int last = nodeCount-1;
+		for(int i=0; i<nodeCount/2; i++) {
+			int j = last-i;
+			int t = time[i];
+			time[i] = time[j];
+			time[j] = t;
+			long l = label[i];
+			label[i] = label[j];
+			label[j] = l;
+			int s = sourceNode[i];
+			sourceNode[i] = sourceNode[j];
+			sourceNode[j] = s;
+			if (data != null) {
+				FitnessProvider d = data[i];
+				data[i] = data[j];
+				data[j] = d;
+			}
+		}
+		for(int e=0; e<edgeCount; e++) {
+			edgeParent[e] = last - edgeParent[e];
+			edgeChild[e] = last - edgeChild[e];
+		}
+		for(int i=0; i<count; i++)
+			outIds[i] = last - outIds[i];
+		if (root != NONE)
+			root = last - root;
+	}
+
+	/**
+	 * Add a copy of node u of source to this table, as part of a simplification
+	 */
+	private int copyNode(TreeSequenceRecorder source, int u) {
+		int v = appendNode(source.time[u], source.label[u]);
+		if (storeData && source.data != null)
+			setData(v, source.data[u]);
+		if (v >= lastEdge.length) {
+			lastEdge = Arrays.copyOf(lastEdge, time.length);
+			sourceNode = Arrays.copyOf(sourceNode, time.length);
+			edgeStart = Arrays.copyOf(edgeStart, time.length);
+			edgeEnd = Arrays.copyOf(edgeEnd, time.length);
+		}
+		lastEdge[v] = NONE;
+		sourceNode[v] = u;
+		edgeStart[v] = 0;
+		edgeEnd[v] = 0;
+		return v;
+	}
+
+	/**
+	 * Add an edge to the output of simplify, extending the previous edge from the same parent to the same child if they're adjacent
+	 */
+	private void addEdge(int left, int right, int parent, int child) {
+		int prev = lastEdge[child];
+		if (prev != NONE && edgeParent[prev]==parent && edgeRight[prev]==left) {
+			edgeRight[prev] = right;
+			return;
+		}
+		lastEdge[child] = edgeCount;
+		appendEdge(left, right, parent, child);
+	}
+
+	/**
+	 * Remove edges whose parent has been set to NONE
+	 */
+	private void removeDeadEdges() {
+		int next = 0;
+		for(int e=0; e<edgeCount; e++) {
+			if (edgeParent[e] == NONE)
+				continue;
+			edgeLeft[next] = edgeLeft[e];
+			edgeRight[next] = edgeRight[e];
+			edgeParent[next] = edgeParent[e];
+			edgeChild[next] = edgeChild[e];
+			next++;
+		}
+		edgeCount = next;
+	}
+
+	private int appendNode(int nodeTime, long nodeLabel) {
+		if (nodeCount == time.length) {
+			int cap = 2*nodeCount;
+			time = Arrays.copyOf(time, cap);
+			label = Arrays.copyOf(label, cap);
+			if (data != null)
+				data = Arrays.copyOf(data, cap);
+		}
+		time[nodeCount] = nodeTime;
+		label[nodeCount] = nodeLabel;
+		if (data != null)
+			data[nodeCount] = null;
+		nodeCount++;
+		return nodeCount-1;
+	}
+
+	private void appendEdge(int left, int right, int parent, int child) {
+		if (edgeCount == edgeLeft.length) {
+			int cap = 2*edgeCount;
+			edgeLeft = Arrays.copyOf(edgeLeft, cap);
+			edgeRight = Arrays.copyOf(edgeRight, cap);
+			edgeParent = Arrays.copyOf(edgeParent, cap);
+			edgeChild = Arrays.copyOf(edgeChild, cap);
+		}
+		edgeLeft[edgeCount] = left;
+		edgeRight[edgeCount] = right;
+		edgeParent[edgeCount] = parent;
+		edgeChild[edgeCount] = child;
+		edgeCount++;
+	}
+
+	private int pendingIndex(int node) {
+		int i = node - firstPending;
+		if (i < 0 || i >= pendingCount)
+			throw new IllegalArgumentException("Node " + node + " was not born in the current generation");
+		return i;
+	}
+
+	/**
+	 * If true, data can be stored for each node with setData and is kept through simplification
+	 * @param storeData
+	 */
+	public void setStoreData(boolean storeData) {
+		this.storeData = storeData;
+		if (! storeData)
+			data = null;
+	}
+
+	public void setData(int node, FitnessProvider fitnessData) {
+		if (! storeData)
+			return;
+		if (data == null)
+			data = new FitnessProvider[time.length];
+		data[node] = fitnessData;
+	}
+
+	public FitnessProvider getData(int node) {
+		if (data == null)
+			return null;
+		return data[node];
+	}
+
+	public long getLabel(int node) {
+		return label[node];
+	}
+
+	public int getBirthGeneration(int node) {
+		return time[node];
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+}
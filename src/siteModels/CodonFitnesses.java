@@ -1,14 +1,14 @@
 package siteModels;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import population.Locus;
 
 import mutationModels.MutationModel;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
+import dnaModels.MismatchIndex;
 import fitnessProviders.DNAFitness;
 
 import siteModels.CodonUtils.AminoAcid;
@@ -18,6 +18,10 @@ import xml.TJXMLConstants;
  * A site model in which selection acts to maintain a single sequence of amino acids. Synonymous changes and nonsynonymous changes
  * have different fitness impacts, but changes among non-master states are always neutral, regardless of whether or not the AA
  * coded for has changed. 
+ *  Codons are handled as indices from 0 to 63 (see CodonUtils.codonIndex), so the cost of any codon relative to any master
+ * codon is read from a 64x64 table built when the model is created. Since the cost of a codon depends only on the codon and
+ * the master codon, the change in fitness after several mutations in one codon is just the cost of the codon after the mutations
+ * minus its cost before, and never requires recomputing the fitness of the whole sequence. 
  * 
  * @author brendan
  *
@@ -31,11 +35,8 @@ public class CodonFitnesses extends SiteFitnesses {
 	double syn; //Selection against synonymous changes
 	double nonsyn; //Selection against nonsynonymous changes
 	
-	List<AminoAcid> masterCodons = new ArrayList<AminoAcid>();
-	CodonUtils translator = new CodonUtils();
-	
-	StringBuilder origCodon = new StringBuilder();
-	char[] triplet = new char[3];
+	byte[] masterCodons = new byte[0];	//Index of each codon of the master sequence
+	double[] codonCosts;	//codonCosts[master*64 + codon] is the (negative log) fitness cost of codon where the master has master
 	
 	public CodonFitnesses(double syn, double nonsyn) {
 		super(TJXMLConstants.SITE_MODEL);
@@ -45,6 +46,27 @@ public class CodonFitnesses extends SiteFitnesses {
 		addXMLAttr(TJXMLConstants.TYPE, XML_ATTR);
 		addXMLAttr(XML_SYNSELECTION, String.valueOf(syn));
 		addXMLAttr(XML_NONSYNSELECTION, String.valueOf(nonsyn));
+		
+		buildCostTable();
+	}
+	
+	/**
+	 * Fill in codonCosts. A codon coding for a different amino acid than the master (including a stop) costs nonsyn, 
+	 * and a codon coding for the master amino acid costs syn for each base that differs from the master codon
+	 */
+	private void buildCostTable() {
+		codonCosts = new double[CodonUtils.CODON_COUNT*CodonUtils.CODON_COUNT];
+		for(int m=0; m<CodonUtils.CODON_COUNT; m++) {
+			for(int c=0; c<CodonUtils.CODON_COUNT; c++) {
+				double cost;
+				switch(CodonUtils.getChangeType(m, c)) {
+				case CodonUtils.SAME : cost = 0; break;
+				case CodonUtils.SYNONYMOUS : cost = CodonUtils.countDifferences(m, c)*syn; break;
+				default : cost = nonsyn;
+				}
+				codonCosts[m*CodonUtils.CODON_COUNT + c] = cost;
+			}
+		}
 	}
 
 	/**
@@ -52,18 +74,14 @@ public class CodonFitnesses extends SiteFitnesses {
 	 * of what the master sequence codon is). 
 	 */
 	public DNASequence generateMasterSequence(RandomEngine rng, int length, MutationModel mutModel) {
-		DNASequence master =  new BitSetDNASequence(rng, length, mutModel, new CodonUtils());
+		DNASequence master =  DNASequenceFactory.newCodingSequence(rng, length, mutModel);
 		
-		for(int i=0; i<(master.length()-2); i+=3) {
-			triplet[0] = master.getBaseChar(i);
-			triplet[1] = master.getBaseChar(i+1);
-			triplet[2] = master.getBaseChar(i+2);
-			String codon = String.valueOf(triplet);
-			AminoAcid aa = CodonUtils.translate(codon);
-			if (aa==AminoAcid.Stop) {
+		setMaster(master);
+		for(int i=0; i<masterCodons.length; i++) {
+			if (CodonUtils.isStop(masterCodons[i])) {
 				System.out.println("Warning : Codon fitness master sequence contains stop codons. This shouldn't happen.");
+				break;
 			}
-			masterCodons.add( aa );
 		}
 		
 //		CodonUtils codUtils = new CodonUtils();
@@ -83,17 +101,11 @@ public class CodonFitnesses extends SiteFitnesses {
 	 * base frequencies or stop codons. 
 	 */
 	public void setMaster(DNASequence master) {
-		
-		masterCodons.clear();
-		for(int i=0; i<(master.length()-2); i+=3) {
-			triplet[0] = master.getBaseChar(i);
-			triplet[1] = master.getBaseChar(i+1);
-			triplet[2] = master.getBaseChar(i+2);
-			String codon = String.valueOf(triplet);
-			AminoAcid aa = CodonUtils.translate(codon);
-			masterCodons.add( aa );
-			
+		byte[] codons = new byte[master.length()/3];
+		for(int i=0; i<codons.length; i++) {
+			codons[i] = (byte)master.getCodon(3*i);
 		}
+		masterCodons = codons;
 	}
 	
 	@Override
@@ -101,33 +113,45 @@ public class CodonFitnesses extends SiteFitnesses {
 		return "Codon fitness model with selection against synonymous changes : " + syn + "\n  Selection against nonsynonymous changes : " + nonsyn + "\n";
 	}
 
-	private static String getCodon(int startSite, DNASequence seq) {
-		return String.valueOf(new char[]{seq.getBaseChar(startSite), seq.getBaseChar(startSite+1), seq.getBaseChar(startSite+2)});
+	/**
+	 * Compute the fitness of the given dna sequence from scratch. This is needed after recombination or a change of master
+	 * sequence, but never after mutation, since getFitnessDelta handles any number of hits in a codon. 
+	 */
+	public double recomputeFitness(DNASequence seq, DNASequence master) {
+		double sum = 0;
+		//Jump straight to the next codon containing a difference from the master
+		for(int d=seq.nextDifference(master, 0); d>=0; d=seq.nextDifference(master, d - d%3 + 3)) {
+			int codonStart = d - d%3;
+			if (codonStart >= seq.length()-2)
+				break;
+			sum += getCodonCost(seq, codonStart);
+		}
+		return Math.exp(-sum);
 	}
 	
 	/**
-	 * Compute the fitness of the given dna sequence from scratch. Time-consuming but necessary in some circumstances. 
+	 * As above, but only codons containing sites in the given index are examined
 	 */
-	public double recomputeFitness(DNASequence seq, DNASequence master) {
+	public double recomputeFitness(DNASequence seq, DNASequence master, MismatchIndex mismatches) {
+		if (mismatches == null)
+			return recomputeFitness(seq, master);
 		double sum = 0;
-		for(int i=0; i<(seq.length()-2); i+=3) {
-			int difs = 0;
-			if (seq.getBaseChar(i)!=master.getBaseChar(i)) difs++;
-			if (seq.getBaseChar(i+1)!=master.getBaseChar(i+1)) difs++;
-			if (seq.getBaseChar(i+2)!=master.getBaseChar(i+2)) difs++;
-			if (difs > 0) {
-				AminoAcid seqAA = CodonUtils.translate(seq, i);
-				AminoAcid masterAA = masterCodons.get(i/3);
-				if (seqAA != masterAA)
-					sum += nonsyn;
-				else {
-					sum += difs*syn;
-				}
-			}
+		for(int d=mismatches.nextDifference(0); d>=0; d=mismatches.nextDifference(d - d%3 + 3)) {
+			int codonStart = d - d%3;
+			if (codonStart >= seq.length()-2)
+				break;
+			sum += getCodonCost(seq, codonStart);
 		}
 		return Math.exp(-sum);
 	}
 	
+	/**
+	 * The (negative log) fitness cost of the codon starting at site i
+	 */
+	private double getCodonCost(DNASequence seq, int i) {
+		return codonCosts[(masterCodons[i/3] << 6) + seq.getCodon(i)];
+	}
+	
 	/**
 	 * A debugging function useful for comparing a given sequence to the master and counting differences
 	 */
@@ -172,91 +196,44 @@ public class CodonFitnesses extends SiteFitnesses {
 	
 	@Override
 	/**
-	 * We override the usual function here since we only base things on whether or not the AA has changed..
+	 * We override the usual function here since we only base things on whether or not the AA has changed. Each codon
+	 * containing mutated sites is handled once: we rebuild the codon as it was before this generation's mutations by putting
+	 * back the original state of each of its mutated sites, and the change in fitness is the difference in cost between the
+	 * two codons. This works no matter how many sites in the codon have mutated, and allocates nothing.
 	 */
 	public double getFitnessDelta(DNASequence seq, DNASequence master, List<Integer> mutatedSites, List<Character> originalState) {
 		double delta = 0;
 		
 		for(int i=0; i<mutatedSites.size(); i++) {
-			
 			int site = mutatedSites.get(i);
-			//System.out.println("Mutating site #" + site);
 			int codonStart = site - site % 3;
-
-			if (codonStart+3 <= seq.length()) {
-				triplet[0] = seq.getBaseChar(codonStart);
-				triplet[1] = seq.getBaseChar(codonStart+1);
-				triplet[2] = seq.getBaseChar(codonStart+2);
-				
-				//If there have been multiple mutations at this codon we don't know which 
-				//came first, and therefore don't know how much fitness to add/subtract, so
-				//we must force a recompute if there are every multiple mutations at a single
-				//codon position
-				int totalDifs = 0;
-				if (triplet[0] != master.getBaseChar(codonStart)) totalDifs++;
-				if (triplet[1] != master.getBaseChar(codonStart+1)) totalDifs++;
-				if (triplet[2] != master.getBaseChar(codonStart+2)) totalDifs++;
-				if (originalState.get(i) != master.getBaseChar(site)) totalDifs++; //if the original state differs by two, we also need to force a recalc
-				
-				if (totalDifs > 1) {
-					//System.out.println("Multiple difs, forcing recalc");
-					return Double.NaN;
-				}
-				String currentCodon = String.valueOf(triplet);
-				
-				int cIndex = site % 3;
-				origCodon.replace(0, 3, currentCodon);
-				origCodon.replace(cIndex, cIndex+1, String.valueOf(originalState.get(i)));
-
-				
-				AminoAcid origAA = CodonUtils.translate(origCodon.toString());
-				AminoAcid thisAA = CodonUtils.translate(triplet[0], triplet[1], triplet[2]);
-				AminoAcid masterAA = masterCodons.get(site / 3);
-
-				if (origAA == masterAA && thisAA != masterAA) { //Nonsyn. forward mutation
-					delta -= nonsyn;
-					continue;
-				}
-				
-				if (origAA != masterAA && thisAA == masterAA) {
-					delta += nonsyn;
-					continue;
-				}
-				
-				
-				if (origAA == thisAA) { //No change in AA state, but there may still be a synonymous fitness impact 
-					if (origAA == masterAA) { //We were and we are still in the master AA state
-						char masterBase =  master.getBaseChar(site);
-						if (origCodon.charAt(cIndex) == masterBase && triplet[cIndex] != masterBase ) {
-							delta -= syn;	//synonymous forward change while in the master AA state
-//							System.out.println("Forward: orig: " + origCodon.toString() + "\t" + origAA + "\n" +
-//										       "      current: " + triplet[0] + "" + triplet[1] + "" + triplet[2] + "\t" + thisAA + "\n" +
-//										       "       master: " + master.getBaseChar(codonStart) + "" + master.getBaseChar(codonStart+1) + "" + master.getBaseChar(codonStart+2) + "\t" + masterAA );
-//							System.out.println();
-							continue;
-						}
-						
-						if (origCodon.charAt(cIndex) != masterBase && triplet[cIndex] == masterBase ) {
-							delta += syn;	//synonymous back mutation while in master AA state
-//							System.out.println("Backward: orig: " + origCodon.toString() + "\t" + origAA + "\n" +
-//								       "      current: " + triplet[0] + "" + triplet[1] + "" + triplet[2] + "\t" + thisAA + "\n" +
-//								       "       master: " + master.getBaseChar(codonStart) + "" + master.getBaseChar(codonStart+1) + "" + master.getBaseChar(codonStart+2) + "\t" + masterAA );
-//							System.out.println();
-						}
-						
-					}
-//					else { 
-//						//this is a 'synonymous' mutation among non-master AA's, it has zero fitness effect
-//					}
-					continue;
+			if (codonStart+3 > seq.length())
+				continue;
+			
+			//Skip codons we've already handled at an earlier site
+			boolean handled = false;
+			for(int j=0; j<i; j++) {
+				int other = mutatedSites.get(j);
+				if (other - other % 3 == codonStart) {
+					handled = true;
+					break;
 				}
-				
-				//We get here when there's a non-synonymous mutation among non-master bases, this has no fitness effect
-				
 			}
+			if (handled)
+				continue;
+			
+			int current = seq.getCodon(codonStart);
+			int original = current;
+			for(int j=i; j<mutatedSites.size(); j++) {
+				int other = mutatedSites.get(j);
+				if (other - other % 3 == codonStart)
+					original = CodonUtils.setBase(original, other % 3, originalState.get(j));
+			}
+			
+			int row = masterCodons[codonStart/3] << 6;
+			delta += codonCosts[row + original] - codonCosts[row + current];
 		}
 		
-		
 		return delta;
 	}
 	
@@ -48,8 +48,41 @@ public class CodonUtils {
 		Met, Gln, Stop
 	}
 	
+	//Kinds of change from one codon to another, as returned by getChangeType
+	public static final byte SAME = 0;
+	public static final byte SYNONYMOUS = 1;
+	public static final byte NONSYNONYMOUS = 2;
+	public static final byte STOP = 3;		//A change from a sense codon to a stop codon
+
+	//Codons may also be identified by an index from 0 to 63, made from the two-bit codes of their bases (A=0, C=1, G=2, T=3)
+	//with the first base in the lowest two bits, which is the order in which PackedDNASequence stores them.
+	public static final int CODON_COUNT = 64;
+	private static final char[] BASES = {'A', 'C', 'G', 'T'};
+	private static final AminoAcid[] codonAAs = new AminoAcid[CODON_COUNT];
+	private static final byte[] changeTypes = new byte[CODON_COUNT*CODON_COUNT];
+
+	static {
+		for(int codon=0; codon<CODON_COUNT; codon++)
+			codonAAs[codon] = translate(getBase(codon, 0), getBase(codon, 1), getBase(codon, 2));
+
+		for(int from=0; from<CODON_COUNT; from++) {
+			for(int to=0; to<CODON_COUNT; to++) {
+				byte type;
+				if (from == to)
+					type = SAME;
+				else if (codonAAs[to] == AminoAcid.Stop && codonAAs[from] != AminoAcid.Stop)
+					type = STOP;
+				else if (codonAAs[to] == codonAAs[from])
+					type = SYNONYMOUS;
+				else
+					type = NONSYNONYMOUS;
+				changeTypes[from*CODON_COUNT + to] = type;
+			}
+		}
+	}
+
 	Map<Codon, AAChar> codonCharMap;
-	
+
 	Map<AAChar, AminoAcid> codonAAMap;
 	
 //	Map<AminoAcid, String> AANameMap;
@@ -189,6 +222,69 @@ public class CodonUtils {
 		return translate(first, second, third);
 	}
 	
+	/**
+	 * The amino acid coded for by the codon with the given index
+	 * @param codon
+	 * @return
+	 */
+	public static AminoAcid translate(int codon) {
+		return codonAAs[codon];
+	}
+
+	public static boolean isStop(int codon) {
+		return codonAAs[codon] == AminoAcid.Stop;
+	}
+
+	/**
+	 * The index (0-63) of the codon made of the given bases
+	 */
+	public static int codonIndex(char first, char second, char third) {
+		return baseCode(first) | (baseCode(second) << 2) | (baseCode(third) << 4);
+	}
+
+	/**
+	 * The base at the given position (0, 1 or 2) of the codon with the given index
+	 */
+	public static char getBase(int codon, int position) {
+		return BASES[(codon >>> (position << 1)) & 3];
+	}
+
+	/**
+	 * The index of the codon obtained by replacing the base at the given position of the given codon
+	 */
+	public static int setBase(int codon, int position, char base) {
+		int shift = position << 1;
+		return (codon & ~(3 << shift)) | (baseCode(base) << shift);
+	}
+
+	/**
+	 * The number of positions at which the two codons differ
+	 */
+	public static int countDifferences(int codonA, int codonB) {
+		int x = codonA ^ codonB;
+		return Integer.bitCount((x | (x >>> 1)) & 0x15);
+	}
+
+	/**
+	 * The kind of change (SAME, SYNONYMOUS, NONSYNONYMOUS or STOP) from one codon to another, read from a precomputed table
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static byte getChangeType(int from, int to) {
+		return changeTypes[from*CODON_COUNT + to];
+	}
+
+	private static int baseCode(char base) {
+		switch(base) {
+		case 'A' : return 0;
+		case 'C' : return 1;
+		case 'G' : return 2;
+		case 'T' : return 3;
+		}
+		throw new IllegalArgumentException("Unknown base : " + base);
+	}
+
 	public static AminoAcid translate(String codon) {
 		if (codon.startsWith("A")) {
 			if (codon.charAt(1)=='A') {
@@ -43,6 +43,10 @@ public class ConstSiteFitness extends SiteFitnesses {
 		return s;
 	}
 	
+	public boolean isNeutral() {
+		return s == 0;
+	}
+	
 	public String getDescription() {
 		return "All sites have s = " + s;
 	}
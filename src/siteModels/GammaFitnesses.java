@@ -7,8 +7,8 @@ import mutationModels.MutationModel;
 import xml.TJXMLConstants;
 import cern.jet.random.Gamma;
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
 
 public class GammaFitnesses extends SiteFitnesses {
 
@@ -36,7 +36,7 @@ public class GammaFitnesses extends SiteFitnesses {
 	
 	
 	public DNASequence generateMasterSequence(RandomEngine rng, int length, MutationModel mutModel) {
-		DNASequence master =  new BitSetDNASequence(rng, length, mutModel);
+		DNASequence master =  DNASequenceFactory.newSequence(rng, length, mutModel);
 		ws = new double[length];
 		
 		double max = 0;
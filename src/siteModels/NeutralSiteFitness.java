@@ -33,6 +33,10 @@ public class NeutralSiteFitness extends SiteFitnesses {
 	public int numSites() {
 		return 0;
 	}
+	
+	public boolean isNeutral() {
+		return true;
+	}
 
 	public Object readXMLBlock(XMLStreamReader reader)
 			throws XMLStreamException {
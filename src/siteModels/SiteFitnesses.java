@@ -4,9 +4,10 @@ import java.io.Serializable;
 import java.util.List;
 
 import cern.jet.random.engine.RandomEngine;
-import dnaModels.BitSetDNASequence;
 import dnaModels.DNASequence;
+import dnaModels.DNASequenceFactory;
 import dnaModels.EnumDNASequence;
+import dnaModels.MismatchIndex;
 import mutationModels.MutationModel;
 import xml.XMLParseable;
 
@@ -21,8 +22,8 @@ import xml.XMLParseable;
  * or to the master sequence the delta is computed accordingly. All such models can use the getFitnessDelta function as given
  * in this base class.
  *  In models where fitness effects at sites are not independent, such as the codon models, getFitnessDelta is overridden and
- * some more complex machinations occur to compute the fitness delta. In some cases, it's not directly possible to compute
- * the change in fitness, and in those cases we return Double.NaN to signal a full recomputation of the fitness.  
+ * some more complex machinations occur to compute the fitness delta. A model for which it's not possible to compute the change
+ * in fitness may return Double.NaN to signal a full recomputation of the fitness, although none of the current models need to.  
  *  
  *  Note that this class is 'stateless' - it does not contain any fields (besides XML parsing stuff). This is because, unlike
  *  FitnessProviders, only one of these is made and all Individuals share references to it. All stuff that may vary among
@@ -41,14 +42,14 @@ public abstract class SiteFitnesses extends XMLParseable implements Serializable
 	 * Constructs a new 'master' sequence and sets the current master sequence to it. 
 	 * The default here is just to generate a bunch of random bases, but some classes
 	 * construct their own 'master' sequences. For instance, the CodonFitness model 
-	 * generates a master sequence with no stop codons. 
+	 * generates a master sequence with no stop codons. The kind of sequence created is chosen by DNASequenceFactory.
 	 * @param rng
 	 * @param length
 	 * @param mutModel
 	 * @return A new DNA sequence
 	 */
 	public DNASequence generateMasterSequence(RandomEngine rng, int length, MutationModel mutModel) {
-		DNASequence master =  new BitSetDNASequence(rng, length, mutModel);
+		DNASequence master =  DNASequenceFactory.newSequence(rng, length, mutModel);
 		return master;
 	}
 
@@ -61,18 +62,36 @@ public abstract class SiteFitnesses extends XMLParseable implements Serializable
 //	}
 	
 	/**
-	 * A debugging function that calculates the fitness of a particular sequence from scratch, the result
-	 * of this should always be equal to the currentFitness of the individual owning the sequence in question.
-	 * Only used in some sitefitness models, the default is only appropriate for models in which fitness effects 
-	 * across sites are independent 
+	 * Calculates the fitness of a particular sequence from scratch, the result of this should always be equal to the 
+	 * currentFitness of the individual owning the sequence in question. This is needed after recombination or a change
+	 * of master sequence, when getFitnessDelta returns NaN, and when checking fitnesses (see DNAFitness.verifyFitness). 
+	 * The default is only appropriate for models in which fitness effects across sites are independent. Only the sites
+	 * at which seq differs from the master are visited, see DNASequence.nextDifference 
 	 * @param seq
 	 * @return The fitness of the sequence
 	 */
 	public double recomputeFitness(DNASequence seq, DNASequence master) { 
 		double sum = 0;
-		for(int i=0; i<seq.length(); i++) {
-			if (seq.getBaseChar(i) != master.getBaseChar(i)) 
-				sum += getSiteFitness(i, seq);
+		for(int i=seq.nextDifference(master, 0); i>=0; i=seq.nextDifference(master, i+1)) {
+			sum += getSiteFitness(i, seq);
+		}
+		return Math.exp(-sum);
+	}
+
+	/**
+	 * As above, but the sites that differ from the master are read from the given index, which must be up to date. If
+	 * mismatches is null this is the same as recomputeFitness(seq, master)
+	 * @param seq
+	 * @param master
+	 * @param mismatches
+	 * @return The fitness of the sequence
+	 */
+	public double recomputeFitness(DNASequence seq, DNASequence master, MismatchIndex mismatches) { 
+		if (mismatches == null)
+			return recomputeFitness(seq, master);
+		double sum = 0;
+		for(int i=mismatches.nextDifference(0); i>=0; i=mismatches.nextDifference(i+1)) {
+			sum += getSiteFitness(i, seq);
 		}
 		return Math.exp(-sum);
 	}
@@ -117,6 +136,15 @@ public abstract class SiteFitnesses extends XMLParseable implements Serializable
 	 */
 	public abstract double getSiteFitness(int site, DNASequence seq);
 	
+	/**
+	 * Whether mutations at every site are known to have no effect on fitness. When true, sequences need not be carried 
+	 * through the simulation at all, and mutations can instead be placed on sampled genealogies (see GenealogyFitness)
+	 * @return
+	 */
+	public boolean isNeutral() {
+		return false;
+	}
+	
 	//public abstract int numSites();
 	
 	public abstract String getDescription();
@@ -215,24 +215,10 @@ public class BranchRateStatistic extends TreeStatistic {
 	 * @return
 	 */
 	private int countDifs(DNASequence one, DNASequence two) {
-		int sum = 0;
-		
-		if (startSite == 0 && endSite == 0) {
-			for(int i=0; i<Math.min(one.length(), two.length()); i++) {
-				if ( one.getBaseChar(i) != two.getBaseChar(i)) 
-					sum++;
-			}
-			
-		} else {
-			
-			for(int i=startSite; i<Math.min(one.length(), endSite); i++) {
-				if ( one.getBaseChar(i) != two.getBaseChar(i)) 
-					sum++;
-			}
-			
-		}
-		
-		return sum;
+		if (startSite == 0 && endSite == 0) 
+			return one.countDifferences(two);
+		else 
+			return one.countDifferences(two, startSite, Math.min(one.length(), endSite));
 	}
 	
 	
@@ -34,6 +34,13 @@ public class NodeCount extends Statistic {
 		return "Count of all nodes (individuals) in population tree";
 	}
 
+	/**
+	 * We need ancestral info
+	 */
+	public boolean requiresGenealogy() {
+		return true;
+	}
+
 	public boolean showOnScreenLog() {
 		return true;
 	}
@@ -292,6 +292,13 @@ public class SerialTreeSampler extends TreeSampler {
 		return "Generates serially sampled trees";
 	}
 
+	/**
+	 * We need ancestral info
+	 */
+	public boolean requiresGenealogy() {
+		return true;
+	}
+
 
 	public String getIdentifier() {
 		return "Serial tree sampler";
@@ -8,6 +8,7 @@ import statistics.dna.DStar;
 import statistics.dna.Divergence;
 import statistics.dna.FStar;
 import statistics.dna.FrequencySpectrum;
+import statistics.dna.HaplotypeCount;
 import statistics.dna.HaplotypeDiversity;
 import statistics.dna.MutNumDistro;
 import statistics.dna.MutationRate;
@@ -66,6 +67,7 @@ public class StatisticRegistry {
 		add(new PopulationSizeStatistic());
 		add(new TajimasD());
 		add(new HaplotypeDiversity());
+		add(new HaplotypeCount());
 		add(new SampleTMRCA());
 		add(new MutationRate());
 		add(new CoalIntervalStat());
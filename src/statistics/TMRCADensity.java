@@ -7,7 +7,6 @@ import java.util.List;
 import javax.swing.JFrame;
 import javax.xml.stream.XMLStreamReader;
 
-import fitnessProviders.DNAFitness;
 import fitnessProviders.FitnessProvider;
 
 import population.Locus;
@@ -82,12 +81,12 @@ public class TMRCADensity extends TreeStatistic {
 			return;
 		
 		FitnessProvider fitnessData = tree.getTips().get(0).getFitnessData();
-		if (! (fitnessData instanceof DNAFitness)) {
+		if (! (fitnessData instanceof Recombineable)) {
 			throw new IllegalArgumentException("Cannot collect TMRCA density map for Loci without DNA");
 		}
 		
 		if (seqLength==null)
-			seqLength = ((DNAFitness)fitnessData).getLength();
+			seqLength = ((Recombineable)fitnessData).length();
 		
 		if (histos == null) {
 			int numHistos = (int)Math.ceil( (double)seqLength / (double)histoBinWidth);
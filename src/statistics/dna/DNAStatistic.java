@@ -1,6 +1,10 @@
 package statistics.dna;
 
+import java.util.List;
+
+import population.Locus;
 import dnaModels.DNASequence;
+import dnaModels.InfiniteSitesGenome;
 import statistics.Statistic;
 
 /**
@@ -26,6 +30,33 @@ public abstract class DNAStatistic extends Statistic {
 	public void setMaster(DNASequence masterSeq) {
 		this.master = masterSeq;
 	}
+	
+	/**
+	 * Whether this statistic needs the actual bases of each individual's sequence. Infinite-sites models carry only lists of
+	 * mutations and have no master sequence, so statistics that return true can't be used with them. Statistics that
+	 * depend only on allele counts work with either, see mutationCounts
+	 * @return
+	 */
+	public boolean requiresSequences() {
+		return false;
+	}
+
+	/**
+	 * If the individuals in the sample carry InfiniteSitesGenomes, return the number of sampled individuals carrying each
+	 * mutation found in the sample (in no particular order), otherwise return null. Every mutation is at a distinct site
+	 * and has two alleles, so statistics that depend only on allele counts can be computed from these counts in one pass,
+	 * rather than by scanning every site.
+	 * @param sample
+	 * @return
+	 */
+	protected static int[] mutationCounts(List<Locus> sample) {
+		if (sample.isEmpty() || ! (sample.get(0).getFitnessData().getSubstrate() instanceof InfiniteSitesGenome))
+			return null;
+		InfiniteSitesGenome[] genomes = new InfiniteSitesGenome[sample.size()];
+		for(int i=0; i<sample.size(); i++)
+			genomes[i] = (InfiniteSitesGenome)sample.get(i).getFitnessData().getSubstrate();
+		return InfiniteSitesGenome.countCarriers(genomes);
+	}
 
 
 }
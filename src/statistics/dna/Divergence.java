@@ -78,12 +78,7 @@ public class Divergence extends DNAStatistic {
 	}
 
 	private int countDifs(DNASequence one, DNASequence two) {
-		int sum = 0;
-		for(int i=0; i<Math.min(one.length(), two.length()); i++) {
-			if ( one.getBaseChar(i) != two.getBaseChar(i)) 
-				sum++;
-		}
-		return sum;
+		return one.countDifferences(two);
 	}
 	
 	
@@ -107,4 +102,11 @@ public class Divergence extends DNAStatistic {
 		return "Number of sites not in most fit state";
 	}
 
+	/**
+	 * We need the bases of each sequence
+	 */
+	public boolean requiresSequences() {
+		return true;
+	}
+
 }
@@ -98,6 +98,15 @@ public static final String identifier = "Fu & Li's F*";
 	
 	private int countSingletons(List<Locus> sample) {
 		int singletons = 0;
+		int[] mutationCounts = mutationCounts(sample);
+		if (mutationCounts != null) {
+			for(int count : mutationCounts) {
+				if (Math.min(count, sample.size()-count) == 1)
+					singletons++;
+			}
+			return singletons;
+		}
+		
 		for(int i=0; i<sample.get(0).getPrimaryDNA().length(); i++) {
 			if (isSingleton(sample, i))
 				singletons++;
@@ -49,17 +49,27 @@ public class FrequencySpectrum extends DNAStatistic {
 		
 		List<Locus> sample = pop.getSample(sampleSize);
 
+		int[] mutationCounts = mutationCounts(sample);
+		if (mutationCounts != null) {
+			dnaLength = sample.get(0).getRecombineableData().length();
+			for(int count : mutationCounts)
+				addToSpectrum(Math.min(count, sample.size()-count));
+			return;
+		}
+		
 		int length = sample.get(0).getPrimaryDNA().length();
 		dnaLength = length;
 		for(int i=0; i<length; i++) {
-			int count = getMinorAlleleFreq(sample, i);
-			
-			while(spectrum.size() <= count)
-				spectrum.add(0.0);
-			if (count > 0)
-				spectrum.set(count, spectrum.get(count)+1);
+			addToSpectrum(getMinorAlleleFreq(sample, i));
 		}
 	}
+	
+	private void addToSpectrum(int count) {
+		while(spectrum.size() <= count)
+			spectrum.add(0.0);
+		if (count > 0)
+			spectrum.set(count, spectrum.get(count)+1);
+	}
 
 	
 	/**
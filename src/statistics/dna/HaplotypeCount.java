@@ -0,0 +1,70 @@
+package statistics.dna;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import dnaModels.DNASequence;
+
+import statistics.Collectible;
+import statistics.Options;
+
+/**
+ * The number of distinct haplotypes carried by the whole population in each generation. Unlike HaplotypeDiversity this
+ * looks at every individual, not just a sample. When individuals share their sequences through a HaplotypeStore each
+ * distinct haplotype is a single shared instance, so this is also the number of sequences the population actually needs
+ * to keep in memory. (The store's own count also includes haplotypes that are no longer carried by anyone but haven't yet
+ * been garbage collected, and so may be larger.)
+ * @author brendan
+ *
+ */
+public class HaplotypeCount extends DNAStatistic {
+
+	public static final String identifier = "Haplotype count";
+
+	HashSet<DNASequence> haps;	//Sequences hash by their fingerprints, so this is fast even for long sequences
+
+	public HaplotypeCount() {
+		values = new ArrayList<Double>();
+		haps = new HashSet<DNASequence>();
+		formatter = new DecimalFormat("######0");
+		canHandleRecombination = true;
+	}
+
+	public HaplotypeCount getNew(Options ops) {
+		this.options = ops;
+		return new HaplotypeCount();
+	}
+
+	public void collect(Collectible pop) {
+		haps.clear();
+		for(int i=0; i<pop.size(); i++) {
+			DNASequence seq = pop.getInd(i).getPrimaryDNA();
+			if (seq != null)
+				haps.add(seq);
+		}
+		values.add((double)haps.size());
+		haps.clear();
+	}
+
+	public boolean showOnScreenLog() {
+		return true;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Number of distinct haplotypes in the population";
+	}
+
+	/**
+	 * We need the bases of each sequence
+	 */
+	public boolean requiresSequences() {
+		return true;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+}
@@ -1,6 +1,7 @@
 package statistics.dna;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 
 import dnaModels.DNASequence;
@@ -22,11 +23,13 @@ public class HaplotypeDiversity extends DNAStatistic {
 	
 	ArrayList<DNASequence> haps;
 	ArrayList<Integer> counts;
+	HashMap<DNASequence, Integer> hapIndices;	//Index of each haplotype in haps, sequences hash by their fingerprints
 	
 	public HaplotypeDiversity() {
 		values = new ArrayList<Double>();
 		haps = new ArrayList<DNASequence>();
 		counts = new ArrayList<Integer>();
+		hapIndices = new HashMap<DNASequence, Integer>();
 		canHandleRecombination = true;
 	}
 	
@@ -39,12 +42,14 @@ public class HaplotypeDiversity extends DNAStatistic {
 	public void collect(Collectible pop) {
 		haps.clear();
 		counts.clear();
+		hapIndices.clear();
 		for(int i=0; i<Math.min(sampleSize, pop.size()); i++) {
 			int index = hapsContainsSequence(pop.getInd(i).getPrimaryDNA());
 			if (index>-1) {
 				counts.set(index, counts.get(index)+1);
 			}
 			else {
+				hapIndices.put(pop.getInd(i).getPrimaryDNA(), haps.size());
 				haps.add(pop.getInd(i).getPrimaryDNA());
 				counts.add(1);
 			}
@@ -64,11 +69,8 @@ public class HaplotypeDiversity extends DNAStatistic {
 	}
 	
 	private int hapsContainsSequence(DNASequence seq) {
-		for(int i=0; i<haps.size(); i++) {
-			if (haps.get(i).equals(seq))
-				return i;
-		}
-		return -1;
+		Integer index = hapIndices.get(seq);
+		return index == null ? -1 : index;
 	}
 	
 	@Override
@@ -76,6 +78,13 @@ public class HaplotypeDiversity extends DNAStatistic {
 		return "Haplotype diversity";
 	}
 
+	/**
+	 * We need the bases of each sequence
+	 */
+	public boolean requiresSequences() {
+		return true;
+	}
+
 	public String getIdentifier() {
 		return identifier;
 	}
@@ -56,21 +56,18 @@ public class MutationRate extends DNAStatistic {
 		double sum = 0;
 		DNASequence one = loc.getPrimaryDNA();
 		if (loc.hasRecombination()) {
-			for(int i=0; i<one.length(); i++) {
-				DNASequence two = loc.getParentForSite(i).getPrimaryDNA();
-				if (one.getBaseChar(i)!=two.getBaseChar(i))
-					sum++;
-			}
-
+			int min = loc.getBreakPointMin();
+			int max = loc.getBreakPointMax();
+			DNASequence parentDNA = loc.getParent().getPrimaryDNA();
+			DNASequence donorDNA = loc.getParentForSite(min).getPrimaryDNA();
+			sum += one.countDifferences(parentDNA, 0, min);
+			sum += one.countDifferences(donorDNA, min, max);
+			sum += one.countDifferences(parentDNA, max, one.length());
 			return sum/(double)one.length();
 		}
 		else {
 			DNASequence two = loc.getParent().getPrimaryDNA();
-			for(int i=0; i<one.length(); i++) {
-				if (one.getBaseChar(i)!=two.getBaseChar(i))
-					sum++;
-			}
-
+			sum = one.countDifferences(two, 0, one.length());
 			return sum/(double)one.length();
 		}
 	}
@@ -79,6 +76,13 @@ public class MutationRate extends DNAStatistic {
 		return "Mean number of sites at which parents differ from offspring";
 	}
 
+	/**
+	 * We need the bases of each sequence
+	 */
+	public boolean requiresSequences() {
+		return true;
+	}
+
 	public String getIdentifier() {
 		return identifier;
 	}
@@ -58,6 +58,15 @@ public class NucDiversity extends DNAStatistic {
 	 */
 	public double collectPiFromSample(List<Locus> sample) {
 		double pi =0;
+		int[] mutationCounts = mutationCounts(sample);
+		if (mutationCounts != null) {
+			//Each mutation is a biallelic site, at which two sequences differ with probability 2c(n-c)/(n(n-1))
+			double n = sample.size();
+			for(int count : mutationCounts)
+				pi += 2.0*count*(n-count)/(n*(n-1.0));
+			return pi;
+		}
+		
 		for(int j=0; j<sample.get(0).getPrimaryDNA().length(); j++) {
 			double siteDiversity;
 			siteDiversity = getSiteDiversityFromPrimaryDNA(sample, j);
@@ -99,6 +99,15 @@ public class SegregatingSites extends DNAStatistic {
 	 */
 	public int computeSegSitesFromSample(List<Locus> sample) {
 		int segSites = 0;
+		int[] mutationCounts = mutationCounts(sample);
+		if (mutationCounts != null) {
+			for(int count : mutationCounts) {
+				if (count < sample.size())
+					segSites++;
+			}
+			return segSites;
+		}
+		
 		DNASequence ref = sample.get(0).getPrimaryDNA();
 		for(int j=0; j<ref.length(); j++) {
 			
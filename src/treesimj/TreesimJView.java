@@ -8,6 +8,8 @@ package treesimj;
 import errorHandling.ErrorWindow;
 import fitnessProviders.DNAFitness;
 import fitnessProviders.FitnessProvider;
+import fitnessProviders.GenealogyFitness;
+import fitnessProviders.InfiniteSitesFitness;
 import gui.DataCollectorsPanel;
 import gui.DemographicModelPanel;
 import gui.FitnessModelPanel;
@@ -52,16 +54,19 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
+import population.CompactPopulation;
 import population.Population;
 import population.PopulationRunner;
 
 import statistics.Statistic;
+import statistics.TreeStatistic;
 import statistics.dna.DNAStatistic;
 import xml.TJXMLConstants;
 import xml.TJXMLException;
 import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
 import demographicModel.DemographicModel;
+import demographicModel.SimpleDemographicModel;
 import dnaModels.DNASequence;
 
 /**
@@ -433,6 +438,7 @@ public class TreesimJView extends JFrame implements DoneListener, ProgressListen
 		if ( fitnessModel instanceof DNAFitness) {
 			master = ((DNAFitness)fitnessModel).getMaster();
 		}
+		boolean infiniteSites = fitnessModel instanceof InfiniteSitesFitness; //Carries mutations, but no master sequence
 		int dnaSampleSize = dataCollectorsMainPanel.getDNASampleSize();
 		ArrayList<Statistic> stats = new ArrayList<Statistic>();
 
@@ -440,7 +446,13 @@ public class TreesimJView extends JFrame implements DoneListener, ProgressListen
 			try {
 				if (stat instanceof DNAStatistic) {
 					hasDNAStats = true;
-					if (master==null) {
+					if (infiniteSites) {
+						if (((DNAStatistic)stat).requiresSequences()) {
+							System.err.println("Statistic " + stat.getIdentifier() + " requires DNA sequences, which the infinite-sites model does not have, it will be ignored");
+							continue;
+						}
+					}
+					else if (master==null) {
 						throw new ClassCastException("No DNA to make a DNA statistic");
 					}
 					else {
@@ -470,7 +482,7 @@ public class TreesimJView extends JFrame implements DoneListener, ProgressListen
 		
 		//Warn the user if some DNA statistics were selected, but there's no DNA in the model
 		//This will break if at some point we want to be able to attach DNA to non-dna fitness model
-		if ( (! (fitnessModel instanceof DNAFitness)) && hasDNAStats) {
+		if ( (! (fitnessModel instanceof DNAFitness)) && (! infiniteSites) && hasDNAStats) {
 			
 			JOptionPane.showMessageDialog(this,
 					"Some statistics requiring DNA were selected, but a non-DNA fitness model was chosen. The statistics will be ignored.",
@@ -481,6 +493,47 @@ public class TreesimJView extends JFrame implements DoneListener, ProgressListen
 		return stats;
 	}
 	
+	/**
+	 * The fitness model carried by members of the population. This is fitnessModel itself, unless a genealogy-only run has been
+	 * requested and is possible, in which case it's a GenealogyFitness standing in for fitnessModel. Genealogy-only runs require
+	 * all sites to be neutral, and no statistics that examine the DNA of the population (rather than of sampled genealogies).
+	 * @param fitnessModel
+	 * @param stats
+	 * @return
+	 */
+	private FitnessProvider constructPopulationFitnessModel(FitnessProvider fitnessModel, List<Statistic> stats) {
+		if (! runSettingsPanel.getGenealogyOnly())
+			return fitnessModel;
+		
+		if (! GenealogyFitness.canReplace(fitnessModel)) {
+			System.err.println("Genealogy-only runs require a DNA fitness model in which all sites are neutral, simulating full sequences instead");
+			return fitnessModel;
+		}
+		
+		for(Statistic stat : stats) {
+			if (stat instanceof DNAStatistic || stat.requiresPreserveAncestralData()) {
+				System.err.println("Statistic " + stat.getIdentifier() + " examines the DNA of the population, simulating full sequences instead of genealogies only");
+				return fitnessModel;
+			}
+		}
+		
+		return new GenealogyFitness((DNAFitness)fitnessModel);
+	}
+	
+	/**
+	 * The compact population engine doesn't link individuals to their parents, so it can't be used if any of the statistics
+	 * follow those links. Tree statistics are fine, since the compact engine builds their sample trees itself
+	 */
+	private boolean canUseCompactPopulation(List<Statistic> stats) {
+		for(Statistic stat : stats) {
+			if (stat.requiresGenealogy() && ! (stat instanceof TreeStatistic)) {
+				System.err.println("Statistic " + stat.getIdentifier() + " follows the parents of individuals, using the standard engine instead of the compact population engine");
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * This begins a new simulation using the settings currently stored in the GUI. It does so by constructing the demographic and 
 	 * fitness models and the actual Statistics (aka Data Collectors) used. There's a bit of special case code in here right now
@@ -530,11 +583,24 @@ public class TreesimJView extends JFrame implements DoneListener, ProgressListen
 			}
 			
 			DemographicModel demoModel = demoModelPanel.constructDemographicModel();
+			if (runSettingsPanel.getUseCompactPopulation() && canUseCompactPopulation(stats)) {
+				if (demoModel instanceof SimpleDemographicModel) {
+					Population.resetTotalPopCount(); //So the replacement population is still population #0
+					CompactPopulation compactPop = new CompactPopulation();
+					compactPop.setRecordTreeSequence(runSettingsPanel.getRecordTreeSequence());
+					((SimpleDemographicModel)demoModel).setPopulation(compactPop);
+				}
+				else {
+					System.err.println("The compact population engine only supports single population models, using the standard engine instead");
+				}
+			}
 			demoModel.setRng(rng);
-			demoModel.initializePopulations(rng, fitnessModel);
+			demoModel.initializePopulations(rng, constructPopulationFitnessModel(fitnessModel, stats));
 
 			for(Population pop : demoModel.getPopList()) {
 				pop.setPreserveData(preserveAncestralDNAData);
+				pop.setReproductionMode(runSettingsPanel.getReproductionMode());
+				pop.setThreadCount(runSettingsPanel.getThreadCount());
 			}
 
 			OutputManager outputHandler = constructOutputManager(stats, demoModel);
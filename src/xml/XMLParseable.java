@@ -59,7 +59,23 @@ public abstract class XMLParseable implements Serializable {
 
 		xmlAttrs.add(new KeyValuePair(key, value));
 	}
-	
+
+	/**
+	 * Remove the xml attribute with the given key, if there is one
+	 * @param key
+	 */
+	protected void removeXMLAttr(String key) {
+		if (xmlAttrs == null)
+			return;
+
+		for(int i=0; i<xmlAttrs.size(); i++) {
+			if (xmlAttrs.get(i).key.equals(key)) {
+				xmlAttrs.remove(i);
+				return;
+			}
+		}
+	}
+
 	public String getBlockName() {
 		return XMLBlockName;
 	}